@@ -4,9 +4,11 @@ import fr.loria.synalp.jtrans.align.*;
 import fr.loria.synalp.jtrans.utils.Cache;
 import fr.loria.synalp.jtrans.gui.JTransGUI;
 import fr.loria.synalp.jtrans.markup.in.*;
+import fr.loria.synalp.jtrans.markup.out.ExportPipeline;
 import fr.loria.synalp.jtrans.markup.out.MarkupSaver;
 import fr.loria.synalp.jtrans.markup.out.MarkupSaverPool;
 import fr.loria.synalp.jtrans.project.Project;
+import fr.loria.synalp.jtrans.project.TrackProject;
 import fr.loria.synalp.jtrans.project.TurnProject;
 import fr.loria.synalp.jtrans.utils.*;
 
@@ -38,7 +40,7 @@ public class JTrans {
 
 
 	public final static String[] AUDIO_EXTENSIONS = "wav,ogg,mp3".split(",");
-	public final static String[] MARKUP_EXTENSIONS = "jtr,trs,txt,textgrid".split(",");
+	public final static String[] MARKUP_EXTENSIONS = "jtr,jtrb,trs,txt,textgrid".split(",");
 
 
 	private static void printHelp(OptionParser parser) {
@@ -80,7 +82,7 @@ public class JTrans {
 			{
 				accepts("h", "help screen").forHelp();
 
-				accepts("f", "markup file (jtr, trs, txt, textgrid)")
+				accepts("f", "markup file (jtr, jtrb, trs, txt, textgrid)")
 						.withRequiredArg().ofType(File.class);
 
 				accepts("a", "audio file (wav, ogg, mp3)")
@@ -111,6 +113,14 @@ public class JTrans {
 						"Displays a list of markup loaders and savers")
 						.forHelp();
 
+				accepts("trs-validate",
+						"Validate Transcriber files against their DTD. " +
+						"Slower; errors are only reported.");
+
+				accepts("trs-keep-dom",
+						"Keep the XML tree of Transcriber files in memory " +
+						"after loading. Uses a lot more memory.");
+
 				acceptsAll(
 						Arrays.asList("C", "clear-times"),
 						"Clear manual anchor times before aligning. " +
@@ -151,6 +161,20 @@ public class JTrans {
 						"and ignore overlaps. Don't use unless you know what " +
 						"you are doing!");
 
+				accepts("packed-scorer",
+						"Score HMM states with JTrans's packed Gaussian " +
+						"mixture scorer instead of Sphinx's senones.");
+
+				accepts("online-viterbi",
+						"Align with the online Viterbi decoder, which " +
+						"doesn't keep a backpointer table. Paths that fall " +
+						"out of its pruning beam are dropped.");
+
+				accepts("split-channels",
+						"Align each track against its own channel of the " +
+						"audio file (track #i against channel #i). The audio " +
+						"file must have one channel per track.");
+
 				accepts("linear",
 						"Use dumb linear alignment instead of Viterbi. " +
 						"It is recommended to use a reference path. (-r) " +
@@ -197,6 +221,14 @@ public class JTrans {
 			Cache.VOLATILE_CACHE = true;
 		}
 
+		if (optset.has("trs-validate")) {
+			TRSLoader.VALIDATE = true;
+		}
+
+		if (optset.has("trs-keep-dom")) {
+			TRSLoader.KEEP_DOCUMENT = true;
+		}
+
 		if (optset.has("L")) {
 			computeLikelihoods = true;
 		}
@@ -219,6 +251,18 @@ public class JTrans {
 			System.out.println("Will ignore overlaps.");
 		}
 
+		if (optset.has("packed-scorer")) {
+			Aligner.PACKED_SCORER = true;
+		}
+
+		if (optset.has("online-viterbi")) {
+			ViterbiAligner.ONLINE_VITERBI = true;
+		}
+
+		if (optset.has("split-channels")) {
+			TrackProject.SPLIT_CHANNELS = true;
+		}
+
 		if (optset.has("linear")) {
 			Project.ALIGNER = LinearAligner.class;
 			System.out.println("Will use linear alignment. " +
@@ -276,7 +320,7 @@ public class JTrans {
 
 		if (loader == null && inputFile != null) {
 			String fn = inputFile.getName().toLowerCase();
-			if (fn.endsWith(".jtr")) {
+			if (fn.endsWith(".jtr") || fn.endsWith(".jtrb")) {
 				loader = new JTRLoader();
 			} else if (fn.endsWith(".trs")) {
 				loader = new TRSLoader();
@@ -336,6 +380,8 @@ public class JTrans {
 	{
 		outputDir.mkdirs();
 
+		ExportPipeline pipeline = new ExportPipeline(project);
+
 		for (String fmt: outputFormats) {
 			System.out.println("Output: format '" + fmt + "' to directory "
 					+ outputDir);
@@ -345,8 +391,10 @@ public class JTrans {
 					inputFile.getName()).getAbsolutePath());
 
 			MarkupSaver saver = MarkupSaverPool.getInstance().make(fmt);
-			saver.save(project, new File(base + saver.getExt()));
+			pipeline.add(saver, new File(base + saver.getExt()));
 		}
+
+		pipeline.run();
 	}
 
 
@@ -433,6 +481,8 @@ public class JTrans {
 		System.out.println("Project loaded.");
 
 		if (null != cli.audioFile) {
+			// Nothing reads the converted audio file on the command line
+			Project.WRITE_CONVERTED_AUDIO = false;
 			project.setAudio(cli.audioFile);
 			System.out.println("Audio loaded.");
 		}
@@ -10,7 +10,10 @@ import fr.loria.synalp.jtrans.graph.*;
 
 import javax.sound.sampled.UnsupportedAudioFileException;
 import java.io.*;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 
 /**
@@ -42,13 +45,42 @@ public abstract class Aligner {
 	 */
 	private boolean refine = false;
 
+	/**
+	 * Default for {@link #setPackedScorer}.
+	 */
+	public static boolean PACKED_SCORER = false;
+
+	/**
+	 * Score HMM states with a {@link PackedGMMScorer} instead of going
+	 * through Sphinx's senones.
+	 */
+	private boolean packedScorer = PACKED_SCORER;
+
+	/** Aligners for other audio files, created by {@link #forAudio} */
+	private Map<File, Aligner> siblings;
+
+	/** Features of the audio files loaded by aligners */
+	private static final Map<File, SharedFeatures> sharedFeatures = new HashMap<>();
+
+
+	private static class SharedFeatures {
+		long modified;
+		SoftReference<List<FloatData>> data;
+
+		/**
+		 * Features of a file that wasn't written (see {@link #setFeatures}).
+		 * They can't be extracted again, so they are held strongly.
+		 */
+		List<FloatData> pinned;
+	}
+
 
 	public Aligner(File audio, ProgressDisplay progress) {
 		this.progress = progress;
 		this.audio = audio;
 
 		try {
-			data = S4mfccBuffer.getAllData(audio, true);
+			data = getFeatures(audio);
 		} catch (IOException | UnsupportedAudioFileException ex) {
 			ex.printStackTrace();
 			data = null;
@@ -56,6 +88,107 @@ public abstract class Aligner {
 	}
 
 
+	/**
+	 * Returns the features of an audio file. Aligners working on the same
+	 * file (e.g. alignment workers) share the same (read-only) features
+	 * instead of extracting them again. Features of different files (e.g.
+	 * the channels of a recording) may be extracted concurrently.
+	 */
+	private static List<FloatData> getFeatures(File audio)
+			throws IOException, UnsupportedAudioFileException
+	{
+		SharedFeatures shared = getSharedFeatures(audio);
+
+		synchronized (shared) {
+			List<FloatData> features = shared.pinned;
+			if (features == null && shared.data != null) {
+				features = shared.data.get();
+			}
+
+			if (features == null || audio.lastModified() != shared.modified) {
+				features = S4mfccBuffer.getAllData(audio, true);
+				shared.modified = audio.lastModified();
+				shared.data = new SoftReference<>(features);
+				shared.pinned = null;
+			}
+
+			return features;
+		}
+	}
+
+
+	/**
+	 * Provides the features of an audio file, e.g. if they were extracted
+	 * while the file was being converted. The file must not be modified
+	 * afterwards.
+	 * <p/>
+	 * The file need not exist: aligners may work on audio that was
+	 * converted without being written to disk. In that case, the features
+	 * are kept until the file is written.
+	 */
+	public static void setFeatures(File audio, List<FloatData> features) {
+		SharedFeatures shared = getSharedFeatures(audio);
+
+		synchronized (shared) {
+			shared.modified = audio.lastModified();
+			shared.data = new SoftReference<>(features);
+			shared.pinned = audio.exists()? null: features;
+		}
+	}
+
+
+	private static SharedFeatures getSharedFeatures(File audio) {
+		synchronized (sharedFeatures) {
+			SharedFeatures shared = sharedFeatures.get(audio);
+			if (shared == null) {
+				shared = new SharedFeatures();
+				sharedFeatures.put(audio, shared);
+			}
+			return shared;
+		}
+	}
+
+
+	/**
+	 * Returns an aligner of the same class and with the same settings as this
+	 * one, working on another audio file of the same length (e.g. a single
+	 * channel of the same recording). Aligners are created once per file and
+	 * kept by this aligner; this method is therefore no more thread-safe
+	 * than the aligner itself.
+	 * <p/>
+	 * Likelihoods are not computed by the returned aligner.
+	 */
+	public Aligner forAudio(File otherAudio) throws IOException {
+		if (otherAudio.equals(audio)) {
+			return this;
+		}
+
+		if (siblings == null) {
+			siblings = new HashMap<>();
+		}
+
+		Aligner sibling = siblings.get(otherAudio);
+
+		if (sibling == null) {
+			try {
+				sibling = getClass()
+						.getConstructor(File.class, ProgressDisplay.class)
+						.newInstance(otherAudio, progress);
+			} catch (ReflectiveOperationException ex) {
+				throw new IOException("Can't create aligner for " + otherAudio, ex);
+			}
+
+			sibling.refine = refine;
+			sibling.packedScorer = packedScorer;
+			sibling.refinementIterationHook = refinementIterationHook;
+			sibling.postAlignHook = postAlignHook;
+			siblings.put(otherAudio, sibling);
+		}
+
+		return sibling;
+	}
+
+
 	public void setRefine(boolean doRefine) {
 		this.refine = doRefine;
 	}
@@ -66,6 +199,21 @@ public abstract class Aligner {
 	}
 
 
+	public boolean isComputeLikelihoods() {
+		return computeLikelihoods;
+	}
+
+
+	public void setPackedScorer(boolean packedScorer) {
+		this.packedScorer = packedScorer;
+	}
+
+
+	public boolean isPackedScorer() {
+		return packedScorer;
+	}
+
+
 	public void initTrainers(int speakers) {
 		trainer = new SpeakerDepModelTrainer(
 				speakers, S4mfccBuffer.to2DArray(data));
@@ -126,6 +274,7 @@ public abstract class Aligner {
 		text = textBuilder.toString();
 
 		graph.setProgressDisplay(progress);
+		graph.setPackedScorer(packedScorer);
 
 		Alignment alignment = getAlignment(graph, text, startFrame, endFrame);
 
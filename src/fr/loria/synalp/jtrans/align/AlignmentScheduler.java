@@ -0,0 +1,363 @@
+package fr.loria.synalp.jtrans.align;
+
+import fr.loria.synalp.jtrans.project.AlignmentJob;
+import fr.loria.synalp.jtrans.project.Token;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs alignment jobs in the background on a pool of workers, aligning the
+ * jobs closest to a "focus" frame first (e.g. the part of the project the
+ * user is looking at or listening to).
+ * <p/>
+ * The focus may be moved at any time; it is taken into account whenever a
+ * worker picks its next job. Jobs may also be bumped to the front of the
+ * queue, or cancelled individually.
+ * <p/>
+ * Each worker has its own aligner, but all aligners share the acoustic
+ * model. Sphinx senones cache the score of the last frame they were given;
+ * the cache is safe to share, but workers aligning different parts of the
+ * audio would keep evicting each other's scores. So jobs are only run
+ * concurrently if aligners use the packed scorer, which doesn't go through
+ * the senones' cache; otherwise, a single worker is used.
+ */
+public class AlignmentScheduler {
+
+	/** Maximum number of workers */
+	public static int WORKERS = Runtime.getRuntime().availableProcessors();
+
+
+	/**
+	 * Creates an aligner for a worker.
+	 */
+	public interface AlignerFactory {
+		Aligner newAligner() throws Exception;
+	}
+
+
+	/**
+	 * Notified from the worker threads.
+	 */
+	public interface Listener {
+		/** Called after a job has committed its alignment to its tokens. */
+		void jobDone(AlignmentJob job);
+
+		/** Called if a job throws; the other jobs carry on. */
+		void jobFailed(AlignmentJob job, Exception ex);
+
+		/** Called when there are no more jobs to run. */
+		void idle();
+	}
+
+
+	private final AlignerFactory factory;
+	private final Aligner reference;
+	private final Listener listener;
+	private final Worker[] workers;
+
+	/** Jobs waiting to be run */
+	private final List<AlignmentJob> pending = new ArrayList<>();
+
+	/** Jobs bumped to the front of the queue, most recent first */
+	private final List<AlignmentJob> urgent = new ArrayList<>();
+
+	/** Jobs being run, and the worker running them */
+	private final Map<AlignmentJob, Worker> running = new IdentityHashMap<>();
+
+	private int focusFrame = 0;
+	private boolean shutdown = false;
+	private int done = 0;
+	private int total = 0;
+
+
+	/**
+	 * @param reference see {@link Aligner#align}; may be null
+	 */
+	public AlignmentScheduler(
+			AlignerFactory factory,
+			Aligner reference,
+			Listener listener,
+			boolean concurrent)
+	{
+		this.factory = factory;
+		this.reference = reference;
+		this.listener = listener;
+
+		// The reference aligner is shared by all workers
+		int n = concurrent && reference == null? Math.max(1, WORKERS): 1;
+		workers = new Worker[n];
+		for (int i = 0; i < n; i++) {
+			workers[i] = new Worker(i);
+			workers[i].start();
+		}
+	}
+
+
+	public int getWorkerCount() {
+		return workers.length;
+	}
+
+
+	/**
+	 * Queues jobs.
+	 */
+	public void schedule(Collection<? extends AlignmentJob> jobs) {
+		boolean idle;
+		synchronized (this) {
+			if (shutdown) {
+				throw new IllegalStateException("scheduler was shut down");
+			}
+			pending.addAll(jobs);
+			total += jobs.size();
+			notifyAll();
+			idle = checkIdle();
+		}
+		if (idle) {
+			listener.idle();
+		}
+	}
+
+
+	/**
+	 * Sets the frame around which jobs should be run first.
+	 */
+	public synchronized void setFocusFrame(int frame) {
+		focusFrame = frame;
+	}
+
+
+	/**
+	 * Runs a job as soon as a worker is available, regardless of the focus.
+	 * @return false if the job isn't waiting to be run
+	 */
+	public synchronized boolean prioritize(AlignmentJob job) {
+		if (!pending.remove(job)) {
+			return false;
+		}
+		urgent.add(0, job);
+		return true;
+	}
+
+
+	/**
+	 * Cancels a job. If the job is running, its worker is interrupted.
+	 * @return false if the job was neither waiting nor running
+	 */
+	public boolean cancel(AlignmentJob job) {
+		boolean idle;
+		synchronized (this) {
+			if (!pending.remove(job) && !urgent.remove(job)) {
+				Worker w = running.get(job);
+				if (w != null) {
+					w.interrupt();
+				}
+				return w != null;
+			}
+			total--;
+			idle = checkIdle();
+		}
+		if (idle) {
+			listener.idle();
+		}
+		return true;
+	}
+
+
+	/**
+	 * Returns the job, waiting or running, that aligns a token.
+	 * @return null if no such job
+	 */
+	public synchronized AlignmentJob findJob(Token token) {
+		for (AlignmentJob job: urgent) {
+			if (job.contains(token)) {
+				return job;
+			}
+		}
+		for (AlignmentJob job: running.keySet()) {
+			if (job.contains(token)) {
+				return job;
+			}
+		}
+		for (AlignmentJob job: pending) {
+			if (job.contains(token)) {
+				return job;
+			}
+		}
+		return null;
+	}
+
+
+	/**
+	 * Cancels all jobs and stops the workers. Running jobs are interrupted.
+	 */
+	public synchronized void shutdown() {
+		shutdown = true;
+		pending.clear();
+		urgent.clear();
+		for (Worker w: workers) {
+			w.interrupt();
+		}
+		notifyAll();
+	}
+
+
+	public synchronized boolean isIdle() {
+		return pending.isEmpty() && urgent.isEmpty() && running.isEmpty();
+	}
+
+
+	/**
+	 * Number of jobs completed (successfully or not).
+	 */
+	public synchronized int getDoneCount() {
+		return done;
+	}
+
+
+	/**
+	 * Number of jobs scheduled and not cancelled.
+	 */
+	public synchronized int getTotalCount() {
+		return total;
+	}
+
+
+	/**
+	 * Blocks until there are no more jobs to run.
+	 */
+	public synchronized void waitUntilIdle() throws InterruptedException {
+		while (!shutdown && !isIdle()) {
+			wait();
+		}
+	}
+
+
+	/**
+	 * Removes the next job to run from the queue, waiting for one if needed.
+	 * @return null if the scheduler was shut down
+	 */
+	private synchronized AlignmentJob take(Worker worker)
+			throws InterruptedException
+	{
+		while (!shutdown && pending.isEmpty() && urgent.isEmpty()) {
+			wait();
+		}
+
+		if (shutdown) {
+			return null;
+		}
+
+		AlignmentJob job;
+
+		if (!urgent.isEmpty()) {
+			job = urgent.remove(0);
+		} else {
+			int best = 0;
+			int bestDistance = Integer.MAX_VALUE;
+			for (int i = 0; i < pending.size(); i++) {
+				int d = pending.get(i).distanceTo(focusFrame);
+				if (d < bestDistance) {
+					best = i;
+					bestDistance = d;
+				}
+			}
+
+			// Swap with the last element to avoid shifting the list
+			int last = pending.size()-1;
+			job = pending.get(best);
+			pending.set(best, pending.get(last));
+			pending.remove(last);
+		}
+
+		running.put(job, worker);
+		return job;
+	}
+
+
+	/**
+	 * Must be called from the worker that ran the job.
+	 */
+	private void finish(AlignmentJob job) {
+		boolean idle;
+		synchronized (this) {
+			running.remove(job);
+			// The job can't be cancelled anymore; don't let a late
+			// cancellation leak into the next job
+			Thread.interrupted();
+			done++;
+			idle = checkIdle();
+		}
+		if (idle) {
+			listener.idle();
+		}
+	}
+
+
+	/**
+	 * Wakes up threads waiting for the scheduler to become idle.
+	 * Must be called with the lock held.
+	 * <p/>
+	 * The listener isn't called from here: it may call back into the
+	 * scheduler from another thread (e.g. the event dispatch thread) and
+	 * wait for it. Callers notify it once they have released the lock.
+	 * @return true if the listener should be told that the scheduler is idle
+	 */
+	private boolean checkIdle() {
+		if (!isIdle()) {
+			return false;
+		}
+		notifyAll();
+		return listener != null && !shutdown;
+	}
+
+
+	private class Worker extends Thread {
+		private Aligner aligner;
+
+		Worker(int id) {
+			super("Alignment worker " + id);
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			for (;;) {
+				AlignmentJob job;
+
+				try {
+					job = take(this);
+				} catch (InterruptedException ex) {
+					// spurious, or shut down
+					continue;
+				}
+
+				if (job == null) {
+					return;
+				}
+
+				try {
+					if (aligner == null) {
+						aligner = factory.newAligner();
+					}
+					job.align(aligner, reference);
+					if (listener != null) {
+						listener.jobDone(job);
+					}
+				} catch (InterruptedException ex) {
+					// job cancelled
+				} catch (Exception ex) {
+					if (listener != null) {
+						listener.jobFailed(job, ex);
+					}
+				} finally {
+					finish(job);
+				}
+			}
+		}
+	}
+
+}
@@ -2,6 +2,7 @@ package fr.loria.synalp.jtrans.align;
 
 import fr.loria.synalp.jtrans.utils.Cache;
 import fr.loria.synalp.jtrans.utils.ProgressDisplay;
+import fr.loria.synalp.jtrans.graph.OnlineViterbi;
 import fr.loria.synalp.jtrans.graph.StateGraph;
 import fr.loria.synalp.jtrans.graph.swap.SwapDeflater;
 import fr.loria.synalp.jtrans.graph.swap.SwapInflater;
@@ -32,6 +33,14 @@ public class ViterbiAligner extends Aligner {
 	public static boolean DELETE_BACKTRACK_SWAP_FILES = true;
 
 
+	/**
+	 * Align with {@link OnlineViterbi} instead of the full Viterbi pass.
+	 * No backpointer table is kept; with the default pruning beam, the path
+	 * may differ slightly from the full Viterbi path.
+	 */
+	public static boolean ONLINE_VITERBI = false;
+
+
 	private final SwapDeflater swapWriter;
 	private final SwapInflater swapReader;
 
@@ -67,7 +76,7 @@ public class ViterbiAligner extends Aligner {
 
 		int[] tl = (int[])Cache.cachedObject(
 				"viterbi",
-				"timeline",
+				ONLINE_VITERBI? "online_timeline": "timeline",
 				factory,
 				audio, text, graph.getNodeCount(), startFrame, endFrame);
 
@@ -84,6 +93,10 @@ public class ViterbiAligner extends Aligner {
 	{
 		int length = boundCheckLength(startFrame, endFrame);
 
+		if (ONLINE_VITERBI && saveForwardBackward == null) {
+			return OnlineViterbi.backtrackTimeline(graph, data, startFrame, endFrame);
+		}
+
 		final OutputStream out;
 		final SwapInflater.InputStreamFactory inFactory;
 
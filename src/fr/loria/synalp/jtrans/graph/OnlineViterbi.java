@@ -0,0 +1,459 @@
+package fr.loria.synalp.jtrans.graph;
+
+import edu.cmu.sphinx.frontend.Data;
+import edu.cmu.sphinx.frontend.DataEndSignal;
+import edu.cmu.sphinx.frontend.DataProcessor;
+import edu.cmu.sphinx.frontend.FloatData;
+import edu.cmu.sphinx.util.LogMath;
+import fr.loria.synalp.jtrans.align.Alignment;
+import fr.loria.synalp.jtrans.speechreco.s4.HMMModels;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming forced alignment on a {@link StateGraph}.
+ * <p/>
+ * Frames are fed one at a time (e.g. as they come out of a live front end).
+ * After each frame, the backpointers of all surviving (unpruned) nodes are
+ * traced back. As soon as they all go through the same node at some frame,
+ * the path up to that frame can no longer change: it is emitted right away
+ * as a piece of {@link Alignment}, and the backpointers that lead to it are
+ * dropped.
+ * <p/>
+ * Memory and latency are bounded by {@link #MAX_LATENCY}: if the surviving
+ * paths fail to converge within that many frames, the best path is
+ * committed up to half that latency, and the paths that disagree with it
+ * are pruned.
+ * <p/>
+ * Without pruning ({@link #RELATIVE_BEAM} = 0), the concatenated pieces follow
+ * the same path as {@link StateGraph#viterbi} and {@link StateGraph#backtrack},
+ * as long as the latency bound isn't hit. Note that backtrack() stores, for
+ * each frame, the node of the previous frame; the pieces emitted here hold
+ * the node of the frame itself. {@link #backtrackTimeline} follows the
+ * convention of backtrack(), so that it can stand in for it
+ * (see {@link fr.loria.synalp.jtrans.align.ViterbiAligner#ONLINE_VITERBI}).
+ */
+public class OnlineViterbi {
+
+	/**
+	 * Nodes whose likelihood falls below the best likelihood times this
+	 * factor are pruned. 0 disables pruning.
+	 */
+	public static double RELATIVE_BEAM = 1E-100;
+
+	/**
+	 * Maximum number of frames between the latest frame and the latest
+	 * emitted frame.
+	 */
+	public static int MAX_LATENCY = 300;
+
+
+	/**
+	 * Receives the parts of the alignment that can no longer change.
+	 */
+	public interface Listener {
+		/**
+		 * @param piece alignment of consecutive frames, starting right after
+		 *              the last frame of the previous piece
+		 */
+		void aligned(Alignment piece);
+	}
+
+
+	private final StateGraph graph;
+	private final int frameOffset;
+	private final Listener listener;
+	private final float logBeam;
+
+	/**
+	 * Active nodes at each frame since the last emitted frame, sorted by
+	 * node index. Entry 0 is the last emitted frame; it always holds a
+	 * single node.
+	 */
+	private final List<int[]> histNodes = new ArrayList<>();
+
+	/**
+	 * For each active node of each frame, position of its best predecessor
+	 * among the active nodes of the previous frame.
+	 */
+	private final List<int[]> histPred = new ArrayList<>();
+
+	/** Absolute frame number of histNodes[0] (-1 is a virtual frame). */
+	private int histStart = -1;
+
+	/** Likelihood of each node active in the latest frame. */
+	private float[] scores = {0};
+
+	/** Word index of the last emitted frame. */
+	private int wordIdx = -1;
+
+	private int frameCount = 0;
+	private boolean finished = false;
+
+	/**
+	 * If non-null, receives the node of each emitted frame, at index
+	 * (frame number relative to the first pushed frame) + 1.
+	 */
+	private int[] nodeSink = null;
+
+	// Scratch buffers indexed by node
+	private final float[] bestScore;
+	private final int[] bestPred;
+	private final int[] stamp;
+	private final int[] touchedBuf;
+	private int stampCounter = 0;
+
+
+	/**
+	 * @param frameOffset absolute frame number of the first frame that will be
+	 *                    pushed (used as the offset of emitted alignments)
+	 */
+	public OnlineViterbi(StateGraph graph, int frameOffset, Listener listener) {
+		this.graph = graph;
+		this.frameOffset = frameOffset;
+		this.listener = listener;
+
+		LogMath lm = HMMModels.getLogMath();
+		logBeam = RELATIVE_BEAM > 0?
+				lm.linearToLog(RELATIVE_BEAM): Float.NEGATIVE_INFINITY;
+
+		bestScore = new float[graph.nNodes];
+		bestPred = new int[graph.nNodes];
+		stamp = new int[graph.nNodes];
+		touchedBuf = new int[graph.nNodes];
+
+		// Virtual frame preceding the first frame: we can only be in node #0
+		histNodes.add(new int[] {0});
+		histPred.add(new int[] {-1});
+	}
+
+
+	/** Number of frames pushed so far. */
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+
+	/** Number of frames emitted so far. */
+	public int getEmittedFrameCount() {
+		return histStart + 1;
+	}
+
+
+	/** Number of nodes that survived pruning in the latest frame. */
+	public int getActiveNodeCount() {
+		return histNodes.get(histNodes.size()-1).length;
+	}
+
+
+	/**
+	 * Advances the search by one frame, and emits the newly converged part
+	 * of the alignment, if any.
+	 */
+	public void push(Data frame) {
+		if (finished) {
+			throw new IllegalStateException("already finished");
+		}
+
+		final int last = graph.nNodes - 1;
+		final int[] prevNodes = histNodes.get(histNodes.size()-1);
+
+		// Propagate likelihoods along outgoing transitions.
+		// Ties go to the loop transition, then to the lowest predecessor, as
+		// in StateGraph.viterbi().
+		stampCounter++;
+		int[] touched = touchedBuf;
+		int nTouched = 0;
+
+		for (int p = 0; p < prevNodes.length; p++) {
+			int k = prevNodes[p];
+			for (int t = 0; t < graph.outCount[k]; t++) {
+				int n = graph.outNode[k][t];
+				float prob = (n == last && k == last)? 0: graph.outProb[k][t];
+				float cand = scores[p] + prob;
+
+				if (stamp[n] != stampCounter) {
+					stamp[n] = stampCounter;
+					bestScore[n] = cand;
+					bestPred[n] = p;
+					touched[nTouched++] = n;
+				} else if (cand > bestScore[n]
+						|| (cand == bestScore[n] && k == n))
+				{
+					bestScore[n] = cand;
+					bestPred[n] = p;
+				}
+			}
+		}
+
+		Arrays.sort(touched, 0, nTouched);
+
+		// Add emission probabilities and find best
+		float best = Float.NEGATIVE_INFINITY;
+		float[] values = graph.scorer == null? null: ((FloatData) frame).getValues();
+		for (int i = 0; i < nTouched; i++) {
+			int n = touched[i];
+			bestScore[n] += graph.scorer != null
+					? graph.scorer.score(graph.nodeStates[n], values)
+					: graph.getStateAt(n).getScore(frame);
+			best = Math.max(best, bestScore[n]);
+		}
+
+		// Prune
+		float threshold = best + logBeam;
+		int nActive = 0;
+		for (int i = 0; i < nTouched; i++) {
+			int n = touched[i];
+			float s = bestScore[n];
+			if (s > Float.NEGATIVE_INFINITY && s >= threshold) {
+				touched[nActive++] = n;
+			}
+		}
+		if (nActive == 0) {
+			// Nothing is reachable; keep everything rather than lose track
+			nActive = nTouched;
+		}
+
+		int[] nodes = Arrays.copyOf(touched, nActive);
+		int[] pred = new int[nActive];
+		scores = new float[nActive];
+		for (int i = 0; i < nActive; i++) {
+			pred[i] = bestPred[nodes[i]];
+			scores[i] = bestScore[nodes[i]];
+		}
+
+		histNodes.add(nodes);
+		histPred.add(pred);
+		frameCount++;
+
+		emitConverged();
+
+		if (histNodes.size() - 1 > MAX_LATENCY) {
+			forceCommit(histNodes.size() - 1 - MAX_LATENCY / 2);
+		}
+	}
+
+
+	/**
+	 * Traces back all active nodes until their paths meet, and emits the
+	 * frames up to the meeting point.
+	 */
+	private void emitConverged() {
+		int h = histNodes.size() - 1;
+		int[] positions = new int[histNodes.get(h).length];
+		for (int i = 0; i < positions.length; i++) {
+			positions[i] = i;
+		}
+		int distinct = positions.length;
+
+		while (distinct > 1 && h > 0) {
+			int[] pred = histPred.get(h);
+			stampCounter++;
+			distinct = 0;
+			for (int i = 0; i < positions.length; i++) {
+				int p = pred[positions[i]];
+				positions[i] = p;
+				// stamp is indexed by node, but positions are always smaller
+				// than the node count
+				if (stamp[p] != stampCounter) {
+					stamp[p] = stampCounter;
+					distinct++;
+				}
+			}
+			h--;
+		}
+
+		if (distinct == 1 && h > 0) {
+			emit(h, positions[0]);
+		}
+	}
+
+
+	/**
+	 * Commits the best path up to the given history frame, and prunes the
+	 * active nodes whose paths don't go through it.
+	 */
+	private void forceCommit(int h) {
+		int top = histNodes.size() - 1;
+		int nActive = scores.length;
+
+		int bestPos = 0;
+		for (int i = 1; i < nActive; i++) {
+			if (scores[i] > scores[bestPos]) {
+				bestPos = i;
+			}
+		}
+
+		// Ancestor of each active node at frame h
+		int[] anc = new int[nActive];
+		for (int i = 0; i < nActive; i++) {
+			anc[i] = i;
+		}
+		for (int f = top; f > h; f--) {
+			int[] pred = histPred.get(f);
+			for (int i = 0; i < nActive; i++) {
+				anc[i] = pred[anc[i]];
+			}
+		}
+
+		int keep = anc[bestPos];
+		int[] nodes = histNodes.get(top);
+		int[] pred = histPred.get(top);
+		int n = 0;
+		for (int i = 0; i < nActive; i++) {
+			if (anc[i] == keep) {
+				nodes[n] = nodes[i];
+				pred[n] = pred[i];
+				scores[n] = scores[i];
+				n++;
+			}
+		}
+		histNodes.set(top, Arrays.copyOf(nodes, n));
+		histPred.set(top, Arrays.copyOf(pred, n));
+		scores = Arrays.copyOf(scores, n);
+
+		// Earlier frames may now hold dead branches; they are harmless, as
+		// they are never reached from the active nodes.
+		emit(h, keep);
+	}
+
+
+	/**
+	 * Emits frames histStart+1 ... histStart+h, following the path that
+	 * goes through the given position at history frame h. The history is
+	 * then rebased on frame h.
+	 */
+	private void emit(int h, int pos) {
+		int[] timeline = new int[h];
+		for (int f = h; f > 0; f--) {
+			timeline[f-1] = histNodes.get(f)[pos];
+			pos = histPred.get(f)[pos];
+		}
+
+		Alignment piece = new Alignment(frameOffset + histStart + 1);
+		for (int node: timeline) {
+			wordIdx = graph.getWordIdxAt(node, wordIdx);
+			piece.newFrame(graph.getStateAt(node),
+					wordIdx >= 0? graph.words.get(wordIdx): null);
+		}
+
+		// Rebase on frame h, which becomes a single-node root. Predecessors
+		// in the following frame that don't point to that node belong to dead
+		// branches, so they can all be redirected to it.
+		histNodes.subList(0, h).clear();
+		histPred.subList(0, h).clear();
+		histNodes.set(0, new int[] {timeline[h-1]});
+		histPred.set(0, new int[] {-1});
+		if (histPred.size() > 1) {
+			Arrays.fill(histPred.get(1), 0);
+		}
+
+		if (nodeSink != null) {
+			System.arraycopy(timeline, 0, nodeSink, histStart + 2, h);
+		}
+
+		histStart += h;
+
+		if (listener != null) {
+			listener.aligned(piece);
+		}
+	}
+
+
+	/**
+	 * Emits the rest of the alignment. The path is traced back from the final
+	 * node of the graph if it survived pruning, or from the best node
+	 * otherwise. No more frames may be pushed afterwards.
+	 */
+	public void finish() {
+		if (finished) {
+			return;
+		}
+		finished = true;
+
+		int top = histNodes.size() - 1;
+		if (top == 0) {
+			return;
+		}
+
+		int[] nodes = histNodes.get(top);
+		int pos = Arrays.binarySearch(nodes, graph.nNodes - 1);
+		if (pos < 0) {
+			System.err.println("OnlineViterbi: final node not reached; "
+					+ "tracing back from the best node");
+			pos = 0;
+			for (int i = 1; i < scores.length; i++) {
+				if (scores[i] > scores[pos]) {
+					pos = i;
+				}
+			}
+		}
+
+		emit(top, pos);
+	}
+
+
+	/**
+	 * Pushes all frames from a data source (typically a live front end)
+	 * until it signals the end of the data, then finishes the alignment.
+	 * @throws InterruptedException Checks the thread's interruption status at
+	 * each frame.
+	 */
+	public void run(DataProcessor source) throws InterruptedException {
+		while (true) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException("online Viterbi");
+			}
+
+			Data d = source.getData();
+			if (d == null || d instanceof DataEndSignal) {
+				break;
+			} else if (d instanceof FloatData) {
+				push(d);
+			}
+		}
+
+		finish();
+	}
+
+
+	/**
+	 * Aligns a range of frames with the online decoder.
+	 * @return A time line of nodes in the same format as
+	 * {@link StateGraph#backtrack}, i.e. the node of the previous frame at
+	 * each frame.
+	 * @throws InterruptedException Checks the thread's interruption status at
+	 * each frame.
+	 */
+	public static int[] backtrackTimeline(
+			StateGraph graph,
+			List<FloatData> data,
+			int startFrame,
+			int endFrame)
+			throws InterruptedException
+	{
+		if (endFrame >= data.size()) {
+			throw new IllegalArgumentException("endFrame >= data.size()");
+		}
+
+		int length = 1 + endFrame - startFrame;
+
+		OnlineViterbi ov = new OnlineViterbi(graph, startFrame, null);
+		ov.nodeSink = new int[length + 1];
+
+		for (int f = startFrame; f <= endFrame; f++) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException("online Viterbi");
+			}
+			ov.push(data.get(f));
+		}
+
+		ov.finish();
+
+		// Frame #0 comes from the initial node; the last node isn't included
+		return Arrays.copyOf(ov.nodeSink, length);
+	}
+
+}
@@ -0,0 +1,178 @@
+package fr.loria.synalp.jtrans.graph;
+
+import edu.cmu.sphinx.linguist.acoustic.HMMState;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.GaussianMixture;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.MixtureComponent;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.Senone;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.SenoneHMMState;
+import edu.cmu.sphinx.util.LogMath;
+
+/**
+ * Emission scorer for the states of a {@link StatePool}, independent of
+ * Sphinx's Senone objects.
+ * <p/>
+ * The diagonal Gaussians of all states are packed into contiguous arrays
+ * (means, precisions, normalization terms and log mixture weights), so that
+ * scoring a frame against every state is a single pass over flat memory.
+ * Mixture components are summed with a max/log-sum-exp in the natural log
+ * domain and converted to Sphinx's log base at the end.
+ * <p/>
+ * Scores match {@link HMMState#getScore} up to Sphinx's log-add table
+ * approximation. Gaussians are assumed to have no mean or variance
+ * transformation, which is the case for models loaded by Sphinx3Loader.
+ * <p/>
+ * Not thread-safe (uses a scratch buffer).
+ */
+public class PackedGMMScorer {
+
+	private final int nStates;
+	private final int dim;
+
+	/** Index of each state's first Gaussian; gaussStart[nStates] = total */
+	private final int[] gaussStart;
+
+	/** Means, by Gaussian then dimension */
+	private final float[] means;
+
+	/** -1/(2 variance), by Gaussian then dimension */
+	private final float[] precisions;
+
+	/** Log normalization factor plus log mixture weight (natural log) */
+	private final float[] offsets;
+
+	private final LogMath logMath;
+	private final float lnToLog;
+
+	/** Scratch buffer of component scores for one state */
+	private final float[] componentScores;
+
+
+	public PackedGMMScorer(StatePool pool) {
+		this(getMixtures(pool));
+	}
+
+
+	/**
+	 * @param mixtures state mixtures, indexed by state ID
+	 */
+	public PackedGMMScorer(GaussianMixture[] mixtures) {
+		nStates = mixtures.length;
+		gaussStart = new int[nStates+1];
+
+		int total = 0;
+		int maxComps = 0;
+		for (int s = 0; s < nStates; s++) {
+			gaussStart[s] = total;
+			int n = mixtures[s].getMixtureComponents().length;
+			total += n;
+			maxComps = Math.max(maxComps, n);
+		}
+		gaussStart[nStates] = total;
+
+		dim = total == 0? 0: mixtures[0].getMixtureComponents()[0].getMean().length;
+		logMath = nStates == 0? new LogMath(): mixtures[0].getLogMath();
+		lnToLog = logMath.lnToLog(1f);
+
+		means = new float[total * dim];
+		precisions = new float[total * dim];
+		offsets = new float[total];
+		componentScores = new float[maxComps];
+
+		int g = 0;
+		for (GaussianMixture gmm: mixtures) {
+			MixtureComponent[] comps = gmm.getMixtureComponents();
+			for (int k = 0; k < comps.length; k++, g++) {
+				float[] m = comps[k].getMean();
+				float[] v = comps[k].getVariance();
+				if (m.length != dim) {
+					throw new IllegalArgumentException("mixed feature dimensions: "
+							+ m.length + " vs " + dim);
+				}
+				System.arraycopy(m, 0, means, g*dim, dim);
+				for (int d = 0; d < dim; d++) {
+					precisions[g*dim + d] = 1f / (-2f * v[d]);
+				}
+				offsets[g] = logMath.logToLn(gmm.getLogComponentWeight(k))
+						- logMath.logToLn(comps[k].precomputeDistance());
+			}
+		}
+	}
+
+
+	private static GaussianMixture[] getMixtures(StatePool pool) {
+		GaussianMixture[] mixtures = new GaussianMixture[pool.size()];
+		for (int s = 0; s < mixtures.length; s++) {
+			mixtures[s] = getMixture(pool.get(s));
+		}
+		return mixtures;
+	}
+
+
+	private static GaussianMixture getMixture(HMMState state) {
+		if (state instanceof SenoneHMMState) {
+			Senone senone = ((SenoneHMMState) state).getSenone();
+			if (senone instanceof GaussianMixture) {
+				return (GaussianMixture) senone;
+			}
+		}
+		throw new IllegalArgumentException("not a Gaussian mixture state: " + state);
+	}
+
+
+	public int getStateCount() {
+		return nStates;
+	}
+
+
+	/**
+	 * Scores one frame against one state.
+	 * @param stateId index in the StatePool
+	 * @return log likelihood in Sphinx's log base
+	 */
+	public float score(int stateId, float[] x) {
+		final int first = gaussStart[stateId];
+		final int n = gaussStart[stateId+1] - first;
+
+		float max = Float.NEGATIVE_INFINITY;
+		for (int k = 0; k < n; k++) {
+			final int g = first + k;
+			int o = g * dim;
+			float acc = 0;
+			for (int d = 0; d < dim; d++, o++) {
+				float diff = x[d] - means[o];
+				acc += diff * diff * precisions[o];
+			}
+			float sc = acc + offsets[g];
+			componentScores[k] = sc;
+			if (sc > max) {
+				max = sc;
+			}
+		}
+
+		if (max == Float.NEGATIVE_INFINITY) {
+			return LogMath.getLogZero();
+		}
+
+		double sum = 0;
+		for (int k = 0; k < n; k++) {
+			sum += Math.exp(componentScores[k] - max);
+		}
+		return (float) (max + Math.log(sum)) * lnToLog;
+	}
+
+
+	/**
+	 * Scores one frame against every state.
+	 * @param out receives the score of each state, indexed by state ID
+	 */
+	public void scoreAll(float[] x, float[] out) {
+		if (x.length != dim) {
+			throw new IllegalArgumentException("frame dimension " + x.length
+					+ " != model dimension " + dim);
+		}
+		for (int s = 0; s < nStates; s++) {
+			out[s] = score(s, x);
+		}
+	}
+
+}
@@ -14,6 +14,7 @@ import fr.loria.synalp.jtrans.align.ViterbiAligner;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 /**
@@ -108,6 +109,26 @@ public class StateGraph {
 	/** Used to report progress in viterbi() and backtrack() (may be null) */
 	protected ProgressDisplay progress = null;
 
+	/**
+	 * Emission scorer used by viterbi(). If null, states are scored through
+	 * Sphinx ({@link HMMState#getScore}).
+	 */
+	protected PackedGMMScorer scorer = null;
+
+	/**
+	 * Compiled subgraphs for each distinct rule, keyed by rule (rule tokens
+	 * joined with spaces). Shared by all graphs.
+	 */
+	private static final Map<String, SubgraphTemplate> templates =
+			new ConcurrentHashMap<>();
+
+	/**
+	 * Build graphs by splicing precompiled rules (see {@link SubgraphTemplate}).
+	 * If false, every rule is parsed again for each word, which is slower but
+	 * yields the same graph.
+	 */
+	public static boolean PRECOMPILED_RULES = true;
+
 
 	/**
 	 * Tests two linear probabilities for equality.
@@ -165,7 +186,12 @@ public class StateGraph {
 				continue;
 			}
 
-			String rule = gram.getGrammar(token.toString());
+			// The grammatiseur isn't thread-safe, and graphs may be built by
+			// several alignment workers at once
+			String rule;
+			synchronized (gram) {
+				rule = gram.getGrammar(token.toString());
+			}
 
 			if (rule == null || rule.isEmpty()) {
 				assert null == rules[i];
@@ -215,6 +241,20 @@ public class StateGraph {
 	}
 
 
+	/**
+	 * Selects the emission scorer used by viterbi().
+	 * @param packed if true, score states with a {@link PackedGMMScorer};
+	 *               otherwise, go through Sphinx's senones
+	 */
+	public void setPackedScorer(boolean packed) {
+		if (!packed) {
+			scorer = null;
+		} else if (scorer == null || scorer.getStateCount() != pool.size()) {
+			scorer = new PackedGMMScorer(pool);
+		}
+	}
+
+
 	public HMMState getStateAt(int nodeIdx) {
 		return pool.get(nodeStates[nodeIdx]);
 	}
@@ -484,38 +524,54 @@ public class StateGraph {
 		LogMath lm = HMMModels.getLogMath();
 
 		for (int n = 0; n < nNodes-1; n++) {
-			if (outCount[n] < 2) {
-				throw new IllegalStateException(
-						"node #" + n + " isolated from graph");
-			}
+			checkNodeTransitions(n, lm);
+		}
 
-			if (outNode[n][0] != n) {
-				throw new IllegalStateException(
-						"node #" + n + "'s first transition should be a loop");
-			}
+		checkLastNodeTransitions();
+	}
 
-			// forbid backwards transitions
-			for (int t = 0; t < outCount[n]; t++) {
-				if (outNode[n][t] < n) {
-					throw new IllegalStateException("illegal backwards " +
-							"transition from node " + n + " to " + outNode[n][t]);
-				}
-			}
 
-			float sum = 0;
-			for (int t = 0; t < outCount[n]; t++) {
-				sum += lm.logToLinear(outProb[n][t]);
-			}
+	/**
+	 * Checks the legality of the transitions of a node other than the last.
+	 * @throws IllegalStateException if any transition is illegal
+	 */
+	private void checkNodeTransitions(int n, LogMath lm) {
+		if (outCount[n] < 2) {
+			throw new IllegalStateException(
+					"node #" + n + " isolated from graph");
+		}
 
-			if (!linProbEq(1, sum)) {
-				throw new IllegalStateException(String.format(
-						"linear probabilities of outbound transitions of " +
-						"node #%d do not sum to one (sum=%f)", n, sum));
+		if (outNode[n][0] != n) {
+			throw new IllegalStateException(
+					"node #" + n + "'s first transition should be a loop");
+		}
+
+		// forbid backwards transitions
+		for (int t = 0; t < outCount[n]; t++) {
+			if (outNode[n][t] < n) {
+				throw new IllegalStateException("illegal backwards " +
+						"transition from node " + n + " to " + outNode[n][t]);
 			}
 		}
 
-		// Special case for the last node. Don't check the sum of its transition
-		// probabilities (see correctLastNodeTransitions() to learn why)
+		float sum = 0;
+		for (int t = 0; t < outCount[n]; t++) {
+			sum += lm.logToLinear(outProb[n][t]);
+		}
+
+		if (!linProbEq(1, sum)) {
+			throw new IllegalStateException(String.format(
+					"linear probabilities of outbound transitions of " +
+					"node #%d do not sum to one (sum=%f)", n, sum));
+		}
+	}
+
+
+	/**
+	 * Special case for the last node. Don't check the sum of its transition
+	 * probabilities (see correctLastNodeTransitions() to learn why)
+	 */
+	private void checkLastNodeTransitions() {
 		int last = nNodes - 1;
 		if (outCount[last] != 1 || outNode[last][0] != last) {
 			throw new IllegalStateException("last node must have exactly " +
@@ -524,6 +580,180 @@ public class StateGraph {
 	}
 
 
+	/**
+	 * Returns the compiled subgraph for a rule, compiling it if needed.
+	 */
+	static SubgraphTemplate getTemplate(String[] rule) {
+		StringBuilder sb = new StringBuilder();
+		for (String token: rule) {
+			sb.append(token).append(' ');
+		}
+		String key = sb.toString();
+
+		SubgraphTemplate template = templates.get(key);
+		if (template == null) {
+			template = compileTemplate(rule);
+			templates.put(key, template);
+		}
+		return template;
+	}
+
+
+	/**
+	 * Forgets all compiled rules. Must be called if the acoustic model
+	 * changes, since rule templates hold transition probabilities.
+	 */
+	public static void clearTemplateCache() {
+		templates.clear();
+	}
+
+
+	/**
+	 * Compiles a rule into a relocatable subgraph.
+	 * The rule is parsed into a scratch graph whose node #0 stands for all
+	 * incoming tails.
+	 */
+	private static SubgraphTemplate compileTemplate(String[] rule) {
+		List<String> phones = new ArrayList<>();
+		for (String token: rule) {
+			if (!NONPHONE_PATTERN.matcher(token).matches()) {
+				phones.add(token);
+			}
+		}
+
+		StateGraph g = new StateGraph();
+		g.pool = new StatePool();
+		g.nNodes = 1 + 3 * phones.size();
+		g.nodeStates = new int  [g.nNodes];
+		g.outCount   = new byte [g.nNodes];
+		g.outNode    = new int  [g.nNodes][MAX_TRANSITIONS];
+		g.outProb    = new float[g.nNodes][MAX_TRANSITIONS];
+		for (int i = 0; i < g.nNodes; i++) {
+			Arrays.fill(g.outProb[i], UNINITIALIZED_LOG_PROBABILITY);
+		}
+		g.insertionPoint = 1;
+
+		Set<Integer> tails = new HashSet<Integer>();
+		tails.add(0);
+		String token = g.parseRule(rule, tails);
+		assert token == null : "rule couldn't be parsed entirely";
+		assert g.insertionPoint == g.nNodes;
+
+		boolean passthrough = tails.remove(0);
+
+		// Complete the transitions of inner nodes; exits will get more
+		// transitions once the template is spliced into a graph
+		LogMath lm = HMMModels.getLogMath();
+		for (int i = 1; i < g.nNodes; i++) {
+			if (tails.contains(i)) {
+				continue;
+			}
+			if (i % 3 == 0) {
+				g.fillUniformNonLoopTransitionProbabilities(i);
+			}
+			g.checkNodeTransitions(i, lm);
+		}
+
+		// Relocate to local indices
+		final int n = g.nNodes - 1;
+		byte[] outCount = new byte[n];
+		int[][] outNode = new int[n][];
+		float[][] outProb = new float[n][];
+
+		for (int i = 0; i < n; i++) {
+			int count = g.outCount[i+1];
+			outCount[i] = (byte) count;
+			outNode[i] = new int[count];
+			for (int t = 0; t < count; t++) {
+				outNode[i][t] = g.outNode[i+1][t] - 1;
+			}
+			outProb[i] = Arrays.copyOf(g.outProb[i+1], count);
+		}
+
+		int[] entries = new int[g.outCount[0]];
+		for (int t = 0; t < entries.length; t++) {
+			entries[t] = g.outNode[0][t] - 1;
+		}
+
+		int[] exits = new int[tails.size()];
+		int e = 0;
+		for (int tail: tails) {
+			exits[e++] = tail - 1;
+		}
+		Arrays.sort(exits);
+
+		return new SubgraphTemplate(
+				phones.toArray(new String[phones.size()]),
+				outCount, outNode, outProb, entries, exits, passthrough);
+	}
+
+
+	/**
+	 * Copies a template at the insertion point, and links the given tails to
+	 * its entries.
+	 * Exit nodes get full-size transition arrays, since they are yet to be
+	 * linked to the rest of the graph; they are flagged in {@code pending}.
+	 * @return the new tails
+	 */
+	private int[] splice(SubgraphTemplate t, int[] tails, BitSet pending) {
+		final int o = insertionPoint;
+
+		for (int p = 0; p < t.phones.length; p++) {
+			String phone = t.phones[p];
+			pool.check(phone);
+			for (int i = 0; i < 3; i++) {
+				nodeStates[o + 3*p + i] = pool.getId(phone, i);
+			}
+		}
+
+		for (int k = 0; k < t.nodeCount; k++) {
+			final int n = o + k;
+			final int count = t.outCount[k];
+			final boolean exit = t.isExit(k);
+
+			outNode[n] = new int[exit? MAX_TRANSITIONS: count];
+			outProb[n] = new float[exit? MAX_TRANSITIONS: count];
+			if (exit) {
+				Arrays.fill(outProb[n], UNINITIALIZED_LOG_PROBABILITY);
+				pending.set(n);
+			}
+
+			for (int j = 0; j < count; j++) {
+				outNode[n][j] = t.outNode[k][j] + o;
+			}
+			System.arraycopy(t.outProb[k], 0, outProb[n], 0, count);
+			outCount[n] = (byte) count;
+		}
+
+		for (int tail: tails) {
+			for (int e: t.entries) {
+				addOutboundTransition(o + e, tail, UNINITIALIZED_LOG_PROBABILITY);
+				// probability will be corrected in
+				// fillUniformNonLoopTransitionProbabilities()
+			}
+		}
+
+		int[] newTails = new int[(t.passthrough? tails.length: 0) + t.exits.length];
+		int nt = 0;
+		if (t.passthrough) {
+			for (int tail: tails) {
+				newTails[nt++] = tail;
+			}
+		}
+		for (int e: t.exits) {
+			newTails[nt++] = o + e;
+		}
+
+		insertionPoint += t.nodeCount;
+		return newTails;
+	}
+
+
+	/** Scratch graph for {@link #compileTemplate}. */
+	private StateGraph() {
+	}
+
+
 	/**
 	 * Constructs a state graph from a list of tokens and the rules
 	 * associated with each of them.
@@ -541,6 +771,105 @@ public class StateGraph {
 		this.pool = new StatePool();
 
 		nWords  = words.size();
+
+		if (!PRECOMPILED_RULES) {
+			parseRules(rules, interWordSilences);
+			return;
+		}
+
+		SubgraphTemplate silence = getTemplate(SILENCE_RULE);
+		SubgraphTemplate optSilence = getTemplate(OPT_SILENCE_RULE);
+		SubgraphTemplate[] wordTemplates = new SubgraphTemplate[nWords];
+
+		nNodes = 2 * silence.nodeCount;
+		for (int i = 0, nonEmptyRules = 0; i < nWords; i++) {
+			if (null == rules[i]) {
+				continue;
+			}
+			wordTemplates[i] = getTemplate(rules[i]);
+			if (interWordSilences && nonEmptyRules > 0) {
+				nNodes += optSilence.nodeCount;
+			}
+			nNodes += wordTemplates[i].nodeCount;
+			nonEmptyRules++;
+		}
+
+		wordBoundaries = new int[nWords];
+
+		nodeStates = new int  [nNodes];
+		outCount   = new byte [nNodes];
+		outNode    = new int  [nNodes][];
+		outProb    = new float[nNodes][];
+
+		//----------------------------------------------------------------------
+		// Build state graph by splicing precompiled rules
+
+		int[] tails = new int[0];
+		BitSet pending = new BitSet(nNodes);
+
+		// add initial mandatory silence
+		tails = splice(silence, tails, pending);
+
+		int nonEmptyRules = 0;
+
+		for (int i = 0; i < nWords; i++) {
+			if (null == rules[i]) {
+				if (words.get(i).isAlignable()) {
+					System.err.println("Skipping alignable word " +
+							"without a rule: " + words.get(i));
+				}
+				wordBoundaries[i] = -1;
+				continue;
+			}
+
+			if (interWordSilences && nonEmptyRules > 0) {
+				// optional silence between two words
+				tails = splice(optSilence, tails, pending);
+			}
+
+			// Word actually starts after optional silence
+			wordBoundaries[i] = insertionPoint;
+
+			tails = splice(wordTemplates[i], tails, pending);
+
+			nonEmptyRules++;
+		}
+
+		// add final mandatory silence
+		splice(silence, tails, pending);
+
+		//----------------------------------------------------------------------
+		// All nodes have been inserted
+
+		assert insertionPoint == nNodes : "predicted node count not met : "
+				+ "actual " + insertionPoint + ", expected " + nNodes;
+
+		correctLastNodeTransitions();
+
+		// Transitions of inner nodes were completed and checked when their
+		// templates were compiled. Only the nodes that were linked across
+		// templates are left.
+		LogMath lm = HMMModels.getLogMath();
+		for (int i = pending.nextSetBit(0); i >= 0 && i < nNodes-1;
+			 i = pending.nextSetBit(i+1))
+		{
+			// correct inter-phone transition probabilities
+			fillUniformNonLoopTransitionProbabilities(i);
+			checkNodeTransitions(i, lm);
+
+			outNode[i] = Arrays.copyOf(outNode[i], outCount[i]);
+			outProb[i] = Arrays.copyOf(outProb[i], outCount[i]);
+		}
+
+		checkLastNodeTransitions();
+	}
+
+
+	/**
+	 * Builds the graph by parsing each rule anew, without templates.
+	 * @see #PRECOMPILED_RULES
+	 */
+	private void parseRules(String[][] rules, boolean interWordSilences) {
 		int nPhones = countPhones(rules, interWordSilences);
 		nNodes  = 3 * nPhones;
 
@@ -555,9 +884,6 @@ public class StateGraph {
 			Arrays.fill(outProb[i], UNINITIALIZED_LOG_PROBABILITY);
 		}
 
-		//----------------------------------------------------------------------
-		// Build state graph
-
 		Set<Integer> tails = new HashSet<Integer>();
 
 		// add initial mandatory silence
@@ -592,9 +918,6 @@ public class StateGraph {
 		// add final mandatory silence
 		parseRule(SILENCE_RULE, tails);
 
-		//----------------------------------------------------------------------
-		// All nodes have been inserted
-
 		assert insertionPoint == nNodes : "predicted node count not met : "
 				+ "actual " + insertionPoint + ", expected " + nNodes;
 
@@ -635,12 +958,13 @@ public class StateGraph {
 		outProb = new float[nNodes][];
 
 		for (int i = 0; i < nNodes; i++) {
-			outNode[i] = Arrays.copyOf(graph.outNode[i], MAX_TRANSITIONS);
-			outProb[i] = Arrays.copyOf(graph.outProb[i], MAX_TRANSITIONS);
+			outNode[i] = graph.outNode[i].clone();
+			outProb[i] = graph.outProb[i].clone();
 		}
 
 		words = new ArrayList<>(graph.words);
 		wordBoundaries = Arrays.copyOf(graph.wordBoundaries, nWords);
+		scorer = graph.scorer;
 	}
 
 
@@ -848,6 +1172,9 @@ public class StateGraph {
 		// ID of the incoming transition that yielded bestReachProb for each state
 		byte[] bestInTrans = new byte[nNodes];
 
+		// Emission probability of each unique state (packed scorer only)
+		float[] stateScores = scorer == null? null: new float[pool.size()];
+
 		// Initialize probability vector
 		// We only have one initial node (node #0), probability 1
 		Arrays.fill(vpf, Float.NEGATIVE_INFINITY);
@@ -868,11 +1195,17 @@ public class StateGraph {
 						(float) (f-startFrame) / (float) frameCount);
 			}
 
+			if (scorer != null) {
+				scorer.scoreAll(data.get(f).getValues(), stateScores);
+			}
+
 			for (int i = 0; i < nNodes; i++) {
 				// Emission probability (frame score)
 				// We could cache this for unique states, but in practice
 				// ScoreCachingSenone already does it for us.
-				float emission = getStateAt(i).getScore(data.get(f));
+				float emission = scorer != null
+						? stateScores[nodeStates[i]]
+						: getStateAt(i).getScore(data.get(f));
                 // Decommenter pour afficher les probas d'emission de chaque trame et de chaque phone sur les chemins possibles
                 // System.out.println("probaemission "+emission+" "+getStateAt(i)+" "+f);
 
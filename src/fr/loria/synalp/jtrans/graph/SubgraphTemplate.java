@@ -0,0 +1,76 @@
+package fr.loria.synalp.jtrans.graph;
+
+/**
+ * Relocatable subgraph compiled from a single grammar rule.
+ * <p/>
+ * Node indices are local to the template (0 is the first state of the first
+ * phone). Splicing the template into a {@link StateGraph} at a given offset
+ * only requires adding the offset to the node indices.
+ * <p/>
+ * Incoming tails (the nodes that precede the rule in the graph) are treated
+ * as a single virtual node: every one of them is linked to each
+ * {@link #entries entry} node, and they remain tails after the rule if
+ * {@link #passthrough} is set (i.e. if the whole rule is optional).
+ * <p/>
+ * Templates are immutable.
+ * @see StateGraph#getTemplate(String[])
+ */
+final class SubgraphTemplate {
+
+	/** Phone of each state triplet, in insertion order. */
+	final String[] phones;
+
+	/** Number of nodes (3 per phone). */
+	final int nodeCount;
+
+	/**
+	 * Transitions within the template (local node indices).
+	 * Transitions of non-exit nodes are complete, and their probabilities are
+	 * final.
+	 */
+	final byte[] outCount;
+	final int[][] outNode;
+	final float[][] outProb;
+
+	/** Nodes that incoming tails must be linked to, in insertion order. */
+	final int[] entries;
+
+	/** Nodes that are tails after the rule. */
+	final int[] exits;
+
+	/** Whether incoming tails are still tails after the rule. */
+	final boolean passthrough;
+
+
+	SubgraphTemplate(
+			String[] phones,
+			byte[] outCount,
+			int[][] outNode,
+			float[][] outProb,
+			int[] entries,
+			int[] exits,
+			boolean passthrough)
+	{
+		this.phones = phones;
+		this.nodeCount = 3 * phones.length;
+		this.outCount = outCount;
+		this.outNode = outNode;
+		this.outProb = outProb;
+		this.entries = entries;
+		this.exits = exits;
+		this.passthrough = passthrough;
+
+		assert outCount.length == nodeCount;
+	}
+
+
+	boolean isExit(int node) {
+		for (int e: exits) {
+			if (e == node) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
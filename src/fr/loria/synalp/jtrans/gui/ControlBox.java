@@ -82,14 +82,12 @@ public class ControlBox extends JPanel implements ActionListener {
 	@Override
 	public void actionPerformed(ActionEvent e) {
 		if (e.getActionCommand().equals("playstart")) {
-			playergui.setStartSec(aligneur.getCurPosInSec());
 			aligneur.startKaraoke();
 		} else if (e.getActionCommand().equals("rewind")) {
 			aligneur.setCurPosInSec(0);
 		} else if (e.getActionCommand().equals("playstop")) {
 			aligneur.stopKaraoke();
-			float prevStartingTime = playergui.getRelativeStartingSec();
-			aligneur.setCurPosInSec(prevStartingTime+(float)playergui.getTimePlayed()/1000f);
+			aligneur.setCurPosInSec(playergui.getPlayedSec());
 		}
 	}
 }
@@ -13,14 +13,17 @@ import java.awt.event.ActionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.sound.sampled.*;
 import javax.swing.*;
 
 import fr.loria.synalp.jtrans.JTrans;
 import fr.loria.synalp.jtrans.align.Aligner;
+import fr.loria.synalp.jtrans.align.AlignmentScheduler;
 import fr.loria.synalp.jtrans.gui.table.ProjectTable;
 import fr.loria.synalp.jtrans.markup.in.MarkupLoader;
 import fr.loria.synalp.jtrans.markup.in.ParsingException;
+import fr.loria.synalp.jtrans.project.AlignmentJob;
 import fr.loria.synalp.jtrans.project.Project;
 import fr.loria.synalp.jtrans.project.TrackProject;
 import fr.loria.synalp.jtrans.project.TurnProject;
@@ -28,9 +31,12 @@ import fr.loria.synalp.jtrans.speechreco.RecoUtterance;
 import fr.loria.synalp.jtrans.speechreco.SpeechReco;
 
 import fr.loria.synalp.jtrans.gui.spectro.SpectroControl;
+import fr.loria.synalp.jtrans.gui.spectro.WaveformOverview;
+import fr.loria.synalp.jtrans.gui.spectro.WaveformPyramid;
 import fr.loria.synalp.jtrans.speechreco.BiaisAdapt;
 import fr.loria.synalp.jtrans.utils.*;
 import static fr.loria.synalp.jtrans.speechreco.s4.S4mfccBuffer.frame2second;
+import static fr.loria.synalp.jtrans.speechreco.s4.S4mfccBuffer.second2frame;
 import static fr.loria.synalp.jtrans.utils.ResourceInstaller.asrResourceInstaller;
 
 /**
@@ -66,6 +72,7 @@ public class JTransGUI extends JPanel implements ProgressDisplay {
 	private float cursec = 0;
 	public ControlBox ctrlbox;
 	public SpectroControl spectro;
+	public WaveformOverview overview;
 	private KaraokeHighlighter karaoke;
 
 	public int mixidx=0;
@@ -77,6 +84,12 @@ public class JTransGUI extends JPanel implements ProgressDisplay {
 	private JLabel infoLabel = new JLabel();
 	private JButton abortButton = new JButton("Abort");
 
+	/** Milliseconds between updates of the background alignment's focus */
+	public static int ALIGNMENT_FOCUS_INTERVAL = 250;
+
+	private AlignmentScheduler alignmentScheduler;
+	private Timer alignmentFocusTimer;
+
 	public WordFinder contentWordFinder = new WordFinder.ByContent(this);
 	public WordFinder anonWordFinder = new WordFinder.Anonymous(this);
 
@@ -88,6 +101,7 @@ public class JTransGUI extends JPanel implements ProgressDisplay {
 	public void setCurPosInSec(float sec) {
 		cursec = sec;
 		spectro.setAudioInputStreamPosition(cursec);
+		overview.setCurPosInSec(cursec);
 	}
 
 	@Override
@@ -130,6 +144,7 @@ public class JTransGUI extends JPanel implements ProgressDisplay {
 
 	public void quit() {
 		stopKaraoke();
+		stopAlignment();
 		jf.dispose();
 		System.exit(0);
 	}
@@ -141,8 +156,10 @@ public class JTransGUI extends JPanel implements ProgressDisplay {
 	 */
 	public void setAudioSource(File soundFile) {
 		setIndeterminateProgress("Loading audio from " + soundFile + "...");
-		project.setAudio(soundFile);
+		// Build the waveform overview while converting, if needed
+		project.setAudio(soundFile, WaveformPyramid.ingestSink());
 		spectro.setAudioInputStream(getAudioStreamFromSec(0));
+		overview.setAudioFile(project.convertedAudioFile);
 		setCurPosInSec(0);
 		setProgressDone();
 	}
@@ -214,6 +231,15 @@ public class JTransGUI extends JPanel implements ProgressDisplay {
 	public JTransGUI() {
 		initPanel();
 		createJFrame();
+
+		abortButton.addActionListener(new AbstractAction() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				stopAlignment();
+				setProgressDone();
+				table.refreshCells();
+			}
+		});
 	}
 
 	public JTransGUI(JTrans cli) {
@@ -262,9 +288,10 @@ public class JTransGUI extends JPanel implements ProgressDisplay {
 			add(progressBar, BorderLayout.LINE_START);
 			add(infoLabel, BorderLayout.CENTER);
 			add(abortButton, BorderLayout.LINE_END);
-			abortButton.setEnabled(false);
+			abortButton.setEnabled(alignmentScheduler != null);
 		}};
 
+		overview = new WaveformOverview(this);
 		spectro = new SpectroControl(this);
 		spectro.setAudioInputStreamPosition(getCurPosInSec());
 
@@ -274,7 +301,8 @@ public class JTransGUI extends JPanel implements ProgressDisplay {
 		add(multiTrackScrollPane, BorderLayout.CENTER);
 
 		add(new JPanel(new BorderLayout()) {{
-			add(spectro, BorderLayout.PAGE_START);
+			add(overview, BorderLayout.PAGE_START);
+			add(spectro, BorderLayout.CENTER);
 			add(status, BorderLayout.PAGE_END);
 		}}, BorderLayout.PAGE_END);
 	}
@@ -435,67 +463,166 @@ public class JTransGUI extends JPanel implements ProgressDisplay {
 		return true;
 	}
 
+	/**
+	 * Aligns the whole project in the background. Phrases near the part of
+	 * the project being viewed or played are aligned first, and appear in
+	 * the table as soon as they are aligned, so the user can keep working
+	 * while the rest is being aligned.
+	 */
 	public void alignAll() {
 		if (!checkAudio()) {
 			return;
 		}
 
-		final Thread t = new Thread() {
-			@Override
-			public void run() {
-				Aligner aligner;
+		stopAlignment();
+
+		final Project p = project;
+		p.clearAlignment();
+		table.refreshCells();
 
-				try {
-					aligner = project.getStandardAligner(JTransGUI.this, false);
-				} catch (ReflectiveOperationException|IOException ex) {
-					errorMessage("Couldn't create aligner!", ex);
-					return;
-				}
+		final AtomicBoolean refreshQueued = new AtomicBoolean(false);
+		final Exception[] firstError = new Exception[1];
 
-				aligner.setPostAlignHook(new Runnable() {
+		final AlignmentScheduler s = new AlignmentScheduler(
+				new AlignmentScheduler.AlignerFactory() {
 					@Override
-					public void run() {
-						table.repaint();
+					public Aligner newAligner() throws Exception {
+						return p.getStandardAligner(null, false);
 					}
-				});
-
-				try {
-					project.align(aligner, null);
-				} catch (Exception ex) {
-					errorMessage("An error occured during the alignment!", ex);
-				}
-
-				SwingUtilities.invokeLater(new Runnable() {
+				},
+				null,
+				new AlignmentScheduler.Listener() {
 					@Override
-					public void run() {
-						abortButton.setEnabled(false);
+					public void jobDone(AlignmentJob job) {
+						// Coalesce repaints if jobs complete in quick succession
+						if (!refreshQueued.getAndSet(true)) {
+							SwingUtilities.invokeLater(new Runnable() {
+								@Override
+								public void run() {
+									refreshQueued.set(false);
+									table.refreshCells();
+									showAlignmentProgress();
+								}
+							});
+						}
 					}
-				});
 
-				setProgressDone();
+					@Override
+					public void jobFailed(AlignmentJob job, Exception ex) {
+						ex.printStackTrace();
+						synchronized (firstError) {
+							if (firstError[0] == null) {
+								firstError[0] = ex;
+							}
+						}
+					}
 
-			}
-		};
+					@Override
+					public void idle() {
+						SwingUtilities.invokeLater(new Runnable() {
+							@Override
+							public void run() {
+								// Ignore if superseded by another alignment
+								if (alignmentScheduler == null
+										|| !alignmentScheduler.isIdle())
+								{
+									return;
+								}
+								table.refreshCells();
+								stopAlignment();
+								setProgressDone();
+								if (firstError[0] != null) {
+									errorMessage("An error occured during the alignment!",
+											firstError[0]);
+								}
+							}
+						});
+					}
+				},
+				Aligner.PACKED_SCORER);
 
-		abortButton.addActionListener(new AbstractAction() {
+		alignmentScheduler = s;
+		alignmentFocusTimer = new Timer(ALIGNMENT_FOCUS_INTERVAL, new AbstractAction() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				t.interrupt();
+				s.setFocusFrame(second2frame(getFocusSecond()));
 			}
 		});
 
-		t.start();
-
+		s.setFocusFrame(second2frame(getFocusSecond()));
+		s.schedule(p.getAlignmentJobs());
+		alignmentFocusTimer.start();
+		showAlignmentProgress();
 		abortButton.setEnabled(true);
 	}
 
-	public void setProject(Project project) {
+
+	/**
+	 * Cancels the background alignment, if any.
+	 */
+	public void stopAlignment() {
+		if (alignmentFocusTimer != null) {
+			alignmentFocusTimer.stop();
+			alignmentFocusTimer = null;
+		}
+		if (alignmentScheduler != null) {
+			alignmentScheduler.shutdown();
+			alignmentScheduler = null;
+		}
+		abortButton.setEnabled(false);
+	}
+
+
+	/**
+	 * Returns the background alignment scheduler, e.g. to prioritize or
+	 * cancel jobs; null if the project isn't being aligned.
+	 */
+	public AlignmentScheduler getAlignmentScheduler() {
+		return alignmentScheduler;
+	}
+
+
+	private void showAlignmentProgress() {
+		AlignmentScheduler s = alignmentScheduler;
+		if (s != null && s.getTotalCount() > 0) {
+			setProgress(String.format("Aligning... (%d/%d)",
+							s.getDoneCount(), s.getTotalCount()),
+					s.getDoneCount() / (float) s.getTotalCount());
+		}
+	}
+
+
+	/**
+	 * Returns the position that the user is currently interested in: the
+	 * playback position if playing, otherwise the part of the table being
+	 * viewed.
+	 */
+	private float getFocusSecond() {
+		if (ctrlbox.getPlayerGUI().isPlaying()) {
+			return ctrlbox.getPlayerGUI().getPlayedSec();
+		}
+		float sec = table.getVisibleSecond();
+		return sec >= 0? sec: getCurPosInSec();
+	}
+
+	public void setProject(final Project project) {
+		stopAlignment();
 		this.project = project;
-		setAudioSource(project.audioFile);
 		initPanel();
+		setAudioSource(project.audioFile);
 		jf.setContentPane(this);
 		anonWordFinder.reset();
 		contentWordFinder.reset();
+
+		// Build the search index before the user needs it
+		Thread indexer = new Thread("Search index") {
+			@Override
+			public void run() {
+				project.getSearchIndex();
+			}
+		};
+		indexer.setDaemon(true);
+		indexer.start();
 	}
 
 
@@ -1,15 +1,16 @@
 package fr.loria.synalp.jtrans.gui;
 
 import fr.loria.synalp.jtrans.project.Token;
+import fr.loria.synalp.jtrans.project.TokenIndex;
 import static fr.loria.synalp.jtrans.speechreco.s4.S4mfccBuffer.second2frame;
 
 import javax.swing.*;
 import java.awt.event.ActionEvent;
-import java.util.List;
-import static java.lang.System.currentTimeMillis;
 
 /**
  * Highlights words in the GUI as they are uttered.
+ * The position is polled from the player, so highlighting follows the audio
+ * actually being played.
  */
 class KaraokeHighlighter {
 
@@ -20,14 +21,12 @@ class KaraokeHighlighter {
 	thread. */
 	Timer timer;
 	JTransGUI gui;
-	int[] hl;
-	long t0ms;
-	int initFrame = 0;
+	Token[] hl;
 
 
 	public KaraokeHighlighter(JTransGUI gui) {
 		this.gui = gui;
-		hl = new int[gui.project.speakerCount()];
+		hl = new Token[gui.project.speakerCount()];
 		timer = new Timer(KARAOKE_UPDATE_INTERVAL, new AbstractAction() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
@@ -39,8 +38,6 @@ class KaraokeHighlighter {
 
 	public void start() {
 		timer.start();
-		t0ms = System.currentTimeMillis();
-		initFrame = second2frame(gui.getCurPosInSec());
 	}
 
 
@@ -50,41 +47,28 @@ class KaraokeHighlighter {
 
 
 	public void tick() {
-		int frame = initFrame + second2frame(currentTimeMillis() - t0ms) / 1000;
+		int frame = second2frame(gui.ctrlbox.getPlayerGUI().getPlayedSec());
 
-		for (int i = 0; i < gui.project.speakerCount(); i++) {
-			// todo: TrackProject.getTokens() is slow
-			List<Token> wordList = gui.project.getTokens(i);
-			if (wordList.isEmpty()) {
-				continue;
-			}
-
-			int newHL;
-
-			for (newHL = hl[i]; newHL < wordList.size(); newHL++) {
-				Token t = wordList.get(newHL);
-				if (t.isAligned() && t.getSegment().getEndFrame() >= frame) {
-					break;
-				}
-			}
+		for (int i = 0; i < hl.length; i++) {
+			TokenIndex index = gui.project.getTokenIndex(i);
+			Token w = index.getTokenAtOrAfter(frame);
 
-			if (newHL >= wordList.size()) {
+			if (w == null) {
 				continue;
 			}
 
-			// Only update UI if the word wasn't already highlighted
-			Token w = wordList.get(newHL);
-
 			if (w.getSegment().getStartFrame() > frame) {
 				gui.table.highlightWord(i, null);
+				hl[i] = null;
 				continue;
 			}
 
-			if (hl[i] != newHL) {
+			// Only update UI if the word wasn't already highlighted
+			if (hl[i] != w) {
 				gui.table.highlightWord(i, w);
 			}
 
-			hl[i] = newHL;
+			hl[i] = w;
 		}
 	}
 
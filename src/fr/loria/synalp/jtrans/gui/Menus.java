@@ -198,6 +198,7 @@ public class Menus {
 		JMenuItem findPrev = new JMenuItem("Find previous");
 		JMenuItem findNextAnon = new JMenuItem("Find next anonymous word");
 		JMenuItem findPrevAnon = new JMenuItem("Find previous anonymous word");
+		JMenuItem listAnon = new JMenuItem("List anonymous words...");
 		menubar.add(actionsm);
 		actionsm.add(gototime);
 		actionsm.addSeparator();
@@ -207,6 +208,7 @@ public class Menus {
 		actionsm.addSeparator();
 		actionsm.add(findNextAnon);
 		actionsm.add(findPrevAnon);
+		actionsm.add(listAnon);
 
 		findWord.setAccelerator(getKeyStroke('F', modifier));
 		findNext.setAccelerator(getKeyStroke("F3"));
@@ -249,6 +251,13 @@ public class Menus {
 			}
 		});
 
+		listAnon.addActionListener(new AbstractAction() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				aligneur.anonWordFinder.prompt();
+			}
+		});
+
 		// //////////////////////////////////////////////////////////////
 		JMenu viewMenu = new JMenu("View");
 		JCheckBoxMenuItem minutesInAnchors = new JCheckBoxMenuItem("Show minutes in anchor timestamps");
@@ -3,6 +3,7 @@ package fr.loria.synalp.jtrans.gui;
 import java.awt.FlowLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.IOException;
 import java.util.ArrayList;
 
 import javax.sound.sampled.LineUnavailableException;
@@ -26,10 +27,6 @@ public class PlayerGUI extends JPanel {
 	 * Il est donc mis à jour seulement 2 fois par play: au début et à la fin.
 	 */
 	private ArrayList<ActionListener> listeners = new ArrayList<ActionListener>();
-	// date absolu de début du play 
-	private long timePlayStartedMs = -1;
-	private long timeIntervalPlayed = -1;
-	private float relativeStartingSec = 0;
 	
 	private JTransGUI aligneur=null;
 	
@@ -40,10 +37,6 @@ public class PlayerGUI extends JPanel {
 		initactions();
 	}
 	
-	public float getRelativeStartingSec() {
-		return relativeStartingSec;
-	}
-	
 	public void startPlaying() {
 		try
 		{
@@ -51,14 +44,16 @@ public class PlayerGUI extends JPanel {
 			// qqchose a faire juste avant de commencer !
 			ActionEvent ev = new ActionEvent(this, 0, "playstart");
 			for (ActionListener al : listeners) al.actionPerformed(ev);
-//			player.play(aligneur.getWavSourceFromStart());
-			player.play(aligneur.getAudioStreamFromSec(aligneur.getCurPosInSec()));
-			timePlayStartedMs=System.currentTimeMillis();
-			timeIntervalPlayed=0;
+			player.playFromSecond(aligneur.project.convertedAudioFile,
+					aligneur.getCurPosInSec());
 		} catch (LineUnavailableException ex) {
 			ex.printStackTrace();
 			aligneur.errorMessage("Can't open audio line", ex);
 			return;
+		} catch (IOException ex) {
+			ex.printStackTrace();
+			aligneur.errorMessage("Can't read audio", ex);
+			return;
 		}
 		playstop.setText("Pause");
 		playstop.setSelected(true);
@@ -67,9 +62,6 @@ public class PlayerGUI extends JPanel {
 	
 	public void stopPlaying() {
 		player.stop();
-		if (timePlayStartedMs>=0)
-			timeIntervalPlayed=System.currentTimeMillis()-timePlayStartedMs;
-		timePlayStartedMs=-1;
 		ActionEvent ev = new ActionEvent(this, 0, "playstop");
 		for (ActionListener al : listeners) al.actionPerformed(ev);
 		playstop.setText("Play");
@@ -84,25 +76,13 @@ public class PlayerGUI extends JPanel {
 	public boolean isPlaying() {return player.isPlaying();}
 	
 	/**
-	 * Playback must have been stopped for this method to work !
-	 * 
-	 * @return the length of the play in ms, between its start and its end
+	 * Returns the position being heard, in seconds from the beginning of the
+	 * audio file. This comes from the audio line, so it follows the actual
+	 * playback. Once playback is stopped, returns the position at which it
+	 * stopped.
 	 */
-	public long getTimePlayed() {
-		if (timeIntervalPlayed<=0) {
-			// TODO
-			long curtime = System.currentTimeMillis()-timePlayStartedMs;
-			return curtime;
-		} else {
-			// le play a ete arrete
-			return timeIntervalPlayed;
-		}
-	}
-	
-	public long getTimePlayStarted() {return timePlayStartedMs;}
-	
-	public void setStartSec(float sec) {
-		relativeStartingSec=sec;
+	public float getPlayedSec() {
+		return player.getSecondPosition();
 	}
 	
 	private void initgui() {
@@ -115,7 +95,6 @@ public class PlayerGUI extends JPanel {
 		rewind.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				relativeStartingSec=0;
 				ActionEvent ev = new ActionEvent(this, 0, "rewind");
 				for (ActionListener al : listeners) al.actionPerformed(ev);
 			}
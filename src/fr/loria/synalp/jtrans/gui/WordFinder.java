@@ -1,10 +1,18 @@
 package fr.loria.synalp.jtrans.gui;
 
 import fr.loria.synalp.jtrans.project.Token;
+import fr.loria.synalp.jtrans.project.TokenSearchIndex;
 
 import javax.swing.*;
+import java.awt.Dimension;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.util.List;
 
+/**
+ * Finds words in the project, in speaker order then token order.
+ * Searches go through the project's {@link TokenSearchIndex}.
+ */
 public abstract class WordFinder {
 	JTransGUI gui;
 	int cSpk = 0;
@@ -18,24 +26,16 @@ public abstract class WordFinder {
 	public void next(int delta) {
 		assert delta == 1 || delta == -1;
 
-		if (found) {
-			cWord += delta;
-			found = false;
-		}
-
 		for (;;) {
-			for (; cSpk < gui.project.speakerCount(); cSpk++) {
-				List<Token> words = gui.project.getTokens(cSpk);
-				for (; cWord >= 0 && cWord < words.size(); cWord += delta) {
-					Token t = words.get(cWord);
-					if (t.getType() == Token.Type.WORD && matches(t)) {
-						found = true;
-						gui.table.highlightWord(cSpk, t);
-						return;
-					}
-				}
-
-				reset(delta, false);
+			TokenSearchIndex.Hits hits = getHits(gui.project.getSearchIndex());
+			int[] hit = hits == null? null: hits.next(cSpk, cWord, delta, !found);
+
+			if (hit != null) {
+				cSpk = hit[0];
+				cWord = hit[1];
+				found = true;
+				gui.table.highlightWord(cSpk, hits.getToken(cSpk, cWord));
+				return;
 			}
 
 			int rc = JOptionPane.showConfirmDialog(gui.jf,
@@ -66,8 +66,10 @@ public abstract class WordFinder {
 	 * @param delta forward search if >0, backward search if <0
 	 */
 	public void reset(int delta, boolean resetCurrentSpeaker) {
+		found = false;
+
 		if (resetCurrentSpeaker) {
-			cSpk = 0;
+			cSpk = delta > 0? 0: Math.max(0, gui.project.speakerCount()-1);
 		}
 
 		if (delta > 0) {
@@ -75,7 +77,7 @@ public abstract class WordFinder {
 			cWord = 0;
 		} else {
 			// search from end
-			cWord = gui.project.getTokens(cSpk).size()-1;
+			cWord = Integer.MAX_VALUE;
 		}
 	}
 
@@ -83,7 +85,10 @@ public abstract class WordFinder {
 		reset(1, true);
 	}
 
-	public abstract boolean matches(Token word);
+	/**
+	 * Returns the words to find, or null if there is nothing to look for.
+	 */
+	protected abstract TokenSearchIndex.Hits getHits(TokenSearchIndex index);
 
 	protected abstract String getGoal();
 
@@ -102,49 +107,89 @@ public abstract class WordFinder {
 		}
 
 		@Override
-		public boolean matches(Token word) {
-			return word.shouldBeAnonymized();
+		protected TokenSearchIndex.Hits getHits(TokenSearchIndex index) {
+			return index.findAnonymized();
 		}
 
 		@Override
 		public String getGoal() {
 			return "Anonymous Words";
 		}
+
+		/**
+		 * Lists all words to be anonymized. Double-clicking a word
+		 * selects it in the table.
+		 */
+		@Override
+		public void prompt() {
+			final List<Token> tokens = gui.project.getSearchIndex()
+					.findAnonymized().getTokens();
+
+			DefaultListModel<String> listModel = new DefaultListModel<>();
+			for (Token t: tokens) {
+				listModel.addElement(t.isAligned()
+						? String.format("%s (%.2f s)", t, t.getSegment().getStartSecond())
+						: t.toString());
+			}
+
+			final JList<String> list = new JList<>(listModel);
+			list.addMouseListener(new MouseAdapter() {
+				@Override
+				public void mouseClicked(MouseEvent e) {
+					int i = list.getSelectedIndex();
+					if (e.getClickCount() == 2 && i >= 0) {
+						Token t = tokens.get(i);
+						gui.table.selectWord(t.getSpeaker(), t);
+					}
+				}
+			});
+
+			JScrollPane pane = new JScrollPane(list);
+			pane.setPreferredSize(new Dimension(300, 400));
+			JOptionPane.showMessageDialog(gui.jf, pane,
+					tokens.size() + " " + getGoal(),
+					JOptionPane.PLAIN_MESSAGE);
+		}
 	}
 
 
 	public static class ByContent extends WordFinder {
 		private String content;
+		private boolean prefix;
 
 		public ByContent(JTransGUI gui) {
 			super(gui);
 		}
 
 		@Override
-		public boolean matches(Token word) {
+		protected TokenSearchIndex.Hits getHits(TokenSearchIndex index) {
 			if (null == content) {
-				return false;
+				return null;
 			}
-			assert content.toLowerCase().equals(content);
-			return word.toString().toLowerCase().equals(content);
+			return index.find(content, prefix);
 		}
 
 		@Override
 		public void prompt() {
 			String value = JOptionPane.showInputDialog(gui.jf,
-					"Word to find",
-					content);
+					"Word to find (end with * to find a prefix)",
+					content == null? null: content + (prefix? "*": ""));
 			if (value == null) {
 				return;
 			}
-			content = value.toLowerCase();
+			value = value.trim();
+			prefix = value.endsWith("*");
+			if (prefix) {
+				value = value.substring(0, value.length()-1);
+			}
+			content = TokenSearchIndex.normalize(value);
 			reset(1, true);
 			next();
 		}
 
 		@Override
 		protected String getGoal() {
-			return "Words matching \"" + content + "\"";
+			return "Words matching \"" + content + (prefix? "*": "") + "\"";
 		}
 	}
 
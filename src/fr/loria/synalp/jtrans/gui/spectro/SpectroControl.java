@@ -45,7 +45,7 @@ public class SpectroControl extends JPanel {
 	}
 
 	public void refreshWords() {
-		words.setTokens(gui.project.getTokens(spkID));
+		words.setSpeaker(gui.project, spkID);
 		words.setFirstFrame(startFrame);
 		words.repaint();
 	}
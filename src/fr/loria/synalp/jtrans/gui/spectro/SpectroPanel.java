@@ -4,35 +4,38 @@ package fr.loria.synalp.jtrans.gui.spectro;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
-import java.awt.Image;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.awt.image.BufferedImage;
-import java.awt.image.FilteredImageSource;
-import java.awt.image.ImageFilter;
-import java.awt.image.ReplicateScaleFilter;
-import java.util.ArrayList;
-import java.util.List;
 
 import javax.sound.sampled.AudioInputStream;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 
-import edu.cmu.sphinx.frontend.FloatData;
 import fr.loria.synalp.jtrans.gui.JTransGUI;
-import fr.loria.synalp.jtrans.speechreco.s4.S4mfccBuffer;
 
 public class SpectroPanel extends JPanel {
 
-    protected BufferedImage spectrogram;
-    /** A scaled version of the spectrogram image. */
-    protected Image scaledSpectrogram;
     /** Offset factor - what will be subtracted from the image to adjust for noise level. */
     protected double offsetFactor;
     /** The zooming factor. */
     protected float zoom = 1.0f;
 
-	List<FloatData> buf;
-	
+	/** First and last (exclusive) frames of the view */
+	protected int startFrame, endFrame;
+
+	/** Computes and caches the spectrogram in the background */
+	protected final SpectroTiles tiles = new SpectroTiles(new SpectroTiles.Listener() {
+		@Override
+		public void tilesChanged() {
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					repaint();
+				}
+			});
+		}
+	});
+
     /**
      * Updates the offset factor used to calculate the greyscale values from the intensities.  This also calculates and
      * populates all the greyscale values in the image.
@@ -40,9 +43,9 @@ public class SpectroPanel extends JPanel {
      * @param offsetFactor the offset factor used to calculate the greyscale values from the intensities; this is used
      *                     to adjust the level of background noise that shows up in the image
      */
-	public void setOffsetF(double v) {offsetFactor=v;}
+	public void setOffsetF(double v) {offsetFactor=v; tiles.setOffsetFactor(v);}
 	public double getOffsetF() {return offsetFactor;}
-	
+
 	public void setZoom(float v) {zoom=v;}
 	public float getZoom() {return zoom;}
 
@@ -56,85 +59,33 @@ public class SpectroPanel extends JPanel {
 		});
 	}
 
+	/**
+	 * Starts computing the spectrogram of an audio stream in the background.
+	 */
 	public void setAudioInputStream(AudioInputStream audio) {
-		if (null == audio) {
-			buf = null;
-		} else {
-			buf = S4mfccBuffer.getAllData(audio, false);
-		}
+		tiles.load(audio);
 	}
 
-    /** Actually creates the Spectrogram image. */
+    /**
+     * Sets the frames to display. The image is painted from the tiles that
+     * are ready; missing tiles are rendered in the background.
+     */
     protected void computeSpectrogram(int startFrame, int endFrame) {
-		if (null == buf) {
-			return;
-		}
-
-		// Check bounds if asking for more frames than available
-		endFrame = Math.min(buf.size(), endFrame);
-
-		// Run through all the spectra one at a time and convert
-		// them to a log intensity value.
-		double maxIntensity = Double.MIN_VALUE;
-		ArrayList<double[]> intensitiesList = new ArrayList<>();
+		this.startFrame = startFrame;
+		this.endFrame = endFrame;
 
-		for (int f = startFrame; f < endFrame; f++) {
-			float[] spectrumData = buf.get(f).getValues();
-			if (spectrumData==null) {
-				System.err.println("null spectrum data at frame " + f);
-				break;
-			}
-			double[] intensities = new double[spectrumData.length];
-			for (int i = 0; i < intensities.length; i++) {
-				// A very small intensity is, for all intents
-				// and purposes, the same as 0.
-				intensities[i] = Math.max(Math.log(spectrumData[i]),0.0);
-				if (intensities[i] > maxIntensity) {
-					maxIntensity = intensities[i];
-				}
-			}
-			intensitiesList.add(intensities);
+		int height = tiles.getHeight();
+		if (height <= 0) {
+			repaint();
+			return;
 		}
 
-		int width = intensitiesList.size();
-		if (width<=0) return;
-		int height = (intensitiesList.get(0)).length;
-		int maxYIndex = height - 1;
-		Dimension d = new Dimension((int)(zoom*width), height);
+		Dimension d = new Dimension((int)(zoom*(endFrame-startFrame)), height);
 
 		setMinimumSize(d);
 		setMaximumSize(d);
 		setPreferredSize(d);
-
-		// Create the image for displaying the data.
-		spectrogram = new BufferedImage(width,height,BufferedImage.TYPE_INT_RGB);
-
-		// Set scaleFactor so that the maximum value, after removing
-		// the offset, will be 0xff.
-		double scaleFactor = ((0xff + offsetFactor) / maxIntensity);
-
-		for (int i = 0; i < width; i++) {
-			double[] intensities = intensitiesList.get(i);
-			for (int j = maxYIndex; j >= 0; j--) {
-
-				int grey = (int) (intensities[j] * scaleFactor
-						- offsetFactor);
-				grey = Math.max(grey, 0); // 0 = black
-				grey = 0xff - grey;       // 0xff = white
-
-				// Turn the grey into a pixel value.
-				int pixel = ((grey << 16) & 0xff0000)
-						| ((grey << 8) & 0xff00)
-						| (grey & 0xff);
-
-				spectrogram.setRGB(i, maxYIndex - j, pixel);
-			}
-		}
-		ImageFilter scaleFilter =
-				new ReplicateScaleFilter((int) (zoom * width), height);
-		scaledSpectrogram = createImage(
-				new FilteredImageSource(spectrogram.getSource(), scaleFilter));
-		repaint(0, 0, 0, getWidth() - 1, getHeight() - 1);
+		repaint();
     }
 
     @Override
@@ -144,9 +95,22 @@ public class SpectroPanel extends JPanel {
         g.setColor(Color.WHITE);
         g.fillRect(0, 0, sz.width - 1, sz.height - 1);
 
-        if (spectrogram != null) {
-            g.drawImage(scaledSpectrogram, 0, 0, null);
-        }
+		g.clipRect(0, 0, Math.round((endFrame - startFrame) * zoom), sz.height);
+
+		int level = tiles.getLevelForZoom(zoom);
+		int span = SpectroTiles.TILE_WIDTH << level;
+		int lastFrame = Math.min(endFrame, startFrame + (int) Math.ceil(sz.width / zoom));
+
+		for (int t = startFrame / span; t * span < lastFrame; t++) {
+			SpectroTiles.Tile tile = tiles.getTile(level, t);
+			if (tile == null) {
+				continue;
+			}
+			int x1 = Math.round((tile.getFirstFrame() - startFrame) * zoom);
+			int x2 = Math.round((tile.getFirstFrame() + span - startFrame) * zoom);
+			int h = tile.image.getHeight();
+			g.drawImage(tile.image, x1, 0, x2, h, 0, 0, SpectroTiles.TILE_WIDTH, h, null);
+		}
     }
 
 }
@@ -0,0 +1,452 @@
+package fr.loria.synalp.jtrans.gui.spectro;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.sound.sampled.AudioInputStream;
+
+import edu.cmu.sphinx.frontend.Data;
+import edu.cmu.sphinx.frontend.DataEndSignal;
+import edu.cmu.sphinx.frontend.FloatData;
+import edu.cmu.sphinx.frontend.FrontEnd;
+import fr.loria.synalp.jtrans.speechreco.s4.S4mfccBuffer;
+
+/**
+ * Spectrogram tile service.
+ * <p/>
+ * A background thread streams the power spectrum of the audio and stores
+ * each frame as a column of quantized log intensities (one byte per bin).
+ * Columns are also folded into a pyramid: a column at level L is the
+ * maximum of two columns at level L-1 and covers 2^L frames.
+ * <p/>
+ * Images are made of fixed-width tiles, rendered on demand by a background
+ * executor straight into the tiles' int raster. Tiles are kept in an LRU
+ * cache bounded by {@link #CACHE_BYTES}. {@link #getTile} never blocks: it
+ * returns null (and schedules rendering) if a tile is not ready, and the
+ * listener is notified when it is.
+ */
+public class SpectroTiles {
+
+	/** Number of columns in a tile. */
+	public static int TILE_WIDTH = 256;
+
+	/** Memory budget for rendered tiles. */
+	public static long CACHE_BYTES = 32L * 1024 * 1024;
+
+	/** Quantization step of log intensities, in nats. */
+	public static final float LOG_STEP = 0.125f;
+
+	/** Number of frames between two listener notifications while loading. */
+	private static final int LOAD_NOTIFY_FRAMES = 1000;
+
+
+	public interface Listener {
+		/** Called from a background thread when tiles are ready. */
+		void tilesChanged();
+	}
+
+
+	/**
+	 * Rendered tile.
+	 */
+	public static class Tile {
+		public final int level;
+		public final int index;
+		/** Number of columns that were available when this tile was rendered. */
+		public final int columns;
+		public final BufferedImage image;
+		private final int lutVersion;
+
+		Tile(int level, int index, int columns, BufferedImage image, int lutVersion) {
+			this.level = level;
+			this.index = index;
+			this.columns = columns;
+			this.image = image;
+			this.lutVersion = lutVersion;
+		}
+
+		/** Number of frames covered by a tile at this level. */
+		public int getFrameSpan() {
+			return TILE_WIDTH << level;
+		}
+
+		public int getFirstFrame() {
+			return index * getFrameSpan();
+		}
+	}
+
+
+	private final Listener listener;
+
+	/** Number of frequency bins; 0 until the first frame is read. */
+	private int height;
+
+	/** Column chunks of TILE_WIDTH*height bytes, for each pyramid level. */
+	private final List<List<byte[]>> levels = new ArrayList<>();
+
+	/** Number of columns for each pyramid level. */
+	private final List<Integer> columnCounts = new ArrayList<>();
+
+	/** Highest quantized intensity seen so far. */
+	private int maxQ;
+
+	private boolean loaded;
+
+	/** Incremented for each new audio stream; stops older loaders. */
+	private int generation;
+
+	private double offsetFactor;
+
+	/** Quantized intensity to RGB. */
+	private int[] lut;
+	private int lutVersion;
+
+	private final LinkedHashMap<Long, Tile> cache = new LinkedHashMap<>(16, .75f, true);
+	private long cacheBytes;
+	private final Set<Long> pending = new HashSet<>();
+
+	private final ExecutorService renderer = Executors.newSingleThreadExecutor(
+			new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Spectrogram tiles");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+
+	public SpectroTiles(Listener listener) {
+		this.listener = listener;
+	}
+
+
+	/**
+	 * Starts streaming the spectrum of an audio stream in the background,
+	 * discarding the previous one.
+	 * @param audio may be null to clear the spectrogram
+	 */
+	public void load(final AudioInputStream audio) {
+		final int gen;
+		synchronized (this) {
+			gen = ++generation;
+			reset();
+			loaded = audio == null;
+		}
+		notifyListener();
+
+		if (audio == null) {
+			return;
+		}
+
+		Thread loader = new Thread("Spectrogram loader") {
+			@Override
+			public void run() {
+				FrontEnd fe = S4mfccBuffer.getFrontEnd(audio, false);
+				int frames = 0;
+				for (;;) {
+					Data d = fe.getData();
+					if (d == null || d instanceof DataEndSignal) {
+						break;
+					}
+					float[] v;
+					try {
+						v = FloatData.toFloatData(d).getValues();
+					} catch (IllegalArgumentException ex) {
+						continue; // not a FloatData/DoubleData
+					}
+					if (!addFrame(gen, v)) {
+						return;
+					}
+					if (++frames % LOAD_NOTIFY_FRAMES == 0) {
+						notifyListener();
+					}
+				}
+				finish(gen);
+				notifyListener();
+			}
+		};
+		loader.setDaemon(true);
+		loader.start();
+	}
+
+
+	private void reset() {
+		height = 0;
+		levels.clear();
+		columnCounts.clear();
+		maxQ = 0;
+		cache.clear();
+		cacheBytes = 0;
+		lut = null;
+	}
+
+
+	/**
+	 * Adds a power spectrum frame.
+	 * @return false if this loader is obsolete
+	 */
+	synchronized boolean addFrame(int gen, float[] spectrum) {
+		if (gen != generation) {
+			return false;
+		}
+		if (height == 0) {
+			height = spectrum.length;
+		}
+
+		byte[] col = new byte[height];
+		for (int i = 0; i < height && i < spectrum.length; i++) {
+			// A very small intensity is, for all intents and purposes, the same as 0.
+			double intensity = Math.max(Math.log(spectrum[i]), 0.0);
+			int q = Math.min(255, (int) (intensity / LOG_STEP));
+			col[i] = (byte) q;
+			if (q > maxQ) {
+				maxQ = q;
+			}
+		}
+		appendColumn(0, col);
+		return true;
+	}
+
+
+	/**
+	 * Folds the trailing unpaired column of each level into the next one, so
+	 * that every level covers the whole stream.
+	 */
+	synchronized void finish(int gen) {
+		if (gen != generation) {
+			return;
+		}
+		for (int level = 0; level < levels.size(); level++) {
+			int n = columnCounts.get(level);
+			if (n > 1 && n % 2 == 1) {
+				appendColumn(level+1, getColumn(level, n-1));
+			}
+		}
+		loaded = true;
+		// tiles rendered while loading were scaled to a partial maximum
+		lut = null;
+		cache.clear();
+		cacheBytes = 0;
+	}
+
+
+	/** Last value of the load generation, for frames added directly. */
+	synchronized int getGeneration() {
+		return generation;
+	}
+
+
+	private void appendColumn(int level, byte[] col) {
+		if (level == levels.size()) {
+			levels.add(new ArrayList<byte[]>());
+			columnCounts.add(0);
+		}
+		List<byte[]> chunks = levels.get(level);
+		int n = columnCounts.get(level);
+		if (n % TILE_WIDTH == 0) {
+			chunks.add(new byte[TILE_WIDTH * height]);
+		}
+		System.arraycopy(col, 0, chunks.get(n / TILE_WIDTH), (n % TILE_WIDTH) * height, height);
+		columnCounts.set(level, n+1);
+
+		if (n % 2 == 1) {
+			byte[] prev = getColumn(level, n-1);
+			byte[] up = new byte[height];
+			for (int i = 0; i < height; i++) {
+				up[i] = (byte) Math.max(prev[i] & 0xff, col[i] & 0xff);
+			}
+			appendColumn(level+1, up);
+		}
+	}
+
+
+	private byte[] getColumn(int level, int c) {
+		byte[] chunk = levels.get(level).get(c / TILE_WIDTH);
+		return Arrays.copyOfRange(chunk, (c % TILE_WIDTH) * height, (c % TILE_WIDTH + 1) * height);
+	}
+
+
+	public synchronized boolean isLoaded() {
+		return loaded;
+	}
+
+
+	/** Number of frequency bins (image height). */
+	public synchronized int getHeight() {
+		return height;
+	}
+
+
+	/** Number of frames read so far. */
+	public synchronized int getFrameCount() {
+		return columnCounts.isEmpty()? 0: columnCounts.get(0);
+	}
+
+
+	/**
+	 * Coarsest pyramid level whose columns cover at most one pixel.
+	 * @param zoom pixels per frame
+	 */
+	public synchronized int getLevelForZoom(float zoom) {
+		int level = 0;
+		while (level+1 < levels.size() && (1 << (level+1)) * zoom <= 1f) {
+			level++;
+		}
+		return level;
+	}
+
+
+	/**
+	 * Sets the offset subtracted from intensities to hide background noise.
+	 */
+	public synchronized void setOffsetFactor(double offsetFactor) {
+		if (offsetFactor != this.offsetFactor) {
+			this.offsetFactor = offsetFactor;
+			lut = null;
+		}
+	}
+
+
+	private int[] getLut() {
+		if (lut == null) {
+			lut = new int[256];
+			lutVersion++;
+			double maxIntensity = Math.max(maxQ, 1) * LOG_STEP;
+			// Set scaleFactor so that the maximum value, after removing
+			// the offset, will be 0xff.
+			double scaleFactor = (0xff + offsetFactor) / maxIntensity;
+			for (int q = 0; q < 256; q++) {
+				int grey = (int) (q * LOG_STEP * scaleFactor - offsetFactor);
+				grey = Math.max(0, Math.min(0xff, grey)); // 0 = black
+				grey = 0xff - grey;                       // 0xff = white
+				lut[q] = (grey << 16) | (grey << 8) | grey;
+			}
+		}
+		return lut;
+	}
+
+
+	private static long key(int level, int index) {
+		return ((long) level << 32) | (index & 0xffffffffL);
+	}
+
+
+	/**
+	 * Returns a rendered tile, or null if it isn't ready yet. Missing or
+	 * outdated tiles are scheduled for rendering.
+	 */
+	public synchronized Tile getTile(final int level, final int index) {
+		if (level >= levels.size() || index < 0) {
+			return null;
+		}
+		int available = Math.min(TILE_WIDTH, columnCounts.get(level) - index * TILE_WIDTH);
+		if (available <= 0) {
+			return null;
+		}
+
+		int[] l = getLut();
+		long k = key(level, index);
+		Tile t = cache.get(k);
+		boolean stale = t == null || t.lutVersion != lutVersion || t.columns < available;
+
+		if (stale && pending.add(k)) {
+			final int gen = generation;
+			renderer.submit(new Runnable() {
+				@Override
+				public void run() {
+					render(gen, level, index);
+				}
+			});
+		}
+
+		return t;
+	}
+
+
+	private void render(int gen, int level, int index) {
+		byte[] chunk;
+		int columns, h;
+		int[] l;
+		int version;
+		synchronized (this) {
+			pending.remove(key(level, index));
+			if (gen != generation || level >= levels.size()) {
+				return;
+			}
+			chunk = levels.get(level).get(index);
+			columns = Math.min(TILE_WIDTH, columnCounts.get(level) - index * TILE_WIDTH);
+			h = height;
+			l = getLut();
+			version = lutVersion;
+		}
+
+		BufferedImage img = new BufferedImage(TILE_WIDTH, h, BufferedImage.TYPE_INT_RGB);
+		int[] raster = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+		Arrays.fill(raster, 0xffffff);
+		for (int x = 0; x < columns; x++) {
+			int base = x * h;
+			// low frequencies at the bottom
+			for (int y = 0, j = h-1; y < h; y++, j--) {
+				raster[y * TILE_WIDTH + x] = l[chunk[base + j] & 0xff];
+			}
+		}
+
+		synchronized (this) {
+			if (gen != generation) {
+				return;
+			}
+			long k = key(level, index);
+			Tile old = cache.put(k, new Tile(level, index, columns, img, version));
+			if (old != null) {
+				cacheBytes -= tileBytes(old);
+			}
+			cacheBytes += (long) TILE_WIDTH * h * 4;
+			evict(k);
+		}
+
+		notifyListener();
+	}
+
+
+	private static long tileBytes(Tile t) {
+		return (long) t.image.getWidth() * t.image.getHeight() * 4;
+	}
+
+
+	private void evict(long keep) {
+		Iterator<Map.Entry<Long, Tile>> it = cache.entrySet().iterator();
+		while (cacheBytes > CACHE_BYTES && it.hasNext()) {
+			Map.Entry<Long, Tile> e = it.next();
+			if (e.getKey() == keep) {
+				continue;
+			}
+			cacheBytes -= tileBytes(e.getValue());
+			it.remove();
+		}
+	}
+
+
+	synchronized long getCacheBytes() {
+		return cacheBytes;
+	}
+
+
+	private void notifyListener() {
+		if (listener != null) {
+			listener.tilesChanged();
+		}
+	}
+
+}
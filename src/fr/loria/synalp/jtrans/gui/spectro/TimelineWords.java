@@ -1,14 +1,15 @@
 package fr.loria.synalp.jtrans.gui.spectro;
 
+import fr.loria.synalp.jtrans.project.Project;
 import fr.loria.synalp.jtrans.project.Token;
 
 import javax.swing.JPanel;
 import javax.swing.SwingUtilities;
 import java.awt.*;
-import java.util.List;
 
 public class TimelineWords extends JPanel {
-	private List<Token> words;
+	private Project project;
+	private int speaker;
 	private int firstFrame;
 	private float zoom=1f;
 	private FontMetrics metrics;
@@ -18,8 +19,13 @@ public class TimelineWords extends JPanel {
 		metrics = getFontMetrics(getFont());
 	}
 
-	public void setTokens(List<Token> words) {
-		this.words = words;
+	/**
+	 * Shows the aligned tokens of a speaker. The project's token index is
+	 * queried on each repaint, so it reflects alignment changes.
+	 */
+	public void setSpeaker(Project project, int speaker) {
+		this.project = project;
+		this.speaker = speaker;
 	}
 
 	public void setFirstFrame(int fr) {
@@ -57,7 +63,7 @@ public class TimelineWords extends JPanel {
 
 		super.paintComponent(g);
 
-		if (words == null) {
+		if (project == null || speaker >= project.speakerCount()) {
 			return;
 		}
 
@@ -66,15 +72,7 @@ public class TimelineWords extends JPanel {
 
 		final int lastFrame = firstFrame + (int)(w/zoom);
 
-		for (Token word: words) {
-			if (!word.isAligned() ||
-					word.getSegment().getEndFrame() < firstFrame)
-			{
-				continue;
-			} else if (word.getSegment().getStartFrame() > lastFrame) {
-				return;
-			}
-
+		for (Token word: project.getTokenIndex(speaker).getTokens(firstFrame, lastFrame)) {
 			drawSegment(g, word.toString(), word.getSegment(), h-5, h);
 			for (Token.Phone p: word.getPhones()) {
 				drawSegment(g, p.toString(), p.getSegment(), h/2-5, 3);
@@ -0,0 +1,221 @@
+package fr.loria.synalp.jtrans.gui.spectro;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.io.File;
+import java.io.IOException;
+
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+
+import fr.loria.synalp.jtrans.gui.JTransGUI;
+
+/**
+ * Overview strip of the whole recording, drawn from a {@link WaveformPyramid}.
+ * <p/>
+ * The part of the recording shown by the spectrogram is highlighted.
+ * Clicking or dragging moves the current position; the mouse wheel zooms in
+ * and out around the pointer.
+ */
+public class WaveformOverview extends JPanel {
+
+	/** Seconds shown by the spectrogram, highlighted around the position. */
+	public static float WINDOW_SEC = 5f;
+
+	/** Shortest visible span when zooming in. */
+	public static float MIN_SPAN_SEC = 1f;
+
+	private static final Color BACKGROUND = Color.WHITE;
+	private static final Color PEAK = new Color(0x9fb5d0);
+	private static final Color RMS = new Color(0x3d5f8a);
+	private static final Color WINDOW = new Color(255, 160, 0, 80);
+	private static final Color CURSOR = new Color(0xd05000);
+
+	private final JTransGUI gui;
+
+	private WaveformPyramid pyramid;
+
+	/** Incremented for each new audio file; discards older loaders. */
+	private int generation;
+
+	/** Visible span of the recording, in seconds. */
+	private float viewStart, viewEnd;
+
+	private float cursec;
+
+	/** Scratch buffer for envelope queries. */
+	private final int[] env = new int[3];
+
+
+	public WaveformOverview(final JTransGUI gui) {
+		this.gui = gui;
+		setPreferredSize(new Dimension(100, 40));
+		setMinimumSize(new Dimension(10, 20));
+
+		MouseAdapter mouse = new MouseAdapter() {
+			@Override
+			public void mousePressed(MouseEvent e) {
+				if (e.getButton() == MouseEvent.BUTTON1) {
+					seek(e.getX());
+				}
+			}
+
+			@Override
+			public void mouseDragged(MouseEvent e) {
+				if (SwingUtilities.isLeftMouseButton(e)) {
+					seek(e.getX());
+				}
+			}
+
+			@Override
+			public void mouseWheelMoved(MouseWheelEvent e) {
+				zoom(e.getX(), (float) Math.pow(2, e.getWheelRotation()));
+			}
+		};
+		addMouseListener(mouse);
+		addMouseMotionListener(mouse);
+		addMouseWheelListener(mouse);
+	}
+
+
+	/**
+	 * Loads (or builds, the first time) the envelope of an audio file in the
+	 * background.
+	 * @param audio may be null to clear the overview
+	 */
+	public void setAudioFile(final File audio) {
+		final int gen = ++generation;
+		setPyramid(null);
+		if (audio == null) {
+			return;
+		}
+
+		Thread loader = new Thread("Waveform overview") {
+			@Override
+			public void run() {
+				final WaveformPyramid p;
+				try {
+					p = WaveformPyramid.forAudio(audio);
+				} catch (IOException ex) {
+					ex.printStackTrace();
+					return;
+				}
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						if (gen == generation) {
+							setPyramid(p);
+						}
+					}
+				});
+			}
+		};
+		loader.setDaemon(true);
+		loader.start();
+	}
+
+
+	public void setPyramid(WaveformPyramid pyramid) {
+		this.pyramid = pyramid;
+		viewStart = 0;
+		viewEnd = pyramid == null? 0: pyramid.getDurationInSec();
+		repaint();
+	}
+
+
+	/**
+	 * Moves the highlighted window, scrolling the view to keep it visible.
+	 */
+	public void setCurPosInSec(float sec) {
+		cursec = sec;
+		float span = viewEnd - viewStart;
+		if (pyramid != null && (sec < viewStart || sec + WINDOW_SEC > viewEnd)) {
+			setView(sec + WINDOW_SEC/2f - span/2f, span);
+		}
+		repaint();
+	}
+
+
+	private void setView(float start, float span) {
+		float duration = pyramid.getDurationInSec();
+		span = Math.max(Math.min(span, duration), Math.min(MIN_SPAN_SEC, duration));
+		start = Math.max(0, Math.min(start, duration - span));
+		viewStart = start;
+		viewEnd = start + span;
+	}
+
+
+	private float xToSec(int x) {
+		return viewStart + x * (viewEnd - viewStart) / Math.max(1, getWidth());
+	}
+
+
+	private int secToX(float sec) {
+		return Math.round((sec - viewStart) * getWidth() / (viewEnd - viewStart));
+	}
+
+
+	private void seek(int x) {
+		if (pyramid == null) {
+			return;
+		}
+		gui.setCurPosInSec(Math.max(0, xToSec(x) - WINDOW_SEC/2f));
+	}
+
+
+	private void zoom(int x, float factor) {
+		if (pyramid == null) {
+			return;
+		}
+		float pivot = xToSec(x);
+		float span = (viewEnd - viewStart) * factor;
+		setView(pivot - (pivot - viewStart) * factor, span);
+		repaint();
+	}
+
+
+	@Override
+	protected void paintComponent(Graphics g) {
+		int w = getWidth();
+		int h = getHeight();
+
+		g.setColor(BACKGROUND);
+		g.fillRect(0, 0, w, h);
+
+		if (pyramid == null || viewEnd <= viewStart) {
+			return;
+		}
+
+		double rate = pyramid.getSampleRate();
+		double first = viewStart * rate;
+		double samplesPerPixel = (viewEnd - viewStart) * rate / w;
+		int level = pyramid.getLevelForSpan(samplesPerPixel);
+		int mid = h / 2;
+		float scale = (h / 2f) / 32768f;
+
+		for (int x = 0; x < w; x++) {
+			long from = (long) (first + x * samplesPerPixel);
+			long to = Math.max(from + 1, (long) (first + (x+1) * samplesPerPixel));
+			if (!pyramid.getEnvelope(level, from, to, env)) {
+				continue;
+			}
+			g.setColor(PEAK);
+			g.drawLine(x, mid - Math.round(env[1] * scale), x, mid - Math.round(env[0] * scale));
+			int r = Math.round(env[2] * scale);
+			g.setColor(RMS);
+			g.drawLine(x, mid - r, x, mid + r);
+		}
+
+		int x1 = secToX(cursec);
+		int x2 = Math.max(x1 + 1, secToX(cursec + WINDOW_SEC));
+		g.setColor(WINDOW);
+		g.fillRect(x1, 0, x2 - x1, h);
+		g.setColor(CURSOR);
+		g.drawLine(x1, 0, x1, h);
+	}
+
+}
@@ -0,0 +1,397 @@
+package fr.loria.synalp.jtrans.gui.spectro;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import fr.loria.synalp.jtrans.utils.AudioIngest;
+import fr.loria.synalp.jtrans.utils.Cache;
+
+/**
+ * Waveform envelope pyramid.
+ * <p/>
+ * Each block of 2^(BASE_SHIFT+L) samples at level L is summarized by its
+ * minimum, maximum and RMS amplitude. Level 0 is computed in a single
+ * streaming pass over the audio; a block at level L+1 merges two blocks at
+ * level L (an unpaired trailing block is carried up as is), until a single
+ * block covers the whole recording.
+ * <p/>
+ * The pyramid is written to the cache next to the converted audio and read
+ * back through a memory-mapped buffer, so that any range of a long recording
+ * can be drawn by reading about one block per pixel.
+ */
+public class WaveformPyramid {
+
+	public static final int MAGIC = 0x4A54574F; // "JTWO"
+	public static final int VERSION = 1;
+
+	/** log2 of the number of samples in a level 0 block. */
+	public static int BASE_SHIFT = 8;
+
+	/** Shorts per block: min, max, RMS. */
+	private static final int STRIDE = 3;
+
+	private static final int READ_BUFFER_BYTES = 64 * 1024;
+
+
+	private final float sampleRate;
+	private final long sampleCount;
+	private final int baseShift;
+	private final int[] blockCounts;
+	/** Blocks of each level, as (min, max, rms) triplets. */
+	private final ShortBuffer[] levels;
+
+
+	private WaveformPyramid(float sampleRate, long sampleCount, int baseShift,
+							int[] blockCounts, ShortBuffer[] levels)
+	{
+		this.sampleRate = sampleRate;
+		this.sampleCount = sampleCount;
+		this.baseShift = baseShift;
+		this.blockCounts = blockCounts;
+		this.levels = levels;
+	}
+
+
+	/**
+	 * Returns the pyramid of an audio file, building it into the cache if
+	 * needed. Synchronized so that concurrent loaders don't write the same
+	 * cache file.
+	 */
+	public static synchronized WaveformPyramid forAudio(final File audio) throws IOException {
+		Cache.FileFactory factory = new Cache.FileFactory() {
+			@Override
+			public void write(File f) throws IOException {
+				build(audio, f);
+			}
+		};
+
+		File f = Cache.cachedFile("waveform", "env", factory, audio);
+		try {
+			return open(f);
+		} catch (IOException ex) {
+			// Outdated or truncated cache file
+			System.err.println("Rebuilding waveform envelope: " + ex.getMessage());
+			factory.write(f);
+			return open(f);
+		}
+	}
+
+
+	/**
+	 * Returns an ingestion sink that builds the pyramid of the audio while it
+	 * is being converted, and caches it for {@link #forAudio}.
+	 */
+	public static AudioIngest.Sink ingestSink() {
+		return new AudioIngest.Sink() {
+			File tmp;
+
+			@Override
+			public void consume(AudioInputStream converted) throws IOException {
+				tmp = File.createTempFile("jtrans", ".env");
+				tmp.deleteOnExit();
+				build(converted, tmp);
+			}
+
+			@Override
+			public void done(File wav) throws IOException {
+				if (wav == null || tmp == null) {
+					return;
+				}
+				synchronized (WaveformPyramid.class) {
+					Files.move(tmp.toPath(),
+							Cache.getCacheFile("waveform", "env", wav).toPath(),
+							StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+		};
+	}
+
+
+	public static void build(File audio, File out) throws IOException {
+		try (AudioInputStream ais = AudioSystem.getAudioInputStream(audio)) {
+			build(ais, out);
+		} catch (UnsupportedAudioFileException ex) {
+			throw new IOException(ex);
+		}
+	}
+
+
+	/**
+	 * Computes the pyramid of an audio stream in one pass and writes it to
+	 * a file. Stereo audio is downmixed.
+	 */
+	public static void build(AudioInputStream audio, File out) throws IOException {
+		AudioFormat fmt = audio.getFormat();
+		if (fmt.getEncoding() != AudioFormat.Encoding.PCM_SIGNED
+				|| fmt.getSampleSizeInBits() != 16
+				|| fmt.getChannels() != 1)
+		{
+			audio = AudioSystem.getAudioInputStream(
+					new AudioFormat(fmt.getSampleRate(), 16, 1, true, false),
+					audio);
+			fmt = audio.getFormat();
+		}
+		boolean bigEndian = fmt.isBigEndian();
+
+		final int blockSize = 1 << BASE_SHIFT;
+		short[] base = new short[STRIDE * 1024];
+		int blocks = 0;
+
+		int min = Short.MAX_VALUE, max = Short.MIN_VALUE;
+		double sumSq = 0;
+		int inBlock = 0;
+		long samples = 0;
+
+		byte[] buf = new byte[READ_BUFFER_BYTES];
+		int carry = 0;
+		for (;;) {
+			int n = audio.read(buf, carry, buf.length - carry);
+			if (n < 0) {
+				break;
+			}
+			n += carry;
+			int end = n & ~1;
+			for (int i = 0; i < end; i += 2) {
+				int s = bigEndian
+						? (buf[i] << 8) | (buf[i+1] & 0xff)
+						: (buf[i+1] << 8) | (buf[i] & 0xff);
+				if (s < min) min = s;
+				if (s > max) max = s;
+				sumSq += (double) s * s;
+				if (++inBlock == blockSize) {
+					if (blocks * STRIDE == base.length) {
+						base = Arrays.copyOf(base, base.length * 2);
+					}
+					putBlock(base, blocks++, min, max, Math.sqrt(sumSq / inBlock));
+					min = Short.MAX_VALUE;
+					max = Short.MIN_VALUE;
+					sumSq = 0;
+					inBlock = 0;
+				}
+			}
+			samples += end / 2;
+			carry = n - end;
+			if (carry > 0) {
+				buf[0] = buf[end];
+			}
+		}
+		if (inBlock > 0) {
+			if (blocks * STRIDE == base.length) {
+				base = Arrays.copyOf(base, base.length + STRIDE);
+			}
+			putBlock(base, blocks++, min, max, Math.sqrt(sumSq / inBlock));
+		}
+
+		List<short[]> pyramid = new ArrayList<>();
+		List<Integer> counts = new ArrayList<>();
+		pyramid.add(base);
+		counts.add(blocks);
+		while (blocks > 1) {
+			short[] below = pyramid.get(pyramid.size()-1);
+			int upBlocks = (blocks + 1) / 2;
+			short[] up = new short[upBlocks * STRIDE];
+			for (int b = 0; b < upBlocks; b++) {
+				int l = 2*b*STRIDE;
+				if (2*b + 1 < blocks) {
+					int r = l + STRIDE;
+					double rl = below[l+2], rr = below[r+2];
+					putBlock(up, b,
+							Math.min(below[l], below[r]),
+							Math.max(below[l+1], below[r+1]),
+							Math.sqrt((rl*rl + rr*rr) / 2));
+				} else {
+					System.arraycopy(below, l, up, b*STRIDE, STRIDE);
+				}
+			}
+			pyramid.add(up);
+			counts.add(upBlocks);
+			blocks = upBlocks;
+		}
+
+		try (DataOutputStream dos = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(out))))
+		{
+			dos.writeInt(MAGIC);
+			dos.writeInt(VERSION);
+			dos.writeFloat(fmt.getSampleRate());
+			dos.writeInt(BASE_SHIFT);
+			dos.writeLong(samples);
+			dos.writeInt(pyramid.size());
+			for (int c: counts) {
+				dos.writeInt(c);
+			}
+			for (int l = 0; l < pyramid.size(); l++) {
+				short[] level = pyramid.get(l);
+				for (int i = 0; i < counts.get(l) * STRIDE; i++) {
+					dos.writeShort(level[i]);
+				}
+			}
+		}
+	}
+
+
+	private static void putBlock(short[] level, int block, int min, int max, double rms) {
+		int o = block * STRIDE;
+		level[o] = (short) min;
+		level[o+1] = (short) max;
+		level[o+2] = (short) Math.min(Short.MAX_VALUE, Math.round(rms));
+	}
+
+
+	/**
+	 * Memory-maps a pyramid file.
+	 * @throws IOException if the file is corrupt or has an unknown version
+	 */
+	public static WaveformPyramid open(File f) throws IOException {
+		MappedByteBuffer map;
+		try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+			FileChannel ch = raf.getChannel();
+			map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+		}
+
+		try {
+			if (map.getInt() != MAGIC) {
+				throw new IOException("not a waveform envelope: " + f);
+			}
+			int version = map.getInt();
+			if (version != VERSION) {
+				throw new IOException("unsupported waveform envelope version " + version);
+			}
+			float sampleRate = map.getFloat();
+			int baseShift = map.getInt();
+			long sampleCount = map.getLong();
+			int nLevels = map.getInt();
+			if (nLevels < 1 || nLevels > 64) {
+				throw new IOException("bad level count " + nLevels);
+			}
+
+			int[] counts = new int[nLevels];
+			for (int l = 0; l < nLevels; l++) {
+				counts[l] = map.getInt();
+			}
+
+			ShortBuffer[] levels = new ShortBuffer[nLevels];
+			for (int l = 0; l < nLevels; l++) {
+				int len = counts[l] * STRIDE * 2;
+				if (counts[l] < 0 || len > map.remaining()) {
+					throw new IOException("truncated waveform envelope: " + f);
+				}
+				ByteBuffer slice = map.slice();
+				slice.limit(len);
+				levels[l] = slice.asShortBuffer();
+				map.position(map.position() + len);
+			}
+
+			return new WaveformPyramid(sampleRate, sampleCount, baseShift, counts, levels);
+		} catch (java.nio.BufferUnderflowException ex) {
+			throw new IOException("truncated waveform envelope: " + f, ex);
+		}
+	}
+
+
+	public float getSampleRate() {
+		return sampleRate;
+	}
+
+
+	public long getSampleCount() {
+		return sampleCount;
+	}
+
+
+	public float getDurationInSec() {
+		return sampleCount / sampleRate;
+	}
+
+
+	public int getLevelCount() {
+		return levels.length;
+	}
+
+
+	public int getBlockCount(int level) {
+		return blockCounts[level];
+	}
+
+
+	/** Number of samples covered by a block at the given level. */
+	public long getBlockSize(int level) {
+		return 1L << (baseShift + level);
+	}
+
+
+	public short getMin(int level, int block) {
+		return levels[level].get(block*STRIDE);
+	}
+
+
+	public short getMax(int level, int block) {
+		return levels[level].get(block*STRIDE + 1);
+	}
+
+
+	public short getRMS(int level, int block) {
+		return levels[level].get(block*STRIDE + 2);
+	}
+
+
+	/**
+	 * Coarsest level whose blocks span at most the given number of samples.
+	 */
+	public int getLevelForSpan(double samplesPerPixel) {
+		int level = 0;
+		while (level+1 < levels.length && getBlockSize(level+1) <= samplesPerPixel) {
+			level++;
+		}
+		return level;
+	}
+
+
+	/**
+	 * Summarizes the samples in [from, to) from the blocks of a level that
+	 * overlap this range.
+	 * @param out receives min, max and RMS
+	 * @return false if the range is empty or out of the recording
+	 */
+	public boolean getEnvelope(int level, long from, long to, int[] out) {
+		long size = getBlockSize(level);
+		int first = (int) Math.max(0, from / size);
+		int last = (int) Math.min(blockCounts[level], (to + size - 1) / size);
+		if (first >= last) {
+			return false;
+		}
+
+		ShortBuffer buf = levels[level];
+		int min = Short.MAX_VALUE, max = Short.MIN_VALUE;
+		double sumSq = 0;
+		for (int b = first, o = first*STRIDE; b < last; b++, o += STRIDE) {
+			min = Math.min(min, buf.get(o));
+			max = Math.max(max, buf.get(o+1));
+			double rms = buf.get(o+2);
+			sumSq += rms * rms;
+		}
+		out[0] = min;
+		out[1] = max;
+		out[2] = (int) Math.sqrt(sumSq / (last - first));
+		return true;
+	}
+
+}
@@ -2,32 +2,50 @@ package fr.loria.synalp.jtrans.gui.table;
 
 import fr.loria.synalp.jtrans.project.Project;
 import fr.loria.synalp.jtrans.project.Token;
-import fr.loria.synalp.jtrans.utils.spantable.DefaultSpanModel;
+import fr.loria.synalp.jtrans.utils.spantable.IndexedSpanModel;
 import fr.loria.synalp.jtrans.utils.spantable.SpanModel;
 import fr.loria.synalp.jtrans.utils.spantable.SpanTableModel;
 
 import javax.swing.table.AbstractTableModel;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Non-editable model.
+ * <p/>
+ * Subclasses only lay out rows when they are constructed. Text cells are
+ * materialized on demand (typically for the rows being painted or measured)
+ * and kept in a bounded LRU cache; token-to-row maps are built on the first
+ * highlight.
  */
 public abstract class ProjectModel<ProjectT extends Project>
 		extends AbstractTableModel
 		implements SpanTableModel
 {
+	/** Maximum number of text cells kept in memory. */
+	public static int CELL_CACHE_SIZE = 4096;
+
 	protected ProjectT project;
 	protected List<Column> columns = new ArrayList<>();
-	protected SpanModel spanModel = new DefaultSpanModel();
+	protected SpanModel spanModel = new IndexedSpanModel();
+
+	private final Map<Long, TextCell> cellCache =
+			new LinkedHashMap<Long, TextCell>(256, .75f, true)
+	{
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, TextCell> eldest) {
+			return size() > CELL_CACHE_SIZE;
+		}
+	};
 
 	protected class Column {
 		final int spkID;
 
 		// Highlight variables
-		Map<Token, Integer> tokenRowMap = new HashMap<>();
+		private Map<Token, Integer> tokenRowMap;
 		Token highlighted;
 		int highlightedRow = -1;
 
@@ -35,10 +53,25 @@ public abstract class ProjectModel<ProjectT extends Project>
 			this.spkID = spkID;
 		}
 
+		int getTokenRow(Token token) {
+			if (tokenRowMap == null) {
+				tokenRowMap = new IdentityHashMap<>();
+				for (int row = 0; row < getRowCount(); row++) {
+					List<Token> tokens = getCellTokens(row, spkID);
+					if (tokens != null) {
+						for (Token t: tokens) {
+							tokenRowMap.put(t, row);
+						}
+					}
+				}
+			}
+			Integer row = tokenRowMap.get(token);
+			return row == null? -1: row;
+		}
+
 		void highlightElement(Token token) {
 			int oldHLRow = highlightedRow;
-			Integer tc = tokenRowMap.get(token);
-			int newHLRow = tc==null? -1: tc;
+			int newHLRow = token == null? -1: getTokenRow(token);
 
 			// if newHLRow>=0: don't un-highlight cell if null word
 			if (oldHLRow != newHLRow && newHLRow >= 0) {
@@ -67,6 +100,63 @@ public abstract class ProjectModel<ProjectT extends Project>
 	}
 
 
+	/**
+	 * Returns the tokens shown in a cell, or null if the cell doesn't
+	 * contain text.
+	 */
+	protected abstract List<Token> getCellTokens(int row, int col);
+
+
+	/**
+	 * Returns the text cell at the given position, creating it if needed.
+	 * @return null if the cell doesn't contain text
+	 */
+	protected TextCell getTextCell(int row, int col) {
+		long key = ((long) row << 32) | col;
+		TextCell cell = cellCache.get(key);
+		if (cell == null) {
+			List<Token> tokens = getCellTokens(row, col);
+			if (tokens == null || tokens.isEmpty()) {
+				return null;
+			}
+			cell = new TextCell(columns.get(col).spkID, tokens);
+			cellCache.put(key, cell);
+		}
+		return cell;
+	}
+
+
+	/**
+	 * Returns true if the other model lays out the same rows and spans.
+	 */
+	public abstract boolean hasSameLayout(ProjectModel<?> other);
+
+
+	/**
+	 * Brings the row layout up to date with the project without rebuilding
+	 * the rows of the parts that haven't changed. If this returns true, this
+	 * model may be kept and merely refreshed with {@link #invalidateCells}.
+	 * @return false if the layout has changed in a way that requires a new
+	 * model
+	 */
+	public abstract boolean updateLayout();
+
+
+	/**
+	 * Discards materialized cells so that they reflect changes in the
+	 * tokens (e.g. new alignment), without changing the row layout.
+	 */
+	public void invalidateCells() {
+		cellCache.clear();
+		for (Column c: columns) {
+			c.tokenRowMap = null;
+		}
+		if (getRowCount() > 0) {
+			fireTableRowsUpdated(0, getRowCount()-1);
+		}
+	}
+
+
 	public int getColumnCount() {
 		return project.speakerCount();
 	}
@@ -1,5 +1,6 @@
 package fr.loria.synalp.jtrans.gui.table;
 
+import fr.loria.synalp.jtrans.align.AlignmentScheduler;
 import fr.loria.synalp.jtrans.gui.*;
 import fr.loria.synalp.jtrans.project.*;
 import fr.loria.synalp.jtrans.utils.*;
@@ -8,7 +9,10 @@ import fr.loria.synalp.jtrans.utils.spantable.SpanTable;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.util.Arrays;
 import javax.swing.*;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import javax.swing.table.*;
 
 /* Implementation notes: JTable's standard "editing" mode doesn't play nice with
@@ -29,6 +33,9 @@ public class ProjectTable
 
 	public static final int MIN_ROW_HEIGHT = 16;
 
+	/** Rows measured beyond each edge of the viewport. */
+	public static int LAYOUT_MARGIN_ROWS = 50;
+
 	private Project project;
 	private JTransGUI gui; // used in UI callbacks
 	private ProjectModel model;
@@ -38,6 +45,22 @@ public class ProjectTable
 	private JLabel anchorComp;
 	private CellPane textComp;
 
+	/**
+	 * Height of each row measured for the current font and column widths,
+	 * or 0 if the row hasn't been measured yet.
+	 */
+	private int[] measuredHeights = new int[0];
+
+	/** Column widths for which measuredHeights are valid. */
+	private int[] measuredWidths = new int[0];
+
+	private final ChangeListener viewportListener = new ChangeListener() {
+		@Override
+		public void stateChanged(ChangeEvent e) {
+			measureVisibleRows();
+		}
+	};
+
 
 	/**
 	 * @param gui used in UI callbacks. May be null ONLY if interactive is null!
@@ -162,9 +185,18 @@ public class ProjectTable
 
 	/**
 	 * Refreshes the MultiTrackTableModel. Should be called after a column is
-	 * hidden or shown.
+	 * hidden or shown, or after the tokens have changed.
+	 * <p/>
+	 * If the rows are laid out as before (e.g. after an alignment), or if
+	 * turns were only appended, the current model is kept: rows are added
+	 * for the new turns and the cells are refreshed; spans are preserved.
 	 */
 	public void refreshModel() {
+		if (model != null && model.updateLayout()) {
+			refreshCells();
+			return;
+		}
+
 		if (project instanceof TurnProject) {
 			model = new TurnModel((TurnProject)project);
 		} else if (project instanceof TrackProject) {
@@ -173,10 +205,55 @@ public class ProjectTable
 			throw new IllegalArgumentException("no table model available " +
 					"for project class " + project.getClass());
 		}
+
 		setModel(model);
 	}
 
 
+	/**
+	 * Refreshes the cells after the alignment of their tokens has changed.
+	 * Cheaper than {@link #refreshModel()}, as the layout is assumed to be
+	 * unchanged. Rows are measured again, as their text may have changed.
+	 */
+	public void refreshCells() {
+		model.invalidateCells();
+		Arrays.fill(measuredHeights, 0);
+		measureVisibleRows();
+	}
+
+
+	/**
+	 * Returns the time of the first timed anchor in the visible rows,
+	 * or -1 if there is none.
+	 */
+	public float getVisibleSecond() {
+		Rectangle vr = getVisibleRect();
+		if (vr.height <= 0) {
+			return -1;
+		}
+
+		int first = rowAtPoint(new Point(0, vr.y));
+		int last = rowAtPoint(new Point(0, vr.y + vr.height - 1));
+		if (first < 0) {
+			return -1;
+		}
+		if (last < 0) {
+			last = getRowCount() - 1;
+		}
+
+		for (int row = first; row <= last; row++) {
+			for (int col = 0; col < model.getColumnCount(); col++) {
+				Object value = model.getValueAt(row, col);
+				if (value instanceof Anchor && ((Anchor) value).seconds >= 0) {
+					return ((Anchor) value).seconds;
+				}
+			}
+		}
+
+		return -1;
+	}
+
+
 	/**
 	 * Sets our custom cell renderer for all cells.
 	 */
@@ -186,48 +263,119 @@ public class ProjectTable
 		for (int i = 0; i < getColumnModel().getColumnCount(); i++) {
 			getColumnModel().getColumn(i).setCellRenderer(this);
 		}
+		measuredHeights = new int[tm.getRowCount()];
+	}
+
+
+	@Override
+	public void addNotify() {
+		super.addNotify();
+		if (getParent() instanceof JViewport) {
+			((JViewport) getParent()).addChangeListener(viewportListener);
+		}
+	}
+
+
+	@Override
+	public void removeNotify() {
+		if (getParent() instanceof JViewport) {
+			((JViewport) getParent()).removeChangeListener(viewportListener);
+		}
+		super.removeNotify();
 	}
 
 
 	/**
 	 * TextArea cells may wrap lines. Row height is flexible.
+	 * <p/>
+	 * Only the rows in the viewport (plus a margin) are measured; other rows
+	 * keep an estimated height until they are scrolled into view. Measured
+	 * heights are cached until the font or the column widths change.
 	 */
 	@Override
 	public void doLayout() {
+		super.doLayout();
+
 		TableColumnModel tcm = getColumnModel();
-		final int intercellWidth = getIntercellSpacing().width;
-		final int intercellHeight = getIntercellSpacing().height;
+		int[] widths = new int[tcm.getColumnCount()];
+		for (int i = 0; i < widths.length; i++) {
+			widths[i] = tcm.getColumn(i).getWidth();
+		}
+		if (!Arrays.equals(widths, measuredWidths)) {
+			measuredWidths = widths;
+			Arrays.fill(measuredHeights, 0);
+		}
 
-		for (int row = 0; row < getRowCount(); row++) {
-			int newRowHeight = MIN_ROW_HEIGHT;
+		measureVisibleRows();
+	}
 
-			for (int i = 0; i < project.speakerCount(); i++) {
-				TableColumn tableCol = tcm.getColumn(i);
-				Component cell = prepareRenderer(tableCol.getCellRenderer(),
-						row, i);
 
-				int w = tableCol.getWidth() - intercellWidth;
-				int prefH = cell.getPreferredSize().height;
-				cell.setSize(w, prefH);
-				prefH = cell.getPreferredSize().height;
+	private void measureVisibleRows() {
+		if (measuredHeights.length != getRowCount()) {
+			measuredHeights = Arrays.copyOf(measuredHeights, getRowCount());
+		}
 
-				int h = intercellHeight + Math.max(MIN_ROW_HEIGHT, prefH);
-				if (h > newRowHeight) {
-					newRowHeight = h;
-				}
+		Rectangle vr = getVisibleRect();
+		int first = vr.height > 0? rowAtPoint(new Point(0, vr.y)): 0;
+		int last = vr.height > 0? rowAtPoint(new Point(0, vr.y + vr.height - 1)): -1;
+		if (first < 0) {
+			first = 0;
+		}
+		if (last < 0) {
+			last = Math.min(getRowCount(), first + LAYOUT_MARGIN_ROWS) - 1;
+		}
+
+		first = Math.max(0, first - LAYOUT_MARGIN_ROWS);
+		last = Math.min(getRowCount() - 1, last + LAYOUT_MARGIN_ROWS);
+
+		for (int row = first; row <= last; row++) {
+			if (measuredHeights[row] == 0) {
+				measuredHeights[row] = measureRow(row);
 			}
+			if (getRowHeight(row) != measuredHeights[row]) {
+				setRowHeight(row, measuredHeights[row]);
+			}
+		}
+	}
+
+
+	private int measureRow(int row) {
+		TableColumnModel tcm = getColumnModel();
+		final int intercellWidth = getIntercellSpacing().width;
+		final int intercellHeight = getIntercellSpacing().height;
+
+		int newRowHeight = MIN_ROW_HEIGHT;
 
-			if (getRowHeight(row) != newRowHeight) {
-				setRowHeight(row, newRowHeight);
+		for (int i = 0; i < tcm.getColumnCount(); i++) {
+			TableColumn tableCol = tcm.getColumn(i);
+			Component cell = prepareRenderer(tableCol.getCellRenderer(),
+					row, i);
+
+			int w = tableCol.getWidth() - intercellWidth;
+			int prefH = cell.getPreferredSize().height;
+			cell.setSize(w, prefH);
+			prefH = cell.getPreferredSize().height;
+
+			int h = intercellHeight + Math.max(MIN_ROW_HEIGHT, prefH);
+			if (h > newRowHeight) {
+				newRowHeight = h;
 			}
 		}
 
-		super.doLayout();
+		return newRowHeight;
 	}
 
 
 	public void setViewFont(Font font) {
 		textComp.setFont(font);
+
+		// Estimated height of rows that haven't been measured yet.
+		// This resets all row heights.
+		Insets insets = textComp.getInsets();
+		setRowHeight(Math.max(MIN_ROW_HEIGHT,
+				getFontMetrics(font).getHeight() + insets.top + insets.bottom));
+		measuredHeights = new int[getRowCount()];
+
 		doLayout();
 	}
 
@@ -440,6 +588,15 @@ public class ProjectTable
 			gui.spectro.setSpeaker(spkID);
 		} else {
 			replay = false;
+
+			// Align this word's phrase next if the project is being aligned
+			AlignmentScheduler scheduler = gui.getAlignmentScheduler();
+			if (scheduler != null) {
+				AlignmentJob job = scheduler.findJob(word);
+				if (job != null) {
+					scheduler.prioritize(job);
+				}
+			}
 		}
 
 		if (replay)
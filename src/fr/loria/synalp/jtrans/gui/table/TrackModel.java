@@ -1,5 +1,6 @@
 package fr.loria.synalp.jtrans.gui.table;
 
+import fr.loria.synalp.jtrans.project.Anchor;
 import fr.loria.synalp.jtrans.project.Phrase;
 import fr.loria.synalp.jtrans.project.Project;
 import fr.loria.synalp.jtrans.project.Token;
@@ -13,8 +14,12 @@ public class TrackModel extends ProjectModel<TrackProject> {
 
 	private int nonEmptyRowCount;
 
+	/** Number of non-null cells in all columns */
+	private int cellCount;
+
 
 	private class TrackColumn extends Column {
+		/** Anchor or Phrase in each row; phrases are shown as text cells */
 		Object[] cells;
 
 		// Variables used when building table data
@@ -38,7 +43,7 @@ public class TrackModel extends ProjectModel<TrackProject> {
 			cells[currentRow] = phrase.getInitialAnchor();
 
 			if (!phrase.isEmpty()) {
-				cells[currentRow+1] = new TextCell(spkID, phrase);
+				cells[currentRow+1] = phrase;
 				lastCellWasText = true;
 				lastRow = currentRow + 1;
 				return 2;
@@ -60,7 +65,86 @@ public class TrackModel extends ProjectModel<TrackProject> {
 
 	@Override
 	public Object getValueAt(int rowIndex, int columnIndex) {
-		return ((TrackColumn)columns.get(columnIndex)).cells[rowIndex];
+		Object cell = ((TrackColumn)columns.get(columnIndex)).cells[rowIndex];
+		return cell instanceof Phrase? getTextCell(rowIndex, columnIndex): cell;
+	}
+
+
+	@Override
+	protected List<Token> getCellTokens(int row, int col) {
+		Object cell = ((TrackColumn)columns.get(col)).cells[row];
+		return cell instanceof Phrase? (Phrase) cell: null;
+	}
+
+
+	/**
+	 * Checks that the phrases would be laid out in the same cells as they
+	 * are now. New rows aren't added in place: a new model must be built if
+	 * phrases were added, removed or reordered.
+	 */
+	@Override
+	public boolean updateLayout() {
+		if (project.speakerCount() != columns.size()) {
+			return false;
+		}
+
+		int row = 0;
+		int checkedCells = 0;
+
+		LinearBridge lb = new LinearBridge(project);
+
+		while (lb.hasNext()) {
+			int maxDelta = 0;
+			Phrase[] phrases = lb.next();
+
+			for (int i = 0; i < phrases.length; i++) {
+				if (phrases[i] == null) {
+					continue;
+				}
+
+				Object[] cells = ((TrackColumn)columns.get(i)).cells;
+				Anchor anchor = phrases[i].getInitialAnchor();
+				int d = phrases[i].isEmpty()? 1: 2;
+
+				if (row + d > nonEmptyRowCount
+						|| cells[row] != anchor
+						|| (d == 2 && cells[row+1] != phrases[i]))
+				{
+					return false;
+				}
+
+				checkedCells += (anchor != null? 1: 0) + (d - 1);
+				maxDelta = Math.max(d, maxDelta);
+			}
+			row += maxDelta;
+		}
+
+		// No cell is left over from phrases that were removed
+		return row == nonEmptyRowCount && checkedCells == cellCount;
+	}
+
+
+	@Override
+	public boolean hasSameLayout(ProjectModel<?> other) {
+		if (!(other instanceof TrackModel)
+				|| project != other.project
+				|| getColumnCount() != other.getColumnCount()
+				|| getRowCount() != other.getRowCount())
+		{
+			return false;
+		}
+
+		for (int c = 0; c < getColumnCount(); c++) {
+			Object[] mine = ((TrackColumn)columns.get(c)).cells;
+			Object[] theirs = ((TrackColumn)other.columns.get(c)).cells;
+			for (int row = 0; row < getRowCount(); row++) {
+				if (mine[row] != theirs[row]) {
+					return false;
+				}
+			}
+		}
+
+		return true;
 	}
 
 
@@ -85,6 +169,14 @@ public class TrackModel extends ProjectModel<TrackProject> {
 		}
 
 		nonEmptyRowCount = populateRows();
+
+		for (Column c: columns) {
+			for (Object cell: ((TrackColumn)c).cells) {
+				if (cell != null) {
+					cellCount++;
+				}
+			}
+		}
 	}
 
 
@@ -104,12 +196,6 @@ public class TrackModel extends ProjectModel<TrackProject> {
 				}
 
 				TrackColumn col = (TrackColumn)columns.get(i);
-
-				for (Token token: phrases[i]) {
-					// row+1 because a row must be left for the anchor
-					col.tokenRowMap.put(token, row+1);
-				}
-
 				col.addRowSpan(row);
 				int d = col.ontoNextCell(row, phrases[i]);
 				maxDelta = Math.max(d, maxDelta);
@@ -4,61 +4,118 @@ import fr.loria.synalp.jtrans.project.Token;
 import fr.loria.synalp.jtrans.project.TurnProject;
 import fr.loria.synalp.jtrans.utils.spantable.Span;
 
+import java.util.Arrays;
+import java.util.List;
+
 public class TurnModel extends ProjectModel<TurnProject> {
 
-	private int nonEmptyRowCount;
-	private Object[][] cells;
+	private static final byte START_ANCHOR = 0;
+	private static final byte TEXT = 1;
+	private static final byte END_ANCHOR = 2;
+	private static final byte EMPTY = 3;
+
+	/** Anchor rows of a turn (bit mask) */
+	private static final int START_ROW = 1;
+	private static final int END_ROW = 2;
+
+	private int nonEmptyRowCount = 0;
+
+	/** Turn shown in each row */
+	private int[] rowTurns = new int[0];
+
+	/** Contents of each row (START_ANCHOR, TEXT, END_ANCHOR or EMPTY) */
+	private byte[] rowKinds = new byte[0];
+
+	/** Turns laid out so far */
+	private TurnProject.Turn[] turns = new TurnProject.Turn[0];
+
+	/** Anchor rows of each turn laid out so far */
+	private byte[] turnAnchorRows = new byte[0];
 
 
 	public TurnModel(TurnProject p) {
 		project = p;
 
-		int maxRowCount = 4 * project.turns.size();
-		cells = new Object[project.speakerCount()][maxRowCount];
-
 		for (int i = 0; i < project.speakerCount(); i++) {
 			columns.add(new Column(i));
 		}
 
-		int row = 0;
+		layOut(0);
+	}
 
-		TurnProject.Turn previousTurn = null;
 
-		for (int t = 0; t < project.turns.size(); t++) {
+	/**
+	 * Returns the anchor rows (START_ROW, END_ROW) shown for a turn.
+	 * An anchor shared by two contiguous turns is shown once.
+	 */
+	private static byte anchorRows(TurnProject.Turn previousTurn, TurnProject.Turn turn) {
+		byte rows = 0;
+		if (turn.start != null &&
+				(previousTurn == null || (previousTurn.end != null && !previousTurn.end.equals(turn.start))))
+		{
+			rows |= START_ROW;
+		}
+		if (turn.end != null) {
+			rows |= END_ROW;
+		}
+		return rows;
+	}
+
+
+	/**
+	 * Appends rows for the turns starting at the given index.
+	 */
+	private void layOut(int firstTurn) {
+		final int turnCount = project.turns.size();
+
+		int maxRowCount = nonEmptyRowCount + 4 * (turnCount - firstTurn);
+		rowTurns = Arrays.copyOf(rowTurns, maxRowCount);
+		rowKinds = Arrays.copyOf(rowKinds, maxRowCount);
+		Arrays.fill(rowKinds, nonEmptyRowCount, maxRowCount, EMPTY);
+		turns = Arrays.copyOf(turns, turnCount);
+		turnAnchorRows = Arrays.copyOf(turnAnchorRows, turnCount);
+
+		int row = nonEmptyRowCount;
+
+		TurnProject.Turn previousTurn = firstTurn > 0?
+				project.turns.get(firstTurn-1): null;
+
+		for (int t = firstTurn; t < turnCount; t++) {
 			assert (row+2) < maxRowCount;
 
 			TurnProject.Turn turn = project.turns.get(t);
+			byte anchorRows = anchorRows(previousTurn, turn);
 
-			if (turn.start != null &&
-					(previousTurn == null || (previousTurn.end != null && !previousTurn.end.equals(turn.start))))
-			{
+			if ((anchorRows & START_ROW) != 0) {
 				if (row > 0) {
 					row++;
 				}
 
 				spanModel.addSpan(new Span(row, 0, 1, project.speakerCount()));
-				cells[0][row++] = turn.start;
+				setRow(row++, t, START_ANCHOR);
 			}
 
-			for (int spk = 0; spk < project.speakerCount(); spk++) {
-				if (!turn.spkTokens.get(spk).isEmpty()) {
-					cells[spk][row] = new TextCell(spk, turn.spkTokens.get(spk));
-					for (Token token: turn.spkTokens.get(spk)) {
-						columns.get(spk).tokenRowMap.put(token, row);
-					}
-				}
-			}
-			row++;
+			setRow(row++, t, TEXT);
 
-			if (turn.end != null) {
+			if ((anchorRows & END_ROW) != 0) {
 				spanModel.addSpan(new Span(row, 0, 1, project.speakerCount()));
-				cells[0][row++] = turn.end;
+				setRow(row++, t, END_ANCHOR);
 			}
 
+			turns[t] = turn;
+			turnAnchorRows[t] = anchorRows;
 			previousTurn = turn;
 		}
 
 		nonEmptyRowCount = row;
+		rowTurns = Arrays.copyOf(rowTurns, row);
+		rowKinds = Arrays.copyOf(rowKinds, row);
+	}
+
+
+	private void setRow(int row, int turn, byte kind) {
+		rowTurns[row] = turn;
+		rowKinds[row] = kind;
 	}
 
 
@@ -70,7 +127,73 @@ public class TurnModel extends ProjectModel<TurnProject> {
 
 	@Override
 	public Object getValueAt(int rowIndex, int columnIndex) {
-		return cells[columnIndex][rowIndex];
+		TurnProject.Turn turn = project.turns.get(rowTurns[rowIndex]);
+
+		switch (rowKinds[rowIndex]) {
+			case START_ANCHOR:
+				return columnIndex == 0? turn.start: null;
+			case END_ANCHOR:
+				return columnIndex == 0? turn.end: null;
+			case TEXT:
+				return getTextCell(rowIndex, columnIndex);
+			default:
+				return null;
+		}
+	}
+
+
+	@Override
+	protected List<Token> getCellTokens(int row, int col) {
+		if (rowKinds[row] != TEXT) {
+			return null;
+		}
+		return project.turns.get(rowTurns[row]).spkTokens.get(col);
+	}
+
+
+	/**
+	 * Appends rows for the turns added at the end of the project.
+	 * Turns that were already laid out must be unchanged.
+	 */
+	@Override
+	public boolean updateLayout() {
+		final int turnCount = project.turns.size();
+
+		if (turnCount < turns.length || project.speakerCount() != columns.size()) {
+			return false;
+		}
+
+		TurnProject.Turn previousTurn = null;
+		for (int t = 0; t < turns.length; t++) {
+			TurnProject.Turn turn = project.turns.get(t);
+			if (turn != turns[t] || anchorRows(previousTurn, turn) != turnAnchorRows[t]) {
+				return false;
+			}
+			previousTurn = turn;
+		}
+
+		if (turnCount > turns.length) {
+			int firstRow = nonEmptyRowCount;
+			layOut(turns.length);
+			if (nonEmptyRowCount > firstRow) {
+				fireTableRowsInserted(firstRow, nonEmptyRowCount-1);
+			}
+		}
+
+		return true;
+	}
+
+
+	@Override
+	public boolean hasSameLayout(ProjectModel<?> other) {
+		if (!(other instanceof TurnModel)) {
+			return false;
+		}
+		TurnModel o = (TurnModel) other;
+		return project == o.project
+				&& getColumnCount() == o.getColumnCount()
+				&& Arrays.equals(rowTurns, o.rowTurns)
+				&& Arrays.equals(rowKinds, o.rowKinds);
 	}
 
 }
@@ -1,33 +1,47 @@
 package fr.loria.synalp.jtrans.markup.in;
 
+import fr.loria.synalp.jtrans.markup.jtr.JTRBinary;
+import fr.loria.synalp.jtrans.markup.jtr.JTRReader;
 import fr.loria.synalp.jtrans.project.Project;
 import fr.loria.synalp.jtrans.project.TrackProject;
 import fr.loria.synalp.jtrans.utils.FileUtils;
 
-import static fr.loria.synalp.jtrans.markup.jtr.JTR.*;
-
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Reader;
 
 /**
  * Parser for JTrans's JSON format.
+ * Binary JTR files (see {@link JTRBinary}) are detected automatically.
  */
 public class JTRLoader implements MarkupLoader {
 
 	@Override
 	public Project parse(File file) throws ParsingException, IOException {
-		Reader r = FileUtils.getUTF8Reader(file);
-		ProjectWrapper pw = newGson().fromJson(r, ProjectWrapper.class);
-		r.close();
-		
-		if (pw.project instanceof TrackProject) {
+		Project project;
+
+		if (JTRBinary.isBinary(file)) {
+			try (InputStream in = new FileInputStream(file)) {
+				project = JTRBinary.read(in);
+			}
+		} else {
+			try (Reader r = FileUtils.getUTF8Reader(file)) {
+				project = new JTRReader(r).read();
+			} catch (IllegalStateException ex) {
+				// JsonReader reports unexpected tokens this way
+				throw new ParsingException("JTR: " + ex.getMessage());
+			}
+		}
+
+		if (project instanceof TrackProject) {
 			System.out.println("track project detected");
-			TrackProject p = (TrackProject)pw.project;
+			TrackProject p = (TrackProject)project;
 			p.removeEmptyPhrases();
 		}
 		
-		return pw.project;
+		return project;
 	}
 
 
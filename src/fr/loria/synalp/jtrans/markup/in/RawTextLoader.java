@@ -5,12 +5,25 @@ import fr.loria.synalp.jtrans.utils.FileUtils;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.*;
 
 /**
  * Parser for raw transcription text.
  */
 public class RawTextLoader implements MarkupLoader {
+
+	// Patterns used by normalizeText, compiled once (it is called for every
+	// interval of a TextGrid).
+	private static final Pattern
+			JUNK_PUNCTUATION = Pattern.compile("[\"=]"),
+			GLUED_APOSTROPHE = Pattern.compile("\'(\\S)"),
+			TRAILING_DASH = Pattern.compile(" -$");
+
+	/** Compiled comment patterns, keyed by regular expression. */
+	private static final Map<String, Pattern> PATTERN_CACHE =
+			new ConcurrentHashMap<>();
+
 	/**
 	 * Substitute junk characters with ones that JTrans can handle.
 	 */
@@ -118,9 +131,12 @@ public class RawTextLoader implements MarkupLoader {
 				.replace("\r\n", "\n")              // Windows CRLF
 				.replace('\r', '\n')                // remaining non-Unix linebreaks
 				.replace('\u00a0', ' ')             // non-breaking spaces
-				.replaceAll("[\"=]", " ")           // junk punctuation marks (Note: heureusement que les // ont ete traites avant JTrans, sinon on les perdrait ici. ATTENTION: les // ne sont pas traites avant dans le cas des TextGrid !)
-				.replaceAll("\'(\\S)", "\' $1")     // add space after apostrophes glued to a word
-                .replaceAll("-"," -")
+		;
+		// junk punctuation marks (Note: heureusement que les // ont ete traites avant JTrans, sinon on les perdrait ici. ATTENTION: les // ne sont pas traites avant dans le cas des TextGrid !)
+		text = JUNK_PUNCTUATION.matcher(text).replaceAll(" ");
+		// add space after apostrophes glued to a word
+		text = GLUED_APOSTROPHE.matcher(text).replaceAll("\' $1")
+                .replace("-"," -")
 //				.replace('-', ' ')					// delete all '-'; TODO: keep the dash attached to the second word ? keep special words attached "week-end" ?
 		;
         // don't know how to remove / but not // with regexp; so:
@@ -142,8 +158,8 @@ public class RawTextLoader implements MarkupLoader {
             }
         }
         // il y a un autre bug lorsqu'on lit depuis les textgrid, c'est que dans les amorces "a-", le tiret est considere comme un event acoustique. Je le transforme donc ici en comment:
-        text=text.replaceAll(" - "," [-] ");
-        text=text.replaceAll(" -$"," [-]");
+        text=text.replace(" - "," [-] ");
+        text=TRAILING_DASH.matcher(text).replaceAll(" [-]");
         return text;
 	}
 
@@ -199,7 +215,11 @@ public class RawTextLoader implements MarkupLoader {
 		ArrayList<NonTextSegment> nonText0 = new ArrayList<NonTextSegment>();
 
 		for (Map.Entry<Token.Type, String> entry: commentPatterns.entrySet()) {
-			Pattern pat = Pattern.compile(entry.getValue());
+			Pattern pat = PATTERN_CACHE.get(entry.getValue());
+			if (pat == null) {
+				pat = Pattern.compile(entry.getValue());
+				PATTERN_CACHE.put(entry.getValue(), pat);
+			}
 			Matcher mat = pat.matcher(normedText);
 			while (mat.find())
 				nonText0.add(new NonTextSegment(mat.start(), mat.end(), entry.getKey()));
@@ -1,25 +1,120 @@
 package fr.loria.synalp.jtrans.markup.in;
 
-import fr.loria.synalp.jtrans.project.Anchor;
 import fr.loria.synalp.jtrans.project.Token;
 import fr.loria.synalp.jtrans.project.TurnProject;
 import org.w3c.dom.*;
 import org.xml.sax.*;
 
 import javax.xml.parsers.*;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLResolver;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.*;
-import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import static javax.xml.stream.XMLStreamConstants.*;
+
 /**
  * Parser for the Transcriber file format.
+ * <p/>
+ * Files are read in a single streaming (StAX) pass; no XML tree is built
+ * unless {@link #KEEP_DOCUMENT} is set.
  */
 public class TRSLoader implements MarkupLoader {
 
 	public static Pattern DTD_PATTERN =
 			Pattern.compile("^.*(trans-[0-9a-z]*\\.dtd)$");
 
+	/**
+	 * Validate Transcriber files against their DTD before loading them.
+	 * Validation is an extra streaming pass; it only reports errors.
+	 */
+	public static boolean VALIDATE = false;
+
+	/**
+	 * Keep the XML tree in {@link TurnProject#document} after loading.
+	 * This forces the DOM-based parser, which uses much more memory.
+	 */
+	public static boolean KEEP_DOCUMENT = false;
+
+
+	/**
+	 * Resolves Transcriber DTDs to the copies bundled with JTrans.
+	 * Returns null for any other system ID.
+	 */
+	protected static InputStream openDTD(String systemId)
+			throws IOException
+	{
+		if (systemId == null) {
+			return null;
+		}
+
+		Matcher m = DTD_PATTERN.matcher(systemId);
+		if (!m.matches()) {
+			return null;
+		}
+
+		String dtdName = m.group(1);
+
+		InputStream dtd = TRSLoader.class.getResourceAsStream(dtdName);
+		if (dtd == null) {
+			throw new IOException("Lacking DTD: " + dtdName);
+		}
+
+		return dtd;
+	}
+
+
+	protected static final EntityResolver DTD_ENTITY_RESOLVER = new EntityResolver() {
+		@Override
+		public InputSource resolveEntity(String publicId, String systemId)
+				throws IOException, SAXException
+		{
+			try {
+				InputStream dtd = openDTD(systemId);
+				return dtd == null? null: new InputSource(dtd);
+			} catch (IOException ex) {
+				throw new SAXException(ex.getMessage());
+			}
+		}
+	};
+
+
+	protected static final XMLResolver DTD_XML_RESOLVER = new XMLResolver() {
+		@Override
+		public Object resolveEntity(String publicID, String systemID,
+									String baseURI, String namespace)
+				throws XMLStreamException
+		{
+			try {
+				return openDTD(systemID);
+			} catch (IOException ex) {
+				throw new XMLStreamException(ex.getMessage());
+			}
+		}
+	};
+
+
+	protected static final ErrorHandler XML_ERROR_HANDLER = new ErrorHandler() {
+		@Override
+		public void warning(SAXParseException e) {
+			System.err.println("XML Warning: " + e);
+		}
+
+		@Override
+		public void error(SAXParseException e) {
+			System.err.println("XML Error: " + e);
+		}
+
+		@Override
+		public void fatalError(SAXParseException e) throws SAXException {
+			System.err.println("XML Fatal Error: " + e);
+			throw e;
+		}
+	};
+
 
 	public static Document parseXML(File file)
 			throws ParsingException, IOException
@@ -36,151 +131,275 @@ public class TRSLoader implements MarkupLoader {
 	}
 
 
+	/**
+	 * Validates a Transcriber file against its DTD without building a tree.
+	 * Validation errors are reported on stderr; only fatal errors throw.
+	 */
+	public static void validate(File file)
+			throws ParsingException, IOException
+	{
+		try {
+			SAXParserFactory spf = SAXParserFactory.newInstance();
+			spf.setValidating(true);
+			spf.setNamespaceAware(true);
+			XMLReader reader = spf.newSAXParser().getXMLReader();
+			reader.setEntityResolver(DTD_ENTITY_RESOLVER);
+			reader.setErrorHandler(XML_ERROR_HANDLER);
+			reader.parse(new InputSource(file.toURI().toString()));
+		} catch (ParserConfigurationException ex) {
+			ex.printStackTrace();
+			throw new ParsingException(ex.toString());
+		} catch (SAXException ex) {
+			ex.printStackTrace();
+			throw new ParsingException(ex.toString());
+		}
+	}
+
+
 	public TurnProject parse(File file)
 			throws ParsingException, IOException
 	{
-		return parse(parseXML(file));
+		if (KEEP_DOCUMENT) {
+			Document doc = parseXML(file);
+			TurnProject project = parse(doc);
+			project.document = doc;
+			return project;
+		}
+
+		if (VALIDATE) {
+			validate(file);
+		}
+
+		try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+			XMLStreamReader reader = newXMLStreamReader(in, file);
+			try {
+				return parse(reader);
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException ex) {
+			ex.printStackTrace();
+			throw new ParsingException(ex.toString());
+		}
 	}
 
 
-	public TurnProject parse(Document doc) throws ParsingException {
-		TurnProject project = new TurnProject();
+	/**
+	 * Creates the builder that turns Transcriber markup into a project.
+	 * Subclasses may override this to alter the interpretation of anchors.
+	 */
+	TRSProjectBuilder newProjectBuilder() {
+		return new TRSProjectBuilder(true);
+	}
 
-		// Map of Transcriber's speaker IDs to JTrans tracks
-		Map<String, Integer> spkIDMap = new HashMap<>();
 
-		// Last sync times (to detect unordered sync times)
-		float lastSyncTime = -1f;
+	/**
+	 * Builds a project in a single pass over a Transcriber document.
+	 */
+	public TurnProject parse(XMLStreamReader reader)
+			throws ParsingException, XMLStreamException
+	{
+		TRSProjectBuilder builder = newProjectBuilder();
 
-		// end time of last turn
-		float lastEnd = -1f;
+		while (reader.hasNext()) {
+			if (reader.next() != START_ELEMENT) {
+				continue;
+			}
 
-		NodeList speakerList = doc.getElementsByTagName("Speakers");
-		if (1 != speakerList.getLength()) {
-			throw new ParsingException("TRS error: expected 1 Speakers tag " +
-					"but found " + speakerList.getLength() + "!");
+			switch (reader.getLocalName()) {
+				case "Speakers":
+					builder.speakers();
+					break;
+
+				case "Speaker":
+					builder.speaker(
+							attribute(reader, "id"),
+							attribute(reader, "name"));
+					break;
+
+				case "Section":
+					builder.section(
+							attribute(reader, "startTime"),
+							attribute(reader, "endTime"));
+					break;
+
+				case "Turn":
+					parseTurn(reader, builder);
+					break;
+			}
 		}
 
-		// Create speaker tracks and build ID map
-		for (Node spk = speakerList.item(0).getFirstChild();
-			 null != spk;
-			 spk = spk.getNextSibling())
+		return builder.finish();
+	}
+
+
+	/**
+	 * Consumes a Turn element, starting right after its start tag and ending
+	 * on its end tag.
+	 */
+	private static void parseTurn(XMLStreamReader reader, TRSProjectBuilder builder)
+			throws ParsingException, XMLStreamException
+	{
+		if (!builder.startTurn(
+				attribute(reader, "speaker"),
+				attribute(reader, "endTime")))
 		{
-			if (!spk.getNodeName().equals("Speaker"))
-				continue;
+			skipElement(reader);
+			return;
+		}
+
+		StringBuilder text = new StringBuilder();
+
+		while (true) {
+			switch (reader.next()) {
+				case CHARACTERS:
+				case CDATA:
+				case SPACE:
+					text.append(reader.getText());
+					break;
+
+				case COMMENT:
+					flushText(text, builder);
+					break;
+
+				case START_ELEMENT:
+					flushText(text, builder);
+					String name = reader.getLocalName();
+
+					if (name.equals("Sync")) {
+						builder.sync(attribute(reader, "time"));
+					} else if (name.equals("Who")) {
+						builder.who(attribute(reader, "nb"));
+					} else {
+						builder.token(transformNode(
+								name, attribute(reader, "desc")));
+					}
 
-			Element el = (Element)spk;
-			String trsID   = el.getAttribute("id");
-			String name    = el.getAttribute("name");
+					// Only direct children of the Turn are significant
+					skipElement(reader);
+					break;
 
-			int newSpkID = project.newSpeaker(name);
-			spkIDMap.put(trsID, newSpkID);
+				case END_ELEMENT:
+					flushText(text, builder);
+					builder.endTurn();
+					return;
+			}
 		}
+	}
 
-		// Extract relevant information (speech text, Sync tags...) from Turn tags.
-		NodeList turnList = doc.getElementsByTagName("Turn");
-		for (int i = 0; i < turnList.getLength(); i++) {
-			Element turn = (Element)turnList.item(i);
-			Node child = turn.getFirstChild();
 
-			// Map IDs of speakers active in this turn to tracks
-			String speakerAttr = turn.getAttribute("speaker");
-			if (speakerAttr.isEmpty()) {
-				System.err.println("TRS WARNING: skipping turn without any speakers");
-				continue;
+	private static void flushText(StringBuilder text, TRSProjectBuilder builder) {
+		if (text.length() > 0) {
+			builder.text(text.toString());
+			text.setLength(0);
+		}
+	}
+
+
+	/**
+	 * Skips to the end tag matching the current start tag.
+	 */
+	public static void skipElement(XMLStreamReader reader)
+			throws XMLStreamException
+	{
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == START_ELEMENT) {
+				depth++;
+			} else if (event == END_ELEMENT) {
+				depth--;
 			}
+		}
+	}
 
-			List<Integer> turnTracks = new ArrayList<>();
-			for (String turnSpeaker: speakerAttr.split(" "))
-				turnTracks.add(spkIDMap.get(turnSpeaker));
 
-			// Start with the first speaker in case the first "Who" tag is missing
-			int spkID = turnTracks.get(0);
+	/**
+	 * Returns an attribute of the current element, or an empty string if the
+	 * element doesn't have this attribute (same as DOM's getAttribute).
+	 */
+	public static String attribute(XMLStreamReader reader, String name) {
+		String value = reader.getAttributeValue(null, name);
+		return value == null? "": value;
+	}
 
-			TurnProject.Turn pTurn = project.newTurn();
 
-			float endTime = Float.parseFloat(turn.getAttribute("endTime"));
-			// TODO: this will crash if there is no endTime !!
-			if (endTime > lastEnd)
-				lastEnd = endTime;
+	public TurnProject parse(Document doc) throws ParsingException {
+		TRSProjectBuilder builder = newProjectBuilder();
 
-			while (null != child) {
-				String name = child.getNodeName();
-// System.out.println("debugname "+child.getTextContent());
-				// Speech text
-				if (name.equals("#text")) {
-					pTurn.addAll(spkID, RawTextLoader.tokenize(
-							RawTextLoader.normalizeText(child.getTextContent().trim()),
-							RawTextLoader.DEFAULT_PATTERNS));
-				}
+		NodeList speakerList = doc.getElementsByTagName("Speakers");
+		for (int i = 0; i < speakerList.getLength(); i++) {
+			builder.speakers();
 
-				// Anchor
-				else if (name.equals("Sync")) {
-					float time = Float.parseFloat(((Element) child).getAttribute("time"));
+			// Create speaker tracks and build ID map
+			for (Node spk = speakerList.item(i).getFirstChild();
+				 null != spk;
+				 spk = spk.getNextSibling())
+			{
+				if (!spk.getNodeName().equals("Speaker"))
+					continue;
 
-					if (time > endTime) {
-						throw new ParsingException(String.format("TRS error: " +
-								"Sync time (%f) exceeds Turn endTime (%f)!",
-								time, endTime));
-					}
+				Element el = (Element)spk;
+				builder.speaker(el.getAttribute("id"), el.getAttribute("name"));
+			}
+		}
 
-					if (lastSyncTime > time) {
-						throw new ParsingException(String.format(
-								"TRS error: Sync times in non-" +
-								"chronological order! (%f after %f)",
-								lastSyncTime, time));
-					}
+		NodeList sectionList = doc.getElementsByTagName("Section");
+		for (int i = 0; i < sectionList.getLength(); i++) {
+			Element section = (Element)sectionList.item(i);
+			builder.section(
+					section.getAttribute("startTime"),
+					section.getAttribute("endTime"));
+		}
 
-					if (null != pTurn.start) {
-						assert null == pTurn.end;
-						pTurn.end = new Anchor(time);
-						pTurn = project.newTurn();
-					}
+		// Extract relevant information (speech text, Sync tags...) from Turn tags.
+		NodeList turnList = doc.getElementsByTagName("Turn");
+		for (int i = 0; i < turnList.getLength(); i++) {
+			Element turn = (Element)turnList.item(i);
 
-					pTurn.start = new Anchor(time);
-				}
+			if (!builder.startTurn(
+					turn.getAttribute("speaker"),
+					turn.getAttribute("endTime")))
+			{
+				continue;
+			}
 
-				// Change speakers in a multi-speaker turn
-				else if (name.equals("Who")) {
-					// Speaker numbering starts at 1 in the XML file
-					int nb = Integer.parseInt(((Element)child).getAttribute("nb"))-1;
-					if (nb>=turnTracks.size()) {
-						System.err.println("WARNING error in TRS file: undefined speakers "+nb+" "+turnTracks.size());
-						nb=0;
-					}
-					spkID = turnTracks.get(nb);
-				}
+			for (Node child = turn.getFirstChild();
+				 null != child;
+				 child = child.getNextSibling())
+			{
+				String name = child.getNodeName();
 
-				else {
-					Token token = transformNode(child);
-					if (null != token) {
-						pTurn.add(spkID, token);
-					}
+				if (name.equals("#text")) {
+					builder.text(child.getTextContent());
+				} else if (name.equals("Sync")) {
+					builder.sync(((Element)child).getAttribute("time"));
+				} else if (name.equals("Who")) {
+					builder.who(((Element)child).getAttribute("nb"));
+				} else {
+					builder.token(transformNode(child));
 				}
-
-				// Onto next Turn child
-				child = child.getNextSibling();
 			}
 
-			pTurn.end = new Anchor(endTime);
+			builder.endTurn();
 		}
 
-		return project;
+		return builder.finish();
 	}
 
 
 	public static Token transformNode(Node n) {
-		String name = n.getNodeName();
+		return transformNode(n.getNodeName(),
+				n instanceof Element? ((Element) n).getAttribute("desc"): "");
+	}
+
 
+	public static Token transformNode(String name, String desc) {
 		switch (name) {
 			case "Comment":
-				return new Token(
-						((Element) n).getAttribute("desc"),
-						Token.Type.COMMENT);
+				return new Token(desc, Token.Type.COMMENT);
 			case "Event":
-				return new Token(
-						((Element) n).getAttribute("desc"),
-						Token.Type.NOISE);
+				return new Token(desc, Token.Type.NOISE);
 			default:
 				System.err.println("TRS WARNING: Ignoring inknown tag " + name);
 				break;
@@ -190,56 +409,41 @@ public class TRSLoader implements MarkupLoader {
 	}
 
 
+	/**
+	 * Return a StAX reader suitable to parsing a TRS file.
+	 * DTDs are read (for entities and default attributes) but not validated.
+	 * @param file used to resolve relative references; may be null
+	 */
+	public static XMLStreamReader newXMLStreamReader(InputStream in, File file)
+			throws XMLStreamException
+	{
+		XMLInputFactory xif = XMLInputFactory.newInstance();
+		xif.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		xif.setProperty(XMLInputFactory.IS_COALESCING, true);
+		xif.setProperty(XMLInputFactory.SUPPORT_DTD, true);
+		xif.setXMLResolver(DTD_XML_RESOLVER);
+
+		if (file != null) {
+			return xif.createXMLStreamReader(file.toURI().toString(), in);
+		} else {
+			return xif.createXMLStreamReader(in);
+		}
+	}
+
+
 	/**
 	 * Return a DocumentBuilder suitable to parsing a TRS file.
+	 * The builder only validates documents if {@link #VALIDATE} is set.
 	 */
 	protected static DocumentBuilder newXMLDocumentBuilder()
 			throws ParserConfigurationException
 	{
 		DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-		dbf.setValidating(true);
+		dbf.setValidating(VALIDATE);
 		dbf.setNamespaceAware(true);
 		DocumentBuilder builder = dbf.newDocumentBuilder();
-
-		builder.setEntityResolver(new EntityResolver() {
-			@Override
-			public InputSource resolveEntity(String publicId, String systemId)
-					throws IOException, SAXException
-			{
-				Matcher m = DTD_PATTERN.matcher(systemId);
-				if (!m.matches()) {
-					return null;
-				}
-
-				String dtdName = m.group(1);
-
-				InputStream dtd = TRSLoader.class.getResourceAsStream(dtdName);
-				if (dtd == null) {
-					throw new SAXException("Lacking DTD: " + dtdName);
-				}
-
-				return new InputSource(dtd);
-			}
-		});
-
-		builder.setErrorHandler(new ErrorHandler() {
-			@Override
-			public void warning(SAXParseException e) {
-				System.err.println("XML Warning: " + e);
-			}
-
-			@Override
-			public void error(SAXParseException e) {
-				System.err.println("XML Error: " + e);
-			}
-
-			@Override
-			public void fatalError(SAXParseException e) throws SAXException {
-				System.err.println("XML Fatal Error: " + e);
-				throw e;
-			}
-		});
-
+		builder.setEntityResolver(DTD_ENTITY_RESOLVER);
+		builder.setErrorHandler(XML_ERROR_HANDLER);
 		return builder;
 	}
 
@@ -0,0 +1,222 @@
+package fr.loria.synalp.jtrans.markup.in;
+
+import fr.loria.synalp.jtrans.project.Anchor;
+import fr.loria.synalp.jtrans.project.Token;
+import fr.loria.synalp.jtrans.project.TurnProject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds a TurnProject from the structural events of a Transcriber document
+ * (speakers, sections, turns and their children), in document order.
+ * <p/>
+ * Both the streaming (StAX) and the DOM-based TRS parsers feed this builder,
+ * so that they yield identical projects.
+ */
+class TRSProjectBuilder {
+
+	private final TurnProject project = new TurnProject();
+
+	/**
+	 * If false, Sync tags and Turn end times are ignored; the only anchors
+	 * are then taken from the first and last Section tags.
+	 */
+	private final boolean syncAnchors;
+
+	// Map of Transcriber's speaker IDs to JTrans tracks
+	private final Map<String, Integer> spkIDMap = new HashMap<>();
+
+	private int speakersTagCount = 0;
+
+	// Last sync times (to detect unordered sync times)
+	private float lastSyncTime = -1f;
+
+	// end time of last turn
+	private float lastEnd = -1f;
+
+	private String firstSectionStart = null;
+	private String lastSectionEnd = null;
+
+	// State of the current turn
+	private List<Integer> turnTracks;
+	private TurnProject.Turn pTurn;
+	private int spkID;
+
+	/** End time of the current turn, or NaN if the turn has none */
+	private float endTime;
+
+
+	TRSProjectBuilder(boolean syncAnchors) {
+		this.syncAnchors = syncAnchors;
+	}
+
+
+	private void checkSpeakersTag() throws ParsingException {
+		if (1 != speakersTagCount) {
+			throw new ParsingException("TRS error: expected 1 Speakers tag " +
+					"but found " + speakersTagCount + "!");
+		}
+	}
+
+
+	void speakers() {
+		speakersTagCount++;
+	}
+
+
+	void speaker(String trsID, String name) {
+		int newSpkID = project.newSpeaker(name);
+		spkIDMap.put(trsID, newSpkID);
+	}
+
+
+	void section(String startTime, String endTime) {
+		if (firstSectionStart == null) {
+			firstSectionStart = startTime;
+		}
+		lastSectionEnd = endTime;
+	}
+
+
+	/**
+	 * @return false if the turn must be skipped
+	 */
+	boolean startTurn(String speakerAttr, String endTimeAttr)
+			throws ParsingException
+	{
+		checkSpeakersTag();
+
+		// Map IDs of speakers active in this turn to tracks
+		if (speakerAttr.isEmpty()) {
+			System.err.println("TRS WARNING: skipping turn without any speakers");
+			return false;
+		}
+
+		turnTracks = new ArrayList<>();
+		for (String turnSpeaker: speakerAttr.split(" "))
+			turnTracks.add(spkIDMap.get(turnSpeaker));
+
+		// Start with the first speaker in case the first "Who" tag is missing
+		spkID = turnTracks.get(0);
+
+		pTurn = project.newTurn();
+
+		if (syncAnchors) {
+			// A turn without an end time is left open, i.e. it ends at the
+			// next anchor
+			if (endTimeAttr.isEmpty()) {
+				System.err.println("TRS WARNING: turn without endTime");
+				endTime = Float.NaN;
+			} else {
+				endTime = Float.parseFloat(endTimeAttr);
+				if (endTime > lastEnd)
+					lastEnd = endTime;
+			}
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Speech text
+	 */
+	void text(String text) {
+		pTurn.addAll(spkID, RawTextLoader.tokenize(
+				RawTextLoader.normalizeText(text.trim()),
+				RawTextLoader.DEFAULT_PATTERNS));
+	}
+
+
+	/**
+	 * Anchor
+	 */
+	void sync(String timeAttr) throws ParsingException {
+		if (!syncAnchors) {
+			return;
+		}
+
+		float time = Float.parseFloat(timeAttr);
+
+		if (!Float.isNaN(endTime) && time > endTime) {
+			throw new ParsingException(String.format("TRS error: " +
+					"Sync time (%f) exceeds Turn endTime (%f)!",
+					time, endTime));
+		}
+
+		if (lastSyncTime > time) {
+			throw new ParsingException(String.format(
+					"TRS error: Sync times in non-" +
+					"chronological order! (%f after %f)",
+					lastSyncTime, time));
+		}
+
+		if (null != pTurn.start) {
+			assert null == pTurn.end;
+			pTurn.end = new Anchor(time);
+			pTurn = project.newTurn();
+		}
+
+		pTurn.start = new Anchor(time);
+	}
+
+
+	/**
+	 * Change speakers in a multi-speaker turn
+	 */
+	void who(String nbAttr) {
+		// Speaker numbering starts at 1 in the XML file
+		int nb = Integer.parseInt(nbAttr)-1;
+		if (nb>=turnTracks.size()) {
+			System.err.println("WARNING error in TRS file: undefined speakers "+nb+" "+turnTracks.size());
+			nb=0;
+		}
+		spkID = turnTracks.get(nb);
+	}
+
+
+	void token(Token token) {
+		if (null != token) {
+			pTurn.add(spkID, token);
+		}
+	}
+
+
+	void endTurn() {
+		if (syncAnchors && !Float.isNaN(endTime)) {
+			pTurn.end = new Anchor(endTime);
+		}
+		pTurn = null;
+		turnTracks = null;
+	}
+
+
+	TurnProject finish() throws ParsingException {
+		checkSpeakersTag();
+
+		if (!syncAnchors) {
+			// @author Matthieu Quignard (MQ)
+			// Adding minimal Anchors from Section
+			try {
+				float sectionStartTime = Float.parseFloat(firstSectionStart);
+				float sectionEndTime = Float.parseFloat(lastSectionEnd);
+
+				int nTurns = project.turns.size();
+				TurnProject.Turn firstTurn = project.turns.get(0);
+				firstTurn.start = new Anchor(sectionStartTime);
+
+				TurnProject.Turn lastTurn = project.turns.get(nTurns - 1);
+				lastTurn.end = new Anchor(sectionEndTime);
+			} catch (Exception e) {
+				System.err.println("Error while trying to extract timestamps from Section elements");
+				e.printStackTrace();
+			}
+		}
+
+		return project;
+	}
+
+}
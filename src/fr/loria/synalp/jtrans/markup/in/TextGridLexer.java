@@ -0,0 +1,205 @@
+package fr.loria.synalp.jtrans.markup.in;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Streaming lexer for Praat text files (ooTextFile), in either the long
+ * ("xmin = 0") or the short format.
+ * <p/>
+ * Both formats hold the same sequence of values; the long format merely adds
+ * labels. Like Praat itself, the lexer only returns numbers, strings and
+ * flags ({@code <exists>}), and skips everything else: labels, '=' and ':'
+ * signs, bracketed indices ("item [1]:") and '!' comments.
+ */
+class TextGridLexer {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final Reader reader;
+	private final char[] buf = new char[BUFFER_SIZE];
+	private int pos = 0;
+	private int len = 0;
+	private int lineNumber = 1;
+
+	/** Scratch buffer for the current value */
+	private final StringBuilder sb = new StringBuilder();
+
+
+	TextGridLexer(Reader reader) {
+		this.reader = reader;
+	}
+
+
+	int getLineNumber() {
+		return lineNumber;
+	}
+
+
+	private int peek() throws IOException {
+		if (pos >= len) {
+			len = reader.read(buf, 0, buf.length);
+			pos = 0;
+			if (len <= 0) {
+				len = 0;
+				return -1;
+			}
+		}
+		return buf[pos];
+	}
+
+
+	private int read() throws IOException {
+		int c = peek();
+		if (c >= 0) {
+			pos++;
+			if (c == '\n') {
+				lineNumber++;
+			}
+		}
+		return c;
+	}
+
+
+	/**
+	 * Skips labels and punctuation up to the start of the next value.
+	 * @return first character of the value (not consumed), or -1 at EOF
+	 */
+	private int skipToValue() throws IOException {
+		while (true) {
+			int c = peek();
+			switch (c) {
+				case -1:
+				case '"':
+				case '<':
+				case '-':
+				case '+':
+				case '.':
+					return c;
+
+				case '!':
+					while (c >= 0 && c != '\n') {
+						c = read();
+					}
+					break;
+
+				case '[':
+					while (c >= 0 && c != ']') {
+						c = read();
+					}
+					break;
+
+				default:
+					if (c >= '0' && c <= '9') {
+						return c;
+					}
+					read();
+					break;
+			}
+		}
+	}
+
+
+	private ParsingException error(String message) {
+		return new ParsingException("Error at line " + lineNumber + ": " + message);
+	}
+
+
+	/**
+	 * Reads the raw text of a number.
+	 */
+	private String numberText() throws IOException, ParsingException {
+		int c = skipToValue();
+		if (c == -1) {
+			throw error("unexpected end of file; expecting a number");
+		} else if (c == '"' || c == '<') {
+			throw error("expecting a number");
+		}
+
+		sb.setLength(0);
+		while (true) {
+			c = peek();
+			if ((c >= '0' && c <= '9') || c == '.' || c == '-' || c == '+'
+					|| c == 'e' || c == 'E')
+			{
+				sb.append((char) read());
+			} else {
+				break;
+			}
+		}
+		return sb.toString();
+	}
+
+
+	float nextFloat() throws IOException, ParsingException {
+		String s = numberText();
+		try {
+			return Float.parseFloat(s);
+		} catch (NumberFormatException ex) {
+			throw error("bad number: " + s);
+		}
+	}
+
+
+	int nextInt() throws IOException, ParsingException {
+		String s = numberText();
+		try {
+			return Integer.parseInt(s);
+		} catch (NumberFormatException ex) {
+			throw error("bad integer: " + s);
+		}
+	}
+
+
+	/**
+	 * Reads a quoted string. Doubled quotes within the string stand for
+	 * a single quote.
+	 */
+	String nextString() throws IOException, ParsingException {
+		int c = skipToValue();
+		if (c != '"') {
+			throw error(c == -1? "unexpected end of file; expecting a string":
+					"expecting a string");
+		}
+		read();
+
+		sb.setLength(0);
+		while (true) {
+			c = read();
+			if (c == -1) {
+				throw error("unterminated string");
+			} else if (c == '"') {
+				if (peek() == '"') {
+					sb.append((char) read());
+				} else {
+					return sb.toString();
+				}
+			} else {
+				sb.append((char) c);
+			}
+		}
+	}
+
+
+	/**
+	 * Reads a flag such as {@code <exists>}.
+	 * @return the flag without angle brackets
+	 */
+	String nextFlag() throws IOException, ParsingException {
+		if (skipToValue() != '<') {
+			throw error("expecting a flag");
+		}
+		read();
+
+		sb.setLength(0);
+		int c;
+		while ((c = read()) != '>') {
+			if (c == -1) {
+				throw error("unterminated flag");
+			}
+			sb.append((char) c);
+		}
+		return sb.toString();
+	}
+
+}
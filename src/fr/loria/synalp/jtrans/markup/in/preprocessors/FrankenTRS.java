@@ -6,57 +6,64 @@ import fr.loria.synalp.jtrans.markup.in.RawTextLoader;
 import fr.loria.synalp.jtrans.markup.in.TRSLoader;
 import fr.loria.synalp.jtrans.project.Token;
 import fr.loria.synalp.jtrans.project.TurnProject;
-import fr.loria.synalp.jtrans.utils.FileUtils;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.*;
+import java.util.*;
+
+import static javax.xml.stream.XMLStreamConstants.*;
 
 /**
  * Headerless TRS with inline speakers, TCOF overlap conventions
  */
 public class FrankenTRS implements MarkupLoader {
 
-	// TODO: do this without going through a temp file
-	public File xmlize(File file)
-			throws ParsingException, IOException
-	{
-		File tmpFile = FileUtils.createVanishingTempFile("trsinlinespeakers", ".trs");
-
-		PrintWriter w = FileUtils.writeFileUTF(tmpFile.getAbsolutePath());
+	/**
+	 * Wraps a headerless TRS file in a minimal Transcriber skeleton on the fly
+	 * (no temporary file), so that it can be streamed through an XML parser.
+	 */
+	public InputStream xmlize(File file) throws IOException {
+		String header =
+				"<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n" +
+				"<!DOCTYPE Trans SYSTEM \"trans-14.dtd\">\n" +
+				"<Trans><Episode><Section><Turn>\n";
+		String footer = "\n</Turn></Section></Episode></Trans>\n";
+
+		return new SequenceInputStream(Collections.enumeration(Arrays.asList(
+				new ByteArrayInputStream(header.getBytes("ISO-8859-1")),
+				new BufferedInputStream(new FileInputStream(file)),
+				new ByteArrayInputStream(footer.getBytes("ISO-8859-1")))));
+	}
 
-		w.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-		w.println("<!DOCTYPE Trans SYSTEM \"trans-14.dtd\">");
-		w.println("<Trans><Episode><Section><Turn>");
 
-		BufferedReader r = FileUtils.openFileISO(file.getAbsolutePath());
-		String line;
-		while (null != (line = r.readLine())) {
-			w.println(line);
+	public TurnProject parse(File file)
+			throws ParsingException, IOException
+	{
+		try (InputStream in = xmlize(file)) {
+			XMLStreamReader reader = TRSLoader.newXMLStreamReader(in, null);
+			try {
+				return parse(reader);
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException ex) {
+			ex.printStackTrace();
+			throw new ParsingException(ex.toString());
 		}
-
-		w.println("</Turn></Section></Episode></Trans>");
-		w.close();
-
-		return tmpFile;
 	}
 
 
-	public TurnProject parse(File file)
-			throws ParsingException, IOException
+	private TurnProject parse(XMLStreamReader reader)
+			throws ParsingException, XMLStreamException
 	{
 		TurnProject project = new TurnProject();
 
-		Document doc = TRSLoader.parseXML(xmlize(file));
-		Node turnNode = doc.getElementsByTagName("Turn").item(0);
-
-		Node child = turnNode.getFirstChild();
+		// Move to the Turn tag
+		while (reader.next() != START_ELEMENT
+				|| !reader.getLocalName().equals("Turn"))
+		{
+		}
 
 		TurnProject.Turn pTurn = null;
 		int spkID = -1;
@@ -65,55 +72,65 @@ public class FrankenTRS implements MarkupLoader {
 
 		Map<String, Integer> speakers = new HashMap<>();
 
-		while (null != child) {
-			String name = child.getNodeName();
-
-			switch (name) {
-				case "#text": {
-					for (String line: child.getTextContent().split("[\n\r]")) {
-						String text = line.trim();
-						if (text.isEmpty()) {
-							continue;
-						}
-
-						String[] sp = TRSInlineSpeakers.speakerPattern(text);
-
-						if (null != sp) {
-							if (!speakers.containsKey(sp[0])) {
-								speakers.put(sp[0], project.newSpeaker(sp[0]));
-							}
-							if (!overlapOngoing && (pTurn == null || !pTurn.isEmpty())) {
-								pTurn = project.newTurn();
-							}
-							spkID = speakers.get(sp[0]);
-							text = sp[1];
-						}
-
-						text = RawTextLoader.normalizeText(text);
-						List<Token> tokenList = RawTextLoader.tokenize(text, RawTextLoader.DEFAULT_PATTERNS);
-						for (Token token: tokenList)
-							if (token.getType() == Token.Type.OVERLAP_START_MARK) {
-								pTurn = project.newTurn();
-								overlapOngoing = true;
-								addToTurn(pTurn, spkID, token);
-							} else if (token.getType() == Token.Type.OVERLAP_END_MARK) {
-								addToTurn(pTurn, spkID, token);
-								pTurn = project.newTurn();
-								overlapOngoing = false;
-							} else {
-								addToTurn(pTurn, spkID, token);
-							}
-					}
-					break;
+		StringBuilder textBuf = new StringBuilder();
+
+		while (true) {
+			int event = reader.next();
+
+			if (event == CHARACTERS || event == CDATA || event == SPACE) {
+				textBuf.append(reader.getText());
+				continue;
+			}
+
+			if (event != START_ELEMENT && event != END_ELEMENT) {
+				continue;
+			}
+
+			for (String line: textBuf.toString().split("[\n\r]")) {
+				String text = line.trim();
+				if (text.isEmpty()) {
+					continue;
 				}
 
-				default: {
-					addToTurn(pTurn, spkID, TRSLoader.transformNode(child));
-					break;
+				String[] sp = TRSInlineSpeakers.speakerPattern(text);
+
+				if (null != sp) {
+					if (!speakers.containsKey(sp[0])) {
+						speakers.put(sp[0], project.newSpeaker(sp[0]));
+					}
+					if (!overlapOngoing && (pTurn == null || !pTurn.isEmpty())) {
+						pTurn = project.newTurn();
+					}
+					spkID = speakers.get(sp[0]);
+					text = sp[1];
 				}
+
+				text = RawTextLoader.normalizeText(text);
+				List<Token> tokenList = RawTextLoader.tokenize(text, RawTextLoader.DEFAULT_PATTERNS);
+				for (Token token: tokenList)
+					if (token.getType() == Token.Type.OVERLAP_START_MARK) {
+						pTurn = project.newTurn();
+						overlapOngoing = true;
+						addToTurn(pTurn, spkID, token);
+					} else if (token.getType() == Token.Type.OVERLAP_END_MARK) {
+						addToTurn(pTurn, spkID, token);
+						pTurn = project.newTurn();
+						overlapOngoing = false;
+					} else {
+						addToTurn(pTurn, spkID, token);
+					}
+			}
+			textBuf.setLength(0);
+
+			// End of the Turn tag
+			if (event == END_ELEMENT) {
+				break;
 			}
 
-			child = child.getNextSibling();
+			addToTurn(pTurn, spkID, TRSLoader.transformNode(
+					reader.getLocalName(),
+					TRSLoader.attribute(reader, "desc")));
+			TRSLoader.skipElement(reader);
 		}
 
 		return project;
@@ -24,6 +24,10 @@ import java.util.List;
 /**
  * Base class for Transcriber preprocessory. They modify the structure of a
  * Transcriber document to make it readable by the vanilla parser.
+ * <p/>
+ * Preprocessors move nodes across turns, so they need the whole XML tree.
+ * The tree is dropped once the project is built, unless
+ * {@link TRSLoader#KEEP_DOCUMENT} is set.
  * @see TRSLoader
  */
 abstract class TRSPreprocessor extends TRSLoader {
@@ -42,6 +46,9 @@ abstract class TRSPreprocessor extends TRSLoader {
 		preprocess(doc);
 		TurnProject p = parse(doc);
 		postprocess(p);
+		if (KEEP_DOCUMENT) {
+			p.document = doc;
+		}
 		return p;
 	}
 
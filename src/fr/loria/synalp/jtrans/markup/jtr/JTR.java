@@ -20,16 +20,64 @@ import fr.loria.synalp.jtrans.speechreco.s4.S4mfccBuffer;
 import java.io.File;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.List;
 
 
 /**
  * Common utilities for the JTR file format.
+ *
+ * JTR files are normally read and written with {@link JTRReader} and
+ * {@link JTRWriter}, which stream the JSON document. The Gson object returned
+ * by {@link #newGson()} builds the whole tree in memory; it is kept as the
+ * reference implementation of the format. {@link JTRBinary} is a compact
+ * binary encoding of the same data.
  */
 public final class JTR {
 
 	private JTR() {}
 
 
+	/**
+	 * Name of the property holding the concrete class of the project.
+	 */
+	public static final String TYPE_PROPERTY = "$TYPE$";
+
+
+	/**
+	 * Creates a phrase whose anchors span the segments of its tokens and of
+	 * their phones. Phrase anchors are not stored in JTR files; they are
+	 * always inferred this way. If no token is aligned, both anchors are set
+	 * to -1.
+	 */
+	public static Phrase inferPhrase(List<Token> tokens) {
+		int phrasedeb=Integer.MAX_VALUE, phraseend=-Integer.MAX_VALUE;
+
+		for (Token tt: tokens) {
+			Segment seg = tt.getSegment();
+			if (seg != null) {
+				if (seg.getStartFrame()<phrasedeb) phrasedeb=seg.getStartFrame();
+				if (seg.getEndFrame()>phraseend) phraseend=seg.getEndFrame();
+			}
+			if (tt.getPhones() != null) {
+				for (Phone pp: tt.getPhones()) {
+					seg = pp.getSegment();
+					if (seg == null) continue;
+					if (seg.getStartFrame()<phrasedeb) phrasedeb=seg.getStartFrame();
+					if (seg.getEndFrame()>phraseend) phraseend=seg.getEndFrame();
+				}
+			}
+		}
+
+		float pdeb,pfin;
+		if (phrasedeb==Integer.MAX_VALUE || phraseend==-Integer.MAX_VALUE)
+		{pdeb=-1; pfin=-1;} else {
+			pdeb=S4mfccBuffer.frame2second(phrasedeb);
+			pfin=S4mfccBuffer.frame2second(phraseend);
+		}
+		return new Phrase(new Anchor(pdeb), new Anchor(pfin), tokens);
+	}
+
+
 	/**
 	 * A wrapper class is necessary so that the InterfaceAdapter has a chance
 	 * to specify the type of the project (TurnProject or TrackProject).
@@ -53,14 +101,13 @@ public final class JTR {
 	 */
 	public static Gson newGson() {
 		GsonBuilder gb = new GsonBuilder();
-		gb.registerTypeAdapter(Project.class, new InterfaceAdapter<Project>("$TYPE$"));
+		gb.registerTypeAdapter(Project.class, new InterfaceAdapter<Project>(TYPE_PROPERTY));
 		class PhraseDeserializer implements JsonDeserializer<Phrase> {
 			@Override
 			public Phrase deserialize(JsonElement json, Type arg1,
 					JsonDeserializationContext arg2) throws JsonParseException {
 				JsonArray l = json.getAsJsonArray();
 				ArrayList<Token> t = new ArrayList<Token>();
-				int phrasedeb=Integer.MAX_VALUE, phraseend=-Integer.MAX_VALUE;
 				for (int i=0;i<l.size();i++) {
 					JsonObject o = l.get(i).getAsJsonObject(); // Token
 					String txt = o.get("text").getAsString();
@@ -76,9 +123,7 @@ public final class JTR {
 					if (s!=null) {
 						JsonObject so=s.getAsJsonObject();
 						int start = so.get("start").getAsInt();
-						if (start<phrasedeb) phrasedeb=start;
 						int end   = so.get("end").getAsInt();
-						if (end>phraseend) phraseend=end;
 						tt.setSegment(start, end);
 					}
 					s = o.get("phones");
@@ -90,22 +135,14 @@ public final class JTR {
 							s = o.get("segment");
 							JsonObject soo=s.getAsJsonObject();
 							int start = soo.get("start").getAsInt();
-							if (start<phrasedeb) phrasedeb=start;
 							int end   = soo.get("end").getAsInt();
-							if (end>phraseend) phraseend=end;
 							Segment seg = new Segment(start, end);
 							Phone pp = new Phone(ph, seg);
 							tt.addPhone(pp);
 						}
 					}
 				}
-				float pdeb,pfin;
-				if (phrasedeb==Integer.MAX_VALUE || phraseend==-Integer.MAX_VALUE)
-				{pdeb=-1; pfin=-1;} else {
-					pdeb=S4mfccBuffer.frame2second(phrasedeb);
-					pfin=S4mfccBuffer.frame2second(phraseend);
-				}
-				return new Phrase(new Anchor(pdeb), new Anchor(pfin), t);
+				return inferPhrase(t);
 			}
 		}
 		gb.registerTypeAdapter(Phrase.class, new PhraseDeserializer());
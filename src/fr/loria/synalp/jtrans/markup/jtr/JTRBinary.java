@@ -0,0 +1,377 @@
+package fr.loria.synalp.jtrans.markup.jtr;
+
+import fr.loria.synalp.jtrans.project.Anchor;
+import fr.loria.synalp.jtrans.project.Phrase;
+import fr.loria.synalp.jtrans.project.Project;
+import fr.loria.synalp.jtrans.project.Token;
+import fr.loria.synalp.jtrans.project.TrackProject;
+import fr.loria.synalp.jtrans.project.TurnProject;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Compact binary encoding of the JTR format.
+ *
+ * Holds exactly the same data as a JSON JTR file. Token texts and phone
+ * names are stored once in a string table; each list of tokens is then
+ * stored as a block of packed int arrays (string IDs, flags, speakers,
+ * word segments, phone counts, phone IDs and phone segments).
+ *
+ * <pre>
+ * file   := MAGIC VERSION type audio? speakers strings body
+ * body   := (TrackProject) int nTracks, {int nPhrases, {block}}
+ *         | (TurnProject)  int nTurns, {float start, float end, int n, {block}}
+ * block  := int n, int[n] text, int[n] flags, int[n] speaker,
+ *           int[n] phoneCount, int[2*nSeg] segments,
+ *           int[nPh] phones, int[2*nPh] phoneSegments
+ * </pre>
+ *
+ * Missing turn anchors are stored as NaN; missing phone segments are stored
+ * as (-1, -1).
+ */
+public final class JTRBinary {
+
+	private JTRBinary() {}
+
+
+	public static final byte[] MAGIC = {'J', 'T', 'R', 'B'};
+	public static final int VERSION = 1;
+
+	private static final int TYPE_MASK = 0xFF;
+	private static final int FLAG_ANONYMIZE = 1 << 8;
+	private static final int FLAG_SEGMENT = 1 << 9;
+
+	private static final Token.Type[] TYPES = Token.Type.values();
+
+
+	/**
+	 * Returns true if the file starts with the binary JTR magic number.
+	 */
+	public static boolean isBinary(File file) throws IOException {
+		byte[] header = new byte[MAGIC.length];
+		try (InputStream in = new FileInputStream(file)) {
+			int len = 0;
+			while (len < header.length) {
+				int n = in.read(header, len, header.length - len);
+				if (n < 0) {
+					return false;
+				}
+				len += n;
+			}
+		}
+		return Arrays.equals(header, MAGIC);
+	}
+
+
+	//--------------------------------------------------------------------------
+	// Writing
+	//--------------------------------------------------------------------------
+
+
+	public static void write(Project project, OutputStream os)
+			throws IOException
+	{
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+
+		out.write(MAGIC);
+		out.writeInt(VERSION);
+		out.writeUTF(project.getClass().getSimpleName());
+
+		out.writeBoolean(project.audioFile != null);
+		if (project.audioFile != null) {
+			out.writeUTF(project.audioFile.getAbsolutePath());
+		}
+
+		out.writeInt(project.speakerCount());
+		for (int i = 0; i < project.speakerCount(); i++) {
+			out.writeUTF(project.getSpeakerName(i));
+		}
+
+		Map<String, Integer> strings = new LinkedHashMap<>();
+
+		if (project instanceof TrackProject) {
+			TrackProject p = (TrackProject) project;
+			for (List<Phrase> track: p.tracks) {
+				for (Phrase phrase: track) {
+					intern(phrase, strings);
+				}
+			}
+
+			writeStrings(out, strings);
+
+			out.writeInt(p.tracks.size());
+			for (List<Phrase> track: p.tracks) {
+				out.writeInt(track.size());
+				for (Phrase phrase: track) {
+					writeBlock(out, phrase, strings);
+				}
+			}
+		} else if (project instanceof TurnProject) {
+			TurnProject p = (TurnProject) project;
+			for (TurnProject.Turn turn: p.turns) {
+				for (List<Token> tokens: turn.spkTokens) {
+					intern(tokens, strings);
+				}
+			}
+
+			writeStrings(out, strings);
+
+			out.writeInt(p.turns.size());
+			for (TurnProject.Turn turn: p.turns) {
+				out.writeFloat(turn.start == null? Float.NaN: turn.start.seconds);
+				out.writeFloat(turn.end == null? Float.NaN: turn.end.seconds);
+				out.writeInt(turn.spkTokens.size());
+				for (List<Token> tokens: turn.spkTokens) {
+					writeBlock(out, tokens, strings);
+				}
+			}
+		} else {
+			throw new IllegalArgumentException("unsupported project type: "
+					+ project.getClass());
+		}
+
+		out.flush();
+	}
+
+
+	private static void intern(List<Token> tokens, Map<String, Integer> strings) {
+		for (Token token: tokens) {
+			intern(token.getText(), strings);
+			if (token.getPhones() != null) {
+				for (Token.Phone phone: token.getPhones()) {
+					intern(phone.toString(), strings);
+				}
+			}
+		}
+	}
+
+
+	private static void intern(String s, Map<String, Integer> strings) {
+		if (!strings.containsKey(s)) {
+			strings.put(s, strings.size());
+		}
+	}
+
+
+	private static void writeStrings(DataOutputStream out, Map<String, Integer> strings)
+			throws IOException
+	{
+		out.writeInt(strings.size());
+		for (String s: strings.keySet()) {
+			out.writeUTF(s);
+		}
+	}
+
+
+	private static void writeBlock(
+			DataOutputStream out,
+			List<Token> tokens,
+			Map<String, Integer> strings)
+			throws IOException
+	{
+		final int n = tokens.size();
+		int[] text = new int[n];
+		int[] flags = new int[n];
+		int[] speakers = new int[n];
+		int[] phoneCounts = new int[n];
+		int nSegments = 0;
+		int nPhones = 0;
+
+		for (int i = 0; i < n; i++) {
+			Token token = tokens.get(i);
+			text[i] = strings.get(token.getText());
+			speakers[i] = token.getSpeaker();
+			flags[i] = token.getType().ordinal();
+			if (token.shouldBeAnonymized()) {
+				flags[i] |= FLAG_ANONYMIZE;
+			}
+			if (token.getSegment() != null) {
+				flags[i] |= FLAG_SEGMENT;
+				nSegments++;
+			}
+			if (token.getPhones() != null) {
+				phoneCounts[i] = token.getPhones().size();
+				nPhones += phoneCounts[i];
+			}
+		}
+
+		int[] segments = new int[2 * nSegments];
+		int[] phones = new int[nPhones];
+		int[] phoneSegments = new int[2 * nPhones];
+		int s = 0;
+		int p = 0;
+
+		for (Token token: tokens) {
+			if (token.getSegment() != null) {
+				segments[s++] = token.getSegment().getStartFrame();
+				segments[s++] = token.getSegment().getEndFrame();
+			}
+			if (token.getPhones() != null) {
+				for (Token.Phone phone: token.getPhones()) {
+					Token.Segment seg = phone.getSegment();
+					phoneSegments[2*p  ] = seg == null? -1: seg.getStartFrame();
+					phoneSegments[2*p+1] = seg == null? -1: seg.getEndFrame();
+					phones[p++] = strings.get(phone.toString());
+				}
+			}
+		}
+
+		out.writeInt(n);
+		writeInts(out, text);
+		writeInts(out, flags);
+		writeInts(out, speakers);
+		writeInts(out, phoneCounts);
+		writeInts(out, segments);
+		writeInts(out, phones);
+		writeInts(out, phoneSegments);
+	}
+
+
+	private static void writeInts(DataOutputStream out, int[] array)
+			throws IOException
+	{
+		for (int i: array) {
+			out.writeInt(i);
+		}
+	}
+
+
+	//--------------------------------------------------------------------------
+	// Reading
+	//--------------------------------------------------------------------------
+
+
+	public static Project read(InputStream is) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+
+		byte[] magic = new byte[MAGIC.length];
+		in.readFully(magic);
+		if (!Arrays.equals(magic, MAGIC)) {
+			throw new IOException("not a binary JTR file");
+		}
+
+		int version = in.readInt();
+		if (version != VERSION) {
+			throw new IOException("unsupported binary JTR version: " + version);
+		}
+
+		String type = in.readUTF();
+
+		File audioFile = in.readBoolean()? new File(in.readUTF()): null;
+
+		List<String> speakerNames = new ArrayList<>();
+		int nSpeakers = in.readInt();
+		for (int i = 0; i < nSpeakers; i++) {
+			speakerNames.add(in.readUTF());
+		}
+
+		String[] strings = new String[in.readInt()];
+		for (int i = 0; i < strings.length; i++) {
+			strings[i] = in.readUTF();
+		}
+
+		Project project;
+
+		if (type.equals(TrackProject.class.getSimpleName())) {
+			TrackProject p = new TrackProject();
+			int nTracks = in.readInt();
+			for (int t = 0; t < nTracks; t++) {
+				int nPhrases = in.readInt();
+				List<Phrase> track = new ArrayList<>(nPhrases);
+				for (int i = 0; i < nPhrases; i++) {
+					track.add(JTR.inferPhrase(readBlock(in, strings)));
+				}
+				p.tracks.add(track);
+			}
+			project = p;
+		} else if (type.equals(TurnProject.class.getSimpleName())) {
+			TurnProject p = new TurnProject();
+			int nTurns = in.readInt();
+			for (int t = 0; t < nTurns; t++) {
+				TurnProject.Turn turn = p.new Turn();
+				turn.start = readAnchor(in);
+				turn.end = readAnchor(in);
+				int nLists = in.readInt();
+				for (int i = 0; i < nLists; i++) {
+					turn.spkTokens.add(readBlock(in, strings));
+				}
+				p.turns.add(turn);
+			}
+			project = p;
+		} else {
+			throw new IOException("unknown project type: " + type);
+		}
+
+		project.audioFile = audioFile;
+		project.setSpeakerNames(speakerNames);
+		return project;
+	}
+
+
+	private static Anchor readAnchor(DataInputStream in) throws IOException {
+		float seconds = in.readFloat();
+		return Float.isNaN(seconds)? null: new Anchor(seconds);
+	}
+
+
+	private static List<Token> readBlock(DataInputStream in, String[] strings)
+			throws IOException
+	{
+		final int n = in.readInt();
+		int[] text = readInts(in, n);
+		int[] flags = readInts(in, n);
+		int[] speakers = readInts(in, n);
+		int[] phoneCounts = readInts(in, n);
+
+		int nSegments = 0;
+		int nPhones = 0;
+		for (int i = 0; i < n; i++) {
+			if ((flags[i] & FLAG_SEGMENT) != 0) {
+				nSegments++;
+			}
+			nPhones += phoneCounts[i];
+		}
+
+		int[] segments = readInts(in, 2 * nSegments);
+		int[] phones = readInts(in, nPhones);
+		int[] phoneSegments = readInts(in, 2 * nPhones);
+
+		List<Token> tokens = new ArrayList<>(n);
+		int s = 0;
+		int p = 0;
+
+		for (int i = 0; i < n; i++) {
+			Token token = new Token(strings[text[i]], TYPES[flags[i] & TYPE_MASK]);
+			token.setSpeaker(speakers[i]);
+			token.setAnonymize((flags[i] & FLAG_ANONYMIZE) != 0);
+
+			if ((flags[i] & FLAG_SEGMENT) != 0) {
+				token.setSegment(segments[s], segments[s+1]);
+				s += 2;
+			}
+
+			for (int j = 0; j < phoneCounts[i]; j++, p++) {
+				Token.Segment seg = phoneSegments[2*p] < 0? null:
+						new Token.Segment(phoneSegments[2*p], phoneSegments[2*p+1]);
+				token.addPhone(new Token.Phone(strings[phones[p]], seg));
+			}
+
+			tokens.add(token);
+		}
+
+		return tokens;
+	}
+
+
+	private static int[] readInts(DataInputStream in, int n)
+			throws IOException
+	{
+		int[] array = new int[n];
+		for (int i = 0; i < n; i++) {
+			array[i] = in.readInt();
+		}
+		return array;
+	}
+
+}
@@ -0,0 +1,334 @@
+package fr.loria.synalp.jtrans.markup.jtr;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import fr.loria.synalp.jtrans.project.Anchor;
+import fr.loria.synalp.jtrans.project.Phrase;
+import fr.loria.synalp.jtrans.project.Project;
+import fr.loria.synalp.jtrans.project.Token;
+import fr.loria.synalp.jtrans.project.TrackProject;
+import fr.loria.synalp.jtrans.project.TurnProject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming reader for the JTR (JSON) format.
+ *
+ * Tokens are built as they are read; no intermediate JSON tree is kept.
+ * Properties may appear in any order and unknown properties are skipped.
+ */
+public class JTRReader {
+
+	private final JsonReader in;
+
+
+	public JTRReader(Reader reader) {
+		in = new JsonReader(reader);
+		in.setLenient(true);
+	}
+
+
+	public Project read() throws IOException {
+		Project project = null;
+
+		in.beginObject();
+		while (in.hasNext()) {
+			if (in.nextName().equals("project")) {
+				project = readProject();
+			} else {
+				in.skipValue();
+			}
+		}
+		in.endObject();
+
+		if (project == null) {
+			throw new IOException("JTR: missing project");
+		}
+
+		return project;
+	}
+
+
+	private Project readProject() throws IOException {
+		List<List<Phrase>> tracks = null;
+		List<TurnProject.Turn> turns = null;
+		TurnProject turnProject = new TurnProject();
+		File audioFile = null;
+		List<String> speakerNames = new ArrayList<>();
+		String type = null;
+
+		// The type property comes last, so we have to guess the type of the
+		// project from its contents.
+		in.beginObject();
+		while (in.hasNext()) {
+			String name = in.nextName();
+
+			if (in.peek() == JsonToken.NULL) {
+				in.skipValue();
+				continue;
+			}
+
+			switch (name) {
+				case "tracks":
+					tracks = new ArrayList<>();
+					in.beginArray();
+					while (in.hasNext()) {
+						List<Phrase> track = new ArrayList<>();
+						in.beginArray();
+						while (in.hasNext()) {
+							track.add(JTR.inferPhrase(readTokens()));
+						}
+						in.endArray();
+						tracks.add(track);
+					}
+					in.endArray();
+					break;
+
+				case "turns":
+					turns = new ArrayList<>();
+					in.beginArray();
+					while (in.hasNext()) {
+						turns.add(readTurn(turnProject));
+					}
+					in.endArray();
+					break;
+
+				case "audioFile":
+					audioFile = new File(in.nextString());
+					break;
+
+				case "speakerNames":
+					in.beginArray();
+					while (in.hasNext()) {
+						speakerNames.add(in.nextString());
+					}
+					in.endArray();
+					break;
+
+				case JTR.TYPE_PROPERTY:
+					type = in.nextString();
+					break;
+
+				default:
+					in.skipValue();
+					break;
+			}
+		}
+		in.endObject();
+
+		Project project;
+
+		if (tracks != null
+				|| TrackProject.class.getSimpleName().equals(type))
+		{
+			TrackProject p = new TrackProject();
+			if (tracks != null) {
+				p.tracks = tracks;
+			}
+			project = p;
+		} else if (turns != null
+				|| TurnProject.class.getSimpleName().equals(type))
+		{
+			if (turns != null) {
+				turnProject.turns = turns;
+			}
+			project = turnProject;
+		} else {
+			throw new IOException("JTR: unknown project type: " + type);
+		}
+
+		project.audioFile = audioFile;
+		project.setSpeakerNames(speakerNames);
+		return project;
+	}
+
+
+	private TurnProject.Turn readTurn(TurnProject project) throws IOException {
+		TurnProject.Turn turn = project.new Turn();
+
+		in.beginObject();
+		while (in.hasNext()) {
+			String name = in.nextName();
+
+			if (in.peek() == JsonToken.NULL) {
+				in.skipValue();
+				continue;
+			}
+
+			switch (name) {
+				case "start":
+					turn.start = readAnchor();
+					break;
+
+				case "end":
+					turn.end = readAnchor();
+					break;
+
+				case "spkTokens":
+					turn.spkTokens = new ArrayList<>();
+					in.beginArray();
+					while (in.hasNext()) {
+						turn.spkTokens.add(readTokens());
+					}
+					in.endArray();
+					break;
+
+				default:
+					in.skipValue();
+					break;
+			}
+		}
+		in.endObject();
+
+		return turn;
+	}
+
+
+	private Anchor readAnchor() throws IOException {
+		float seconds = 0;
+
+		in.beginObject();
+		while (in.hasNext()) {
+			if (in.nextName().equals("seconds")) {
+				seconds = (float) in.nextDouble();
+			} else {
+				in.skipValue();
+			}
+		}
+		in.endObject();
+
+		return new Anchor(seconds);
+	}
+
+
+	private List<Token> readTokens() throws IOException {
+		List<Token> tokens = new ArrayList<>();
+
+		in.beginArray();
+		while (in.hasNext()) {
+			tokens.add(readToken());
+		}
+		in.endArray();
+
+		return tokens;
+	}
+
+
+	private Token readToken() throws IOException {
+		String text = null;
+		Token.Type type = Token.Type.WORD;
+		int speaker = -1;
+		boolean anonymize = false;
+		int[] segment = null;
+		List<String> phoneNames = null;
+		List<int[]> phoneSegments = null;
+
+		in.beginObject();
+		while (in.hasNext()) {
+			String name = in.nextName();
+
+			if (in.peek() == JsonToken.NULL) {
+				in.skipValue();
+				continue;
+			}
+
+			switch (name) {
+				case "text":
+					text = in.nextString();
+					break;
+
+				case "type":
+					type = Token.Type.valueOf(in.nextString());
+					break;
+
+				case "speaker":
+					speaker = in.nextInt();
+					break;
+
+				case "anonymize":
+					anonymize = in.nextBoolean();
+					break;
+
+				case "segment":
+					segment = readSegment();
+					break;
+
+				case "phones":
+					phoneNames = new ArrayList<>();
+					phoneSegments = new ArrayList<>();
+					in.beginArray();
+					while (in.hasNext()) {
+						String phone = null;
+						int[] phoneSegment = null;
+
+						in.beginObject();
+						while (in.hasNext()) {
+							String pName = in.nextName();
+							if (pName.equals("phone")) {
+								phone = in.nextString();
+							} else if (pName.equals("segment")) {
+								phoneSegment = readSegment();
+							} else {
+								in.skipValue();
+							}
+						}
+						in.endObject();
+
+						phoneNames.add(phone);
+						phoneSegments.add(phoneSegment);
+					}
+					in.endArray();
+					break;
+
+				default:
+					in.skipValue();
+					break;
+			}
+		}
+		in.endObject();
+
+		Token token = new Token(text, type);
+		token.setSpeaker(speaker);
+		token.setAnonymize(anonymize);
+
+		if (segment != null) {
+			token.setSegment(segment[0], segment[1]);
+		}
+
+		if (phoneNames != null && token.isAlignable()) {
+			for (int i = 0; i < phoneNames.size(); i++) {
+				int[] s = phoneSegments.get(i);
+				token.addPhone(new Token.Phone(phoneNames.get(i),
+						s == null? null: new Token.Segment(s[0], s[1])));
+			}
+		}
+
+		return token;
+	}
+
+
+	private int[] readSegment() throws IOException {
+		int[] segment = new int[2];
+
+		in.beginObject();
+		while (in.hasNext()) {
+			String name = in.nextName();
+			if (name.equals("start")) {
+				segment[0] = in.nextInt();
+			} else if (name.equals("end")) {
+				segment[1] = in.nextInt();
+			} else {
+				in.skipValue();
+			}
+		}
+		in.endObject();
+
+		return segment;
+	}
+
+}
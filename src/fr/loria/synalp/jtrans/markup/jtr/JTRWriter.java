@@ -0,0 +1,160 @@
+package fr.loria.synalp.jtrans.markup.jtr;
+
+import com.google.gson.stream.JsonWriter;
+
+import fr.loria.synalp.jtrans.project.Anchor;
+import fr.loria.synalp.jtrans.project.Phrase;
+import fr.loria.synalp.jtrans.project.Project;
+import fr.loria.synalp.jtrans.project.Token;
+import fr.loria.synalp.jtrans.project.TrackProject;
+import fr.loria.synalp.jtrans.project.TurnProject;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Streaming writer for the JTR (JSON) format.
+ *
+ * Writes the same document as {@link JTR#newGson()} (same properties, in the
+ * same order) without building an intermediate tree. With pretty printing
+ * enabled, the output is identical to Gson's.
+ */
+public class JTRWriter {
+
+	private final JsonWriter out;
+
+
+	public JTRWriter(Writer writer, boolean prettyPrint) {
+		out = new JsonWriter(writer);
+		out.setHtmlSafe(true);
+		if (prettyPrint) {
+			out.setIndent("  ");
+		}
+	}
+
+
+	public void write(Project project) throws IOException {
+		out.beginObject();
+		out.name("project");
+		out.beginObject();
+
+		if (project instanceof TrackProject) {
+			writeTracks((TrackProject) project);
+		} else if (project instanceof TurnProject) {
+			writeTurns((TurnProject) project);
+		} else {
+			throw new IllegalArgumentException("unsupported project type: "
+					+ project.getClass());
+		}
+
+		if (project.audioFile != null) {
+			out.name("audioFile").value(project.audioFile.getAbsolutePath());
+		}
+
+		out.name("speakerNames");
+		out.beginArray();
+		for (int i = 0; i < project.speakerCount(); i++) {
+			out.value(project.getSpeakerName(i));
+		}
+		out.endArray();
+
+		out.name(JTR.TYPE_PROPERTY).value(project.getClass().getSimpleName());
+
+		out.endObject();
+		out.endObject();
+		out.flush();
+	}
+
+
+	private void writeTracks(TrackProject project) throws IOException {
+		out.name("tracks");
+		out.beginArray();
+		for (List<Phrase> track: project.tracks) {
+			out.beginArray();
+			for (Phrase phrase: track) {
+				writeTokens(phrase);
+			}
+			out.endArray();
+		}
+		out.endArray();
+	}
+
+
+	private void writeTurns(TurnProject project) throws IOException {
+		out.name("turns");
+		out.beginArray();
+		for (TurnProject.Turn turn: project.turns) {
+			out.beginObject();
+			writeAnchor("start", turn.start);
+			writeAnchor("end", turn.end);
+			out.name("spkTokens");
+			out.beginArray();
+			for (List<Token> tokens: turn.spkTokens) {
+				writeTokens(tokens);
+			}
+			out.endArray();
+			out.endObject();
+		}
+		out.endArray();
+	}
+
+
+	private void writeAnchor(String name, Anchor anchor) throws IOException {
+		if (anchor != null) {
+			out.name(name);
+			out.beginObject();
+			out.name("seconds").value((Float) anchor.seconds);
+			out.endObject();
+		}
+	}
+
+
+	private void writeTokens(List<Token> tokens) throws IOException {
+		out.beginArray();
+		for (Token token: tokens) {
+			writeToken(token);
+		}
+		out.endArray();
+	}
+
+
+	private void writeToken(Token token) throws IOException {
+		out.beginObject();
+		out.name("text").value(token.getText());
+		out.name("type").value(token.getType().name());
+		out.name("speaker").value(token.getSpeaker());
+
+		if (token.getSegment() != null) {
+			out.name("segment");
+			writeSegment(token.getSegment());
+		}
+
+		if (token.getPhones() != null) {
+			out.name("phones");
+			out.beginArray();
+			for (Token.Phone phone: token.getPhones()) {
+				out.beginObject();
+				out.name("phone").value(phone.toString());
+				if (phone.getSegment() != null) {
+					out.name("segment");
+					writeSegment(phone.getSegment());
+				}
+				out.endObject();
+			}
+			out.endArray();
+		}
+
+		out.name("anonymize").value(token.shouldBeAnonymized());
+		out.endObject();
+	}
+
+
+	private void writeSegment(Token.Segment segment) throws IOException {
+		out.beginObject();
+		out.name("start").value(segment.getStartFrame());
+		out.name("end").value(segment.getEndFrame());
+		out.endObject();
+	}
+
+}
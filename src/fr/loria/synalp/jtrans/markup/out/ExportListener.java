@@ -0,0 +1,33 @@
+package fr.loria.synalp.jtrans.markup.out;
+
+import fr.loria.synalp.jtrans.project.Phrase;
+import fr.loria.synalp.jtrans.project.Token;
+
+import java.io.IOException;
+
+/**
+ * Receives the contents of a project, speaker by speaker, phrase by phrase.
+ * Lets several savers share a single pass over a project.
+ * @see ExportPipeline#walk
+ */
+public interface ExportListener {
+
+	/** Called before the first phrase of a speaker. */
+	public void startSpeaker(int speaker) throws IOException;
+
+	/** Called before the tokens of a phrase. */
+	public void phrase(Phrase phrase) throws IOException;
+
+	public void token(Token token) throws IOException;
+
+	/** Called after the last phrase of a speaker. */
+	public void endSpeaker(int speaker) throws IOException;
+
+	/**
+	 * Called once the whole project has been walked through.
+	 * Listeners typically write their output file at this point.
+	 * May be called from another thread than the one that fed the events.
+	 */
+	public void finish() throws IOException;
+
+}
@@ -0,0 +1,193 @@
+package fr.loria.synalp.jtrans.markup.out;
+
+import fr.loria.synalp.jtrans.project.Phrase;
+import fr.loria.synalp.jtrans.project.Project;
+import fr.loria.synalp.jtrans.project.Token;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static fr.loria.synalp.jtrans.markup.out.TextGridSaverHelper.*;
+
+/**
+ * Saves a project to several formats at once.
+ * <p/>
+ * Streaming savers share a single pass over the project; TextGrid savers
+ * additionally share the same tiers, so that words and phones are formatted
+ * only once regardless of how many TextGrid variants are requested. Output
+ * files are then written concurrently, each to its own buffered stream.
+ * Other savers run concurrently with the pass.
+ * <p/>
+ * {@link TricoSaver} updates the turn anchors of the project, which other
+ * formats read; it therefore runs alone, before any other saver.
+ */
+public class ExportPipeline {
+
+	/** Maximum number of output files written at once. */
+	public static int THREADS = Runtime.getRuntime().availableProcessors();
+
+	private final Project project;
+	private final List<MarkupSaver> savers = new ArrayList<>();
+	private final List<File> files = new ArrayList<>();
+
+
+	public ExportPipeline(Project project) {
+		this.project = project;
+	}
+
+
+	public void add(MarkupSaver saver, File file) {
+		savers.add(saver);
+		files.add(file);
+	}
+
+
+	/**
+	 * Feeds all phrases and tokens of a project to the given listeners, then
+	 * finishes them in order.
+	 */
+	public static void walk(Project p, ExportListener... listeners)
+			throws IOException
+	{
+		walk(p, Arrays.asList(listeners));
+		for (ExportListener l: listeners) {
+			l.finish();
+		}
+	}
+
+
+	/**
+	 * Feeds all phrases and tokens of a project to the given listeners,
+	 * without finishing them.
+	 */
+	private static void walk(Project p, List<ExportListener> listeners)
+			throws IOException
+	{
+		for (int i = 0; i < p.speakerCount(); i++) {
+			for (ExportListener l: listeners) {
+				l.startSpeaker(i);
+			}
+
+			Iterator<Phrase> itr = p.phraseIterator(i);
+			while (itr.hasNext()) {
+				Phrase phrase = itr.next();
+				for (ExportListener l: listeners) {
+					l.phrase(phrase);
+				}
+				for (Token token: phrase) {
+					for (ExportListener l: listeners) {
+						l.token(token);
+					}
+				}
+			}
+
+			for (ExportListener l: listeners) {
+				l.endSpeaker(i);
+			}
+		}
+	}
+
+
+	public void run() throws IOException {
+		List<Callable<Void>> standalone = new ArrayList<>();
+		List<ExportListener> listeners = new ArrayList<>();
+		final List<TextGridSaver> textGrids = new ArrayList<>();
+		final List<File> textGridFiles = new ArrayList<>();
+		boolean words = false;
+		boolean phones = false;
+
+		for (int i = 0; i < savers.size(); i++) {
+			final MarkupSaver saver = savers.get(i);
+			final File file = files.get(i);
+
+			if (saver instanceof TricoSaver) {
+				saver.save(project, file);
+			} else if (saver instanceof TextGridSaver) {
+				TextGridSaver tgs = (TextGridSaver) saver;
+				textGrids.add(tgs);
+				textGridFiles.add(file);
+				words |= tgs.withWords;
+				phones |= tgs.withPhons;
+			} else if (saver instanceof StreamingSaver) {
+				listeners.add(((StreamingSaver) saver).newListener(project, file));
+			} else {
+				standalone.add(new Callable<Void>() {
+					public Void call() throws IOException {
+						saver.save(project, file);
+						return null;
+					}
+				});
+			}
+		}
+
+		final Tiers tiers = textGrids.isEmpty()? null: new Tiers(project,
+				censorAnonWords != docensort.anonymous,
+				censorAnonWords != docensort.withNPs,
+				words, phones);
+		if (tiers != null) {
+			listeners.add(tiers);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,
+				Math.min(THREADS, standalone.size() + listeners.size() + textGrids.size())));
+		List<Future<Void>> futures = new ArrayList<>();
+
+		try {
+			for (Callable<Void> task: standalone) {
+				futures.add(executor.submit(task));
+			}
+
+			walk(project, listeners);
+
+			if (tiers != null) {
+				tiers.finish();
+				for (int i = 0; i < textGrids.size(); i++) {
+					final TextGridSaver tgs = textGrids.get(i);
+					final File file = textGridFiles.get(i);
+					futures.add(executor.submit(new Callable<Void>() {
+						public Void call() throws IOException {
+							tiers.writeFiles(file, tgs.withWords, tgs.withPhons);
+							return null;
+						}
+					}));
+				}
+			}
+
+			for (final ExportListener l: listeners) {
+				if (l == tiers) {
+					continue;
+				}
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call() throws IOException {
+						l.finish();
+						return null;
+					}
+				}));
+			}
+
+			for (Future<Void> f: futures) {
+				f.get();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("export interrupted", ex);
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else {
+				throw new IOException(cause);
+			}
+		} finally {
+			executor.shutdownNow();
+			if (tiers != null) {
+				tiers.close();
+			}
+		}
+	}
+
+}
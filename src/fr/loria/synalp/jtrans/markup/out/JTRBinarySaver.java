@@ -0,0 +1,36 @@
+package fr.loria.synalp.jtrans.markup.out;
+
+import fr.loria.synalp.jtrans.markup.jtr.JTRBinary;
+import fr.loria.synalp.jtrans.project.Project;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+
+/**
+ * Saves projects in the compact binary variant of the JTR format.
+ * These files can be opened with {@link fr.loria.synalp.jtrans.markup.in.JTRLoader}.
+ */
+public class JTRBinarySaver implements MarkupSaver {
+
+	@Override
+	public void save(Project project, File file) throws IOException {
+		try (OutputStream out = new FileOutputStream(file)) {
+			JTRBinary.write(project, out);
+		}
+	}
+
+
+	@Override
+	public String getFormat() {
+		return "JTrans binary project";
+	}
+
+
+	public String getExt() {
+		return ".jtrb";
+	}
+
+}
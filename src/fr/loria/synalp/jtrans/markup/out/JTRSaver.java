@@ -1,8 +1,7 @@
 package fr.loria.synalp.jtrans.markup.out;
 
+import fr.loria.synalp.jtrans.markup.jtr.JTRWriter;
 import fr.loria.synalp.jtrans.project.Project;
-import fr.loria.synalp.jtrans.markup.jtr.JTR.ProjectWrapper;
-import static fr.loria.synalp.jtrans.markup.jtr.JTR.*;
 import static fr.loria.synalp.jtrans.utils.FileUtils.getUTF8Writer;
 
 import java.io.File;
@@ -12,11 +11,18 @@ import java.io.Writer;
 
 public class JTRSaver implements MarkupSaver {
 
+	/**
+	 * Indent JSON output. Makes files more readable (and diffable), but
+	 * larger and slower to write.
+	 */
+	public static boolean PRETTY_PRINT = false;
+
+
 	@Override
 	public void save(Project project, File file) throws IOException {
-		Writer w = getUTF8Writer(file);
-		newGson().toJson(new ProjectWrapper(project), w);
-		w.close();
+		try (Writer w = getUTF8Writer(file)) {
+			new JTRWriter(w, PRETTY_PRINT).write(project);
+		}
 	}
 
 
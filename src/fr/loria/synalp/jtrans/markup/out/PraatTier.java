@@ -0,0 +1,132 @@
+package fr.loria.synalp.jtrans.markup.out;
+
+import java.io.*;
+
+import static fr.loria.synalp.jtrans.speechreco.s4.S4mfccBuffer.frame2second;
+import static fr.loria.synalp.jtrans.utils.FileUtils.getUTF8Reader;
+import static fr.loria.synalp.jtrans.utils.FileUtils.getUTF8Writer;
+
+/**
+ * Intervals of a Praat interval tier, formatted as they are appended.
+ * <p/>
+ * Keeps track of the interval count and of the end of the last interval, so
+ * that appending an interval is done in constant time. Past
+ * {@link #SPILL_THRESHOLD} characters, intervals are spooled to a temporary
+ * file so that memory use stays bounded regardless of the length of the tier.
+ */
+public class PraatTier implements Closeable {
+
+	/** Number of buffered characters above which a tier is spooled to disk. */
+	public static int SPILL_THRESHOLD = 1 << 20;
+
+	private final StringBuilder buffer = new StringBuilder();
+	private File spool = null;
+	private Writer spoolWriter = null;
+
+	private int count = 0;
+	private float lastTime = 0f;
+
+
+	/**
+	 * Number of intervals in the tier.
+	 */
+	public int size() {
+		return count;
+	}
+
+
+	/**
+	 * Appends an interval, inserting an empty interval before it if there is
+	 * a gap since the previous interval.
+	 * Same semantics as
+	 * {@link TextGridSaverHelper#praatInterval(Appendable, int[], int, int, String)}.
+	 * @return end of the interval, in seconds
+	 */
+	public float interval(int xminFrame, int xmaxFrame, String content)
+			throws IOException
+	{
+		float endSec=frame2second(xmaxFrame,false);
+		float debSec=frame2second(xminFrame,false);
+		if (debSec>endSec) debSec=endSec;
+
+		if ( debSec < (lastTime - 0.02) ) {
+			System.err.println("WARNING: minTime>maxTime "+lastTime+" "+debSec);
+		} else if ( debSec > (lastTime + 0.02) ) {
+			append(lastTime, debSec, "");
+		} else {
+			if (debSec < lastTime) debSec = lastTime;
+			if (endSec < debSec) endSec = debSec;
+		}
+
+		append(debSec, endSec, content);
+		return endSec;
+	}
+
+
+	private void append(float xminSec, float xmaxSec, String content)
+			throws IOException
+	{
+		TextGridSaverHelper.praatInterval(buffer, ++count, xminSec, xmaxSec, content);
+		lastTime = xmaxSec;
+
+		if (buffer.length() > SPILL_THRESHOLD) {
+			if (spoolWriter == null) {
+				spool = File.createTempFile("jtrans-tier", ".txt");
+				spool.deleteOnExit();
+				spoolWriter = getUTF8Writer(spool);
+			}
+			spoolWriter.append(buffer);
+			buffer.setLength(0);
+		}
+	}
+
+
+	/**
+	 * Flushes spooled intervals to disk. No intervals may be appended
+	 * afterwards; the tier may then be written by several threads at once.
+	 */
+	public void seal() throws IOException {
+		if (spoolWriter != null) {
+			spoolWriter.close();
+			spoolWriter = null;
+		}
+	}
+
+
+	/**
+	 * Writes the tier header and all intervals.
+	 * @param id Tier ID (Praat tier numbering starts at 1 and is contiguous!)
+	 */
+	public void writeTo(Writer w, int id, String name, int frameCount)
+			throws IOException
+	{
+		TextGridSaverHelper.praatTierHeader(w, id, name, count, frameCount);
+
+		if (spool != null) {
+			assert spoolWriter == null: "tier must be sealed";
+			char[] chunk = new char[8192];
+			try (Reader r = getUTF8Reader(spool)) {
+				int n;
+				while ((n = r.read(chunk)) >= 0) {
+					w.write(chunk, 0, n);
+				}
+			}
+		}
+
+		w.append(buffer);
+	}
+
+
+	/**
+	 * Deletes the spool file, if any.
+	 */
+	@Override
+	public void close() throws IOException {
+		seal();
+		if (spool != null) {
+			spool.delete();
+			spool = null;
+		}
+	}
+
+}
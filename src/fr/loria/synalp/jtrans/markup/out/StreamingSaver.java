@@ -0,0 +1,20 @@
+package fr.loria.synalp.jtrans.markup.out;
+
+import fr.loria.synalp.jtrans.project.Project;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Saver that can share a single pass over a project with other savers.
+ * Its output is written by a listener fed by {@link ExportPipeline#walk}.
+ */
+public interface StreamingSaver extends MarkupSaver {
+
+	/**
+	 * Returns a listener that writes the given file once it is finished.
+	 */
+	public ExportListener newListener(Project project, File file)
+			throws IOException;
+
+}
@@ -1,14 +1,9 @@
 package fr.loria.synalp.jtrans.markup.out;
 
-import fr.loria.synalp.jtrans.project.Project;
+public class TextGridPSaver extends TextGridSaver {
 
-import java.io.File;
-import java.io.IOException;
-
-public class TextGridPSaver implements MarkupSaver {
-
-	public void save(Project project, File file) throws IOException {
-		TextGridSaverHelper.savePraat(project, file, false, true);
+	public TextGridPSaver() {
+		super(false, true);
 	}
 
 	public String getFormat() {
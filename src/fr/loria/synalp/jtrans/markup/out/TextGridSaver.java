@@ -0,0 +1,67 @@
+package fr.loria.synalp.jtrans.markup.out;
+
+import fr.loria.synalp.jtrans.project.Phrase;
+import fr.loria.synalp.jtrans.project.Project;
+import fr.loria.synalp.jtrans.project.Token;
+
+import java.io.File;
+import java.io.IOException;
+
+import static fr.loria.synalp.jtrans.markup.out.TextGridSaverHelper.*;
+
+/**
+ * Base class for savers of Praat TextGrids with word and/or phone tiers.
+ * Savers in an {@link ExportPipeline} share the same tiers.
+ */
+public abstract class TextGridSaver implements StreamingSaver {
+
+	public final boolean withWords;
+	public final boolean withPhons;
+
+
+	protected TextGridSaver(boolean withWords, boolean withPhons) {
+		this.withWords = withWords;
+		this.withPhons = withPhons;
+	}
+
+
+	public void save(Project project, File file) throws IOException {
+		savePraat(project, file, withWords, withPhons);
+	}
+
+
+	public ExportListener newListener(Project project, final File file) {
+		final Tiers tiers = new Tiers(project,
+				censorAnonWords != docensort.anonymous,
+				censorAnonWords != docensort.withNPs,
+				withWords, withPhons);
+
+		return new ExportListener() {
+			public void startSpeaker(int speaker) {
+				tiers.startSpeaker(speaker);
+			}
+
+			public void phrase(Phrase phrase) {
+				tiers.phrase(phrase);
+			}
+
+			public void token(Token token) throws IOException {
+				tiers.token(token);
+			}
+
+			public void endSpeaker(int speaker) throws IOException {
+				tiers.endSpeaker(speaker);
+			}
+
+			public void finish() throws IOException {
+				try {
+					tiers.finish();
+					tiers.writeFiles(file, withWords, withPhons);
+				} finally {
+					tiers.close();
+				}
+			}
+		};
+	}
+
+}
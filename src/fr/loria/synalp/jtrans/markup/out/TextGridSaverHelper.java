@@ -5,7 +5,6 @@ import fr.loria.synalp.jtrans.project.*;
 import fr.loria.synalp.jtrans.utils.FileUtils;
 
 import java.io.*;
-import java.util.Iterator;
 
 import static fr.loria.synalp.jtrans.utils.FileUtils.getUTF8Writer;
 import static fr.loria.synalp.jtrans.speechreco.s4.S4mfccBuffer.frame2second;
@@ -24,200 +23,257 @@ public class TextGridSaverHelper {
     }
 
     public static void savePraat(Project p,File f,boolean withWords,boolean withPhons) throws IOException {
-	if (censorAnonWords==docensort.both) {
-	    String ext="";
-	    String s=f.getAbsolutePath();
-	    int i=s.lastIndexOf('.');
-	    if (i>=0) ext=s.substring(i);
-	    File fanon = new File(FileUtils.noExt(s)+"_anon"+ext);
-	    savePraat(true, p, fanon, withWords, withPhons);
-	    savePraat(false, p, f, withWords, withPhons);
-	} else if (censorAnonWords==docensort.withNPs) {
-	    savePraat(false, p, f, withWords, withPhons);
-	} else {
-	    savePraat(true,p, f, withWords, withPhons);
+	Tiers tiers = new Tiers(p,
+				censorAnonWords!=docensort.anonymous,
+				censorAnonWords!=docensort.withNPs,
+				withWords, withPhons);
+	try {
+	    ExportPipeline.walk(p, tiers);
+	    tiers.writeFiles(f, withWords, withPhons);
+	} finally {
+	    tiers.close();
 	}
     }
-    private static void savePraat(
-				  boolean anonymous,
-				  Project p,
-				  File f,
-				  boolean withWords,
-				  boolean withPhons)
-	throws IOException
-    {
-	Writer w = getUTF8Writer(f);
 
-	final int frameCount = (int) p.audioSourceTotalFrames;
 
-	praatFileHeader(w,
-			frameCount,
-			p.speakerCount() * ((withWords?1:0) + (withPhons?1:0)));
+    /**
+     * Returns the file to which the anonymized variant of a TextGrid is
+     * written when {@link #censorAnonWords} is {@code both}.
+     */
+    public static File anonFile(File f) {
+	String ext="";
+	String s=f.getAbsolutePath();
+	int i=s.lastIndexOf('.');
+	if (i>=0) ext=s.substring(i);
+	return new File(FileUtils.noExt(s)+"_anon"+ext);
+    }
+
+
+    /**
+     * Builds word and phone tiers for all speakers in a single pass.
+     * The plain and anonymized variants of the tiers are built from the same
+     * pass, and the tiers may then be shared by several TextGrid files.
+     */
+    public static class Tiers implements ExportListener, Closeable {
+
+	private final Project p;
+	private final boolean plain;
+	private final boolean anon;
+	private final boolean words;
+	private final boolean phones;
+	private final int frameCount;
+
+	// [speaker] -> tier, null if not needed
+	private final PraatTier[] wordTiers;
+	private final PraatTier[] phoneTiers;
+	private final PraatTier[] anonWordTiers;
+	private final PraatTier[] anonPhoneTiers;
+
+	// state of the current speaker
+	private int speaker;
+	private int lastFrame; // frame onto which to tack 0-length elements
+	private int textidStard2add;
+	private String textid2add;
+
+
+	/**
+	 * @param plain build tiers with anonymized words in the clear
+	 * @param anon build tiers with anonymized words censored
+	 */
+	public Tiers(Project p, boolean plain, boolean anon, boolean words, boolean phones) {
+	    this.p = p;
+	    this.plain = plain;
+	    this.anon = anon;
+	    this.words = words;
+	    this.phones = phones;
+	    frameCount = (int) p.audioSourceTotalFrames;
+
+	    int n = p.speakerCount();
+	    wordTiers = new PraatTier[n];
+	    phoneTiers = new PraatTier[n];
+	    anonWordTiers = new PraatTier[n];
+	    anonPhoneTiers = new PraatTier[n];
+	}
+
+
+	@Override
+	public void startSpeaker(int speaker) {
+	    this.speaker = speaker;
+	    lastFrame = 0;
+	    textidStard2add = -1;
+	    textid2add = "BUG";
 
-	int id = 1;
-	for (int i = 0; i < p.speakerCount(); i++) {
-	    StringBuilder wordSB = new StringBuilder();
-	    StringBuilder phoneSB = new StringBuilder();
+	    if (plain && words) wordTiers[speaker] = new PraatTier();
+	    if (plain && phones) phoneTiers[speaker] = new PraatTier();
+	    if (anon && words) anonWordTiers[speaker] = new PraatTier();
+	    if (anon && phones) anonPhoneTiers[speaker] = new PraatTier();
+	}
 
-	    int[] wordCount = {0};
-	    int[] phoneCount = {0};
 
+	@Override
+	public void phrase(Phrase phrase) {
 	    // frame onto which to tack 0-length elements
-	    int lastFrame = 0;
+	    if (phrase.getInitialAnchor() != null) {
+		lastFrame = phrase.getInitialAnchor().getFrame();
+	    }
+	}
+
+
+	private void word(int xminFrame, int xmaxFrame, String content, String censoredContent)
+	    throws IOException
+	{
+	    if (wordTiers[speaker] != null)
+		wordTiers[speaker].interval(xminFrame, xmaxFrame, content);
+	    if (anonWordTiers[speaker] != null)
+		anonWordTiers[speaker].interval(xminFrame, xmaxFrame, censoredContent);
+	}
+
+
+	private void word(int xminFrame, int xmaxFrame, String content) throws IOException {
+	    word(xminFrame, xmaxFrame, content, content);
+	}
 
-	    int textidStard2add = -1; String textid2add = "BUG";
 
-	    Iterator<Phrase> itr = p.phraseIterator(i);
-	    while (itr.hasNext()) {
-		Phrase phrase = itr.next();
+	@Override
+	public void token(Token token) throws IOException {
+	    if (token.isAlignable() && token.isAligned()) {
+		boolean censorable = token.shouldBeAnonymized();
+		String tok = censorable?"*"+token.toString()+"*":token.toString();
+
+		int startWfr = token.getFirstNonSilenceFrame();
+		int endWfr = token.getLastNonSilenceFrame();
+		lastFrame = token.getSegment().getEndFrame();
+		if (startWfr<0) {
+		    // ce n'est que un SIL: on ne fait pas apparaitre les SIL dans la tier des mots
+		} else {
+		    if (textidStard2add>=0) {
+			// first add a START textid comment with the same frame as the next word
+			word(startWfr, startWfr-1, textid2add);
+			textidStard2add=-1;
+		    }
+		    // cas normal: mot prononcé et aligné
+		    word(startWfr, endWfr, tok, censorable ? "*ANON*" : tok);
+		    lastFrame=endWfr;
+		}
+		// dans tous les cas, j'ajoute les phonemes
+		for (Token.Phone phone : token.getPhones()) {
+		    int xmin = phone.getSegment().getStartFrame();
+		    int xmax = phone.getSegment().getEndFrame();
+		    if (phoneTiers[speaker] != null)
+			phoneTiers[speaker].interval(xmin, xmax, phone.toString());
+		    if (!censorable && anonPhoneTiers[speaker] != null)
+			anonPhoneTiers[speaker].interval(xmin, xmax, phone.toString());
+		}
+
+	    } else if (null != token) {
+		// token non-alignable ou non-aligné
+		if (token.toString().charAt(0)=='[') {
+		    // on traite le cas des commentaires textid
+		    if (token.toString().endsWith("start]")) {
+			textid2add=token.toString();
+			textidStard2add=lastFrame; // this value is actually not used; the only important thing is that it is >=0
+		    } else if (token.toString().endsWith("end]")) {
+			if (textidStard2add<0) {
+			    // only add the textid comment iff there are at least 1 real word in the interval
+			    word(lastFrame+1, lastFrame, token.toString());
+			} else {
+			    // cancels the previously started segment, because it is empty
+			    textidStard2add=-1;
+			}
+		    } else {
+			// autre commentaire
+			word(lastFrame+1, lastFrame, token.toString());
+		    }
+		} else {
+		    // mot prononcé non aligné (pb d'alignement ?)
+		    word(lastFrame, lastFrame - 1, token.toString());
+		}
+	    }
+	}
+
+
+	@Override
+	public void endSpeaker(int speaker) throws IOException {
+	    // add an empty final intervals if needed
+	    if (lastFrame < frameCount) {
+		for (PraatTier[] tiers: new PraatTier[][] {
+			wordTiers, phoneTiers, anonWordTiers, anonPhoneTiers}) {
+		    if (tiers[speaker] != null)
+			tiers[speaker].interval(lastFrame, frameCount, "");
+		}
+	    }
+	}
 
-                // frame onto which to tack 0-length elements
-		if (phrase.getInitialAnchor() != null) {
-		    lastFrame = phrase.getInitialAnchor().getFrame();
+
+	@Override
+	public void finish() throws IOException {
+	    for (PraatTier[] tiers: new PraatTier[][] {
+		    wordTiers, phoneTiers, anonWordTiers, anonPhoneTiers}) {
+		for (PraatTier tier: tiers) {
+		    if (tier != null) tier.seal();
 		}
+	    }
+	}
 
-		for (Token token: phrase) {
-		    if (token.isAlignable() && token.isAligned()) {
-			boolean censored = anonymous && token.shouldBeAnonymized();
-			String tok = token.shouldBeAnonymized()?"*"+token.toString()+"*":token.toString();
-
-                        int startWfr = token.getFirstNonSilenceFrame();
-                        int endWfr = token.getLastNonSilenceFrame();
-                        lastFrame = token.getSegment().getEndFrame();
-			if (startWfr<0) {
-                            // ce n'est que un SIL: j'ajoute un mot pour le SIL
-                            // et bien non, en fait, j'ai decide de ne pas faire apparaitre du tout les SIL dans la tier des mots...
-			    //                            praatInterval(
-			    //                                    wordSB,
-			    //                                    wordCount + 1,
-			    //                                    token.getSegment().getStartFrame(),
-			    //                                    token.getSegment().getEndFrame(),
-			    //                                    censored ? "*ANON*" : tok);
-			    //                            wordCount++;
-                        } else {
-			    //                            if (startWfr>token.getSegment().getStartFrame()) {
-			    //                                // il y a un SIL devant: j'ajoute un mot "SIL" devant
-			    //                                praatInterval(
-			    //                                    wordSB,
-			    //                                    wordCount + 1,
-			    //                                    token.getSegment().getStartFrame(),
-			    //                                    startWfr,
-			    //                                    StatePool.SILENCE_PHONE);
-			    //                                wordCount++;
-			    //                            }
-
-
-                            if (textidStard2add>=0) {
-                                // first add a START textid comment with the same frame as the next word
-                                praatInterval(
-					      wordSB,
-					      wordCount,
-					      startWfr,
-					      startWfr-1,
-					      textid2add);
-                                textidStard2add=-1;
-                            }
-			    // cas normal: mot prononcé et aligné
-                            praatInterval(
-					  wordSB,
-					  wordCount,
-					  startWfr,
-					  endWfr,
-					  censored ? "*ANON*" : tok);
-                            lastFrame=endWfr;
-			    //                            if (endWfr<token.getSegment().getEndFrame()) {
-			    //                                // il y a un SIL derriere; j'ajoute un mot "SIL" a la fin
-			    //                                praatInterval(
-			    //                                        wordSB,
-			    //                                        wordCount + 1,
-			    //                                        endWfr,
-			    //                                        token.getSegment().getEndFrame(),
-			    //                                        StatePool.SILENCE_PHONE);
-			    //                                wordCount++;
-			    //                            }
-                        }
-                        // dans tous les cas, j'ajoute les phonemes
-                        if (!censored) {
-                            for (Token.Phone phone : token.getPhones()) {
-                                praatInterval(
-					      phoneSB,
-					      phoneCount,
-					      phone.getSegment().getStartFrame(),
-					      phone.getSegment().getEndFrame(),
-					      phone.toString());
-                            }
-                        }
-
-		    } else if (null != token) {
-			// token non-alignable ou non-aligné
-                        if (token.toString().charAt(0)=='[') {
-			    // on traite le cas des commentaires textid
-                            if (token.toString().endsWith("start]")) {
-                                textid2add=token.toString();
-                                textidStard2add=lastFrame; // this value is actually not used; the only important thing is that it is >=0
-                            } else if (token.toString().endsWith("end]")) {
-                                if (textidStard2add<0) {
-                                    // only add the textid comment iff there are at least 1 real word in the interval
-                                    praatInterval(
-						  wordSB,
-						  wordCount,
-						  lastFrame+1,
-						  lastFrame,
-						  token.toString());
-                                } else {
-                                    // cancels the previously started segment, because it is empty
-                                    textidStard2add=-1;
-                                }
-                            } else {
-                                // autre commentaire
-                                praatInterval(
-					      wordSB,
-					      wordCount,
-					      lastFrame+1,
-					      lastFrame,
-					      token.toString());
-                            }
-                        } else {
-                            // mot prononcé non aligné (pb d'alignement ?)
-                            praatInterval(
-					  wordSB,
-					  wordCount,
-					  lastFrame,
-					  lastFrame - 1,
-					  token.toString());
-                        }
-                    }// endif token non-alignable
-                }//for-loop on token
-            }// while-loop on phrase
-
-	    // add an empty final intervals if needed 
-	    if (lastFrame < frameCount ) {
-		praatInterval(
-			      wordSB,
-			      wordCount,
-			      lastFrame,
-			      frameCount,
-			      "");
-		praatInterval(
-			      phoneSB,
-			      phoneCount,
-			      lastFrame,
-			      frameCount,
-			      "");
+
+	/**
+	 * Writes a TextGrid file from the tiers built so far.
+	 * Must be called after {@link #finish()}. Several files may be written
+	 * concurrently.
+	 * @param anonymous use the censored variant of the tiers
+	 */
+	public void write(File f, boolean anonymous, boolean withWords, boolean withPhons)
+	    throws IOException
+	{
+	    PraatTier[] wt = anonymous? anonWordTiers: wordTiers;
+	    PraatTier[] pt = anonymous? anonPhoneTiers: phoneTiers;
+
+	    try (Writer w = getUTF8Writer(f)) {
+		praatFileHeader(w,
+				frameCount,
+				p.speakerCount() * ((withWords?1:0) + (withPhons?1:0)));
+
+		int id = 1;
+		for (int i = 0; i < p.speakerCount(); i++) {
+		    if (withWords) {
+			wt[i].writeTo(w, id++, p.getSpeakerName(i) + " words", frameCount);
+		    }
+		    if (withPhons) {
+			pt[i].writeTo(w, id++, p.getSpeakerName(i) + " phons", frameCount);
+		    }
+		}
 	    }
+	}
 
-	    if (withWords) {
-		praatTierHeader(w, id++, p.getSpeakerName(i) + " words", wordCount[0], frameCount);
-		w.write(wordSB.toString());
+
+	/**
+	 * Writes the TextGrid files requested by {@link #censorAnonWords}.
+	 */
+	public void writeFiles(File f, boolean withWords, boolean withPhons)
+	    throws IOException
+	{
+	    if (censorAnonWords==docensort.both) {
+		write(anonFile(f), true, withWords, withPhons);
+		write(f, false, withWords, withPhons);
+	    } else {
+		write(f, censorAnonWords==docensort.anonymous, withWords, withPhons);
 	    }
+	}
+
 
-	    if (withPhons) {
-		praatTierHeader(w, id++, p.getSpeakerName(i) + " phons", phoneCount[0], frameCount);
-		w.write(phoneSB.toString());
+	/**
+	 * Deletes temporary files.
+	 */
+	@Override
+	public void close() throws IOException {
+	    for (PraatTier[] tiers: new PraatTier[][] {
+		    wordTiers, phoneTiers, anonWordTiers, anonPhoneTiers}) {
+		for (PraatTier tier: tiers) {
+		    if (tier != null) tier.close();
+		}
 	    }
-	}// for-loop on speakers
+	}
 
-	w.close();
     }
 
 
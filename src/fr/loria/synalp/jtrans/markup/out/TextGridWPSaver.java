@@ -1,14 +1,9 @@
 package fr.loria.synalp.jtrans.markup.out;
 
-import fr.loria.synalp.jtrans.project.Project;
+public class TextGridWPSaver extends TextGridSaver {
 
-import java.io.File;
-import java.io.IOException;
-
-public class TextGridWPSaver implements MarkupSaver {
-
-	public void save(Project project, File file) throws IOException {
-		TextGridSaverHelper.savePraat(project, file, true, true);
+	public TextGridWPSaver() {
+		super(true, true);
 	}
 
 	public String getFormat() {
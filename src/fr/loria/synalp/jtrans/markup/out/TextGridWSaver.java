@@ -1,14 +1,9 @@
 package fr.loria.synalp.jtrans.markup.out;
 
-import fr.loria.synalp.jtrans.project.Project;
+public class TextGridWSaver extends TextGridSaver {
 
-import java.io.File;
-import java.io.IOException;
-
-public class TextGridWSaver implements MarkupSaver {
-
-	public void save(Project project, File file) throws IOException {
-		TextGridSaverHelper.savePraat(project, file, true, false);
+	public TextGridWSaver() {
+		super(true, false);
 	}
 
 	public String getFormat() {
@@ -1,18 +1,18 @@
 package fr.loria.synalp.jtrans.markup.out;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.Iterator;
 
 import fr.loria.synalp.jtrans.project.Phrase;
 import fr.loria.synalp.jtrans.project.Project;
 import fr.loria.synalp.jtrans.project.Token;
 import fr.loria.synalp.jtrans.utils.QuickSort;
 
-public class TextSaver implements MarkupSaver {
+public class TextSaver implements StreamingSaver {
 
 	@Override
 	public String getFormat() {
@@ -29,47 +29,56 @@ public class TextSaver implements MarkupSaver {
 		saveText(project, file);
 	}
 
+	@Override
+	public ExportListener newListener(Project project, File file) {
+		return new TextListener(file);
+	}
+
 	public static void saveText(Project p, File f) throws IOException {
-		int lastend=0;
-		ArrayList<int[]> wsegs = new ArrayList<int[]>();
-		ArrayList<String> wwords = new ArrayList<String>();
-		for (int i = 0; i < p.speakerCount(); i++) {
-			Iterator<Phrase> itr = p.phraseIterator(i);
-			while (itr.hasNext()) {
-				Phrase phrase = itr.next();
-				for (Token token: phrase) {
-					if (token.isAligned()) {
-						int end = token.getSegment().getEndFrame();
-						if (end>lastend) lastend=end;
-						int[] seg = {token.getSegment().getStartFrame(),end};
-						wsegs.add(seg);
-						wwords.add(token.toString());
-					}
-				}
+		ExportPipeline.walk(p, new TextListener(f));
+	}
+
+	/**
+	 * Collects aligned tokens, then writes them sorted by start frame.
+	 */
+	private static class TextListener implements ExportListener {
+		private final File f;
+		private int lastend=0;
+		private final ArrayList<int[]> wsegs = new ArrayList<int[]>();
+		private final ArrayList<String> wwords = new ArrayList<String>();
+
+		TextListener(File f) {
+			this.f = f;
+		}
+
+		public void startSpeaker(int speaker) {}
+
+		public void phrase(Phrase phrase) {}
+
+		public void token(Token token) {
+			if (token.isAligned()) {
+				int end = token.getSegment().getEndFrame();
+				if (end>lastend) lastend=end;
+				int[] seg = {token.getSegment().getStartFrame(),end};
+				wsegs.add(seg);
+				wwords.add(token.toString());
 			}
 		}
-		// sort segments 
-		float[] debs = new float[wsegs.size()];
-		int[] ids = new int[wsegs.size()];
-		for (int i=0;i<ids.length;i++) {ids[i]=i;debs[i]=wsegs.get(i)[0];}
-		QuickSort qsort = new QuickSort();
-		qsort.sort(debs, ids);
-
-		// rebuild the segments in order and merge overlapping ones
-		ArrayList<int[]> asegs = new ArrayList<int[]>();
-		ArrayList<String> awords = new ArrayList<String>();
-		for (int i=0;i<ids.length;i++) {
-			int deb=wsegs.get(ids[i])[0];
-			int end=wsegs.get(ids[i])[1];
-			// standard case: 2 anon segs separated by a non-anon seg
-			int[] limits={deb,end};
-			asegs.add(limits);
-			awords.add(wwords.get(ids[i]));
+
+		public void endSpeaker(int speaker) {}
+
+		public void finish() throws IOException {
+			// sort segments
+			float[] debs = new float[wsegs.size()];
+			int[] ids = new int[wsegs.size()];
+			for (int i=0;i<ids.length;i++) {ids[i]=i;debs[i]=wsegs.get(i)[0];}
+			QuickSort qsort = new QuickSort();
+			qsort.sort(debs, ids);
+
+			PrintWriter ff = new PrintWriter(new BufferedWriter(new FileWriter(f)));
+			for (int i=0;i<ids.length;i++)
+				ff.println(wwords.get(ids[i]));
+			ff.close();
 		}
-		
-		PrintWriter ff = new PrintWriter(new FileWriter(f));
-		for (int i=0;i<awords.size();i++)
-			ff.println(awords.get(i));
-		ff.close();
 	}
 }
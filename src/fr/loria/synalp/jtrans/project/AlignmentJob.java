@@ -0,0 +1,63 @@
+package fr.loria.synalp.jtrans.project;
+
+import fr.loria.synalp.jtrans.align.Aligner;
+
+import java.io.IOException;
+
+/**
+ * A stretch of a project that can be aligned independently of the rest,
+ * i.e. a phrase or turn (or chain of turns) delimited by anchors.
+ * <p/>
+ * Jobs of the same project don't share tokens, so they may be run in any
+ * order.
+ *
+ * @see Project#getAlignmentJobs
+ */
+public abstract class AlignmentJob {
+
+	/** First frame covered by this job */
+	public final int startFrame;
+
+	/** Last frame covered by this job (may be Integer.MAX_VALUE if unknown) */
+	public final int endFrame;
+
+
+	/**
+	 * @param start may be null if the job starts at the beginning of the audio
+	 * @param end may be null if the job ends at the end of the audio
+	 */
+	public AlignmentJob(Anchor start, Anchor end) {
+		startFrame = start == null? 0: start.getFrame();
+		endFrame = end == null? Integer.MAX_VALUE: end.getFrame();
+	}
+
+
+	/**
+	 * Returns the number of frames between a frame and the stretch of audio
+	 * covered by this job (0 if the frame is within the job).
+	 */
+	public int distanceTo(int frame) {
+		if (frame < startFrame) {
+			return startFrame - frame;
+		} else if (frame > endFrame) {
+			return frame - endFrame;
+		} else {
+			return 0;
+		}
+	}
+
+
+	/**
+	 * Returns true if the given token is aligned by this job.
+	 */
+	public abstract boolean contains(Token token);
+
+
+	/**
+	 * Aligns the tokens covered by this job and commits the result to them.
+	 * @see Project#align
+	 */
+	public abstract void align(Aligner aligner, Aligner reference)
+			throws IOException, InterruptedException;
+
+}
@@ -4,6 +4,8 @@ import fr.loria.synalp.jtrans.align.Aligner;
 import fr.loria.synalp.jtrans.align.ViterbiAligner;
 import fr.loria.synalp.jtrans.utils.*;
 import fr.loria.synalp.jtrans.graph.StateGraph;
+import fr.loria.synalp.jtrans.speechreco.s4.S4mfccBuffer;
+import edu.cmu.sphinx.frontend.FloatData;
 import static fr.loria.synalp.jtrans.speechreco.s4.S4mfccBuffer.frame2second;
 import static fr.loria.synalp.jtrans.speechreco.s4.S4mfccBuffer.second2frame;
 
@@ -27,6 +29,20 @@ public abstract class Project {
 
 	public static Class<? extends Aligner> ALIGNER = ViterbiAligner.class;
 
+	/**
+	 * Extract features while converting audio files, so that they are ready
+	 * for alignment as soon as the conversion is over.
+	 */
+	public static boolean INGEST_FEATURES = true;
+
+	/**
+	 * Write converted audio files to the cache. Playback, the spectrogram
+	 * and speech recognition read the converted file, but alignment only
+	 * needs the features extracted while converting; so the command line
+	 * skips writing it. Ignored if {@link #INGEST_FEATURES} is off.
+	 */
+	public static boolean WRITE_CONVERTED_AUDIO = true;
+
 
 	public File audioFile;
 
@@ -37,6 +53,12 @@ public abstract class Project {
 
 	protected List<String> speakerNames = new ArrayList<>();
 
+	/** Frame-interval index of each speaker's aligned tokens, built lazily */
+	private transient TokenIndex[] tokenIndexes;
+
+	/** Word search index, built lazily */
+	private transient TokenSearchIndex searchIndex;
+
 
 	public int speakerCount() {
 		return speakerNames.size();
@@ -50,6 +72,15 @@ public abstract class Project {
 		return speakerNames.indexOf(name);
 	}
 
+	/**
+	 * Sets all speaker names at once. Meant for deserializers, which restore
+	 * the per-speaker token containers themselves: the number of names must
+	 * match them.
+	 */
+	public void setSpeakerNames(List<String> names) {
+		speakerNames = new ArrayList<>(names);
+	}
+
 	public abstract List<Token> getTokens(int speaker);
 
 	public abstract Iterator<Phrase> phraseIterator(int speaker);
@@ -69,6 +100,86 @@ public abstract class Project {
 		for (Token token: getAllTokens()) {
 			token.clearAlignment();
 		}
+		invalidateTokenIndex();
+	}
+
+
+	/**
+	 * Returns an index of the speaker's aligned tokens by frame.
+	 * The index is kept up to date by {@link #alignmentChanged}; other
+	 * modifications of the tokens require {@link #invalidateTokenIndex}.
+	 */
+	public synchronized TokenIndex getTokenIndex(int speaker) {
+		if (tokenIndexes == null || tokenIndexes.length != speakerCount()) {
+			tokenIndexes = new TokenIndex[speakerCount()];
+		}
+		if (tokenIndexes[speaker] == null) {
+			tokenIndexes[speaker] = TokenIndex.build(getTokens(speaker));
+		}
+		return tokenIndexes[speaker];
+	}
+
+
+	/**
+	 * Updates the token indexes after the alignment of some tokens has been
+	 * committed. Only these tokens are re-indexed.
+	 */
+	public synchronized void alignmentChanged(Collection<Token> tokens) {
+		if (tokenIndexes == null) {
+			return;
+		}
+
+		Map<Integer, List<Token>> bySpeaker = new HashMap<>();
+		for (Token token: tokens) {
+			int spk = token.getSpeaker();
+			if (spk < 0 || spk >= tokenIndexes.length || tokenIndexes[spk] == null) {
+				continue;
+			}
+			List<Token> list = bySpeaker.get(spk);
+			if (list == null) {
+				list = new ArrayList<>();
+				bySpeaker.put(spk, list);
+			}
+			list.add(token);
+		}
+
+		for (Map.Entry<Integer, List<Token>> e: bySpeaker.entrySet()) {
+			int spk = e.getKey();
+			tokenIndexes[spk] = tokenIndexes[spk].update(e.getValue());
+		}
+	}
+
+
+	/**
+	 * Returns the word search index, building it if needed.
+	 */
+	public synchronized TokenSearchIndex getSearchIndex() {
+		if (searchIndex == null || searchIndex.getSpeakerCount() != speakerCount()) {
+			searchIndex = new TokenSearchIndex(this);
+		}
+		return searchIndex;
+	}
+
+
+	/**
+	 * Updates the indexes after a speaker's tokens have been edited
+	 * (added, removed or modified). Other speakers are left untouched.
+	 */
+	public synchronized void tokensChanged(int speaker) {
+		if (tokenIndexes != null && speaker < tokenIndexes.length) {
+			tokenIndexes[speaker] = null;
+		}
+		if (searchIndex != null && speaker < searchIndex.getSpeakerCount()) {
+			searchIndex.update(speaker, getTokens(speaker));
+		}
+	}
+
+
+	/**
+	 * Discards the token indexes; they will be rebuilt on demand.
+	 */
+	public synchronized void invalidateTokenIndex() {
+		tokenIndexes = null;
 	}
 
 
@@ -121,6 +232,15 @@ public abstract class Project {
 			throws IOException, InterruptedException;
 
 
+	/**
+	 * Splits the alignment of this project into jobs that can be run
+	 * independently, in any order (e.g. to align the part of the project
+	 * the user is looking at first). Running all jobs is equivalent to
+	 * {@link #align}, except that the current alignment isn't cleared.
+	 */
+	public abstract List<AlignmentJob> getAlignmentJobs();
+
+
 	/**
 	 * Returns differences in anchor times from one project to another
 	 * using this project as a reference. Both projects must be otherwise
@@ -261,14 +381,39 @@ public abstract class Project {
 	/**
 	 * Sets the audio file for this project, and converts it to a suitable
 	 * format if needed.
+	 * @param sinks optional consumers to feed with the converted audio while
+	 *              it is being converted (only if a conversion is needed)
 	 */
-	public void setAudio(File audioFile) {
+	public void setAudio(File audioFile, AudioIngest.Sink... sinks) {
 		this.audioFile = audioFile;
 
 		if (audioFile != null) {
-			convertedAudioFile = suitableAudioFile(audioFile);
+			// The converted file may not be written; count its frames
+			final long[] convertedFrames = {-1};
+			AudioIngest.Sink[] allSinks = Arrays.copyOf(sinks, sinks.length + 1);
+			allSinks[sinks.length] = new AudioIngest.Sink() {
+				@Override
+				public void consume(AudioInputStream converted) throws IOException {
+					byte[] buf = new byte[8192];
+					long bytes = 0;
+					int n;
+					while ((n = converted.read(buf)) >= 0) {
+						bytes += n;
+					}
+					convertedFrames[0] = bytes / converted.getFormat().getFrameSize();
+				}
 
-			try {
+				@Override
+				public void done(File wav) {
+				}
+			};
+
+			convertedAudioFile = suitableAudioFile(audioFile, allSinks);
+
+			if (!convertedAudioFile.exists()) {
+				audioSourceTotalFrames = convertedFrames[0] < 0? -1: second2frame(
+						convertedFrames[0] / SUITABLE_AUDIO_FORMAT.getFrameRate());
+			} else try {
 				AudioInputStream audioInputStream =
 						AudioSystem.getAudioInputStream(convertedAudioFile);
 				AudioFormat format = audioInputStream.getFormat();
@@ -292,8 +437,18 @@ public abstract class Project {
 	/**
 	 * Return an audio file in a suitable format for JTrans. If the original
 	 * file isn't in the right format, convert it and cache it.
+	 * <p/>
+	 * If {@link #WRITE_CONVERTED_AUDIO} is off, the converted audio is only
+	 * fed to the aligners' features and to the sinks: the returned file
+	 * doesn't exist, unless it was already in the cache.
+	 * @param sinks optional consumers to feed with the converted audio while
+	 *              it is being converted (only if a conversion is needed);
+	 *              their failures are logged and ignored
+	 * @see AudioIngest
 	 */
-	public static File suitableAudioFile(final File original) {
+	public static File suitableAudioFile(final File original,
+										 final AudioIngest.Sink... sinks)
+	{
 		final AudioFormat af;
 
 		try {
@@ -318,43 +473,117 @@ public abstract class Project {
 
 		Cache.FileFactory factory = new Cache.FileFactory() {
 			public void write(File f) throws IOException {
-				AudioInputStream stream;
+				boolean writeWav = WRITE_CONVERTED_AUDIO || !INGEST_FEATURES;
+
+				AudioIngest ingest = new AudioIngest(SUITABLE_AUDIO_FORMAT.getSampleRate());
+				if (INGEST_FEATURES && writeWav) {
+					// Aligners can extract features from the file if this fails
+					ingest.addOptionalSink(featureSink(f));
+				} else if (INGEST_FEATURES) {
+					ingest.addSink(featureSink(f));
+				}
+				for (AudioIngest.Sink sink: sinks) {
+					ingest.addOptionalSink(sink);
+				}
+
 				try {
-					stream = AudioSystem.getAudioInputStream(original);
+					ingest.run(original, writeWav? f: null);
 				} catch (UnsupportedAudioFileException ex) {
 					ex.printStackTrace();
 					throw new IllegalStateException("Unsupported audio file; " +
 							"should've been caught above!");
+				} catch (IOException ex) {
+					// Don't leave truncated files in the cache
+					f.delete();
+					throw ex;
 				}
 
-				// Workaround for sound library bug - Formats with an unknown
-				// sample size (such as OGG and MP3) cannot be converted to the
-				// suitable format in one pass. First, the stream must be
-				// converted to a fixed sample size (e.g. 16-bit) while keeping
-				// the sample rate and channel count intact. Only *then* can we
-				// up/downsample and/or downmix the stream.
-
-				if (af.getSampleSizeInBits() == AudioSystem.NOT_SPECIFIED) {
-					stream = AudioSystem.getAudioInputStream(
-						new AudioFormat(
-								af.getSampleRate(),
-								SUITABLE_AUDIO_FORMAT.getSampleSizeInBits(),
-								af.getChannels(),
-								true,
-								false),
-						stream);
-				}
-
-				AudioSystem.write(
-						AudioSystem.getAudioInputStream(SUITABLE_AUDIO_FORMAT, stream),
-						AudioFileFormat.Type.WAVE,
-						f);
-
-				System.out.println("suitableAudioFile: written! " + f);
+				System.out.println("suitableAudioFile: "
+						+ (writeWav? "written! ": "converted without writing ") + f);
 			}
 		};
 
 		return Cache.cachedFile("converted", "wav", factory, original);
 	}
 
+
+	/**
+	 * Returns one file per channel of an audio file, in a suitable format for
+	 * JTrans. The channels are split and cached if they aren't in the cache
+	 * yet. As with {@link #suitableAudioFile}, the files are only written if
+	 * {@link #WRITE_CONVERTED_AUDIO} is on; features are extracted from each
+	 * channel in parallel.
+	 * @throws IOException if the file can't be read or split
+	 */
+	public static File[] channelAudioFiles(File original) throws IOException {
+		final int channels;
+
+		try {
+			channels = AudioSystem.getAudioFileFormat(original).getFormat().getChannels();
+		} catch (UnsupportedAudioFileException ex) {
+			throw new IOException(ex);
+		}
+
+		File[] files = new File[channels];
+		boolean cached = Cache.READ_FROM_CACHE;
+		for (int i = 0; i < channels; i++) {
+			files[i] = Cache.getCacheFile("converted", "wav", original, "channel" + i);
+			cached &= files[i].exists();
+		}
+		if (cached) {
+			return files;
+		}
+
+		boolean writeWav = WRITE_CONVERTED_AUDIO || !INGEST_FEATURES;
+
+		AudioIngest ingest = new AudioIngest(SUITABLE_AUDIO_FORMAT.getSampleRate());
+		for (int i = 0; i < channels; i++) {
+			if (writeWav) {
+				ingest.addSink(AudioIngest.wavWriter(files[i]), i);
+			}
+			if (INGEST_FEATURES) {
+				ingest.addSink(featureSink(files[i]), i);
+			}
+		}
+
+		try {
+			ingest.run(original, null);
+		} catch (UnsupportedAudioFileException | IOException ex) {
+			// Don't leave truncated files in the cache
+			for (File f: files) {
+				f.delete();
+			}
+			throw new IOException("Can't split the channels of " + original, ex);
+		}
+
+		System.out.println("channelAudioFiles: "
+				+ (writeWav? "written! ": "split without writing ")
+				+ Arrays.toString(files));
+		return files;
+	}
+
+
+	/**
+	 * Returns an ingestion sink that extracts features from the audio while
+	 * it is being converted, and hands them over to the aligners.
+	 * @param wav file the converted audio is written to, if at all
+	 */
+	private static AudioIngest.Sink featureSink(final File wav) {
+		return new AudioIngest.Sink() {
+			List<FloatData> features;
+
+			@Override
+			public void consume(AudioInputStream converted) {
+				features = S4mfccBuffer.getAllData(converted, true);
+			}
+
+			@Override
+			public void done(File converted) {
+				if (features != null) {
+					Aligner.setFeatures(wav, features);
+				}
+			}
+		};
+	}
+
 }
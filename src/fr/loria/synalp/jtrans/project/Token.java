@@ -126,6 +126,11 @@ public class Token {
 		return isAlignable()? text: "["+text+"]";
 	}
 
+
+	public String getText() {
+		return text;
+	}
+
     public boolean hasTrailingSIL() {
         return (phones!=null&&phones.size()>0&&phones.get(phones.size()-1).isSilence());
     }
@@ -0,0 +1,184 @@
+package fr.loria.synalp.jtrans.project;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Frame-interval index over the aligned tokens of a speaker.
+ * <p/>
+ * Tokens are sorted by start frame. Along with each token's end frame, the
+ * index keeps the running maximum of end frames, which is non-decreasing:
+ * the first token that may overlap a frame is found by binary search, and
+ * the tokens overlapping a range are then enumerated in order, so that a
+ * query costs O(log n + visible tokens) for non-nested tokens.
+ * <p/>
+ * Phones are reached through their tokens, as they lie within the token's
+ * segment.
+ * <p/>
+ * Instances are immutable snapshots of the segments at the time they were
+ * built; {@link #update} merges newly aligned tokens into a new snapshot
+ * without rescanning the whole speaker.
+ */
+public class TokenIndex {
+
+	public static final TokenIndex EMPTY = new TokenIndex(
+			new Token[0], new int[0], new int[0], new int[0]);
+
+	private static final Comparator<Token> BY_START = new Comparator<Token>() {
+		@Override
+		public int compare(Token a, Token b) {
+			return Integer.compare(
+					a.getSegment().getStartFrame(),
+					b.getSegment().getStartFrame());
+		}
+	};
+
+	private final Token[] tokens;
+	private final int[] starts;
+	private final int[] ends;
+	/** maxEnds[i] = max(ends[0..i]) */
+	private final int[] maxEnds;
+
+
+	private TokenIndex(Token[] tokens, int[] starts, int[] ends, int[] maxEnds) {
+		this.tokens = tokens;
+		this.starts = starts;
+		this.ends = ends;
+		this.maxEnds = maxEnds;
+	}
+
+
+	/**
+	 * Builds an index over the aligned tokens in a list.
+	 */
+	public static TokenIndex build(Collection<Token> tokens) {
+		return EMPTY.update(tokens);
+	}
+
+
+	/**
+	 * Returns a new index where the given tokens are re-indexed with their
+	 * current segments (or dropped if they are no longer aligned). Other
+	 * tokens keep their indexed segments; the cost is a linear merge plus
+	 * sorting the changed tokens.
+	 */
+	public TokenIndex update(Collection<Token> changed) {
+		Map<Token, Boolean> changedSet = new IdentityHashMap<>();
+		List<Token> added = new ArrayList<>();
+		for (Token t: changed) {
+			if (changedSet.put(t, Boolean.TRUE) == null && t.isAligned()) {
+				added.add(t);
+			}
+		}
+		Collections.sort(added, BY_START);
+
+		int cap = tokens.length + added.size();
+		Token[] nTokens = new Token[cap];
+		int[] nStarts = new int[cap];
+		int[] nEnds = new int[cap];
+		int n = 0;
+
+		int a = 0;
+		for (int i = 0; i <= tokens.length; i++) {
+			if (i < tokens.length && changedSet.containsKey(tokens[i])) {
+				continue;
+			}
+			while (a < added.size() && (i == tokens.length
+					|| added.get(a).getSegment().getStartFrame() < starts[i]))
+			{
+				Token t = added.get(a++);
+				nTokens[n] = t;
+				nStarts[n] = t.getSegment().getStartFrame();
+				nEnds[n] = t.getSegment().getEndFrame();
+				n++;
+			}
+			if (i < tokens.length) {
+				nTokens[n] = tokens[i];
+				nStarts[n] = starts[i];
+				nEnds[n] = ends[i];
+				n++;
+			}
+		}
+
+		int[] nMaxEnds = new int[n];
+		int max = Integer.MIN_VALUE;
+		for (int i = 0; i < n; i++) {
+			max = Math.max(max, nEnds[i]);
+			nMaxEnds[i] = max;
+		}
+
+		return new TokenIndex(
+				Arrays.copyOf(nTokens, n),
+				Arrays.copyOf(nStarts, n),
+				Arrays.copyOf(nEnds, n),
+				nMaxEnds);
+	}
+
+
+	public int size() {
+		return tokens.length;
+	}
+
+
+	public Token get(int i) {
+		return tokens[i];
+	}
+
+
+	/**
+	 * Index of the first token that ends at or after the given frame,
+	 * or {@link #size()} if there is none.
+	 */
+	private int firstEndingAtOrAfter(int frame) {
+		int lo = 0, hi = maxEnds.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (maxEnds[mid] < frame) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+
+	/**
+	 * Returns the tokens whose segments intersect [firstFrame, lastFrame],
+	 * sorted by start frame.
+	 */
+	public List<Token> getTokens(int firstFrame, int lastFrame) {
+		List<Token> list = new ArrayList<>();
+		for (int i = firstEndingAtOrAfter(firstFrame);
+			 i < tokens.length && starts[i] <= lastFrame;
+			 i++)
+		{
+			if (ends[i] >= firstFrame) {
+				list.add(tokens[i]);
+			}
+		}
+		return list;
+	}
+
+
+	/**
+	 * Returns the first token (by start frame) that ends at or after the
+	 * given frame, or null if all tokens end before it. The returned token
+	 * contains the frame unless it starts after it.
+	 */
+	public Token getTokenAtOrAfter(int frame) {
+		for (int i = firstEndingAtOrAfter(frame); i < tokens.length; i++) {
+			if (ends[i] >= frame) {
+				return tokens[i];
+			}
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,269 @@
+package fr.loria.synalp.jtrans.project;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Inverted index of the words in a project, for searching.
+ * <p/>
+ * For each speaker, the position of every word (its index in
+ * {@link Project#getTokens}) is listed under its normalized form. Forms are
+ * kept sorted, so that whole-word queries are a map lookup and prefix
+ * queries a range of the map. Positions are sorted, so the next hit from
+ * any position is found by binary search. Anonymized words get their own
+ * position list.
+ * <p/>
+ * Only {@link Token.Type#WORD} tokens are indexed. When a speaker's tokens
+ * are edited, only that speaker is re-indexed.
+ */
+public class TokenSearchIndex {
+
+	private static final int[] NO_POSITIONS = new int[0];
+
+	private static final int QUERY_CACHE_SIZE = 32;
+
+
+	/**
+	 * Index of one speaker.
+	 */
+	private static class SpeakerIndex {
+		final Token[] tokens;
+		final TreeMap<String, int[]> postings = new TreeMap<>();
+		final int[] anonymized;
+
+		SpeakerIndex(List<Token> tokenList) {
+			tokens = tokenList.toArray(new Token[tokenList.size()]);
+
+			Map<String, List<Integer>> lists = new HashMap<>();
+			List<Integer> anon = new ArrayList<>();
+
+			for (int i = 0; i < tokens.length; i++) {
+				Token t = tokens[i];
+				if (t.getType() != Token.Type.WORD) {
+					continue;
+				}
+				String form = normalize(t.toString());
+				List<Integer> list = lists.get(form);
+				if (list == null) {
+					list = new ArrayList<>();
+					lists.put(form, list);
+				}
+				list.add(i);
+				if (t.shouldBeAnonymized()) {
+					anon.add(i);
+				}
+			}
+
+			for (Map.Entry<String, List<Integer>> e: lists.entrySet()) {
+				postings.put(e.getKey(), toArray(e.getValue()));
+			}
+			anonymized = toArray(anon);
+		}
+
+		int[] find(String form, boolean prefix) {
+			if (!prefix) {
+				int[] p = postings.get(form);
+				return p == null? NO_POSITIONS: p;
+			}
+
+			SortedMap<String, int[]> range =
+					postings.subMap(form, form + Character.MAX_VALUE);
+			if (range.size() == 1) {
+				return range.values().iterator().next();
+			}
+			int n = 0;
+			for (int[] p: range.values()) {
+				n += p.length;
+			}
+			int[] merged = new int[n];
+			n = 0;
+			for (int[] p: range.values()) {
+				System.arraycopy(p, 0, merged, n, p.length);
+				n += p.length;
+			}
+			Arrays.sort(merged);
+			return merged;
+		}
+	}
+
+
+	/**
+	 * Positions of the tokens matching a query, in each speaker.
+	 * Positions are ordered by speaker, then by token index.
+	 */
+	public static class Hits {
+		private final SpeakerIndex[] speakers;
+		private final int[][] positions;
+
+		private Hits(SpeakerIndex[] speakers, int[][] positions) {
+			this.speakers = speakers;
+			this.positions = positions;
+		}
+
+		public int size() {
+			int n = 0;
+			for (int[] p: positions) {
+				n += p.length;
+			}
+			return n;
+		}
+
+		public Token getToken(int speaker, int index) {
+			return speakers[speaker].tokens[index];
+		}
+
+		/**
+		 * Finds the next hit from a position.
+		 * @param delta forward search if >0, backward search if <0
+		 * @param inclusive whether a hit at the given position counts
+		 * @return {speaker, token index}, or null if there are no more hits
+		 * in this direction
+		 */
+		public int[] next(int speaker, int index, int delta, boolean inclusive) {
+			int step = delta > 0? 1: -1;
+
+			for (int spk = speaker; spk >= 0 && spk < positions.length; spk += step) {
+				int[] p = positions[spk];
+				if (p.length == 0) {
+					continue;
+				}
+
+				int i;
+				if (spk != speaker) {
+					i = step > 0? 0: p.length-1;
+				} else {
+					i = Arrays.binarySearch(p, index);
+					if (i >= 0) {
+						if (!inclusive) {
+							i += step;
+						}
+					} else {
+						// insertion point is the first position after index
+						i = -i - 1;
+						if (step < 0) {
+							i--;
+						}
+					}
+				}
+
+				if (i >= 0 && i < p.length) {
+					return new int[] {spk, p[i]};
+				}
+			}
+
+			return null;
+		}
+
+		/**
+		 * Lists all matching tokens, in search order.
+		 */
+		public List<Token> getTokens() {
+			List<Token> list = new ArrayList<>(size());
+			for (int spk = 0; spk < positions.length; spk++) {
+				for (int i: positions[spk]) {
+					list.add(speakers[spk].tokens[i]);
+				}
+			}
+			return list;
+		}
+	}
+
+
+	private SpeakerIndex[] speakers;
+
+	/** Results of recent queries; cleared on updates */
+	private final Map<String, Hits> queryCache =
+			new LinkedHashMap<String, Hits>(16, .75f, true)
+	{
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Hits> eldest) {
+			return size() > QUERY_CACHE_SIZE;
+		}
+	};
+
+
+	public TokenSearchIndex(Project project) {
+		speakers = new SpeakerIndex[project.speakerCount()];
+		for (int i = 0; i < speakers.length; i++) {
+			speakers[i] = new SpeakerIndex(project.getTokens(i));
+		}
+	}
+
+
+	/**
+	 * Normalized form of a word for searching: Unicode-composed and
+	 * lowercased.
+	 */
+	public static String normalize(String s) {
+		return Normalizer.normalize(s, Normalizer.Form.NFC).toLowerCase();
+	}
+
+
+	public synchronized int getSpeakerCount() {
+		return speakers.length;
+	}
+
+
+	/**
+	 * Re-indexes the tokens of one speaker after they were edited.
+	 */
+	public synchronized void update(int speaker, List<Token> tokens) {
+		SpeakerIndex[] copy = speakers.clone();
+		copy[speaker] = new SpeakerIndex(tokens);
+		speakers = copy;
+		queryCache.clear();
+	}
+
+
+	/**
+	 * Finds words matching a query.
+	 * @param prefix if true, match words starting with the query; otherwise,
+	 *               match whole words
+	 */
+	public synchronized Hits find(String query, boolean prefix) {
+		String form = normalize(query);
+		String key = (prefix? "*": "=") + form;
+		Hits hits = queryCache.get(key);
+		if (hits == null) {
+			int[][] positions = new int[speakers.length][];
+			for (int i = 0; i < speakers.length; i++) {
+				positions[i] = speakers[i].find(form, prefix);
+			}
+			hits = new Hits(speakers, positions);
+			queryCache.put(key, hits);
+		}
+		return hits;
+	}
+
+
+	/**
+	 * Finds the words that should be anonymized.
+	 */
+	public synchronized Hits findAnonymized() {
+		int[][] positions = new int[speakers.length][];
+		for (int i = 0; i < speakers.length; i++) {
+			positions[i] = speakers[i].anonymized;
+		}
+		return new Hits(speakers, positions);
+	}
+
+
+	private static int[] toArray(List<Integer> list) {
+		if (list.isEmpty()) {
+			return NO_POSITIONS;
+		}
+		int[] a = new int[list.size()];
+		for (int i = 0; i < a.length; i++) {
+			a[i] = list.get(i);
+		}
+		return a;
+	}
+
+}
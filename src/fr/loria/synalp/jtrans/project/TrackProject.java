@@ -1,15 +1,30 @@
 package fr.loria.synalp.jtrans.project;
 
 import fr.loria.synalp.jtrans.align.Aligner;
+import fr.loria.synalp.jtrans.utils.AudioIngest;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
 public class TrackProject extends Project {
+
+	/**
+	 * Align each track against its own channel of the audio file, e.g. for
+	 * interviews recorded with one microphone per speaker: track #i is
+	 * aligned against channel #i, so the audio file must have exactly as
+	 * many channels as there are tracks. If off, all tracks are aligned
+	 * against the mix of all channels.
+	 */
+	public static boolean SPLIT_CHANNELS = false;
+
 	public List<List<Phrase>> tracks = new ArrayList<List<Phrase>>();
 
+	/** Each channel of the audio file, split on first use */
+	private transient File[] channelAudioFiles = null;
+
 	public int getTrackSize(int i) {return tracks.get(i).size();}
 	
 	/**
@@ -47,21 +62,112 @@ public class TrackProject extends Project {
 	{
 		clearAlignment();
 
+		for (AlignmentJob job: getAlignmentJobs()) {
+			job.align(aligner, reference);
+		}
+	}
+
+	@Override
+	public void setAudio(File audioFile, AudioIngest.Sink... sinks) {
+		synchronized (this) {
+			channelAudioFiles = null;
+		}
+		super.setAudio(audioFile, sinks);
+	}
+
+	/**
+	 * Returns the index of the audio channel a speaker's track is aligned
+	 * against, or -1 if it is aligned against the mix of all channels.
+	 * @see #SPLIT_CHANNELS
+	 */
+	public int getChannel(int speaker) {
+		return SPLIT_CHANNELS? speaker: -1;
+	}
+
+	/**
+	 * Returns the audio file of the channel a speaker's track is aligned
+	 * against, or null if it is aligned against the mix of all channels.
+	 * The channels are split from the audio file on first use, which may
+	 * take a while.
+	 * @throws IOException if the channels can't be split, or if the audio
+	 * file doesn't have one channel per track
+	 */
+	public synchronized File getChannelAudioFile(int speaker) throws IOException {
+		int channel = getChannel(speaker);
+		if (channel < 0) {
+			return null;
+		}
+
+		if (channelAudioFiles == null) {
+			if (audioFile == null) {
+				throw new IOException("No audio file to split");
+			}
+			File[] files = channelAudioFiles(audioFile);
+			if (files.length != speakerCount()) {
+				throw new IOException(audioFile + " has " + files.length
+						+ " channel(s), but there are " + speakerCount()
+						+ " tracks");
+			}
+			channelAudioFiles = files;
+		}
+
+		return channelAudioFiles[channel];
+	}
+
+	/**
+	 * Returns a job for each phrase that isn't fully aligned yet.
+	 * <p/>
+	 * If the tracks map to channels, each phrase is aligned against its own
+	 * channel with an aligner derived from the given one (see
+	 * {@link Aligner#forAudio}), unless likelihoods are computed, since
+	 * these are accumulated by the given aligner. The channels are split by
+	 * the first job that needs them.
+	 */
+	@Override
+	public List<AlignmentJob> getAlignmentJobs() {
+		List<AlignmentJob> jobs = new ArrayList<>();
+
 		for (int i = 0; i < speakerCount(); i++) {
 			Iterator<Phrase> itr = phraseIterator(i);
+			final int speaker = i;
 
 			while (itr.hasNext()) {
-				Phrase phrase = itr.next();
-
-				if (!phrase.isFullyAligned()) {
-					aligner.align(
-							phrase.getInitialAnchor(),
-							phrase.getFinalAnchor(),
-							phrase,
-							reference);
+				final Phrase phrase = itr.next();
+
+				if (phrase.isFullyAligned()) {
+					continue;
 				}
+
+				jobs.add(new AlignmentJob(phrase.getInitialAnchor(), phrase.getFinalAnchor()) {
+					@Override
+					public boolean contains(Token token) {
+						return phrase.contains(token);
+					}
+
+					@Override
+					public void align(Aligner aligner, Aligner reference)
+							throws IOException, InterruptedException
+					{
+						File channelAudio = getChannelAudioFile(speaker);
+						if (channelAudio != null && !aligner.isComputeLikelihoods()) {
+							aligner = aligner.forAudio(channelAudio);
+							if (reference != null) {
+								reference = reference.forAudio(channelAudio);
+							}
+						}
+
+						aligner.align(
+								phrase.getInitialAnchor(),
+								phrase.getFinalAnchor(),
+								phrase,
+								reference);
+						alignmentChanged(phrase);
+					}
+				});
 			}
 		}
+
+		return jobs;
 	}
 
 	public void addTrack(String name, List<Phrase> newTrack) {
@@ -70,6 +176,7 @@ public class TrackProject extends Project {
 		speakerNames.add(name);
 		tracks.add(newTrack);
 		assert tracks.size() == speakerNames.size();
+		invalidateTokenIndex();
 
 		for (Phrase phrase: newTrack) {
 			for (Token token: phrase) {
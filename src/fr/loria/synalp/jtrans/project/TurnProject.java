@@ -21,7 +21,8 @@ public class TurnProject extends Project {
 
     public List<Turn> turns = new ArrayList<>();
 
-    /* the original XML Document */
+    /* the original XML Document. Only kept by the Transcriber loaders
+       if TRSLoader.KEEP_DOCUMENT is set, and always by TricoLoader. */
     public org.w3c.dom.Document document;
 
 	@Override
@@ -179,6 +180,7 @@ public class TurnProject extends Project {
 
 		int id = speakerNames.size();
 		speakerNames.add(name);
+		invalidateTokenIndex();
 
 		return id;
 	}
@@ -205,7 +207,7 @@ public class TurnProject extends Project {
 	 * @throws IOException
 	 * @throws InterruptedException
 	 */
-	protected static void alignTurnChain(
+	protected void alignTurnChain(
 			Aligner aligner,
 			List<Turn> turns,
 			boolean overlaps,
@@ -230,6 +232,7 @@ public class TurnProject extends Project {
 				turns.get(turns.size()-1).end,
 				words,
 				reference);
+		alignmentChanged(words);
 
 		if (overlaps) {
 			for (Turn turn: turns) {
@@ -248,6 +251,7 @@ public class TurnProject extends Project {
 							new Anchor(minMax[1]),
 							turn.spkTokens.get(i),
 							reference);
+					alignmentChanged(turn.spkTokens.get(i));
 				}
 			}
 		}
@@ -264,6 +268,28 @@ public class TurnProject extends Project {
 
 	/**
 	 * Aligns all turns.
+	 *
+	 * @see #getAlignmentJobs(boolean)
+	 */
+	public void align(Aligner aligner, boolean overlaps, Aligner reference)
+			throws IOException, InterruptedException
+	{
+		clearAlignment();
+
+		for (AlignmentJob job: getAlignmentJobs(overlaps)) {
+			job.align(aligner, reference);
+		}
+	}
+
+
+	@Override
+	public List<AlignmentJob> getAlignmentJobs() {
+		return getAlignmentJobs(ALIGN_OVERLAPS);
+	}
+
+
+	/**
+	 * Splits the alignment of all turns into independent jobs.
 	 * <p/>
 	 * Contiguous turns that lack timing information are "chained" together
 	 * and aligned together as if they were one single, long turn.
@@ -272,13 +298,11 @@ public class TurnProject extends Project {
 	 *
 	 * @see TurnProject#alignTurnChain
 	 */
-	public void align(Aligner aligner, boolean overlaps, Aligner reference)
-			throws IOException, InterruptedException
-	{
-		clearAlignment();
+	public List<AlignmentJob> getAlignmentJobs(final boolean overlaps) {
+		List<AlignmentJob> jobs = new ArrayList<>();
 
 		if (turns.isEmpty()) {
-			return;
+			return jobs;
 		}
 
 		// Index of the first turn in the current chain of turns lacking
@@ -287,16 +311,13 @@ public class TurnProject extends Project {
 
 		// Don't process last turn!
 		for (int t = 0; t < turns.size()-1; t++) {
-			Turn turn = turns.get(t);
+			final Turn turn = turns.get(t);
 
 			if (chainStart >= 0) {
 				assert null == turn.start;
 				if (null != turn.end) {
 					// Stop chaining
-					alignTurnChain(aligner,
-							turns.subList(chainStart, t + 1),
-							overlaps,
-							reference);
+					jobs.add(new ChainJob(turns.subList(chainStart, t + 1), overlaps));
 					chainStart = -1;
 				}
 				// Otherwise, keep chaining
@@ -312,19 +333,31 @@ public class TurnProject extends Project {
 				// chainStart < 0, valid timing information
 				// Independent turn (i.e. has complete timing information)
 				// Don't start a chain
+				jobs.add(new AlignmentJob(turn.start, turn.end) {
+					@Override
+					public boolean contains(Token token) {
+						return TurnProject.contains(turn, token);
+					}
 
-				// priority speaker ID
-				int pSpk = overlaps? -1: turn.prioritySpeaker();
-
-				for (int i = 0; i < speakerCount(); i++) {
-					if (!overlaps && i != pSpk) {
-						continue;
+					@Override
+					public void align(Aligner aligner, Aligner reference)
+							throws IOException, InterruptedException
+					{
+						// priority speaker ID
+						int pSpk = overlaps? -1: turn.prioritySpeaker();
+
+						for (int i = 0; i < speakerCount(); i++) {
+							if (!overlaps && i != pSpk) {
+								continue;
+							}
+							aligner.align(
+									turn.start, turn.end,
+									turn.spkTokens.get(i),
+									reference);
+							alignmentChanged(turn.spkTokens.get(i));
+						}
 					}
-					aligner.align(
-							turn.start, turn.end,
-							turn.spkTokens.get(i),
-							reference);
-				}
+				});
 			}
 		}
 
@@ -332,11 +365,56 @@ public class TurnProject extends Project {
 		if (chainStart < 0) {
 			chainStart = turns.size()-1;
 		}
-		alignTurnChain(aligner,
-				turns.subList(chainStart, turns.size()),
-				overlaps,
-				reference);
-		chainStart = -1;
+		jobs.add(new ChainJob(turns.subList(chainStart, turns.size()), overlaps));
+
+		return jobs;
+	}
+
+
+	private static boolean contains(Turn turn, Token token) {
+		int spk = token.getSpeaker();
+		if (spk >= 0 && spk < turn.spkTokens.size()) {
+			return turn.spkTokens.get(spk).contains(token);
+		}
+		for (List<Token> tokens: turn.spkTokens) {
+			if (tokens.contains(token)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	/**
+	 * Aligns a chain of turns.
+	 * @see #alignTurnChain
+	 */
+	private class ChainJob extends AlignmentJob {
+		final List<Turn> chain;
+		final boolean overlaps;
+
+		ChainJob(List<Turn> chain, boolean overlaps) {
+			super(chain.get(0).start, chain.get(chain.size()-1).end);
+			this.chain = chain;
+			this.overlaps = overlaps;
+		}
+
+		@Override
+		public boolean contains(Token token) {
+			for (Turn turn: chain) {
+				if (TurnProject.contains(turn, token)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public void align(Aligner aligner, Aligner reference)
+				throws IOException, InterruptedException
+		{
+			alignTurnChain(aligner, chain, overlaps, reference);
+		}
 	}
 
 
@@ -1,15 +1,25 @@
 package fr.loria.synalp.jtrans.speechreco;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.swing.JOptionPane;
 
@@ -25,9 +35,40 @@ import fr.loria.synalp.jtrans.gui.JTransGUI;
 import fr.loria.synalp.jtrans.speechreco.s4.OldAlignment;
 import fr.loria.synalp.jtrans.speechreco.s4.HMMModels;
 
+/**
+ * Speaker adaptation of the acoustic model means.
+ * <p/>
+ * MAP adaptation is an accumulate/merge job: frames are split into shards,
+ * each shard finds the best Gaussian of its phone model once per frame and
+ * accumulates the frame count, the feature sum and the log-likelihood for
+ * that Gaussian. Shard statistics are then merged and every Gaussian that
+ * got frames moves towards their mean:
+ * <pre>m' = (MEAN_TAU * m + sum(x)) / (MEAN_TAU + n)</pre>
+ * With the default relevance factor, a single frame gives the former
+ * online update m' = 0.9m + 0.1x.
+ * <p/>
+ * Mixture weights are not adapted: GaussianMixture only hands out copies
+ * of its weights, so they cannot be written back.
+ * <p/>
+ * Adapted models are saved as a binary delta holding only the adapted
+ * means (see {@link #writeDelta}). Files written by earlier versions,
+ * which dump every mean and weight, can still be loaded.
+ */
 public class BiaisAdapt {
 	private JTransGUI aligneur;
 	int nmeansAdapted=0;
+	private Set<MixtureComponent> adapted =
+			Collections.newSetFromMap(new IdentityHashMap<MixtureComponent, Boolean>());
+
+	/** Number of frame shards accumulated concurrently. */
+	public static int THREADS = Runtime.getRuntime().availableProcessors();
+
+	/** MAP relevance factor for the means, in frames. */
+	public static float MEAN_TAU = 9;
+
+	/** First int of a delta file ("JTAD"). */
+	public static final int DELTA_MAGIC = 0x4A544144;
+	public static final int DELTA_VERSION = 1;
 
 	public BiaisAdapt(JTransGUI aligneur) {
 		this.aligneur = aligneur;
@@ -47,7 +88,7 @@ public class BiaisAdapt {
 		Iterator<HMM> hmmit = a.getHMMIterator();
 		while (hmmit.hasNext()) {
 			HMM hmm = hmmit.next();
-			SenoneHMM shmm = (SenoneHMM) hmm;			
+			SenoneHMM shmm = (SenoneHMM) hmm;
 			int nstates = shmm.getTransitionMatrix().length;
 			ArrayList<GaussianMixture> gau = new ArrayList<GaussianMixture>();
 			ph2gauss.put(shmm.getBaseUnit().getName(), gau);
@@ -55,7 +96,7 @@ public class BiaisAdapt {
 				HMMState hmmst = shmm.getState(st);
 				SenoneHMMState shmmst=(SenoneHMMState) hmmst;
 				Senone s=shmmst.getSenone();
-				if(s!=null) { 
+				if(s!=null) {
 					GaussianMixture g=(GaussianMixture) s;
 					gau.add(g);
 				}
@@ -74,188 +115,389 @@ public class BiaisAdapt {
 		}
 		*/
 
-		for (int iter=0;iter<niters;iter++) {
-			// calcule loglike
-			float loglike = 0;
-			for (int i=0;i<mfccs.size();i++) {
-				float[] x = mfccs.get(i);
-				int s = alignPhones.getSegmentAtFrame(i);
-				if (s<0) continue;
-				String ph=alignPhones.getSegmentLabel(s);
+		// Resolve the phone model of each frame once for all iterations
+		List<MixtureComponent[]> models = new ArrayList<MixtureComponent[]>();
+		HashMap<String,Integer> ph2model = new HashMap<String, Integer>();
+		int[] frameModels = new int[mfccs.size()];
+		for (int i=0;i<frameModels.length;i++) {
+			frameModels[i] = -1;
+			int s = alignPhones.getSegmentAtFrame(i);
+			if (s<0 || s>=alignPhones.getNbSegments()) continue;
+			String ph=alignPhones.getSegmentLabel(s);
+			Integer m = ph2model.get(ph);
+			if (m==null) {
 				List<GaussianMixture> gau = ph2gauss.get(ph);
-				if (gau==null) System.out.println("ERROR NULL "+ph);
-				else {
-					MixtureComponent bestg = null; float bestsc = -Float.MAX_VALUE;
-					for (GaussianMixture gm : gau) {
-						for (MixtureComponent gauss : gm.getMixtureComponents()) {
-							float sc = gauss.getScore(x);
-							if (bestg==null||bestsc<sc) {
-								bestsc=sc; bestg=gauss;
-							}
-						}
-					}
-					loglike+=bestsc;
+				if (gau==null) {
+					System.out.println("ERROR MAP adapt: "+ph+" "+ph2gauss.keySet());
+					continue;
 				}
+				List<MixtureComponent> comps = new ArrayList<MixtureComponent>();
+				for (GaussianMixture gmm : gau) {
+					Collections.addAll(comps, gmm.getMixtureComponents());
+				}
+				m = models.size();
+				models.add(comps.toArray(new MixtureComponent[comps.size()]));
+				ph2model.put(ph, m);
 			}
-			System.out.println("iter "+iter+" loglike "+loglike);
-			
-			// adapt
-			HashSet<float[]> adapted = new HashSet<float[]>();
-			for (int i=0;i<mfccs.size();i++) {
-				float[] x = mfccs.get(i);
-				int s = alignPhones.getSegmentAtFrame(i);
-				if (s<0) continue;
-				String ph=alignPhones.getSegmentLabel(s);
-				List<GaussianMixture> gau = ph2gauss.get(ph);
-				if (gau==null) {
-					JOptionPane.showMessageDialog(null, "ERROR MAP adapt: "+ph+" "+ph2gauss.keySet());
+			frameModels[i] = m;
+		}
+
+		try {
+			float[] loglikes = adaptMeans(mfccs, frameModels, models, niters, adapted);
+			for (int iter=0;iter<loglikes.length;iter++) {
+				System.out.println("iter "+iter+" loglike "+loglikes[iter]);
+			}
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+			return;
+		}
+		nmeansAdapted=adapted.size();
+
+		// save models
+		saveAdapted(null);
+	}
+
+
+	/**
+	 * Gaussians of one phone model packed into flat arrays for scoring.
+	 */
+	private static class PackedModel {
+		final MixtureComponent[] comps;
+		final int[] ids;
+		final int dim;
+		final float[] means;
+		final float[] precisions;
+		final float[] lnNorms;
+
+		PackedModel(MixtureComponent[] comps, Map<MixtureComponent, Integer> idOf) {
+			this.comps = comps;
+			ids = new int[comps.length];
+			dim = comps.length==0? 0: comps[0].getMean().length;
+			means = new float[comps.length*dim];
+			precisions = new float[comps.length*dim];
+			lnNorms = new float[comps.length];
+			for (int g=0;g<comps.length;g++) {
+				ids[g] = idOf.get(comps[g]);
+				float[] m = comps[g].getMean();
+				float[] v = comps[g].getVariance();
+				double lnDet = 0;
+				for (int j=0;j<dim;j++) {
+					means[g*dim+j] = m[j];
+					precisions[g*dim+j] = 1f/(-2f*v[j]);
+					lnDet += Math.log(v[j]);
+				}
+				lnNorms[g] = (float)(-0.5*(dim*Math.log(2*Math.PI) + lnDet));
+			}
+		}
+
+		/**
+		 * Index of the best scoring Gaussian for a frame, in the natural log
+		 * domain (same ranking as {@link MixtureComponent#getScore(float[])}).
+		 */
+		int best(float[] x) {
+			int best = -1;
+			float bestsc = Float.NEGATIVE_INFINITY;
+			for (int g=0, k=0;g<comps.length;g++) {
+				float sc = lnNorms[g];
+				for (int j=0;j<dim;j++,k++) {
+					float d = x[j]-means[k];
+					sc += d*d*precisions[k];
+				}
+				if (best<0 || sc>bestsc) {
+					bestsc = sc;
+					best = g;
+				}
+			}
+			return best;
+		}
+	}
+
+
+	/**
+	 * Sufficient statistics of one shard of frames.
+	 */
+	private static class Stats {
+		final int[] counts;
+		final double[][] sums;
+		double loglike;
+
+		Stats(int ncomps) {
+			counts = new int[ncomps];
+			sums = new double[ncomps][];
+		}
+
+		void add(int id, float[] x) {
+			double[] s = sums[id];
+			if (s==null) s = sums[id] = new double[x.length];
+			for (int j=0;j<x.length;j++) s[j] += x[j];
+			counts[id]++;
+		}
+
+		void merge(Stats o) {
+			loglike += o.loglike;
+			for (int id=0;id<counts.length;id++) {
+				if (o.counts[id]==0) continue;
+				counts[id] += o.counts[id];
+				if (sums[id]==null) {
+					sums[id] = o.sums[id];
 				} else {
-					MixtureComponent bestgauss = null; float bestsc = -Float.MAX_VALUE;
-					GaussianMixture bestgmm = null; int gaussid=-1;
-					for (GaussianMixture gmm : gau) {
-						MixtureComponent[] mixcomp =gmm.getMixtureComponents(); 
-						for (int gid=0;gid<mixcomp.length;gid++) {
-							MixtureComponent gauss = mixcomp[gid];
-							float sc = gauss.getScore(x);
-							if (bestgauss==null||bestsc<sc) {
-								bestsc=sc; bestgauss=gauss; bestgmm = gmm; gaussid=gid;
-							}
-							// alternative: adapt ALL gauss in state: bad results !
-							if (false) {
-								float[] m = gauss.getMean();
-								adapted.add(m);
-								for (int j=0;j<x.length;j++) {
-									m[j] = 0.95f*m[j]+0.05f*x[j];
-								}
+					for (int j=0;j<sums[id].length;j++) sums[id][j] += o.sums[id][j];
+				}
+			}
+		}
+	}
+
+
+	private static Stats accumulate(List<float[]> frames, int[] frameModels,
+									PackedModel[] packed, int ncomps, int from, int to)
+	{
+		Stats st = new Stats(ncomps);
+		for (int i=from;i<to;i++) {
+			int m = frameModels[i];
+			if (m<0 || packed[m].comps.length==0) continue;
+			float[] x = frames.get(i);
+			int g = packed[m].best(x);
+			st.loglike += packed[m].comps[g].getScore(x);
+			st.add(packed[m].ids[g], x);
+		}
+		return st;
+	}
+
+
+	/**
+	 * MAP-adapts the means of the Gaussians that best match each frame.
+	 * @param frames feature vectors
+	 * @param frameModels for each frame, the index in models of its phone
+	 *                    model, or -1 to skip the frame
+	 * @param models Gaussians of each phone model (a Gaussian may be shared
+	 *               by several models)
+	 * @param adapted receives the adapted Gaussians
+	 * @return log-likelihood of the best Gaussians before each iteration's
+	 * update
+	 */
+	public static float[] adaptMeans(final List<float[]> frames, final int[] frameModels,
+									 List<MixtureComponent[]> models, int niters,
+									 Set<MixtureComponent> adapted)
+			throws InterruptedException
+	{
+		final Map<MixtureComponent, Integer> idOf = new IdentityHashMap<MixtureComponent, Integer>();
+		final List<MixtureComponent> byId = new ArrayList<MixtureComponent>();
+		for (MixtureComponent[] comps: models) {
+			for (MixtureComponent c: comps) {
+				if (!idOf.containsKey(c)) {
+					idOf.put(c, byId.size());
+					byId.add(c);
+				}
+			}
+		}
+		final int ncomps = byId.size();
+
+		int threads = Math.max(1, Math.min(THREADS, frames.size()/1000 + 1));
+		ExecutorService pool = threads>1? Executors.newFixedThreadPool(threads): null;
+		float[] loglikes = new float[niters];
+
+		try {
+			for (int iter=0;iter<niters;iter++) {
+				final PackedModel[] packed = new PackedModel[models.size()];
+				for (int m=0;m<packed.length;m++) {
+					packed[m] = new PackedModel(models.get(m), idOf);
+				}
+
+				Stats total;
+				if (pool==null) {
+					total = accumulate(frames, frameModels, packed, ncomps, 0, frames.size());
+				} else {
+					List<Future<Stats>> shards = new ArrayList<Future<Stats>>();
+					int shard = (frames.size() + threads - 1) / threads;
+					for (int from=0;from<frames.size();from+=shard) {
+						final int f = from;
+						final int t = Math.min(frames.size(), from+shard);
+						shards.add(pool.submit(new Callable<Stats>() {
+							@Override
+							public Stats call() {
+								return accumulate(frames, frameModels, packed, ncomps, f, t);
 							}
-						}
+						}));
 					}
-					if (true) {
-						// adapt only the closest mean
-						float[] m = bestgauss.getMean();
-						adapted.add(m);
-						for (int j=0;j<x.length;j++) {
-							m[j] = 0.9f*m[j]+0.1f*x[j];
+					total = new Stats(ncomps);
+					for (Future<Stats> s: shards) {
+						try {
+							total.merge(s.get());
+						} catch (ExecutionException e) {
+							throw new RuntimeException(e.getCause());
 						}
-						// adapt its weight
-						float[] weights = bestgmm.getComponentWeights();
-						weights[gaussid]+=0.1;
-						float sum=0f; for (float w : weights) sum+=w;
-						for (int j=0;j<weights.length;j++) weights[j]/=sum;
 					}
 				}
+				loglikes[iter] = (float)total.loglike;
+
+				for (int id=0;id<ncomps;id++) {
+					int n = total.counts[id];
+					if (n==0) continue;
+					MixtureComponent c = byId.get(id);
+					float[] m = c.getMean();
+					double[] s = total.sums[id];
+					for (int j=0;j<m.length;j++) {
+						m[j] = (float)((MEAN_TAU*m[j] + s[j]) / (MEAN_TAU + n));
+					}
+					c.transformStats();
+					adapted.add(c);
+				}
 			}
-			nmeansAdapted=adapted.size();
+		} finally {
+			if (pool!=null) pool.shutdownNow();
 		}
-		
-		// save models
-		saveAdapted(null);
+
+		return loglikes;
 	}
 
-	public static void loadAdapted(String name) {
-		if (name==null) {
-			name = JOptionPane.showInputDialog("Plz give a name for adapted models");
-		}
-		if (name==null) return;
-		name=name.trim();
-		System.out.println("loading adapted models: "+name);
-		ArrayList<float[]> means=new ArrayList<float[]>();
-		ArrayList<float[]> weights=new ArrayList<float[]>();
+
+	/**
+	 * Gaussians of the acoustic model in HMM iteration order.
+	 * @param distinct list tied Gaussians only once
+	 */
+	private static List<MixtureComponent> listComponents(boolean distinct) {
+		List<MixtureComponent> comps = new ArrayList<MixtureComponent>();
+		Set<MixtureComponent> seen =
+				Collections.newSetFromMap(new IdentityHashMap<MixtureComponent, Boolean>());
 		AcousticModel a=HMMModels.getAcousticModels();
 		Iterator<HMM> hmmit = a.getHMMIterator();
 		while (hmmit.hasNext()) {
 			HMM hmm = hmmit.next();
-			SenoneHMM shmm = (SenoneHMM) hmm;			
+			SenoneHMM shmm = (SenoneHMM) hmm;
 			int nstates = shmm.getTransitionMatrix().length;
 			for (int st=0;st<nstates;st++) {
 				HMMState hmmst = shmm.getState(st);
 				SenoneHMMState shmmst=(SenoneHMMState) hmmst;
 				Senone s=shmmst.getSenone();
-				if(s!=null) { 
+				if(s!=null) {
 					GaussianMixture g=(GaussianMixture) s;
-					MixtureComponent[] mc=g.getMixtureComponents();
-					weights.add(g.getComponentWeights());
-//					System.out.println("debug adapt senone "+s+" "+shmm+" ngauss "+mc.length);
-					int k=mc.length;
-					for(int j=0;j<k;j++) {
-						means.add(mc[j].getMean());
+					for (MixtureComponent c : g.getMixtureComponents()) {
+						if (!distinct || seen.add(c)) comps.add(c);
 					}
 				}
 			}
 		}
-		
+		return comps;
+	}
+
+
+	/**
+	 * Writes the adapted means as a delta against the model:
+	 * <pre>
+	 * int magic, int version, int number of Gaussians in the model,
+	 * int dimension, int number of entries,
+	 * entries: int Gaussian index, float[dimension] mean
+	 * </pre>
+	 * @param comps all Gaussians of the model, in a stable order
+	 */
+	public static void writeDelta(DataOutputStream out, List<MixtureComponent> comps,
+								  Set<MixtureComponent> adapted) throws IOException
+	{
+		int dim = comps.isEmpty()? 0: comps.get(0).getMean().length;
+		int n = 0;
+		for (MixtureComponent c : comps) {
+			if (adapted.contains(c)) n++;
+		}
+		out.writeInt(DELTA_MAGIC);
+		out.writeInt(DELTA_VERSION);
+		out.writeInt(comps.size());
+		out.writeInt(dim);
+		out.writeInt(n);
+		for (int i=0;i<comps.size();i++) {
+			MixtureComponent c = comps.get(i);
+			if (!adapted.contains(c)) continue;
+			out.writeInt(i);
+			for (float v : c.getMean()) out.writeFloat(v);
+		}
+		out.flush();
+	}
+
+
+	/**
+	 * Applies a delta written by {@link #writeDelta}, magic included.
+	 * @return number of adapted means
+	 */
+	public static int readDelta(DataInputStream in, List<MixtureComponent> comps) throws IOException {
+		if (in.readInt()!=DELTA_MAGIC) {
+			throw new IOException("not an adapted model delta");
+		}
+		int version = in.readInt();
+		if (version!=DELTA_VERSION) {
+			throw new IOException("unsupported adapted model delta version "+version);
+		}
+		int ncomps = in.readInt();
+		int dim = in.readInt();
+		if (ncomps!=comps.size() || (ncomps>0 && dim!=comps.get(0).getMean().length)) {
+			throw new IOException("adapted model delta does not match the acoustic model: "
+					+ncomps+"x"+dim+" Gaussians");
+		}
+		int n = in.readInt();
+		for (int k=0;k<n;k++) {
+			MixtureComponent c = comps.get(in.readInt());
+			float[] m = c.getMean();
+			for (int j=0;j<dim;j++) m[j] = in.readFloat();
+			c.transformStats();
+		}
+		return n;
+	}
+
+
+	public static void loadAdapted(String name) {
+		if (name==null) {
+			name = JOptionPane.showInputDialog("Plz give a name for adapted models");
+		}
+		if (name==null) return;
+		name=name.trim();
+		System.out.println("loading adapted models: "+name);
+
 		try {
-			DataInputStream fin = new DataInputStream(new FileInputStream(name+"adapt.bin"));
-			int taille=means.get(1).length;
-			for(int i=0;i<means.size();i++) {
-				for (int j=0;j<taille;j++) {
-					float v = fin.readFloat();
-					means.get(i)[j] = v;
-				}
-			}
-			for(int i=0;i<weights.size();i++) {
-				taille = weights.get(i).length;
-				for (int j=0;j<taille;j++) {
-					float v = fin.readFloat();
-					weights.get(i)[j]=v;
+			DataInputStream fin = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(name+"adapt.bin")));
+			try {
+				fin.mark(4);
+				boolean delta = fin.readInt()==DELTA_MAGIC;
+				fin.reset();
+				if (delta) {
+					int n = readDelta(fin, listComponents(true));
+					System.out.println("adapted means loaded: "+n);
+				} else {
+					// Older full dump: every mean in HMM order, then the weights
+					// (which cannot be set on the model and are skipped)
+					List<MixtureComponent> comps = listComponents(false);
+					for (MixtureComponent c : comps) {
+						float[] m = c.getMean();
+						for (int j=0;j<m.length;j++) m[j] = fin.readFloat();
+						c.transformStats();
+					}
 				}
+			} finally {
+				fin.close();
 			}
-			fin.close();
 //			JOptionPane.showMessageDialog(null, "adapted models loaded "+name);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 
 	}
-	
+
 	public void saveAdapted(String name) {
 		if (name==null) {
 			name = JOptionPane.showInputDialog("Plz give a name for adapted models");
 		}
 		if (name==null) return;
 		name=name.trim();
-		ArrayList<float[]> means=new ArrayList<float[]>();
-		ArrayList<float[]> weights=new ArrayList<float[]>();
-		AcousticModel a=HMMModels.getAcousticModels();
-		Iterator<HMM> hmmit = a.getHMMIterator();
-		while (hmmit.hasNext()) {
-			HMM hmm = hmmit.next();
-			SenoneHMM shmm = (SenoneHMM) hmm;			
-			int nstates = shmm.getTransitionMatrix().length;
-			for (int st=0;st<nstates;st++) {
-				HMMState hmmst = shmm.getState(st);
-				SenoneHMMState shmmst=(SenoneHMMState) hmmst;
-				Senone s=shmmst.getSenone();
-				if(s!=null) { 
-					GaussianMixture g=(GaussianMixture) s;
-					MixtureComponent[] mc=g.getMixtureComponents();
-					weights.add(g.getComponentWeights());
-//					System.out.println("debug adapt senone "+s+" "+shmm+" ngauss "+mc.length);
-					int k=mc.length;
-					for(int j=0;j<k;j++) {
-						means.add(mc[j].getMean());
-					}
-				}
-			}
-		}
-		
+		List<MixtureComponent> comps = listComponents(true);
+
 		try {
-			DataOutputStream fout = new DataOutputStream(new FileOutputStream(name+"adapt.bin"));
-			int taille=means.get(1).length;
-			for(int i=0;i<means.size();i++) {
-				for (int j=0;j<taille;j++) {
-					fout.writeFloat(means.get(i)[j]);
-				}
-			}
-			for(int i=0;i<weights.size();i++) {
-				taille = weights.get(i).length;
-				for (int j=0;j<taille;j++) {
-					fout.writeFloat(weights.get(i)[j]);
-				}
+			DataOutputStream fout = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(name+"adapt.bin")));
+			try {
+				writeDelta(fout, comps, adapted);
+			} finally {
+				fout.close();
 			}
-			fout.close();
-			float r = (float)nmeansAdapted/(float)means.size();
-			JOptionPane.showMessageDialog(null, "adapted models saved "+name+" "+nmeansAdapted+" "+means.size()+" "+r);
+			float r = (float)nmeansAdapted/(float)comps.size();
+			JOptionPane.showMessageDialog(null, "adapted models saved "+name+" "+nmeansAdapted+" "+comps.size()+" "+r);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -269,13 +511,13 @@ public class BiaisAdapt {
 		Iterator<HMM> hmmit = a.getHMMIterator();
 		while (hmmit.hasNext()) {
 			HMM hmm = hmmit.next();
-			SenoneHMM shmm = (SenoneHMM) hmm;			
+			SenoneHMM shmm = (SenoneHMM) hmm;
 			int nstates = shmm.getTransitionMatrix().length;
 			for (int st=0;st<nstates;st++) {
 				HMMState hmmst = shmm.getState(st);
 				SenoneHMMState shmmst=(SenoneHMMState) hmmst;
 				Senone s=shmmst.getSenone();
-				if(s!=null) { 
+				if(s!=null) {
 					GaussianMixture g=(GaussianMixture) s;
 					MixtureComponent[] mc=g.getMixtureComponents();
 					System.out.println("debug adapt senone "+s+" "+shmm+" ngauss "+mc.length);
@@ -0,0 +1,215 @@
+package fr.loria.synalp.jtrans.speechreco;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import fr.loria.synalp.jtrans.utils.DETHistogram;
+import fr.loria.synalp.jtrans.utils.FileUtils;
+import fr.loria.synalp.jtrans.utils.JDiff;
+import fr.loria.synalp.jtrans.utils.WordDiff;
+
+/**
+ * Corpus-level word error rate and confidence EER.
+ * <p/>
+ * Reads a manifest with one hypothesis/reference pair per line:
+ * <pre>hyp.ctm [ref.lab]</pre>
+ * (the reference defaults to the hypothesis file name with a .lab
+ * extension). Hypotheses are CTM files whose last two columns are the word
+ * and its confidence; references are lab files whose last column is the
+ * word.
+ * <p/>
+ * Pairs are normalized, aligned and counted in parallel; results are
+ * merged in manifest order, with at most a few pairs per thread in flight,
+ * so arbitrarily large manifests can be streamed. Confidence statistics are
+ * kept in a {@link DETHistogram}.
+ * @see SpeechRecoAccuracy#calcConfidenceEER
+ */
+public class CorpusEvaluation {
+
+	/** Number of pairs evaluated concurrently. */
+	public static int THREADS = Runtime.getRuntime().availableProcessors();
+
+	/** Whether to print a line per pair. */
+	public static boolean PRINT_PER_FILE = true;
+
+
+	/**
+	 * Counts for one pair or for a whole corpus.
+	 */
+	public static class Result {
+		public final String name;
+		public int refWords;
+		public int hypWords;
+		public int errors;
+		public int files;
+		public final DETHistogram det = new DETHistogram();
+
+		public Result(String name) {
+			this.name = name;
+		}
+
+		public void merge(Result r) {
+			refWords += r.refWords;
+			hypWords += r.hypWords;
+			errors += r.errors;
+			files += r.files;
+			det.merge(r.det);
+		}
+
+		public float getWER() {
+			return (float)errors / (float)refWords;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s N=%d H=%d E=%d WER=%.4f EER=%.4f",
+					name, refWords, hypWords, errors, getWER(), det.computeEER());
+		}
+	}
+
+
+	/**
+	 * Normalizes, aligns and counts one hypothesis/reference pair.
+	 */
+	public static Result evaluate(String ctmFile, String labFile) throws IOException {
+		List<RecoWord2> rec = new ArrayList<>();
+		try (BufferedReader f = FileUtils.openFileISO(ctmFile)) {
+			for (String s; (s = f.readLine()) != null;) {
+				String[] ss = s.trim().split("\\s+");
+				if (ss.length < 2) continue;
+				rec.add(new RecoWord2(ss[ss.length-2], Double.parseDouble(ss[ss.length-1])));
+			}
+		}
+		rec = SpeechRecoAccuracy.normalizeMots(rec, true);
+
+		StringBuilder sb = new StringBuilder();
+		try (BufferedReader f = FileUtils.getUTF8Reader(new File(labFile))) {
+			for (String s; (s = f.readLine()) != null;) {
+				String[] ss = s.split(" ");
+				sb.append(ss[ss.length-1]).append(' ');
+			}
+		}
+		List<String> refList = new ArrayList<>();
+		for (String w: SpeechRecoAccuracy.normalize(sb.toString()).split(" ")) {
+			if (!w.isEmpty()) refList.add(w);
+		}
+
+		String[] hypWords = new String[rec.size()];
+		for (int i = 0; i < hypWords.length; i++) {
+			hypWords[i] = rec.get(i).word;
+		}
+
+		WordDiff vocabulary = new WordDiff();
+		int[] ref = vocabulary.intern(refList.toArray(new String[refList.size()]));
+		int[] hyp = vocabulary.intern(hypWords);
+
+		Result r = new Result(ctmFile);
+		r.files = 1;
+		r.refWords = ref.length;
+		r.hypWords = hyp.length;
+		r.errors = WordDiff.editDistance(ref, hyp);
+
+		// A hypothesis word is good if it is aligned with the same word
+		if (hyp.length > 0) {
+			int[] hypToRef = new int[hyp.length];
+			int[] refToHyp = new int[ref.length];
+			JDiff.getAlignement(WordDiff.diff(hyp, ref), hypToRef, refToHyp);
+			for (int i = 0; i < hyp.length; i++) {
+				int j = hypToRef[i];
+				boolean good = j >= 0 && j < ref.length && ref[j] == hyp[i];
+				r.det.updateExample(good, (float)rec.get(i).conf);
+			}
+		}
+
+		return r;
+	}
+
+
+	/**
+	 * Evaluates all pairs of a manifest.
+	 * @param out receives per-pair lines (if {@link #PRINT_PER_FILE}) and the
+	 *            corpus summary
+	 * @return corpus totals
+	 */
+	public static Result evaluateManifest(String manifest, PrintStream out)
+			throws IOException, InterruptedException
+	{
+		final int threads = Math.max(1, THREADS);
+		final int window = threads * 4;
+
+		Result total = new Result("TOTAL");
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ArrayDeque<Future<Result>> pending = new ArrayDeque<>();
+
+		try (BufferedReader f = FileUtils.getUTF8Reader(new File(manifest))) {
+			for (String s; (s = f.readLine()) != null;) {
+				s = s.trim();
+				if (s.isEmpty()) continue;
+				String[] ss = s.split("\\s+");
+				final String hyp = ss[0];
+				final String ref = ss.length > 1? ss[1]: FileUtils.noExt(hyp) + ".lab";
+
+				pending.add(pool.submit(new Callable<Result>() {
+					@Override
+					public Result call() throws IOException {
+						return evaluate(hyp, ref);
+					}
+				}));
+
+				if (pending.size() >= window) {
+					collect(pending.poll(), total, out);
+				}
+			}
+
+			while (!pending.isEmpty()) {
+				collect(pending.poll(), total, out);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+
+		out.println("files=" + total.files + " " + total);
+		return total;
+	}
+
+
+	private static void collect(Future<Result> future, Result total, PrintStream out)
+			throws IOException, InterruptedException
+	{
+		Result r;
+		try {
+			r = future.get();
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new RuntimeException(cause);
+		}
+
+		if (PRINT_PER_FILE) {
+			out.println(r);
+		}
+		total.merge(r);
+	}
+
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: CorpusEvaluation <manifest>");
+			System.exit(1);
+		}
+		evaluateManifest(args[0], System.out);
+	}
+
+}
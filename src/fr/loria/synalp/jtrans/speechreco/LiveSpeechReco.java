@@ -14,11 +14,6 @@ import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
 
 import edu.cmu.sphinx.decoder.FrameDecoder;
-import edu.cmu.sphinx.decoder.ResultListener;
-import edu.cmu.sphinx.decoder.pruner.Pruner;
-import edu.cmu.sphinx.decoder.pruner.SimplePruner;
-import edu.cmu.sphinx.decoder.scorer.ThreadedAcousticScorer;
-import edu.cmu.sphinx.decoder.search.PartitionActiveListFactory;
 import edu.cmu.sphinx.decoder.search.SimpleBreadthFirstSearchManager;
 import edu.cmu.sphinx.decoder.search.Token;
 import edu.cmu.sphinx.frontend.BaseDataProcessor;
@@ -33,9 +28,7 @@ import edu.cmu.sphinx.jsgf.JSGFGrammar;
 import edu.cmu.sphinx.jsgf.JSGFGrammarException;
 import edu.cmu.sphinx.jsgf.JSGFGrammarParseException;
 import edu.cmu.sphinx.linguist.acoustic.AcousticModel;
-import edu.cmu.sphinx.linguist.flat.FlatLinguist;
 import edu.cmu.sphinx.result.Result;
-import edu.cmu.sphinx.util.LogMath;
 import edu.cmu.sphinx.util.props.PropertyException;
 import edu.cmu.sphinx.util.props.PropertySheet;
 
@@ -170,7 +163,6 @@ public class LiveSpeechReco extends PhoneticForcedGrammar {
 
 		BaseDataProcessor mfcc = getFrontEnd(mikeSource, wavw);
 
-		LogMath logMath = HMMModels.getLogMath();
 		if (mods==null) {
 			// ACCMODS
 			System.out.println("loading acoustic models...");
@@ -182,13 +174,11 @@ public class LiveSpeechReco extends PhoneticForcedGrammar {
 			int beamwidth = 0;
 			
 			// S4 DECODER
-			FlatLinguist linguist = new FlatLinguist(mods, logMath, gram, HMMModels.getUnitManager(), 1f, silprob, silprob, 1f, 1f, false, false, false, false, 1f, 1f, mods);
-			Pruner pruner = new SimplePruner();
-			ThreadedAcousticScorer scorer = new ThreadedAcousticScorer(mfcc, null, 1, false, 1, Thread.NORM_PRIORITY);
-			PartitionActiveListFactory activeList = new PartitionActiveListFactory(beamwidth, 1E-300, logMath);
-			searchManager = new SimpleBreadthFirstSearchManager(logMath, linguist, pruner, scorer, activeList, false, 1E-60, 0, false);
-			ArrayList<ResultListener> listeners = new ArrayList<ResultListener>();
-			decoder = new FrameDecoder(searchManager, false, true, listeners);
+			S4DecoderFactory factory = new S4DecoderFactory(mods);
+			factory.silprob = silprob;
+			factory.beamwidth = beamwidth;
+			searchManager = factory.newSearchManager(gram, mfcc);
+			decoder = S4DecoderFactory.newDecoder(searchManager);
 			mikeSource.initialize();
 		}
 
@@ -298,7 +288,6 @@ public class LiveSpeechReco extends PhoneticForcedGrammar {
 		wavsrc.setAudioFile(new File(wavfile), null);
 		BaseDataProcessor mfcc = getFrontEnd(wavsrc);
 
-		LogMath logMath = HMMModels.getLogMath();
 		if (mods==null) {
 			// ACCMODS
 			System.out.println("loading acoustic models...");
@@ -311,13 +300,12 @@ public class LiveSpeechReco extends PhoneticForcedGrammar {
 		int beamwidth = 0;
 
 		// S4 DECODER
-		FlatLinguist linguist = new FlatLinguist(mods, logMath, gram, HMMModels.getUnitManager(), 1f, silprob, silprob, 1f, lw, false, false, false, false, 1f, 1f, mods);
-		Pruner pruner = new SimplePruner();
-		ThreadedAcousticScorer scorer = new ThreadedAcousticScorer(mfcc, null, 1, false, 1, Thread.NORM_PRIORITY);
-		PartitionActiveListFactory activeList = new PartitionActiveListFactory(beamwidth, 1E-300, logMath);
-		searchManager = new SimpleBreadthFirstSearchManager(logMath, linguist, pruner, scorer, activeList, false, 1E-60, 0, false);
-		ArrayList<ResultListener> listeners = new ArrayList<ResultListener>();
-		decoder = new FrameDecoder(searchManager, false, true, listeners);
+		S4DecoderFactory factory = new S4DecoderFactory(mods);
+		factory.silprob = silprob;
+		factory.beamwidth = beamwidth;
+		factory.languageWeight = lw;
+		searchManager = factory.newSearchManager(gram, mfcc);
+		decoder = S4DecoderFactory.newDecoder(searchManager);
 		wavsrc.initialize();
 		searchManager.startRecognition();
 
@@ -551,7 +539,6 @@ public class LiveSpeechReco extends PhoneticForcedGrammar {
 
 		// ACCMODS
 		System.out.println("loading acoustic models...");
-		LogMath logMath = HMMModels.getLogMath();
 		AcousticModel mods = HMMModels.getAcousticModels();
 		float silprob = 0.1f;
 		int beamwidth = 0;
@@ -569,13 +556,11 @@ public class LiveSpeechReco extends PhoneticForcedGrammar {
 		}
 
 		// S4 DECODER
-		FlatLinguist linguist = new FlatLinguist(mods, logMath, gram, HMMModels.getUnitManager(), 1f, silprob, silprob, 1f, 1f, false, false, false, false, 1f, 1f, mods);
-		Pruner pruner = new SimplePruner();
-		ThreadedAcousticScorer scorer = new ThreadedAcousticScorer(mfccs, null, 1, false, 1, Thread.NORM_PRIORITY);
-		PartitionActiveListFactory activeList = new PartitionActiveListFactory(beamwidth, 1E-300, logMath);
-		SimpleBreadthFirstSearchManager searchManager = new SimpleBreadthFirstSearchManager(logMath, linguist, pruner, scorer, activeList, false, 1E-60, 0, false);
-		ArrayList<ResultListener> listeners = new ArrayList<ResultListener>();
-		FrameDecoder decoder = new FrameDecoder(searchManager, false, true, listeners);
+		S4DecoderFactory factory = new S4DecoderFactory(mods);
+		factory.silprob = silprob;
+		factory.beamwidth = beamwidth;
+		SimpleBreadthFirstSearchManager searchManager = factory.newSearchManager(gram, mfccs);
+		FrameDecoder decoder = S4DecoderFactory.newDecoder(searchManager);
 
 		mikeSource.initialize();
 		mikeSource.startRecording();
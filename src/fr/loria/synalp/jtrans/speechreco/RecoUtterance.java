@@ -202,5 +202,6 @@ public class RecoUtterance extends ArrayList<RecoWord> {
 
 		assert null != project.turns.get(0).end;
 		project.turns.get(0).end.setFrame(get(size()-1).frameEnd);
+		project.tokensChanged(0);
 	}
 }
@@ -14,15 +14,14 @@ import java.util.List;
 import java.util.StringTokenizer;
 
 import fr.loria.synalp.jtrans.speechreco.s4.HMMModels;
+import fr.loria.synalp.jtrans.speechreco.s4.S4DecoderFactory;
 import fr.loria.synalp.jtrans.utils.DET;
 import fr.loria.synalp.jtrans.utils.FileUtils;
 import fr.loria.synalp.jtrans.utils.SuiteDeMots;
 
 import edu.cmu.sphinx.decoder.FrameDecoder;
-import edu.cmu.sphinx.decoder.ResultListener;
 import edu.cmu.sphinx.decoder.pruner.Pruner;
 import edu.cmu.sphinx.decoder.pruner.SimplePruner;
-import edu.cmu.sphinx.decoder.scorer.ThreadedAcousticScorer;
 import edu.cmu.sphinx.decoder.search.ActiveListFactory;
 import edu.cmu.sphinx.decoder.search.ActiveListManager;
 import edu.cmu.sphinx.decoder.search.PartitionActiveListFactory;
@@ -299,10 +298,8 @@ public class S4ASR implements SignalListener {
 		signalEndReached=false;
 		mfcc.addSignalListener(this);
 
-		ThreadedAcousticScorer scorer = new ThreadedAcousticScorer(mfcc, null, 1, false, 1, Thread.NORM_PRIORITY);
-		search = new WordPruningBreadthFirstSearchManager(HMMModels.getLogMath(), linguist, pruner, scorer, almgr, false, 1E-80, 0, false, true, 100, 1.7f, false);
-		ArrayList<ResultListener> listeners = new ArrayList<ResultListener>();
-		decoder = new FrameDecoder(search, false, true, listeners);
+		search = new S4DecoderFactory().newWordPruningSearchManager(linguist, pruner, almgr, mfcc);
+		decoder = S4DecoderFactory.newDecoder(search);
 	}
 
 	@Override
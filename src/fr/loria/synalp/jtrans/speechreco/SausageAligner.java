@@ -0,0 +1,275 @@
+package fr.loria.synalp.jtrans.speechreco;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Set;
+
+import edu.cmu.sphinx.result.ConfusionSet;
+import edu.cmu.sphinx.result.Sausage;
+import edu.cmu.sphinx.result.WordResult;
+import fr.loria.synalp.jtrans.utils.SuiteDeMots;
+
+/**
+ * Aligns a reference word sequence with a sausage (sequence of confusion
+ * sets) by dynamic programming, and counts insertions, deletions and
+ * substitutions.
+ * <p/>
+ * Words are normalized with {@link SuiteDeMots#normalizeWord} and interned
+ * into integer ids; the vocabulary is kept across calls. Each confusion set
+ * is compiled once into a sorted array of word ids, so that an association
+ * costs a binary search.
+ * <p/>
+ * Only the cells within {@link #BAND} columns of the diagonal are explored.
+ * Costs are kept in two rolling int arrays, and backpointers take one byte
+ * per explored cell.
+ * <p/>
+ * Costs: a deletion or a substitution costs 1, an insertion costs 1 unless
+ * the confusion set contains a non-word (&lt;noop&gt;, &lt;sil&gt;, &lt;s&gt;,
+ * &lt;/s&gt;), in which case it is free and isn't counted.
+ */
+public class SausageAligner {
+
+	/**
+	 * Half-width of the band of explored cells around the diagonal.
+	 * If the best alignment strays further from the diagonal, a worse
+	 * alignment is found. 0 explores the whole matrix.
+	 */
+	public static int BAND = 500;
+
+	public static final byte ASSOCIATION = 0;
+	public static final byte DELETION = 1;
+	public static final byte INSERTION = 2;
+
+	private static final int INF = Integer.MAX_VALUE / 2;
+
+	private static final String[] NON_WORDS = {"<noop>", "<sil>", "<s>", "</s>"};
+
+
+	/**
+	 * Sausage compiled for alignment.
+	 */
+	public static class Hypothesis {
+		/** Sorted word ids of each confusion set */
+		final int[][] words;
+		/** Whether inserting each confusion set is free */
+		final boolean[] freeInsertion;
+
+		private Hypothesis(int size) {
+			words = new int[size][];
+			freeInsertion = new boolean[size];
+		}
+
+		public int size() {
+			return words.length;
+		}
+	}
+
+
+	/**
+	 * Outcome of an alignment.
+	 */
+	public static class Result {
+		public final int ins, del, sub;
+		public final int refLength;
+		/** ASSOCIATION, DELETION or INSERTION, from the start */
+		public final byte[] path;
+
+		private Result(int ins, int del, int sub, int refLength, byte[] path) {
+			this.ins = ins;
+			this.del = del;
+			this.sub = sub;
+			this.refLength = refLength;
+			this.path = path;
+		}
+
+		public int getErrors() {
+			return ins + del + sub;
+		}
+
+		public float getWER() {
+			return (float)getErrors() / (float)refLength;
+		}
+
+		@Override
+		public String toString() {
+			return "I=" + ins + " D=" + del + " S=" + sub + " N=" + refLength
+					+ " WER=" + getWER();
+		}
+	}
+
+
+	private final HashMap<String, Integer> vocabulary = new HashMap<>();
+
+
+	/**
+	 * Returns the id of a normalized word, assigning a new one if needed.
+	 */
+	private int intern(String normalized) {
+		Integer id = vocabulary.get(normalized);
+		if (id == null) {
+			id = vocabulary.size();
+			vocabulary.put(normalized, id);
+		}
+		return id;
+	}
+
+
+	public int[] compile(String[] ref) {
+		int[] ids = new int[ref.length];
+		for (int i = 0; i < ref.length; i++) {
+			ids[i] = intern(SuiteDeMots.normalizeWord(ref[i]));
+		}
+		return ids;
+	}
+
+
+	public Hypothesis compile(Sausage sausage) {
+		Hypothesis hyp = new Hypothesis(sausage.size());
+		int[] buf = new int[16];
+
+		for (int j = 0; j < sausage.size(); j++) {
+			ConfusionSet cs = sausage.getConfusionSet(j);
+
+			int n = 0;
+			for (Set<WordResult> ws: cs.values()) {
+				for (WordResult w: ws) {
+					if (n == buf.length) {
+						buf = Arrays.copyOf(buf, n * 2);
+					}
+					buf[n++] = intern(SuiteDeMots.normalizeWord(w.toString()));
+				}
+			}
+			int[] ids = Arrays.copyOf(buf, n);
+			Arrays.sort(ids);
+			hyp.words[j] = ids;
+
+			for (String nw: NON_WORDS) {
+				if (cs.containsWord(nw)) {
+					hyp.freeInsertion[j] = true;
+					break;
+				}
+			}
+		}
+
+		return hyp;
+	}
+
+
+	public Result align(String[] ref, Sausage sausage) {
+		return align(compile(ref), compile(sausage));
+	}
+
+
+	/**
+	 * Finds the alignment with the fewest errors within the band.
+	 * Ties are broken in favor of associations, then deletions.
+	 */
+	public Result align(int[] ref, Hypothesis hyp) {
+		final int n = ref.length;
+		final int m = hyp.size();
+		final int band = BAND > 0? BAND: Math.max(n, m);
+
+		// Row i (i reference words consumed) spans columns lo[i]..hi[i]
+		int[] lo = new int[n+1];
+		int[] hi = new int[n+1];
+		for (int i = 0; i <= n; i++) {
+			int center = n == 0? m: (int)((long)i * m / n);
+			int prevCenter = i == 0? 0: (int)((long)(i-1) * m / n);
+			lo[i] = Math.max(0, prevCenter - band);
+			hi[i] = Math.min(m, center + band);
+		}
+		hi[n] = m;
+
+		byte[][] back = new byte[n+1][];
+		int[] prev = new int[m+1];
+		int[] cur = new int[m+1];
+
+		for (int i = 0; i <= n; i++) {
+			back[i] = new byte[hi[i] - lo[i] + 1];
+
+			for (int j = lo[i]; j <= hi[i]; j++) {
+				int best = INF;
+				byte op = -1;
+
+				if (i == 0 && j == 0) {
+					best = 0;
+				}
+
+				if (i > 0 && j > 0 && j-1 >= lo[i-1] && j-1 <= hi[i-1]
+						&& prev[j-1] < INF)
+				{
+					int c = prev[j-1] +
+							(Arrays.binarySearch(hyp.words[j-1], ref[i-1]) >= 0? 0: 1);
+					if (c < best) {
+						best = c;
+						op = ASSOCIATION;
+					}
+				}
+
+				if (i > 0 && j >= lo[i-1] && j <= hi[i-1] && prev[j] < INF) {
+					int c = prev[j] + 1;
+					if (c < best) {
+						best = c;
+						op = DELETION;
+					}
+				}
+
+				if (j > lo[i] && cur[j-1] < INF) {
+					int c = cur[j-1] + (hyp.freeInsertion[j-1]? 0: 1);
+					if (c < best) {
+						best = c;
+						op = INSERTION;
+					}
+				}
+
+				cur[j] = best;
+				back[i][j - lo[i]] = op;
+			}
+
+			int[] tmp = prev;
+			prev = cur;
+			cur = tmp;
+		}
+
+		assert prev[m] < INF;
+
+		// Backtrack
+		byte[] path = new byte[n + m];
+		int len = 0;
+		int ins = 0, del = 0, sub = 0;
+		int i = n, j = m;
+		while (i > 0 || j > 0) {
+			byte op = back[i][j - lo[i]];
+			path[len++] = op;
+			switch (op) {
+				case ASSOCIATION:
+					if (Arrays.binarySearch(hyp.words[j-1], ref[i-1]) < 0) {
+						sub++;
+					}
+					i--;
+					j--;
+					break;
+				case DELETION:
+					del++;
+					i--;
+					break;
+				case INSERTION:
+					if (!hyp.freeInsertion[j-1]) {
+						ins++;
+					}
+					j--;
+					break;
+				default:
+					throw new IllegalStateException("no backpointer at " + i + "," + j);
+			}
+		}
+
+		byte[] forward = new byte[len];
+		for (int k = 0; k < len; k++) {
+			forward[k] = path[len-1-k];
+		}
+
+		return new Result(ins, del, sub, n, forward);
+	}
+
+}
@@ -2,11 +2,15 @@ package fr.loria.synalp.jtrans.speechreco;
 
 import java.awt.event.ActionListener;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
@@ -20,8 +24,15 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
-import javax.sound.sampled.AudioFileFormat;
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
@@ -39,6 +50,7 @@ import edu.cmu.sphinx.frontend.util.StreamCepstrumSource;
 import edu.cmu.sphinx.instrumentation.AccuracyTracker;
 import edu.cmu.sphinx.linguist.SearchState;
 import edu.cmu.sphinx.linguist.WordSearchState;
+import edu.cmu.sphinx.linguist.acoustic.AcousticModel;
 import edu.cmu.sphinx.linguist.acoustic.HMMState;
 import edu.cmu.sphinx.linguist.acoustic.Unit;
 import edu.cmu.sphinx.linguist.acoustic.tiedstate.GaussianMixture;
@@ -222,43 +234,65 @@ public class SpeechReco {
 		}
 	}
 
-	private class FichSegments {
-		String segmentWavFileName;
+	/**
+	 * Chunk of a WAV file, kept in memory. All chunks of a file share the
+	 * same PCM buffer.
+	 */
+	static class AudioChunk {
+		AudioFormat format;
+		byte[] pcm;
+		int offsetInBytes;
+		int lengthInBytes;
 		int offsetInFrames;
+
+		AudioInputStream open() {
+			return new AudioInputStream(
+					new ByteArrayInputStream(pcm, offsetInBytes, lengthInBytes),
+					format,
+					lengthInBytes / format.getFrameSize());
+		}
 	}
 
-	private List<FichSegments> splitWavFile(String wavfile, int chunkSizeInSecs, int shiftInSecs) {
+	/**
+	 * Cuts a WAV file into overlapping chunks. The file is read only once;
+	 * chunks are views on a single in-memory PCM buffer.
+	 */
+	List<AudioChunk> splitWavFile(String wavfile, int chunkSizeInSecs, int shiftInSecs) {
 		// TODO: recuperer cette valeur dans le fichier de config ou le defaut !
 		float mfccFrameRate = 100f;
 
 		System.out.println("decoupe wav");
-		ArrayList<FichSegments> wavout = new ArrayList<FichSegments>();
+		ArrayList<AudioChunk> wavout = new ArrayList<AudioChunk>();
 		try {
-			long startBytes = 0;
-			float startSec = 0;
-			for (int i=0;;i++) {
-				AudioInputStream ais = AudioSystem.getAudioInputStream(new File(wavfile));
-				AudioFormat af = ais.getFormat();
-				int bitsPerSec = (int)(af.getSampleSizeInBits()*af.getSampleRate());
-				int bytesPerSec = bitsPerSec/8;
-				int nbytesPerChunk = bytesPerSec*chunkSizeInSecs;
-				int nsamplesPerChunk = nbytesPerChunk/2;
-
-				ais.skip(startBytes);
-
-				AudioInputStream bis = new AudioInputStream(ais, af, nsamplesPerChunk);
-				if (bis.available()==0) break;
-				File out = createVanishingTempFile("out" + i + "_", ".wav");
-				int n=AudioSystem.write(bis, AudioFileFormat.Type.WAVE, out);
-				if (n==0) break;
-				FichSegments seg = new FichSegments();
-				seg.segmentWavFileName=out.getAbsolutePath();
-				seg.offsetInFrames=(int)(startSec*mfccFrameRate);
-				wavout.add(seg);
+			AudioInputStream ais = AudioSystem.getAudioInputStream(new File(wavfile));
+			AudioFormat af = ais.getFormat();
+			byte[] pcm;
+			try {
+				ByteArrayOutputStream baos = new ByteArrayOutputStream(
+						(int) Math.max(0, ais.getFrameLength() * af.getFrameSize()));
+				byte[] buf = new byte[1<<16];
+				for (int n; (n = ais.read(buf)) > 0; ) {
+					baos.write(buf, 0, n);
+				}
+				pcm = baos.toByteArray();
+			} finally {
 				ais.close();
+			}
+
+			int bitsPerSec = (int)(af.getSampleSizeInBits()*af.getSampleRate());
+			int bytesPerSec = bitsPerSec/8;
+			int nbytesPerChunk = bytesPerSec*chunkSizeInSecs;
+			int nbytesPerShift = bytesPerSec*shiftInSecs;
 
-				int nbytesPerShift=bytesPerSec*shiftInSecs;
-				startBytes += nbytesPerShift;
+			float startSec = 0;
+			for (int startBytes = 0; startBytes < pcm.length; startBytes += nbytesPerShift) {
+				AudioChunk seg = new AudioChunk();
+				seg.format = af;
+				seg.pcm = pcm;
+				seg.offsetInBytes = startBytes;
+				seg.lengthInBytes = Math.min(nbytesPerChunk, pcm.length - startBytes);
+				seg.offsetInFrames = (int)(startSec*mfccFrameRate);
+				wavout.add(seg);
 				startSec += shiftInSecs;
 			}
 		} catch (UnsupportedAudioFileException e) {
@@ -270,6 +304,194 @@ public class SpeechReco {
 		return wavout;
 	}
 
+	/**
+	 * Number of chunks decoded concurrently by doRecoNbest and doRecoSausage.
+	 */
+	public static int DECODER_THREADS = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Turns a chunk of audio into a sausage.
+	 */
+	interface ChunkDecoder {
+		/**
+		 * @param latFile if not null, the lattice is saved to this file
+		 */
+		Sausage decode(AudioChunk chunk, String name, String latFile) throws Exception;
+
+		void deallocate();
+	}
+
+	/**
+	 * Recognizer dedicated to chunk decoding. Each one has its own search
+	 * manager and front end, but all of them share the acoustic models of
+	 * the main recognizer.
+	 */
+	private static class ChunkRecognizer implements ChunkDecoder {
+		final Recognizer recognizer;
+		final AudioFileDataSource dataSource;
+
+		ChunkRecognizer(ConfigurationManager wcm) {
+			recognizer = (Recognizer) wcm.lookup("recognizer");
+			recognizer.allocate();
+			dataSource = (AudioFileDataSource) wcm.lookup("audioFileDataSource");
+		}
+
+		@Override
+		public Sausage decode(AudioChunk chunk, String name, String latFile) {
+			dataSource.setInputStream(chunk.open(), name);
+			Result result = recognizer.recognize();
+
+			Lattice lat = new Lattice(result);
+			if (latFile != null) {
+				lat.dump(latFile);
+			}
+			LatticeOptimizer optimizer = new LatticeOptimizer(lat);
+			optimizer.optimize();
+			lat.computeNodePosteriors(1);
+			return new SausageMaker(lat).makeSausage();
+		}
+
+		@Override
+		public void deallocate() {
+			recognizer.deallocate();
+		}
+	}
+
+	/**
+	 * Creates a recognizer for chunk decoding.
+	 * <p/>
+	 * The acoustic models are only read while decoding, so they may be
+	 * shared by decoders working on different chunks at the same time.
+	 * (Senones do cache the score of the last frame they were given, but
+	 * the frame and its score are swapped in as a single immutable object:
+	 * concurrent decoders may miss the cache, yet never get the score of
+	 * another frame.)
+	 */
+	ChunkDecoder newChunkDecoder() {
+		ConfigurationManager wcm;
+		synchronized (this) {
+			initSphinx4(cfg);
+			wcm = new ConfigurationManager(cfg);
+			// share the acoustic models already loaded by the main recognizer
+			for (String name: cm.getInstanceNames(AcousticModel.class)) {
+				wcm.removeConfigurable(name);
+				wcm.addConfigurable(cm.lookup(name), name);
+			}
+		}
+		return new ChunkRecognizer(wcm);
+	}
+
+	/**
+	 * Decodes chunks on a pool of DECODER_THREADS workers and turns each
+	 * result into a sausage. Each worker gets its own decoder; decoders are
+	 * deallocated when the decoding is closed.
+	 * <p/>
+	 * Callers should consume sausages in chunk order, so that each chunk is
+	 * processed as soon as it and its predecessors are decoded.
+	 */
+	class ChunkDecoding implements Closeable {
+		private final ExecutorService pool;
+		private final List<Future<Sausage>> sausages;
+		private final BlockingQueue<ChunkDecoder> idle =
+				new LinkedBlockingQueue<ChunkDecoder>();
+		private final List<ChunkDecoder> created = new ArrayList<ChunkDecoder>();
+		private final int maxDecoders;
+
+		/**
+		 * @param latPrefix if not null, each lattice is saved to
+		 *                  latPrefix_i.lat
+		 */
+		ChunkDecoding(
+				final List<AudioChunk> chunks,
+				final String latPrefix,
+				final boolean fixExtremes)
+		{
+			maxDecoders = Math.max(1, Math.min(DECODER_THREADS, chunks.size()));
+			pool = Executors.newFixedThreadPool(maxDecoders);
+			sausages = new ArrayList<Future<Sausage>>(chunks.size());
+
+			for (int i = 0; i < chunks.size(); i++) {
+				final int chunkIdx = i;
+				sausages.add(pool.submit(new Callable<Sausage>() {
+					@Override
+					public Sausage call() throws Exception {
+						ChunkDecoder d = acquire();
+						Sausage saucisse;
+						try {
+							saucisse = d.decode(chunks.get(chunkIdx), "chunk" + chunkIdx,
+									latPrefix == null? null: latPrefix + "_" + chunkIdx + ".lat");
+						} finally {
+							idle.put(d);
+						}
+
+						if (fixExtremes) {
+							fixExtremes(saucisse);
+						}
+						return saucisse;
+					}
+				}));
+			}
+
+			pool.shutdown();
+		}
+
+		private ChunkDecoder acquire() throws InterruptedException {
+			ChunkDecoder d = idle.poll();
+			if (d != null) {
+				return d;
+			}
+
+			synchronized (created) {
+				if (created.size() < maxDecoders) {
+					d = newChunkDecoder();
+					created.add(d);
+					return d;
+				}
+			}
+
+			return idle.take();
+		}
+
+		/**
+		 * Waits for the sausage of a chunk.
+		 * @throws IOException if the chunk couldn't be decoded
+		 */
+		Sausage get(int chunkIdx) throws IOException {
+			try {
+				return sausages.get(chunkIdx).get();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted while decoding chunk " + chunkIdx);
+			} catch (ExecutionException ex) {
+				throw new IOException("can't decode chunk " + chunkIdx, ex.getCause());
+			}
+		}
+
+		/**
+		 * Cancels pending chunks, waits for running ones, and deallocates
+		 * all decoders.
+		 */
+		@Override
+		public void close() throws IOException {
+			pool.shutdownNow();
+			try {
+				while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+					System.err.println("SpeechReco: waiting for chunk decoders to stop");
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+
+			synchronized (created) {
+				for (ChunkDecoder d: created) {
+					d.deallocate();
+				}
+				created.clear();
+			}
+			idle.clear();
+		}
+	}
+
 	private int getFrameEnd(ConfusionSet cs) {
 		for (Set<WordResult> swr : cs.values())
 			for (WordResult wr : swr) 
@@ -504,90 +726,69 @@ public class SpeechReco {
 	int nbest = 10000;
 	AlignTokenPassing aligner = new AlignTokenPassing();
 
-	public void doRecoNbest(String wav, String refString, int nbest) {
+	public void doRecoNbest(String wav, String refString, int nbest)
+			throws IOException
+	{
 		this.nbest=nbest;
-		List<FichSegments> onewavs = splitWavFile(wav, 15, 10);
+		List<AudioChunk> onewavs = splitWavFile(wav, 15, 10);
 
 		// conserve la distrib du nb de mots dans un confusion set
 		HashMap<Integer, Integer> nmots2noccs = new HashMap<Integer, Integer>();
 
 		Sausage[] seqso6 = new Sausage[onewavs.size()];
-		for (int i=0;i<onewavs.size();i++) {
-			String wavfile = onewavs.get(i).segmentWavFileName;
-			URL audioURL;
-			try {
-				audioURL = new File(wavfile).toURI().toURL();
-			} catch (MalformedURLException e) {
-				e.printStackTrace();
-				return;
-			}
-			AudioFileDataSource dataSource = (AudioFileDataSource) cm.lookup("audioFileDataSource");
-			dataSource.setAudioFile(audioURL, null);
-			Result result = launchSphinx4(null);
-
-			Lattice lat = new Lattice(result);
-
-			lat.dump(wav+"_i.lat");
-
-			LatticeOptimizer optimizer = new LatticeOptimizer(lat);
-			optimizer.optimize();           
-			lat.computeNodePosteriors(1);
-			SausageMaker mangu = new SausageMaker(lat);
-			Sausage saucisse = mangu.makeSausage();
-
-			//            PivotSausageMaker mangu = new PivotSausageMaker();
-			//            Sausage saucisse = (Sausage)mangu.score(result);
-
-			fixExtremes(saucisse);
-			//	        save(saucisse,wav+".so"+i);
-			if (debug) {
-				// debug: affiche la distrib du nb de mots dans un confusion set
-				for (ConfusionSet cs : saucisse)  {
-					int nw=0;
-					for (Set<WordResult> ws : cs.values())
-						nw+=ws.size();
-					Integer n = nmots2noccs.get(nw);
-					int co=1;
-					if (n!=null) co+=n;
-					nmots2noccs.put(nw,co);
-				}
-				System.out.print("CONFSETSIZE ");
-				int ntot=0;
-				for (int nw : nmots2noccs.keySet())
-					ntot+=nmots2noccs.get(nw);
-				for (int nw : nmots2noccs.keySet()) {
-					float r=(float)nmots2noccs.get(nw)/(float)ntot;
-					System.out.print(nw+":"+nmots2noccs.get(nw)+"("+r+") ");
+		try (ChunkDecoding decoded = new ChunkDecoding(onewavs, wav, true)) {
+			for (int i=0;i<onewavs.size();i++) {
+				Sausage saucisse = decoded.get(i);
+				//	        save(saucisse,wav+".so"+i);
+				if (debug) {
+					// debug: affiche la distrib du nb de mots dans un confusion set
+					for (ConfusionSet cs : saucisse)  {
+						int nw=0;
+						for (Set<WordResult> ws : cs.values())
+							nw+=ws.size();
+						Integer n = nmots2noccs.get(nw);
+						int co=1;
+						if (n!=null) co+=n;
+						nmots2noccs.put(nw,co);
+					}
+					System.out.print("CONFSETSIZE ");
+					int ntot=0;
+					for (int nw : nmots2noccs.keySet())
+						ntot+=nmots2noccs.get(nw);
+					for (int nw : nmots2noccs.keySet()) {
+						float r=(float)nmots2noccs.get(nw)/(float)ntot;
+						System.out.print(nw+":"+nmots2noccs.get(nw)+"("+r+") ");
+					}
+					System.out.println();
 				}
-				System.out.println();
-			}
 
-			if (i==0) seqso6[0]=saucisse;
-			else {
-				// verifie s'il y a recouvrement
-				int firstNewFrame = onewavs.get(i).offsetInFrames+getFrameDeb(saucisse.getConfusionSet(0));
-				int wordInConflict =  0;
-				int endCurWord = onewavs.get(i-1).offsetInFrames+getFrameEnd(seqso6[i-1].getConfusionSet(wordInConflict));
-				while (wordInConflict<seqso6[i-1].size()&&endCurWord<firstNewFrame)
-					endCurWord = onewavs.get(i-1).offsetInFrames+getFrameEnd(seqso6[i-1].getConfusionSet(++wordInConflict));
-				if (wordInConflict<seqso6[i-1].size()) {
-					// il y a recouvrement
-					int middlefr = (firstNewFrame+
-							onewavs.get(i-1).offsetInFrames+getFrameEnd(seqso6[i-1].getConfusionSet(seqso6[i-1].size()-1)))/2;
-
-					// on supprime les anciens mots apres middlefr
-					for (int j=seqso6[i-1].size()-1;j>=wordInConflict;j--) {
-						endCurWord = onewavs.get(i-1).offsetInFrames+getFrameEnd(seqso6[i-1].getConfusionSet(j));
-						if (endCurWord>middlefr) {
-//							seqso6[i-1].confusionSets.remove(j);
-						} else break;
-					}
+				if (i==0) seqso6[0]=saucisse;
+				else {
+					// verifie s'il y a recouvrement
+					int firstNewFrame = onewavs.get(i).offsetInFrames+getFrameDeb(saucisse.getConfusionSet(0));
+					int wordInConflict =  0;
+					int endCurWord = onewavs.get(i-1).offsetInFrames+getFrameEnd(seqso6[i-1].getConfusionSet(wordInConflict));
+					while (wordInConflict<seqso6[i-1].size()&&endCurWord<firstNewFrame)
+						endCurWord = onewavs.get(i-1).offsetInFrames+getFrameEnd(seqso6[i-1].getConfusionSet(++wordInConflict));
+					if (wordInConflict<seqso6[i-1].size()) {
+						// il y a recouvrement
+						int middlefr = (firstNewFrame+
+								onewavs.get(i-1).offsetInFrames+getFrameEnd(seqso6[i-1].getConfusionSet(seqso6[i-1].size()-1)))/2;
+
+						// on supprime les anciens mots apres middlefr
+						for (int j=seqso6[i-1].size()-1;j>=wordInConflict;j--) {
+							endCurWord = onewavs.get(i-1).offsetInFrames+getFrameEnd(seqso6[i-1].getConfusionSet(j));
+							if (endCurWord>middlefr) {
+//								seqso6[i-1].confusionSets.remove(j);
+							} else break;
+						}
 
-					// coupe le debut de la saucisse suivante
-					for (int j=saucisse.size()-1;j>=0;j--) {
-						endCurWord = onewavs.get(i).offsetInFrames+getFrameEnd(saucisse.getConfusionSet(j));
-						if (endCurWord<middlefr) {
-//							saucisse.confusionSets.remove(j);
+						// coupe le debut de la saucisse suivante
+						for (int j=saucisse.size()-1;j>=0;j--) {
+							endCurWord = onewavs.get(i).offsetInFrames+getFrameEnd(saucisse.getConfusionSet(j));
+							if (endCurWord<middlefr) {
+//								saucisse.confusionSets.remove(j);
+							}
 						}
 					}
 					seqso6[i]=saucisse;
@@ -672,7 +873,7 @@ public class SpeechReco {
 
 	// zap la reco pour aller plus vite
 	public String doRecoNbestFromSo6(String wav, String refString) {
-		List<FichSegments> onewavs = splitWavFile(wav, 15, 10);
+		List<AudioChunk> onewavs = splitWavFile(wav, 15, 10);
 
 		// conserve la distrib du nb de mots dans un confusion set
 		HashMap<Integer, Integer> nmots2noccs = new HashMap<Integer, Integer>();
@@ -790,75 +991,73 @@ public class SpeechReco {
 	}
 
 	/**
-	 * cette version calcule des nbests sur chaque segment en ne retenant au plus qu'un seul mot a
-	 * remplacer dans le segment, puis utilse un token-passing sur la sequence de segments-nbest.
-	 * Ne retenir qu'un seul mot est trop limitant: j'ai donc etendu le token-passing egalement au
-	 * mots presents dans le reseau de confusion: cf. doRecoNBest() !!
-	 * 
-	 * @return
+	 * Decodes chunks and cuts the n-best candidates of consecutive chunks
+	 * where they overlap.
+	 * @return the sequence of n-best candidates, in chunk order
 	 */
-	public String doRecoSausage(String wav, String refString) {
-		List<FichSegments> onewavs = splitWavFile(wav, 15, 10);
-
+	ArrayList<Set<RecoUtterance>> decodeCandidates(List<AudioChunk> onewavs)
+			throws IOException
+	{
 		/**
 		 * contient la sequence des candidats n-best
 		 */
 		ArrayList<Set<RecoUtterance>> pos2candidats = new ArrayList<Set<RecoUtterance>>();
 
-		for (int i=0;i<onewavs.size();i++) {
-			String wavfile = onewavs.get(i).segmentWavFileName;
-			URL audioURL;
-			try {
-				audioURL = new File(wavfile).toURI().toURL();
-			} catch (MalformedURLException e) {
-				e.printStackTrace();
-				return null;
-			}
-			AudioFileDataSource dataSource = (AudioFileDataSource) cm.lookup("audioFileDataSource");
-			dataSource.setAudioFile(audioURL, null);
-
-			Result result = launchSphinx4(null);
-
-			Lattice lat = new Lattice(result);
-			LatticeOptimizer optimizer = new LatticeOptimizer(lat);
-			optimizer.optimize();           
-			lat.computeNodePosteriors(1);
-			SausageMaker mangu = new SausageMaker(lat);
-			Sausage saucisse = mangu.makeSausage();
+		try (ChunkDecoding decoded = new ChunkDecoding(onewavs, null, false)) {
+			for (int i=0;i<onewavs.size();i++) {
+				Sausage saucisse = decoded.get(i);
 
-			Set<RecoUtterance> recs = extractNBests(saucisse, onewavs.get(i).offsetInFrames, 1);
-			for (RecoUtterance onerec : recs) fixExtremes(onerec);
+				Set<RecoUtterance> recs = extractNBests(saucisse, onewavs.get(i).offsetInFrames, 1);
+				for (RecoUtterance onerec : recs) fixExtremes(onerec);
 
-			if (debug) {
-				for (RecoUtterance u : recs)
-					System.out.println("DEBUG RECS "+u);
-			}
-
-			if (pos2candidats.size()==0) {
-				pos2candidats.add(recs);
-			} else {
-				RecoUtterance previousInstance = pos2candidats.get(pos2candidats.size()-1).iterator().next().clone();
-				RecoUtterance newInstance = recs.iterator().next().clone();
-
-				// coupe la fin des anciens
-				Set<RecoUtterance> anciens = pos2candidats.remove(pos2candidats.size()-1);
-				HashSet<RecoUtterance> anciensCoupes = new HashSet<RecoUtterance>();
-				for (RecoUtterance utt : anciens) {
-					utt.cutAndAppendSegmentsRecouvrants(newInstance, true, false, false);
-					anciensCoupes.add(utt);
+				if (debug) {
+					for (RecoUtterance u : recs)
+						System.out.println("DEBUG RECS "+u);
 				}
-				pos2candidats.add(anciensCoupes);
 
-				// coupe le debut des nouveaux
-				HashSet<RecoUtterance> newpos = new HashSet<RecoUtterance>();
-				for (RecoUtterance utt : recs) {
-					previousInstance.cutAndAppendSegmentsRecouvrants(utt, false, true, false);
-					newpos.add(utt);
+				if (pos2candidats.size()==0) {
+					pos2candidats.add(recs);
+				} else {
+					RecoUtterance previousInstance = pos2candidats.get(pos2candidats.size()-1).iterator().next().clone();
+					RecoUtterance newInstance = recs.iterator().next().clone();
+
+					// coupe la fin des anciens
+					Set<RecoUtterance> anciens = pos2candidats.remove(pos2candidats.size()-1);
+					HashSet<RecoUtterance> anciensCoupes = new HashSet<RecoUtterance>();
+					for (RecoUtterance utt : anciens) {
+						utt.cutAndAppendSegmentsRecouvrants(newInstance, true, false, false);
+						anciensCoupes.add(utt);
+					}
+					pos2candidats.add(anciensCoupes);
+
+					// coupe le debut des nouveaux
+					HashSet<RecoUtterance> newpos = new HashSet<RecoUtterance>();
+					for (RecoUtterance utt : recs) {
+						previousInstance.cutAndAppendSegmentsRecouvrants(utt, false, true, false);
+						newpos.add(utt);
+					}
+					pos2candidats.add(newpos);
 				}
-				pos2candidats.add(newpos);
 			}
 		}
 
+		return pos2candidats;
+	}
+
+	/**
+	 * cette version calcule des nbests sur chaque segment en ne retenant au plus qu'un seul mot a
+	 * remplacer dans le segment, puis utilse un token-passing sur la sequence de segments-nbest.
+	 * Ne retenir qu'un seul mot est trop limitant: j'ai donc etendu le token-passing egalement au
+	 * mots presents dans le reseau de confusion: cf. doRecoNBest() !!
+	 * 
+	 * @return
+	 */
+	public String doRecoSausage(String wav, String refString)
+			throws IOException
+	{
+		List<AudioChunk> onewavs = splitWavFile(wav, 15, 10);
+		ArrayList<Set<RecoUtterance>> pos2candidats = decodeCandidates(onewavs);
+
 		// Viterbi pour chercher les nbest avec les sequences de candidats coupes
 		int nbest = 1;
 		List<RecoUtteranceImmutable> nbests = tokenPassing0(pos2candidats,nbest);
@@ -1425,7 +1624,7 @@ public class SpeechReco {
 		resRecoPublic.clear();
 		resRecoFinalSaved = new RecoUtterance();
 
-		List<FichSegments> onewavs = splitWavFile(wav, 15, 10);
+		List<AudioChunk> onewavs = splitWavFile(wav, 15, 10);
 
 		if (tmpaligner==null) tmpaligner=new NISTAlign(true, true);
 
@@ -1477,7 +1676,7 @@ public class SpeechReco {
 	 * may be set to be warned whenever the next incremental sequence of words is found
 	 */
 	public ActionListener recoListener = null;
-	List<FichSegments> onewavs;
+	List<AudioChunk> onewavs;
 	int wavchunk;
 	String wavfich;
 	
@@ -1522,17 +1721,9 @@ public class SpeechReco {
 
 		onewavs = splitWavFile(wav, 15, 10);
 		for (wavchunk=0;wavchunk<onewavs.size();wavchunk++) {
-			String wavfile = onewavs.get(wavchunk).segmentWavFileName;
-			URL audioURL;
-			try {
-				audioURL = new File(wavfile).toURI().toURL();
-			} catch (MalformedURLException e) {
-				e.printStackTrace();
-				return null;
-			}
 			initSphinx4(cfg);
 			AudioFileDataSource dataSource = (AudioFileDataSource) cm.lookup("audioFileDataSource");
-			dataSource.setAudioFile(audioURL, null);
+			dataSource.setInputStream(onewavs.get(wavchunk).open(), "chunk" + wavchunk);
 
 			Result result = launchSphinx4(null);
 			
@@ -1763,11 +1954,9 @@ public class SpeechReco {
 	public String doRecoFromLat(String wav, String refString) {
 		resRecoPublic.clear();
 
-		List<FichSegments> onewavs = splitWavFile(wav, 15, 10);
+		List<AudioChunk> onewavs = splitWavFile(wav, 15, 10);
 
 		for (int i=0;i<onewavs.size();i++) {
-			String wavfile = onewavs.get(i).segmentWavFileName;
-
 			Lattice lat = new Lattice(wav+"_"+i+".lat");
 
 			lat.computeNodePosteriors(1);
@@ -282,6 +282,11 @@ public class SpeechRecoAccuracy {
 	}
 
 	public static void main(String[] args) throws Exception {
+		if (args[0].equals("-eval")) {
+			// manifest of hypothesis/reference pairs
+			CorpusEvaluation.evaluateManifest(args[1], System.out);
+			return;
+		}
 		System.out.println("combine wers");
 		String resfiles = args[0];
 		BufferedReader f = FileUtils.openFileUTF(resfiles);
@@ -27,18 +27,32 @@ public abstract class HMMModels {
 	public static String modelDef = "ESTER2_Train_373f_a01_s01.f04.lexV02_alg01_ter.cd_2500.mdef";
 	public static String datapath = "ESTER2_Train_373f_a01_s01.f04.lexV02_alg01_ter.cd_2500.params.064g/";
 
-	public static LogMath getLogMath() {
+	/**
+	 * Whether to cache the parsed acoustic model in a binary snapshot next
+	 * to its parameter files.
+	 * @see SnapshotLoader
+	 */
+	public static boolean USE_SNAPSHOT = true;
+	public static String snapshotName = "jtrans.snapshot";
+
+	public static synchronized LogMath getLogMath() {
 		// Sphinx's default log base = 1.0001 (cf. LogMath.java)
 		if (logMath==null) logMath = new LogMath(2,true);
 		return logMath;
 	}
 
-	public static UnitManager getUnitManager() {
+	public static synchronized UnitManager getUnitManager() {
 		if (unitManager==null) unitManager = new UnitManager();
 		return unitManager;
 	}
 
-	public static AcousticModel getAcousticModels() {
+	/**
+	 * Loads the acoustic model on first use. Like the other getters, this is
+	 * synchronized: alignment workers build their first state graphs at the
+	 * same time, and the model must only be loaded (and its snapshot
+	 * written) once.
+	 */
+	public static synchronized AcousticModel getAcousticModels() {
 		if (mods==null) {
 			try {
 				UnitManager um = getUnitManager();
@@ -49,7 +63,12 @@ public abstract class HMMModels {
 				URL modurl = (new File(RES_DIR, "acmod")).toURI().toURL();
 //				loader = new Sphinx3Loader(modurl, modelDef, datapath, logm, um, true, false, 39, 0f, 1e-7f, 0.0001f, false);
 				// ancienne version de S4
-				loader = new Sphinx3Loader(modurl,modelDef,datapath,logm,um,0f,1e-7f,0.0001f,false);
+				if (USE_SNAPSHOT) {
+					File snapshot = new File(new File(new File(RES_DIR, "acmod"), datapath), snapshotName);
+					loader = new SnapshotLoader(snapshot,modurl,modelDef,datapath,logm,um,0f,1e-7f,0.0001f,false);
+				} else {
+					loader = new Sphinx3Loader(modurl,modelDef,datapath,logm,um,0f,1e-7f,0.0001f,false);
+				}
 				
 				mods = new TiedStateAcousticModel(loader, um, true);
 				mods.allocate();
@@ -0,0 +1,267 @@
+/*
+This source code is copyrighted by Christophe Cerisara, CNRS, France.
+
+It is licensed under the terms of the INRIA Cecill-C licence, as described in:
+http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.html
+ */
+
+package fr.loria.synalp.jtrans.speechreco.s4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.cmu.sphinx.decoder.FrameDecoder;
+import edu.cmu.sphinx.decoder.ResultListener;
+import edu.cmu.sphinx.decoder.pruner.Pruner;
+import edu.cmu.sphinx.decoder.pruner.SimplePruner;
+import edu.cmu.sphinx.decoder.scorer.AcousticScorer;
+import edu.cmu.sphinx.decoder.scorer.Scoreable;
+import edu.cmu.sphinx.decoder.scorer.SimpleAcousticScorer;
+import edu.cmu.sphinx.decoder.search.ActiveListManager;
+import edu.cmu.sphinx.decoder.search.PartitionActiveListFactory;
+import edu.cmu.sphinx.decoder.search.SearchManager;
+import edu.cmu.sphinx.decoder.search.SimpleBreadthFirstSearchManager;
+import edu.cmu.sphinx.decoder.search.WordPruningBreadthFirstSearchManager;
+import edu.cmu.sphinx.frontend.BaseDataProcessor;
+import edu.cmu.sphinx.frontend.Data;
+import edu.cmu.sphinx.linguist.Linguist;
+import edu.cmu.sphinx.linguist.acoustic.AcousticModel;
+import edu.cmu.sphinx.linguist.flat.FlatLinguist;
+import edu.cmu.sphinx.linguist.language.grammar.Grammar;
+import edu.cmu.sphinx.util.LogMath;
+
+/**
+ * Builds the Sphinx4 decoding chain (linguist, pruner, acoustic scorer,
+ * search manager, decoder) from a single configuration.
+ * <p/>
+ * All scorers built by this class score their tokens on a single thread pool
+ * shared by the whole JVM, so that concurrent decoders (e.g. speech
+ * recognition running alongside block alignment) do not each spawn their own
+ * threads.
+ */
+public class S4DecoderFactory {
+
+	/**
+	 * Number of threads in the shared scoring pool.
+	 * Must be set before the first scorer is used.
+	 */
+	public static int SCORER_THREADS = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Minimum number of tokens scored by a single job, whatever their cost.
+	 */
+	public static int MIN_SCOREABLES_PER_JOB = 16;
+
+	/**
+	 * Minimum time a job should take, so that dispatching it to the pool
+	 * costs little in comparison. Each scorer measures how long a token
+	 * takes to score and sizes its jobs accordingly. Frames too small to
+	 * fill two such jobs are scored on the calling thread.
+	 */
+	public static long MIN_JOB_NANOS = 50000;
+
+	private static ExecutorService scoringPool = null;
+
+
+	public float silprob = 0.1f;
+	public int beamwidth = 0;
+	public double relativeBeamWidth = 1E-300;
+	public float languageWeight = 1f;
+
+	private final LogMath logMath;
+	private final AcousticModel mods;
+
+
+	public S4DecoderFactory() {
+		this(HMMModels.getAcousticModels());
+	}
+
+
+	public S4DecoderFactory(AcousticModel mods) {
+		this.logMath = HMMModels.getLogMath();
+		this.mods = mods;
+	}
+
+
+	/**
+	 * Returns the scoring pool shared by all scorers, creating it if needed.
+	 * Its threads are daemons, so the pool never needs to be shut down.
+	 */
+	public static synchronized ExecutorService getScoringPool() {
+		if (scoringPool == null) {
+			final AtomicInteger count = new AtomicInteger();
+			scoringPool = Executors.newFixedThreadPool(
+					Math.max(1, SCORER_THREADS),
+					new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r, "AcousticScorer-" + count.incrementAndGet());
+							t.setDaemon(true);
+							return t;
+						}
+					});
+		}
+		return scoringPool;
+	}
+
+
+	public AcousticScorer newScorer(BaseDataProcessor frontEnd) {
+		return new PooledAcousticScorer(frontEnd);
+	}
+
+
+	public FlatLinguist newFlatLinguist(Grammar grammar) {
+		return new FlatLinguist(mods, logMath, grammar,
+				HMMModels.getUnitManager(), 1f, silprob, silprob, 1f,
+				languageWeight, false, false, false, false, 1f, 1f, mods);
+	}
+
+
+	public Pruner newPruner() {
+		return new SimplePruner();
+	}
+
+
+	/**
+	 * Search manager on a flat grammar (forced alignment, small vocabulary
+	 * recognition).
+	 */
+	public SimpleBreadthFirstSearchManager newSearchManager(
+			Grammar grammar, BaseDataProcessor frontEnd)
+	{
+		PartitionActiveListFactory activeList = new PartitionActiveListFactory(
+				beamwidth, relativeBeamWidth, logMath);
+		return new SimpleBreadthFirstSearchManager(logMath,
+				newFlatLinguist(grammar), newPruner(), newScorer(frontEnd),
+				activeList, false, 1E-60, 0, false);
+	}
+
+
+	/**
+	 * Word-pruning search manager for large vocabulary recognition.
+	 */
+	public WordPruningBreadthFirstSearchManager newWordPruningSearchManager(
+			Linguist linguist,
+			Pruner pruner,
+			ActiveListManager activeListManager,
+			BaseDataProcessor frontEnd)
+	{
+		return new WordPruningBreadthFirstSearchManager(logMath, linguist,
+				pruner, newScorer(frontEnd), activeListManager, false, 1E-80,
+				0, false, true, 100, 1.7f, false);
+	}
+
+
+	public static FrameDecoder newDecoder(SearchManager searchManager) {
+		return new FrameDecoder(searchManager, false, true,
+				new ArrayList<ResultListener>());
+	}
+
+
+	/**
+	 * Acoustic scorer that splits the active tokens of each frame into jobs
+	 * run on the shared scoring pool.
+	 * <p/>
+	 * The best token is the same as with sequential scoring: jobs cover
+	 * consecutive runs of tokens, and ties resolve to the earliest token.
+	 */
+	static class PooledAcousticScorer extends SimpleAcousticScorer {
+
+		/**
+		 * Average time taken to score a token, in nanoseconds
+		 * (0 until the first frame has been scored).
+		 */
+		private double nanosPerScoreable = 0;
+
+
+		PooledAcousticScorer(BaseDataProcessor frontEnd) {
+			super(frontEnd, null);
+		}
+
+
+		<T extends Scoreable> T scoreSequentially(List<T> scoreables, Data data)
+				throws Exception
+		{
+			return super.doScoring(scoreables, data);
+		}
+
+
+		/**
+		 * Smallest number of tokens worth a job, from the measured cost of
+		 * scoring a token.
+		 */
+		int getMinJobSize() {
+			if (nanosPerScoreable <= 0) {
+				return MIN_SCOREABLES_PER_JOB;
+			}
+			return (int) Math.max(MIN_SCOREABLES_PER_JOB,
+					Math.min(Integer.MAX_VALUE, MIN_JOB_NANOS / nanosPerScoreable));
+		}
+
+
+		private void measured(long nanos, int scoreables) {
+			double sample = nanos / (double) scoreables;
+			nanosPerScoreable = nanosPerScoreable <= 0
+					? sample
+					: .9 * nanosPerScoreable + .1 * sample;
+		}
+
+
+		@Override
+		protected <T extends Scoreable> T doScoring(
+				final List<T> scoreables, final Data data)
+				throws Exception
+		{
+			int size = scoreables.size();
+			int threads = Math.max(1, SCORER_THREADS);
+			int jobSize = Math.max(getMinJobSize(), (size + threads - 1) / threads);
+
+			if (threads == 1 || jobSize >= size) {
+				long t0 = System.nanoTime();
+				T best = scoreSequentially(scoreables, data);
+				measured(System.nanoTime() - t0, size);
+				return best;
+			}
+
+			final int nJobs = (size + jobSize - 1) / jobSize;
+			final long[] jobNanos = new long[nJobs];
+
+			List<Callable<T>> jobs = new ArrayList<Callable<T>>(nJobs);
+			for (int j = 0; j < nJobs; j++) {
+				final int job = j;
+				final List<T> sub = scoreables.subList(
+						j * jobSize, Math.min((j+1) * jobSize, size));
+				jobs.add(new Callable<T>() {
+					@Override
+					public T call() throws Exception {
+						long t0 = System.nanoTime();
+						T best = scoreSequentially(sub, data);
+						jobNanos[job] = System.nanoTime() - t0;
+						return best;
+					}
+				});
+			}
+
+			T best = null;
+			long totalNanos = 0;
+			List<Future<T>> results = getScoringPool().invokeAll(jobs);
+			for (int j = 0; j < nJobs; j++) {
+				T t = results.get(j).get();
+				totalNanos += jobNanos[j];
+				if (best == null || t.getScore() > best.getScore()) {
+					best = t;
+				}
+			}
+			measured(totalNanos, size);
+			return best;
+		}
+
+	}
+
+}
@@ -56,11 +56,6 @@ import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 
 import edu.cmu.sphinx.decoder.FrameDecoder;
-import edu.cmu.sphinx.decoder.ResultListener;
-import edu.cmu.sphinx.decoder.pruner.Pruner;
-import edu.cmu.sphinx.decoder.pruner.SimplePruner;
-import edu.cmu.sphinx.decoder.scorer.ThreadedAcousticScorer;
-import edu.cmu.sphinx.decoder.search.PartitionActiveListFactory;
 import edu.cmu.sphinx.decoder.search.SimpleBreadthFirstSearchManager;
 import edu.cmu.sphinx.decoder.search.Token;
 import edu.cmu.sphinx.frontend.Data;
@@ -70,9 +65,6 @@ import edu.cmu.sphinx.frontend.util.AudioFileDataSource;
 import edu.cmu.sphinx.frontend.util.Microphone;
 import edu.cmu.sphinx.linguist.SearchState;
 import edu.cmu.sphinx.linguist.SearchStateArc;
-import edu.cmu.sphinx.linguist.acoustic.AcousticModel;
-import edu.cmu.sphinx.linguist.flat.FlatLinguist;
-import edu.cmu.sphinx.util.LogMath;
 import fr.loria.synalp.jtrans.utils.PrintStreamProgressDisplay;
 import fr.loria.synalp.jtrans.utils.ProgressDisplay;
 
@@ -86,6 +78,13 @@ import static fr.loria.synalp.jtrans.speechreco.s4.S4mfccBuffer.getFrontEnd;
  * je veux pouvoir utiliser les memes HMMs dans differentes configurations
  * (forced-align et LVCSR) sans avoir a les recharger.
  * J'utilise donc une approche de type "programmation"
+ * <p/>
+ * The block aligner itself is no longer used: nothing but {@link #main}
+ * calls {@link #getS4Aligner}, and JTrans aligns with
+ * {@link fr.loria.synalp.jtrans.align.Aligner} instead. Only the static
+ * helpers ({@link #hasNonEmittingFinalPath}, {@link #segmentePhonesEnMots}
+ * and {@link #beamwidth}) are still used, by LiveSpeechReco and Menus.
+ * It is therefore not worth pipelining.
  * 
  * @author cerisara
  *
@@ -199,24 +198,13 @@ public class S4ForceAlignBlocViterbi extends Thread {
 		if (decoder==null) {
 			progress.setIndeterminateProgress("Initializing Sphinx...");
 
-			LogMath logMath = HMMModels.getLogMath();
-			AcousticModel mods = HMMModels.getAcousticModels();
-			FlatLinguist linguist = new FlatLinguist(mods, logMath, grammar, HMMModels.getUnitManager(), 1f, silprob, silprob, 1f, 1f, false, false, false, false, 1f, 1f, mods);
-
-			Pruner pruner = new SimplePruner();
-			ThreadedAcousticScorer scorer = new ThreadedAcousticScorer(mfccs, null, 1, false, 1, Thread.NORM_PRIORITY);
-
-			//					PartitionActiveListFactory activeList = new PartitionActiveListFactory(50, 1E-80, logMath);
-			PartitionActiveListFactory activeList = new PartitionActiveListFactory(beamwidth, 1E-300, logMath);
+			S4DecoderFactory factory = new S4DecoderFactory();
+			factory.silprob = silprob;
+			factory.beamwidth = beamwidth;
 
 			// je n'utilise pas un WordBreadth... car on travaille ici avec des phonemes et non des mots !
-			searchManager = new SimpleBreadthFirstSearchManager(logMath, linguist, pruner, scorer, activeList, false, 1E-60, 0, false);
-
-			ArrayList<ResultListener> listeners = new ArrayList<ResultListener>();
-
-			//		decoder = new Decoder(searchManager, true, true, listeners, 50);
-
-			decoder = new FrameDecoder(searchManager, false, true, listeners);
+			searchManager = factory.newSearchManager(grammar, mfccs);
+			decoder = S4DecoderFactory.newDecoder(searchManager);
 
 		} // sinon la grammaire est chargee dynamiquement
 	}
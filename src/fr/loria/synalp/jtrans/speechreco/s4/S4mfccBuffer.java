@@ -46,7 +46,14 @@ package fr.loria.synalp.jtrans.speechreco.s4;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import edu.cmu.sphinx.frontend.*;
 import edu.cmu.sphinx.frontend.feature.DeltasFeatureExtractor;
@@ -57,6 +64,7 @@ import edu.cmu.sphinx.frontend.frequencywarp.MelFrequencyFilterBank;
 import edu.cmu.sphinx.frontend.transform.DiscreteCosineTransform;
 import edu.cmu.sphinx.frontend.transform.DiscreteFourierTransform;
 import edu.cmu.sphinx.frontend.util.AudioFileDataSource;
+import edu.cmu.sphinx.frontend.util.DataUtil;
 import edu.cmu.sphinx.frontend.window.RaisedCosineWindower;
 
 import javax.sound.sampled.AudioInputStream;
@@ -183,16 +191,216 @@ public class S4mfccBuffer extends BaseDataProcessor {
 
 	/**
 	 * Returns all MFCC data in an audio file.
+	 * <p/>
+	 * Features are extracted on {@link #EXTRACTION_THREADS} threads; the
+	 * result is the same as with a single thread.
 	 */
 	public static List<FloatData> getAllData(AudioInputStream audio, boolean withMFCC) {
+		if (EXTRACTION_THREADS > 1) {
+			return getAllDataInChunks(audio, withMFCC, EXTRACTION_THREADS);
+		}
+
+		S4mfccBuffer mfcc = new S4mfccBuffer();
+		mfcc.setSource(getFrontEnd(audio, withMFCC));
+		return mfcc.getAllData();
+	}
+
+
+	/**
+	 * Extracts features in chunks of {@link #CHUNK_FRAMES} frames on a thread
+	 * pool.
+	 * <p/>
+	 * Dithering and preemphasis carry state from one sample to the next, but
+	 * they are cheap: they are run sequentially as the audio is read, exactly
+	 * as in the sequential front end. The samples are then cut into chunks
+	 * that overlap by one window minus one shift, so that each chunk yields
+	 * exactly the frames of the sequential front end; windowing through the
+	 * cepstra are computed independently for each chunk. Only the last chunk
+	 * sees the end of the audio, where the windower pads the last frame.
+	 * <p/>
+	 * Live CMN and deltas depend on the preceding (and following) frames. They
+	 * are cheap too, so they are run sequentially on the stitched frames
+	 * rather than seeded per chunk; the running CMN mean thus doesn't depend
+	 * on the chunk size.
+	 */
+	private static List<FloatData> getAllDataInChunks(
+			AudioInputStream audio, boolean withMFCC, int threads)
+	{
 		AudioFileDataSource afds = new AudioFileDataSource(3200, null);
 		afds.setInputStream(audio, null);
+		List<DataProcessor> signalList = new ArrayList<>();
+		signalList.add(afds);
+		signalList.addAll(getSignalProcessors());
+		FrontEnd signal = new FrontEnd(signalList);
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads,
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "MFCC extraction");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+
+		List<Future<List<Data>>> chunks = new ArrayList<>();
+		List<Data> frames = new ArrayList<>();
+		int collected = 0;
+		int sampleRate = 0;
+
+		try {
+			double[] chunk = null;
+			int fill = 0;
+			long firstSample = 0;
+			int step = 0;
+
+			for (;;) {
+				Data d = signal.getData();
+				if (d == null || d instanceof DataEndSignal) {
+					break;
+				} else if (!(d instanceof DoubleData)) {
+					continue;
+				}
+
+				DoubleData dd = (DoubleData) d;
+
+				if (chunk == null) {
+					sampleRate = dd.getSampleRate();
+					int window = DataUtil.getSamplesPerWindow(sampleRate, WINDOW_SIZE_MS);
+					int shift = DataUtil.getSamplesPerShift(sampleRate, getWindowShiftMs());
+					chunk = new double[(CHUNK_FRAMES-1)*shift + window];
+					step = CHUNK_FRAMES*shift;
+				}
+
+				double[] values = dd.getValues();
+				for (int off = 0; off < values.length; ) {
+					int n = Math.min(values.length - off, chunk.length - fill);
+					System.arraycopy(values, off, chunk, fill, n);
+					off += n;
+					fill += n;
+
+					if (fill == chunk.length) {
+						chunks.add(executor.submit(frameTask(
+								chunk, sampleRate, firstSample, CHUNK_FRAMES, withMFCC)));
+
+						// Carry over the overlap into the next chunk
+						double[] next = new double[chunk.length];
+						fill = chunk.length - step;
+						System.arraycopy(chunk, step, next, 0, fill);
+						chunk = next;
+						firstSample += step;
+
+						// Don't read too far ahead of the workers
+						if (chunks.size() - collected > 2*threads) {
+							frames.addAll(chunks.get(collected++).get());
+						}
+					}
+				}
+			}
+
+			if (chunk != null) {
+				chunks.add(executor.submit(frameTask(
+						Arrays.copyOf(chunk, fill), sampleRate, firstSample, -1, withMFCC)));
+			}
+
+			while (collected < chunks.size()) {
+				frames.addAll(chunks.get(collected++).get());
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new DataProcessingException("feature extraction interrupted");
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else {
+				throw new RuntimeException(cause);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		frames.add(0, new DataStartSignal(sampleRate));
+		frames.add(new DataEndSignal(0));
+
+		List<DataProcessor> contextList = new ArrayList<>();
+		contextList.add(new DataListSource(frames));
+		contextList.addAll(getContextProcessors(withMFCC));
+
 		S4mfccBuffer mfcc = new S4mfccBuffer();
-		mfcc.setSource(getFrontEnd(withMFCC, afds));
+		mfcc.setSource(new FrontEnd(contextList));
 		return mfcc.getAllData();
 	}
 
 
+	/**
+	 * Computes the frames of a chunk of preemphasized samples.
+	 * @param frames number of frames to keep, or -1 to keep all of them
+	 *               (including the padded frame at the end of the audio)
+	 */
+	private static Callable<List<Data>> frameTask(
+			final double[] samples,
+			final int sampleRate,
+			final long firstSample,
+			final int frames,
+			final boolean withMFCC)
+	{
+		return new Callable<List<Data>>() {
+			@Override
+			public List<Data> call() {
+				long time = firstSample * 1000L / sampleRate;
+				List<DataProcessor> list = new ArrayList<>();
+				list.add(new DataListSource(Arrays.asList(
+						new DataStartSignal(sampleRate),
+						new DoubleData(samples, sampleRate, time, firstSample),
+						new DataEndSignal(samples.length * 1000L / sampleRate))));
+				list.addAll(getFrameProcessors(withMFCC));
+				FrontEnd fe = new FrontEnd(list);
+
+				List<Data> out = new ArrayList<>(Math.max(frames, 0));
+				while (frames < 0 || out.size() < frames) {
+					Data d = fe.getData();
+					if (d == null || d instanceof DataEndSignal) {
+						break;
+					} else if (!(d instanceof Signal)) {
+						out.add(d);
+					}
+				}
+				return out;
+			}
+		};
+	}
+
+
+	/**
+	 * Feeds a front end with a fixed sequence of data.
+	 */
+	private static class DataListSource extends BaseDataProcessor {
+		private final List<? extends Data> data;
+		private int next = 0;
+
+		DataListSource(List<? extends Data> data) {
+			this.data = data;
+		}
+
+		@Override
+		public Data getData() {
+			return next < data.size()? data.get(next++): null;
+		}
+	}
+
+
+	/**
+	 * Returns a front end that streams features (MFCC or power spectrum)
+	 * from an audio stream without buffering them.
+	 */
+	public static FrontEnd getFrontEnd(AudioInputStream audio, boolean withMFCC) {
+		AudioFileDataSource afds = new AudioFileDataSource(3200, null);
+		afds.setInputStream(audio, null);
+		return getFrontEnd(withMFCC, afds);
+	}
+
+
 	/**
 	 * Converts a list of FloatData instances to a 2D float array.
 	 */
@@ -216,20 +424,57 @@ public class S4mfccBuffer extends BaseDataProcessor {
 			}
 		}
 
-		frontEndList.add(new Dither(2,false,Double.MAX_VALUE,-Double.MAX_VALUE));
-		frontEndList.add(new DataBlocker(50));
-		frontEndList.add(new Preemphasizer(0.97));
-		frontEndList.add(new RaisedCosineWindower(0.46f, 25.625f, FRAMES_PER_SECOND/10f));
-		frontEndList.add(new DiscreteFourierTransform(512, false));
+		frontEndList.addAll(getSignalProcessors());
+		frontEndList.addAll(getFrameProcessors(withMFCC));
+		frontEndList.addAll(getContextProcessors(withMFCC));
+
+		return new FrontEnd(frontEndList);
+	}
+
 
+	/**
+	 * Processors that work on the raw samples, carrying state from one sample
+	 * to the next.
+	 */
+	private static List<DataProcessor> getSignalProcessors() {
+		return Arrays.<DataProcessor>asList(
+				new Dither(2,false,Double.MAX_VALUE,-Double.MAX_VALUE),
+				new DataBlocker(50),
+				new Preemphasizer(0.97));
+	}
+
+
+	/**
+	 * Processors that turn preemphasized samples into frames. Each frame only
+	 * depends on the samples in its window.
+	 */
+	private static List<DataProcessor> getFrameProcessors(boolean withMFCC) {
+		List<DataProcessor> list = new ArrayList<>();
+		list.add(new RaisedCosineWindower(0.46f, WINDOW_SIZE_MS, getWindowShiftMs()));
+		list.add(new DiscreteFourierTransform(512, false));
 		if (withMFCC) {
-			frontEndList.add(new MelFrequencyFilterBank(133.33334, 6855.4976, 40));
-			frontEndList.add(new DiscreteCosineTransform(40, 13));
-			frontEndList.add(new LiveCMN(12, 100, 160));
-			frontEndList.add(new DeltasFeatureExtractor(3));
+			list.add(new MelFrequencyFilterBank(133.33334, 6855.4976, 40));
+			list.add(new DiscreteCosineTransform(40, 13));
 		}
+		return list;
+	}
 
-		return new FrontEnd(frontEndList);
+
+	/**
+	 * Processors that depend on the neighboring frames.
+	 */
+	private static List<DataProcessor> getContextProcessors(boolean withMFCC) {
+		List<DataProcessor> list = new ArrayList<>();
+		if (withMFCC) {
+			list.add(new LiveCMN(12, 100, 160));
+			list.add(new DeltasFeatureExtractor(3));
+		}
+		return list;
+	}
+
+
+	private static float getWindowShiftMs() {
+		return FRAMES_PER_SECOND/10f;
 	}
 
 	public static FrontEnd getFrontEnd(DataProcessor... sourceList) {
@@ -238,6 +483,19 @@ public class S4mfccBuffer extends BaseDataProcessor {
 
 
 	public static int FRAMES_PER_SECOND = 100;
+
+	private static final float WINDOW_SIZE_MS = 25.625f;
+
+	/**
+	 * Number of threads used to extract features from audio files.
+	 * Set to 1 to use a single front end.
+	 */
+	public static int EXTRACTION_THREADS = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Number of frames extracted by each task when using several threads.
+	 */
+	public static int CHUNK_FRAMES = 1000;
 	
 	/*
 	 * small hack to fix the issue of 0.01s remaining interval
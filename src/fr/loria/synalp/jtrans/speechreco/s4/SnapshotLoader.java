@@ -0,0 +1,338 @@
+package fr.loria.synalp.jtrans.speechreco.s4;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import edu.cmu.sphinx.linguist.acoustic.UnitManager;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.Pool;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.Sphinx3Loader;
+import edu.cmu.sphinx.util.LogMath;
+
+/**
+ * Sphinx3 model loader that caches the parsed parameter pools (means,
+ * variances, mixture weights and transition matrices) in a single binary
+ * snapshot.
+ * <p/>
+ * The first load parses the Sphinx3 files as usual and exports the pools.
+ * Later loads memory-map the snapshot and copy each pool out of it in bulk,
+ * provided the snapshot's checksum still matches the source files and the
+ * loader settings. The senone pool and HMMs are still built by
+ * Sphinx3Loader from these pools and the model definition.
+ * <p/>
+ * Snapshot layout (big endian):
+ * <pre>
+ * int magic, int version, long checksum, int number of pools,
+ * pools: UTF path, int kind (1 = vectors, 2 = matrices),
+ *        int[3] features (-1 if unset), int size,
+ *        entries: vectors: int length, float[length]
+ *                 matrices: int rows, int cols, float[rows*cols]
+ * </pre>
+ */
+public class SnapshotLoader extends Sphinx3Loader {
+
+	public static final int MAGIC = 0x4A54534E; // "JTSN"
+	public static final int VERSION = 1;
+
+	private static final int VECTORS = 1;
+	private static final int MATRICES = 2;
+
+	/** Files hashed into the checksum, relative to the data location. */
+	private static final String[] PARAM_FILES = {
+			"means", "variances", "mixture_weights", "transition_matrices"};
+
+	private final File snapshot;
+	private final String modelName;
+	private final String dataDir;
+
+	/** Pools read from the snapshot, or null to parse the model files. */
+	private Map<String, Pool<?>> cached;
+	/** Pools parsed from the model files, exported after loading. */
+	private final Map<String, Pool<?>> parsed = new LinkedHashMap<>();
+	private long checksum;
+
+
+	public SnapshotLoader(File snapshot, URL location, String model, String dataLocation,
+						  LogMath logMath, UnitManager unitManager,
+						  float distFloor, float mixtureWeightFloor, float varianceFloor,
+						  boolean useCDUnits)
+	{
+		super(location, model, dataLocation, logMath, unitManager,
+				distFloor, mixtureWeightFloor, varianceFloor, useCDUnits);
+		this.snapshot = snapshot;
+		this.modelName = model;
+		this.dataDir = dataLocation;
+	}
+
+
+	/**
+	 * Whether the last {@link #load()} was served from the snapshot.
+	 */
+	public boolean isFromSnapshot() {
+		return cached != null;
+	}
+
+
+	@Override
+	public void load() throws IOException {
+		try {
+			checksum = computeChecksum();
+		} catch (URISyntaxException ex) {
+			throw new IOException(ex);
+		}
+
+		cached = null;
+		if (snapshot.exists()) {
+			try {
+				cached = readSnapshot(snapshot, checksum);
+				if (cached == null) {
+					System.out.println("acoustic model snapshot is stale: " + snapshot);
+				}
+			} catch (IOException ex) {
+				System.err.println("can't read acoustic model snapshot " + snapshot + ": " + ex);
+			}
+		}
+
+		super.load();
+
+		if (cached == null && parsed.size() == PARAM_FILES.length) {
+			try {
+				writeSnapshot(snapshot, checksum, parsed);
+				System.out.println("acoustic model snapshot written: " + snapshot);
+			} catch (IOException ex) {
+				System.err.println("can't write acoustic model snapshot " + snapshot + ": " + ex);
+			}
+		}
+		parsed.clear();
+	}
+
+
+	/**
+	 * CRC32 of the model definition, the parameter files and the settings
+	 * that are baked into the pools.
+	 */
+	private long computeChecksum() throws IOException, URISyntaxException {
+		CRC32 crc = new CRC32();
+		update(crc, modelName);
+		for (String f: PARAM_FILES) {
+			update(crc, dataDir + f);
+		}
+		ByteBuffer settings = ByteBuffer.allocate(16);
+		settings.putFloat(distFloor);
+		settings.putFloat(mixtureWeightFloor);
+		settings.putFloat(varianceFloor);
+		settings.putFloat(logMath.getLogBase());
+		crc.update(settings.array());
+		return crc.getValue();
+	}
+
+
+	private void update(CRC32 crc, String path) throws IOException, URISyntaxException {
+		InputStream in = getDataStream(path);
+		if (in == null) {
+			throw new IOException("can't find " + path);
+		}
+		try {
+			byte[] buf = new byte[1 << 16];
+			for (int n; (n = in.read(buf)) > 0;) {
+				crc.update(buf, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+
+	@SuppressWarnings("unchecked")
+	private <T> Pool<T> cachedPool(String path) throws IOException {
+		Pool<?> pool = cached.get(path);
+		if (pool == null) {
+			throw new IOException("pool missing from snapshot: " + path);
+		}
+		return (Pool<T>) pool;
+	}
+
+
+	@Override
+	protected Pool<float[]> loadDensityFile(String path, float floor)
+			throws IOException, URISyntaxException
+	{
+		if (cached != null) {
+			return cachedPool(path);
+		}
+		Pool<float[]> pool = super.loadDensityFile(path, floor);
+		parsed.put(path, pool);
+		return pool;
+	}
+
+
+	@Override
+	protected Pool<float[]> loadMixtureWeights(String path, float floor)
+			throws IOException, URISyntaxException
+	{
+		if (cached != null) {
+			return cachedPool(path);
+		}
+		Pool<float[]> pool = super.loadMixtureWeights(path, floor);
+		parsed.put(path, pool);
+		return pool;
+	}
+
+
+	@Override
+	protected Pool<float[][]> loadTransitionMatrices(String path)
+			throws IOException, URISyntaxException
+	{
+		if (cached != null) {
+			return cachedPool(path);
+		}
+		Pool<float[][]> pool = super.loadTransitionMatrices(path);
+		parsed.put(path, pool);
+		return pool;
+	}
+
+
+	/**
+	 * Writes pools to a temporary file and renames it over the snapshot.
+	 */
+	static void writeSnapshot(File file, long checksum, Map<String, Pool<?>> pools)
+			throws IOException
+	{
+		File tmp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tmp), 1 << 16)))
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(checksum);
+			out.writeInt(pools.size());
+			for (Map.Entry<String, Pool<?>> e: pools.entrySet()) {
+				Pool<?> pool = e.getValue();
+				Object first = pool.size() > 0? pool.get(0): null;
+				boolean matrices = first instanceof float[][];
+
+				out.writeUTF(e.getKey());
+				out.writeInt(matrices? MATRICES: VECTORS);
+				for (Pool.Feature f: Pool.Feature.values()) {
+					out.writeInt(pool.getFeature(f, -1));
+				}
+				out.writeInt(pool.size());
+
+				for (int i = 0; i < pool.size(); i++) {
+					if (matrices) {
+						float[][] m = (float[][]) pool.get(i);
+						int cols = m.length > 0? m[0].length: 0;
+						out.writeInt(m.length);
+						out.writeInt(cols);
+						for (float[] row: m) {
+							if (row.length != cols) {
+								throw new IOException("ragged matrix in pool " + e.getKey());
+							}
+							for (float v: row) out.writeFloat(v);
+						}
+					} else {
+						float[] v = (float[]) pool.get(i);
+						out.writeInt(v.length);
+						for (float x: v) out.writeFloat(x);
+					}
+				}
+			}
+		}
+
+		if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+			tmp.delete();
+			throw new IOException("can't replace " + file);
+		}
+	}
+
+
+	/**
+	 * Maps a snapshot and copies its pools out.
+	 * @return null if the snapshot was made from other model files
+	 */
+	static Map<String, Pool<?>> readSnapshot(File file, long checksum) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+			 FileChannel ch = raf.getChannel())
+		{
+			ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+
+			if (buf.getInt() != MAGIC) {
+				throw new IOException("not an acoustic model snapshot");
+			}
+			int version = buf.getInt();
+			if (version != VERSION) {
+				throw new IOException("unsupported snapshot version " + version);
+			}
+			if (buf.getLong() != checksum) {
+				return null;
+			}
+
+			Map<String, Pool<?>> pools = new LinkedHashMap<>();
+			int npools = buf.getInt();
+			for (int p = 0; p < npools; p++) {
+				String path = readUTF(buf);
+				int kind = buf.getInt();
+				int[] features = new int[Pool.Feature.values().length];
+				for (int f = 0; f < features.length; f++) {
+					features[f] = buf.getInt();
+				}
+				int size = buf.getInt();
+
+				Pool<Object> pool = new Pool<>(path);
+				for (int i = 0; i < size; i++) {
+					if (kind == MATRICES) {
+						float[][] m = new float[buf.getInt()][buf.getInt()];
+						for (float[] row: m) {
+							getFloats(buf, row);
+						}
+						pool.put(i, m);
+					} else if (kind == VECTORS) {
+						float[] v = new float[buf.getInt()];
+						getFloats(buf, v);
+						pool.put(i, v);
+					} else {
+						throw new IOException("bad pool kind " + kind + " in " + path);
+					}
+				}
+				for (int f = 0; f < features.length; f++) {
+					if (features[f] != -1) {
+						pool.setFeature(Pool.Feature.values()[f], features[f]);
+					}
+				}
+				pools.put(path, pool);
+			}
+			return pools;
+		} catch (RuntimeException ex) {
+			// truncated or corrupt mapping
+			throw new IOException("corrupt acoustic model snapshot", ex);
+		}
+	}
+
+
+	private static void getFloats(ByteBuffer buf, float[] dst) {
+		buf.asFloatBuffer().get(dst);
+		buf.position(buf.position() + dst.length * 4);
+	}
+
+
+	private static String readUTF(ByteBuffer buf) {
+		int len = buf.getShort() & 0xFFFF;
+		byte[] b = new byte[len];
+		buf.get(b);
+		// paths are plain ASCII, for which modified UTF-8 is identical
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,663 @@
+package fr.loria.synalp.jtrans.utils;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts an audio file to 16-bit signed mono PCM in a single streaming
+ * pass, and feeds the converted audio to several consumers ("sinks") at once.
+ * <p/>
+ * Compressed formats (MP3, OGG...) are decoded by the javax.sound SPI chain.
+ * Downmixing and resampling are done here, in the same pass, instead of
+ * chaining SPI conversions.
+ * <p/>
+ * The decoder runs on the calling thread. Each sink runs on its own thread
+ * and reads the converted audio from a bounded queue of blocks, so that a
+ * slow sink only holds up decoding once its queue is full. The converted
+ * audio may also be written to a WAV file as it is being converted.
+ * <p/>
+ * Sinks normally read the mix of all channels, but a sink may also read a
+ * single channel of a multi-channel source (e.g. one speaker per channel).
+ * Each channel is resampled separately, so that all sinks get the same
+ * number of samples.
+ * <p/>
+ * A failing sink normally fails the whole conversion, but optional sinks
+ * (e.g. sinks that only build caches) may fail on their own: their errors
+ * are logged, and the other sinks and the WAV file are unaffected.
+ */
+public class AudioIngest {
+
+	/** Converted frames per block */
+	public static int BLOCK_FRAMES = 8192;
+
+	/** Maximum number of blocks waiting to be consumed by each sink */
+	public static int QUEUE_BLOCKS = 32;
+
+	/** Half-width of the resampling filter, in zero crossings */
+	public static int RESAMPLER_ZERO_CROSSINGS = 16;
+
+	/** Channel index of sinks that read the mix of all channels */
+	public static final int MIX = -1;
+
+	private static final byte[] END_OF_STREAM = new byte[0];
+
+
+	/**
+	 * Consumes converted audio.
+	 */
+	public interface Sink {
+		/**
+		 * Reads the converted audio. Called on a dedicated thread.
+		 * The stream need not be read to the end.
+		 */
+		void consume(AudioInputStream converted) throws Exception;
+
+		/**
+		 * Called on the converting thread once all sinks are done and the
+		 * WAV file, if any, is complete.
+		 * @param wav converted WAV file, or null if none was written
+		 */
+		void done(File wav) throws IOException;
+	}
+
+
+	private final AudioFormat target;
+	private final List<Sink> sinks = new ArrayList<>();
+	private final List<Integer> sinkChannels = new ArrayList<>();
+	private final List<Boolean> sinkOptional = new ArrayList<>();
+
+
+	/**
+	 * @param targetRate sample rate of the converted audio
+	 */
+	public AudioIngest(float targetRate) {
+		target = new AudioFormat(targetRate, 16, 1, true, false);
+	}
+
+
+	public AudioFormat getTargetFormat() {
+		return target;
+	}
+
+
+	public void addSink(Sink sink) {
+		addSink(sink, MIX);
+	}
+
+
+	/**
+	 * Adds a sink that reads a single channel of the source.
+	 * @param channel channel index in the source, or {@link #MIX}
+	 */
+	public void addSink(Sink sink, int channel) {
+		sinks.add(sink);
+		sinkChannels.add(channel);
+		sinkOptional.add(false);
+	}
+
+
+	/**
+	 * Adds a sink that reads the mix of all channels, and whose failures
+	 * don't fail the conversion.
+	 */
+	public void addOptionalSink(Sink sink) {
+		addSink(sink);
+		sinkOptional.set(sinkOptional.size() - 1, true);
+	}
+
+
+	/**
+	 * Returns a sink that writes the converted audio to a WAV file.
+	 */
+	public static Sink wavWriter(final File wav) {
+		return new Sink() {
+			@Override
+			public void consume(AudioInputStream converted) throws IOException {
+				AudioSystem.write(converted, AudioFileFormat.Type.WAVE, wav);
+			}
+
+			@Override
+			public void done(File converted) {
+			}
+		};
+	}
+
+
+	/**
+	 * Converts an audio file and feeds it to the sinks.
+	 * @param wav if not null, the converted audio is also written to this file
+	 * @throws IOException if the file can't be read, if it lacks a channel
+	 * read by a sink, or if a sink that isn't optional fails
+	 */
+	public void run(File source, final File wav)
+			throws IOException, UnsupportedAudioFileException
+	{
+		List<Channel> channels = new ArrayList<>();
+
+		try (AudioInputStream in = decode(AudioSystem.getAudioInputStream(source))) {
+			int sourceChannels = in.getFormat().getChannels();
+
+			if (wav != null) {
+				channels.add(new Channel(wavWriter(wav), "WAV writer", MIX, false));
+			}
+
+			for (int i = 0; i < sinks.size(); i++) {
+				int ch = sinkChannels.get(i);
+				if (ch != MIX && (ch < 0 || ch >= sourceChannels)) {
+					throw new IOException(source + " has no channel " + ch
+							+ " (" + sourceChannels + " channels)");
+				}
+				channels.add(new Channel(sinks.get(i), "Audio sink " + channels.size(),
+						ch, sinkOptional.get(i)));
+			}
+
+			for (Channel c: channels) {
+				c.start();
+			}
+
+			try {
+				convert(in, channels);
+			} catch (InterruptedException ex) {
+				throw new IOException("Interrupted while converting " + source, ex);
+			} finally {
+				for (Channel c: channels) {
+					c.close();
+				}
+			}
+		}
+
+		for (Channel c: channels) {
+			try {
+				c.join();
+			} catch (InterruptedException ex) {
+				throw new IOException("Interrupted while converting " + source, ex);
+			}
+			if (c.error != null && !c.optional) {
+				throw new IOException(c.getName() + " failed", c.error);
+			}
+		}
+
+		for (Channel c: channels) {
+			if (c.error != null) {
+				System.err.println(c.getName() + " failed, ignoring it");
+				c.error.printStackTrace();
+				continue;
+			}
+
+			try {
+				c.sink.done(wav);
+			} catch (IOException ex) {
+				if (!c.optional) {
+					throw ex;
+				}
+				System.err.println(c.getName() + " failed, ignoring it");
+				ex.printStackTrace();
+			}
+		}
+	}
+
+
+	/**
+	 * Returns a PCM stream at the source's rate and channel count.
+	 */
+	private static AudioInputStream decode(AudioInputStream in) {
+		AudioFormat fmt = in.getFormat();
+		AudioFormat.Encoding enc = fmt.getEncoding();
+
+		if ((enc == AudioFormat.Encoding.PCM_SIGNED
+				|| enc == AudioFormat.Encoding.PCM_UNSIGNED)
+				&& fmt.getSampleSizeInBits() != AudioSystem.NOT_SPECIFIED)
+		{
+			return in;
+		}
+
+		// Formats with an unknown sample size (such as OGG and MP3) must be
+		// decoded to a fixed sample size while keeping the sample rate and
+		// channel count intact.
+		return AudioSystem.getAudioInputStream(
+				new AudioFormat(fmt.getSampleRate(), 16, fmt.getChannels(), true, false),
+				in);
+	}
+
+
+	/**
+	 * Downmixes (or splits) and resamples a PCM stream, and hands out blocks
+	 * of converted audio to the channels.
+	 */
+	private void convert(AudioInputStream in, List<Channel> channels)
+			throws IOException, InterruptedException
+	{
+		AudioFormat fmt = in.getFormat();
+		SampleReader reader = new SampleReader(fmt);
+
+		// Only convert the mix and the source channels that are actually read
+		Map<Integer, Route> routes = new TreeMap<>();
+		for (Channel c: channels) {
+			Route r = routes.get(c.source);
+			if (r == null) {
+				r = new Route(c.source, fmt.getSampleRate(), target.getSampleRate());
+				routes.put(c.source, r);
+			}
+			r.channels.add(c);
+		}
+
+		int frameSize = fmt.getFrameSize();
+		byte[] buf = new byte[frameSize * Route.FRAMES];
+		int leftover = 0;
+
+		for (;;) {
+			int n = in.read(buf, leftover, buf.length - leftover);
+			if (n < 0) {
+				break;
+			}
+			n += leftover;
+
+			int frames = n / frameSize;
+			for (Route r: routes.values()) {
+				if (r.source == MIX) {
+					reader.downmix(buf, frames, r.in);
+				} else {
+					reader.extract(buf, frames, r.source, r.in);
+				}
+				r.writer.write(r.out, r.resampler.process(r.in, frames, r.out));
+			}
+
+			leftover = n - frames * frameSize;
+			System.arraycopy(buf, frames * frameSize, buf, 0, leftover);
+		}
+
+		// Let the resamplers output the tail of the input
+		for (Route r: routes.values()) {
+			r.writer.write(r.out, r.resampler.flush(r.out));
+			r.writer.finish();
+		}
+	}
+
+
+	/**
+	 * Conversion state of the mix or of a single source channel, shared by
+	 * the channels that read it.
+	 */
+	private static class Route {
+		/** Source frames converted at once */
+		static final int FRAMES = 4096;
+
+		final int source;
+		final List<Channel> channels = new ArrayList<>();
+		final Resampler resampler;
+		final BlockWriter writer = new BlockWriter(channels);
+		final float[] in = new float[FRAMES];
+		final float[] out;
+
+		Route(int source, float inRate, float outRate) {
+			this.source = source;
+			resampler = new Resampler(inRate, outRate);
+			out = new float[resampler.maxOutput(FRAMES)];
+		}
+	}
+
+
+	/**
+	 * Packs converted samples into blocks and hands them to the channels.
+	 * Blocks are never modified once handed out, so they are shared by all
+	 * channels.
+	 */
+	private static class BlockWriter {
+		final List<Channel> channels;
+		byte[] block = new byte[BLOCK_FRAMES * 2];
+		int pos = 0;
+
+		BlockWriter(List<Channel> channels) {
+			this.channels = channels;
+		}
+
+		void write(float[] samples, int count) throws InterruptedException {
+			for (int i = 0; i < count; i++) {
+				if (pos == block.length) {
+					publish(block);
+					block = new byte[BLOCK_FRAMES * 2];
+					pos = 0;
+				}
+				int s = toShort(samples[i]);
+				block[pos++] = (byte) s;
+				block[pos++] = (byte) (s >> 8);
+			}
+		}
+
+		void finish() throws InterruptedException {
+			if (pos > 0) {
+				byte[] last = new byte[pos];
+				System.arraycopy(block, 0, last, 0, pos);
+				publish(last);
+			}
+		}
+
+		private void publish(byte[] b) throws InterruptedException {
+			for (Channel c: channels) {
+				c.put(b);
+			}
+		}
+	}
+
+
+	private static int toShort(float sample) {
+		int s = Math.round(sample * 32768f);
+		if (s > Short.MAX_VALUE) {
+			return Short.MAX_VALUE;
+		} else if (s < Short.MIN_VALUE) {
+			return Short.MIN_VALUE;
+		}
+		return s;
+	}
+
+
+	/**
+	 * Runs a sink on its own thread, fed by a bounded queue.
+	 */
+	private class Channel extends Thread {
+		final Sink sink;
+
+		/** Source channel read by the sink, or {@link #MIX} */
+		final int source;
+
+		/** If true, failures of the sink don't fail the conversion */
+		final boolean optional;
+
+		final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(QUEUE_BLOCKS);
+
+		/** Set once the sink has stopped reading */
+		volatile boolean finished = false;
+
+		volatile Exception error;
+
+		Channel(Sink sink, String name, int source, boolean optional) {
+			super(name);
+			setDaemon(true);
+			this.sink = sink;
+			this.source = source;
+			this.optional = optional;
+		}
+
+		void put(byte[] block) throws InterruptedException {
+			// Don't wait on sinks that stopped reading
+			while (!finished && !queue.offer(block, 100, TimeUnit.MILLISECONDS)) {
+			}
+		}
+
+		void close() {
+			try {
+				put(END_OF_STREAM);
+			} catch (InterruptedException ex) {
+				interrupt();
+			}
+		}
+
+		@Override
+		public void run() {
+			InputStream blocks = new InputStream() {
+				byte[] cur = null;
+				int pos = 0;
+
+				private boolean fill() throws IOException {
+					if (cur == END_OF_STREAM) {
+						return false;
+					}
+					while (cur == null || pos == cur.length) {
+						try {
+							cur = queue.take();
+						} catch (InterruptedException ex) {
+							throw new IOException(ex);
+						}
+						pos = 0;
+						if (cur == END_OF_STREAM) {
+							return false;
+						}
+					}
+					return true;
+				}
+
+				@Override
+				public int read() throws IOException {
+					return fill()? cur[pos++] & 0xFF: -1;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					if (len == 0) {
+						return 0;
+					}
+					if (!fill()) {
+						return -1;
+					}
+					int n = Math.min(len, cur.length - pos);
+					System.arraycopy(cur, pos, b, off, n);
+					pos += n;
+					return n;
+				}
+			};
+
+			try {
+				sink.consume(new AudioInputStream(
+						blocks, target, AudioSystem.NOT_SPECIFIED));
+			} catch (Exception ex) {
+				error = ex;
+			} finally {
+				finished = true;
+				queue.clear();
+			}
+		}
+	}
+
+
+	/**
+	 * Reads PCM frames of any sample size, signedness and endianness, and
+	 * averages their channels or extracts one of them.
+	 */
+	static class SampleReader {
+		final int bytesPerSample;
+		final int channels;
+		final boolean bigEndian;
+		final boolean signed;
+		final float scale;
+		final float mixScale;
+
+		SampleReader(AudioFormat fmt) {
+			bytesPerSample = (fmt.getSampleSizeInBits() + 7) / 8;
+			channels = fmt.getChannels();
+			bigEndian = fmt.isBigEndian();
+			signed = fmt.getEncoding() == AudioFormat.Encoding.PCM_SIGNED;
+			scale = 1f / (float) (1L << (8 * bytesPerSample - 1));
+			mixScale = 1f / (channels * (float) (1L << (8 * bytesPerSample - 1)));
+		}
+
+		/**
+		 * @param out receives one sample in [-1,1) per frame
+		 */
+		void downmix(byte[] buf, int frames, float[] out) {
+			int p = 0;
+			for (int f = 0; f < frames; f++) {
+				long sum = 0;
+				for (int c = 0; c < channels; c++) {
+					sum += sample(buf, p);
+					p += bytesPerSample;
+				}
+				out[f] = sum * mixScale;
+			}
+		}
+
+		/**
+		 * @param out receives one sample of the given channel in [-1,1)
+		 *            per frame
+		 */
+		void extract(byte[] buf, int frames, int channel, float[] out) {
+			int frameSize = channels * bytesPerSample;
+			int p = channel * bytesPerSample;
+			for (int f = 0; f < frames; f++) {
+				out[f] = sample(buf, p) * scale;
+				p += frameSize;
+			}
+		}
+
+		private long sample(byte[] buf, int p) {
+			long v = 0;
+			for (int b = 0; b < bytesPerSample; b++) {
+				int shift = 8 * (bigEndian? bytesPerSample-1-b: b);
+				v |= (buf[p + b] & 0xFFL) << shift;
+			}
+			int bits = 8 * bytesPerSample;
+			if (signed) {
+				// sign-extend
+				v = (v << (64 - bits)) >> (64 - bits);
+			} else {
+				v -= 1L << (bits - 1);
+			}
+			return v;
+		}
+	}
+
+
+	/**
+	 * Streaming band-limited resampler (windowed sinc, with the cutoff set to
+	 * the lower of the two Nyquist frequencies). The kernel is tabulated and
+	 * linearly interpolated.
+	 */
+	static class Resampler {
+		private static final int TABLE_STEPS = 256;
+
+		private final boolean passthrough;
+
+		/** Input samples per output sample */
+		private final double step;
+
+		/** Half-width of the kernel, in input samples */
+		private final int halfWidth;
+
+		/** Kernel sampled every 1/TABLE_STEPS input samples, from 0 */
+		private final float[] table;
+
+		/** Pending input; history[0] is input sample #historyStart */
+		private float[] history = new float[1024];
+		private int historyLength = 0;
+		private long historyStart;
+
+		/** Position of the next output sample, in input samples */
+		private double time = 0;
+
+		private long inputCount = 0;
+		private long outputCount = 0;
+
+		Resampler(float inRate, float outRate) {
+			passthrough = inRate == outRate;
+			step = inRate / (double) outRate;
+
+			double cutoff = Math.min(1, outRate / (double) inRate);
+			halfWidth = (int) Math.ceil(RESAMPLER_ZERO_CROSSINGS / cutoff);
+			table = new float[halfWidth * TABLE_STEPS + 2];
+
+			for (int i = 0; i < table.length; i++) {
+				double x = i / (double) TABLE_STEPS;
+				double sinc = x == 0? 1: Math.sin(Math.PI * cutoff * x) / (Math.PI * cutoff * x);
+				double w = x >= halfWidth? 0: 0.5 + 0.5 * Math.cos(Math.PI * x / halfWidth);
+				table[i] = (float) (cutoff * sinc * w);
+			}
+
+			// Center the first output sample on the first input sample
+			historyStart = -halfWidth;
+			historyLength = halfWidth;
+		}
+
+		/**
+		 * Returns an upper bound on the number of output samples of
+		 * {@link #process} for the given number of input samples, or of
+		 * {@link #flush}. Pending input never exceeds twice the kernel's
+		 * half-width.
+		 */
+		int maxOutput(int inputCount) {
+			return (int) Math.ceil((inputCount + 3 * halfWidth) / step) + 1;
+		}
+
+		/**
+		 * @return number of output samples
+		 */
+		int process(float[] in, int count, float[] out) {
+			inputCount += count;
+
+			if (passthrough) {
+				System.arraycopy(in, 0, out, 0, count);
+				return count;
+			}
+
+			if (historyLength + count > history.length) {
+				float[] h = new float[Math.max(2 * history.length, historyLength + count)];
+				System.arraycopy(history, 0, h, 0, historyLength);
+				history = h;
+			}
+			System.arraycopy(in, 0, history, historyLength, count);
+			historyLength += count;
+
+			long available = historyStart + historyLength;
+			int n = 0;
+
+			while ((long) Math.floor(time) + halfWidth < available) {
+				long center = (long) Math.floor(time);
+				float acc = 0;
+
+				for (long k = center - halfWidth + 1; k <= center + halfWidth; k++) {
+					double x = Math.abs(time - k) * TABLE_STEPS;
+					int i = (int) x;
+					float t = (float) (x - i);
+					float h = table[i] + t * (table[i+1] - table[i]);
+					acc += history[(int) (k - historyStart)] * h;
+				}
+
+				out[n++] = acc;
+				time += step;
+			}
+
+			// Drop samples that won't be needed anymore
+			long keepFrom = (long) Math.floor(time) - halfWidth + 1;
+			int drop = (int) Math.max(0, Math.min(historyLength, keepFrom - historyStart));
+			System.arraycopy(history, drop, history, 0, historyLength - drop);
+			historyLength -= drop;
+			historyStart += drop;
+
+			outputCount += n;
+			return n;
+		}
+
+
+		/**
+		 * Outputs the samples that were waiting for more input, as if the
+		 * input were followed by silence.
+		 * @param out must hold at least {@code maxOutput(0)} samples
+		 * @return number of output samples
+		 */
+		int flush(float[] out) {
+			if (passthrough) {
+				return 0;
+			}
+
+			long expected = (long) Math.ceil(inputCount / step);
+			long before = inputCount;
+			int n = process(new float[halfWidth], halfWidth, out);
+			inputCount = before;
+			n = (int) Math.max(0, Math.min(n, expected - (outputCount - n)));
+			outputCount = expected;
+			return n;
+		}
+	}
+
+}
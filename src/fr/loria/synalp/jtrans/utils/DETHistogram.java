@@ -0,0 +1,126 @@
+package fr.loria.synalp.jtrans.utils;
+
+/**
+ * Detection error tradeoff statistics kept in fixed-width score bins.
+ * <p/>
+ * Unlike {@link DET}, scores are not stored: memory is constant, updates
+ * are O(1), and histograms built on separate threads can be merged.
+ * Thresholds are restricted to bin edges, so the EER is accurate to within
+ * the spread of scores in one bin.
+ * <p/>
+ * Scores outside [min, max] fall into the first or last bin.
+ */
+public class DETHistogram {
+
+	/** Default number of bins. */
+	public static int BINS = 1000;
+
+	private final float min;
+	private final float max;
+	private final long[] good;
+	private final long[] bad;
+
+
+	/**
+	 * Histogram of scores in [0, 1] (e.g. word confidences).
+	 */
+	public DETHistogram() {
+		this(0, 1, BINS);
+	}
+
+
+	public DETHistogram(float min, float max, int bins) {
+		if (!(max > min) || bins < 1) {
+			throw new IllegalArgumentException("bad histogram range: "
+					+ min + ".." + max + " in " + bins + " bins");
+		}
+		this.min = min;
+		this.max = max;
+		good = new long[bins];
+		bad = new long[bins];
+	}
+
+
+	private int bin(float score) {
+		int b = (int)((score - min) / (max - min) * good.length);
+		return Math.max(0, Math.min(good.length - 1, b));
+	}
+
+
+	public void updateExample(boolean isGood, float score) {
+		if (isGood) {
+			good[bin(score)]++;
+		} else {
+			bad[bin(score)]++;
+		}
+	}
+
+
+	/**
+	 * Adds the counts of another histogram, which must have the same bins.
+	 */
+	public void merge(DETHistogram other) {
+		if (other.min != min || other.max != max || other.good.length != good.length) {
+			throw new IllegalArgumentException("histograms have different bins");
+		}
+		for (int i = 0; i < good.length; i++) {
+			good[i] += other.good[i];
+			bad[i] += other.bad[i];
+		}
+	}
+
+
+	public long getNex() {
+		long n = 0;
+		for (int i = 0; i < good.length; i++) {
+			n += good[i] + bad[i];
+		}
+		return n;
+	}
+
+
+	/**
+	 * Equal error rate. Examples in bins below the threshold are rejected;
+	 * the EER is interpolated between the last threshold where the false
+	 * rejection rate is below the false acceptance rate and the next one.
+	 * @return NaN if there are no good or no bad examples
+	 */
+	public float computeEER() {
+		long totalGood = 0, totalBad = 0;
+		for (int i = 0; i < good.length; i++) {
+			totalGood += good[i];
+			totalBad += bad[i];
+		}
+		if (totalGood == 0 || totalBad == 0) {
+			return Float.NaN;
+		}
+
+		// Threshold 0: everything is accepted
+		float prevFr = 0, prevFa = 1;
+		long rejectedGood = 0, rejectedBad = 0;
+
+		for (int k = 1; k <= good.length; k++) {
+			rejectedGood += good[k-1];
+			rejectedBad += bad[k-1];
+			float fr = (float)rejectedGood / (float)totalGood;
+			float fa = (float)(totalBad - rejectedBad) / (float)totalBad;
+
+			if (fr >= fa) {
+				// Intersect the segment between both points with fr = fa
+				float dfr = fr - prevFr;
+				float dfa = fa - prevFa;
+				if (dfr - dfa == 0) {
+					return fr;
+				}
+				float t = (prevFa - prevFr) / (dfr - dfa);
+				return prevFr + t * dfr;
+			}
+
+			prevFr = fr;
+			prevFa = fa;
+		}
+
+		return prevFr;
+	}
+
+}
@@ -1,14 +1,28 @@
 package fr.loria.synalp.jtrans.utils;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 
 import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.DataLine;
 import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.SourceDataLine;
 
+/**
+ * Plays back PCM WAV files.
+ * <p/>
+ * The sample data is memory-mapped once per file, so that seeking anywhere
+ * in the file merely slices the mapped buffer instead of re-reading the file
+ * from the start. The current position is read from the audio line, so it
+ * reflects what has actually been played rather than what has been written
+ * to the line.
+ */
 public class Player {
 
 	private static final int BUFFER_SIZE = 4096;
@@ -16,27 +30,139 @@ public class Player {
 	/** Must be {@code null} when not playing back */
 	private PlaybackThread thread = null;
 
+	/** Currently mapped file */
+	private File mappedFile = null;
+	private long mappedFileModified;
+	private ByteBuffer samples;
+	private AudioFormat format;
 
-	public void play(final AudioInputStream audioStream)
-			throws LineUnavailableException
+	/** Frame position at which playback stopped, for when no line is open */
+	private long stoppedFrame = 0;
+
+
+	/**
+	 * Memory-maps the sample data of a PCM WAV file, unless it is already
+	 * mapped.
+	 */
+	private void map(File file) throws IOException {
+		if (file.equals(mappedFile) && file.lastModified() == mappedFileModified) {
+			return;
+		}
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+
+			channel.read(header, 0);
+			header.flip();
+			if (header.remaining() < 12
+					|| header.getInt(0) != 0x46464952   // "RIFF"
+					|| header.getInt(8) != 0x45564157)  // "WAVE"
+			{
+				throw new IOException("Not a WAV file: " + file);
+			}
+
+			long pos = 12;
+			AudioFormat fmt = null;
+			long dataOffset = -1;
+			long dataLength = 0;
+
+			while (pos + 8 <= channel.size()) {
+				header.clear();
+				channel.read(header, pos);
+				int id = header.getInt(0);
+				long len = header.getInt(4) & 0xFFFFFFFFL;
+
+				if (id == 0x20746D66) { // "fmt "
+					int tag = header.getShort(8) & 0xFFFF;
+					int channels = header.getShort(10);
+					int rate = header.getInt(12);
+					int bits = header.getShort(22);
+					if (tag != 1) {
+						throw new IOException("Not PCM: " + file);
+					}
+					fmt = new AudioFormat(rate, bits, channels, bits > 8, false);
+				} else if (id == 0x61746164) { // "data"
+					dataOffset = pos + 8;
+					dataLength = Math.min(len, channel.size() - dataOffset);
+					break;
+				}
+
+				pos += 8 + len + (len & 1);
+			}
+
+			if (fmt == null || dataOffset < 0) {
+				throw new IOException("Missing WAV chunks in " + file);
+			}
+
+			if (dataLength > Integer.MAX_VALUE) {
+				throw new IOException("WAV file too large to map: " + file);
+			}
+
+			MappedByteBuffer mapped = channel.map(
+					FileChannel.MapMode.READ_ONLY, dataOffset, dataLength);
+
+			samples = mapped;
+			format = fmt;
+			mappedFile = file;
+			mappedFileModified = file.lastModified();
+		}
+	}
+
+
+	/**
+	 * Starts playing back a PCM WAV file from the given sample frame.
+	 * Any ongoing playback is stopped first.
+	 */
+	public void play(File wav, long startFrame)
+			throws IOException, LineUnavailableException
 	{
 		if (isPlaying()) {
 			stop();
 		}
 
-		AudioFormat format = audioStream.getFormat();
-		DataLine.Info info = new DataLine.Info(SourceDataLine.class, format);
-		final SourceDataLine audioLine = (SourceDataLine) AudioSystem.getLine(info);
+		map(wav);
+
+		int frameSize = format.getFrameSize();
+		long frameCount = samples.capacity() / frameSize;
+		startFrame = Math.max(0, Math.min(startFrame, frameCount));
 
-		audioLine.open(format);
+		ByteBuffer slice = samples.duplicate();
+		slice.position((int) (startFrame * frameSize));
+
+		SourceDataLine audioLine = openLine(format);
 		audioLine.start();
 
 		assert null == thread;
-		thread = new PlaybackThread(audioStream, audioLine);
+		stoppedFrame = startFrame;
+		thread = new PlaybackThread(slice, audioLine, startFrame);
 		thread.start();
 	}
 
 
+	/**
+	 * Opens an audio line for the given format.
+	 */
+	SourceDataLine openLine(AudioFormat format) throws LineUnavailableException {
+		DataLine.Info info = new DataLine.Info(SourceDataLine.class, format);
+		SourceDataLine line = (SourceDataLine) AudioSystem.getLine(info);
+		line.open(format);
+		return line;
+	}
+
+
+	/**
+	 * Starts playing back a PCM WAV file from the given time.
+	 * @see #play(File, long)
+	 */
+	public void playFromSecond(File wav, float startSec)
+			throws IOException, LineUnavailableException
+	{
+		map(wav);
+		play(wav, Math.round(startSec * format.getFrameRate()));
+	}
+
+
 	public void stop() {
 		if (!isPlaying()) {
 			return;
@@ -51,6 +177,7 @@ public class Player {
 			ex.printStackTrace();
 		}
 
+		stoppedFrame = thread.endFrame;
 		thread = null;
 	}
 
@@ -60,39 +187,72 @@ public class Player {
 	}
 
 
+	/**
+	 * Returns the sample frame being heard, as reported by the audio line.
+	 * When playback is stopped, returns the frame at which it stopped.
+	 */
+	public long getFramePosition() {
+		PlaybackThread t = thread;
+		return t == null? stoppedFrame: t.getFramePosition();
+	}
+
+
+	/**
+	 * Returns the position being heard, in seconds.
+	 * @see #getFramePosition()
+	 */
+	public float getSecondPosition() {
+		return format == null? 0: getFramePosition() / format.getFrameRate();
+	}
+
+
 	private class PlaybackThread extends Thread {
 
-		private boolean stop = false;
-		private AudioInputStream stream;
-		private SourceDataLine line;
+		private volatile boolean stop = false;
+		private final ByteBuffer source;
+		private final SourceDataLine line;
+		private final long startFrame;
+		private volatile long endFrame;
+		private volatile boolean done = false;
 
-		public PlaybackThread(AudioInputStream ais, SourceDataLine sdl) {
-			stream = ais;
+		public PlaybackThread(ByteBuffer src, SourceDataLine sdl, long start) {
+			super("Playback");
+			setDaemon(true);
+			source = src;
 			line = sdl;
+			startFrame = start;
+			endFrame = start;
 		}
 
 		public void scheduleStop() {
 			stop = true;
+			// unblock write() right away
+			line.stop();
+			line.flush();
+		}
+
+		long getFramePosition() {
+			return done? endFrame: startFrame + line.getLongFramePosition();
 		}
 
 		@Override
 		public void run() {
 			byte[] buf = new byte[BUFFER_SIZE];
-			int read;
 
-			try {
-				while (!stop && (read = stream.read(buf)) >= 0) {
-					line.write(buf, 0, read);
-				}
+			while (!stop && source.hasRemaining()) {
+				int n = Math.min(buf.length, source.remaining());
+				source.get(buf, 0, n);
+				line.write(buf, 0, n);
+			}
 
+			if (!stop) {
 				line.drain();
-				line.close();
-				stream.close();
-			} catch (IOException ex) {
-				ex.printStackTrace();
 			}
+			endFrame = getFramePosition();
+			done = true;
+			line.close();
 		}
 
 	}
 
-}
\ No newline at end of file
+}
@@ -366,8 +366,8 @@ public class SuiteDeMots {
 	 */
 	public void align(SuiteDeMots second) {
 		targetLink = second;
-		JDiff diff = new JDiff(mots,second.mots);
-		JDiff.change c = diff.diff_2(false);
+		WordDiff ids = new WordDiff();
+		JDiff.change c = WordDiff.diff(ids.intern(mots), ids.intern(second.mots));
 		ArrayList<Integer> align = JDiff.getAlignement(c);
 		linkedTo = new ArrayList<Integer>();
 		int pos1=0, pos2=0;
@@ -0,0 +1,233 @@
+package fr.loria.synalp.jtrans.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compares word sequences on interned integer ids.
+ * <p/>
+ * Words are interned once (typically once per corpus, after normalization);
+ * comparisons then never hash or compare strings.
+ * <ul>
+ *     <li>When only the number of errors is needed, the Levenshtein distance
+ *     is computed with Hyyrö's block-based bit-vector algorithm, in
+ *     O(ceil(m/64)·n) word operations.</li>
+ *     <li>When an alignment is needed, {@link JDiff} runs on the ids.</li>
+ * </ul>
+ * An instance holds a vocabulary and is not thread-safe; the static methods
+ * are.
+ */
+public class WordDiff {
+
+	/** Number of threads used by the batch methods. */
+	public static int THREADS = Runtime.getRuntime().availableProcessors();
+
+	private final HashMap<String, Integer> vocabulary = new HashMap<>();
+
+
+	public int intern(String word) {
+		Integer id = vocabulary.get(word);
+		if (id == null) {
+			id = vocabulary.size();
+			vocabulary.put(word, id);
+		}
+		return id;
+	}
+
+
+	public int[] intern(String[] words) {
+		int[] ids = new int[words.length];
+		for (int i = 0; i < words.length; i++) {
+			ids[i] = intern(words[i]);
+		}
+		return ids;
+	}
+
+
+	public int getVocabularySize() {
+		return vocabulary.size();
+	}
+
+
+	/**
+	 * Edit script between two sequences of ids, as computed by JDiff on
+	 * the original words.
+	 */
+	public static JDiff.change diff(int[] a, int[] b) {
+		return new JDiff(a, b).diff_2(false);
+	}
+
+
+	/**
+	 * Levenshtein distance (substitutions, deletions and insertions all cost
+	 * 1) between a reference and a hypothesis.
+	 */
+	public static int editDistance(int[] ref, int[] hyp) {
+		final int m = ref.length;
+		if (m == 0) {
+			return hyp.length;
+		}
+		if (hyp.length == 0) {
+			return m;
+		}
+
+		final int blocks = (m + 63) >>> 6;
+		final int lastBit = (m - 1) & 63;
+
+		// Match vectors of each distinct reference word
+		int[] symbols = distinct(ref);
+		long[][] peq = new long[symbols.length][blocks];
+		for (int i = 0; i < m; i++) {
+			int s = Arrays.binarySearch(symbols, ref[i]);
+			peq[s][i >>> 6] |= 1L << (i & 63);
+		}
+
+		long[] pv = new long[blocks];
+		long[] mv = new long[blocks];
+		Arrays.fill(pv, -1L);
+		int score = m;
+
+		for (int c: hyp) {
+			int s = Arrays.binarySearch(symbols, c);
+			long[] eqs = s >= 0? peq[s]: null;
+
+			// Distance grows by 1 per hypothesis word in row 0
+			int hin = 1;
+
+			for (int b = 0; b < blocks; b++) {
+				long eq = eqs == null? 0: eqs[b];
+				long pvb = pv[b];
+				long mvb = mv[b];
+				long hinNeg = hin < 0? 1: 0;
+
+				long xv = eq | mvb;
+				eq |= hinNeg;
+				long xh = (((eq & pvb) + pvb) ^ pvb) | eq;
+				long ph = mvb | ~(xh | pvb);
+				long mh = pvb & xh;
+
+				int bit = b == blocks-1? lastBit: 63;
+				int hout = (int)((ph >>> bit) & 1) - (int)((mh >>> bit) & 1);
+
+				ph = (ph << 1) | (hin > 0? 1: 0);
+				mh = (mh << 1) | hinNeg;
+				pv[b] = mh | ~(xv | ph);
+				mv[b] = ph & xv;
+
+				hin = hout;
+			}
+
+			score += hin;
+		}
+
+		return score;
+	}
+
+
+	private static int[] distinct(int[] ids) {
+		int[] sorted = ids.clone();
+		Arrays.sort(sorted);
+		int n = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (i == 0 || sorted[i] != sorted[i-1]) {
+				sorted[n++] = sorted[i];
+			}
+		}
+		return Arrays.copyOf(sorted, n);
+	}
+
+
+	/**
+	 * Interns a whole corpus, then computes the edit distance of each
+	 * utterance pair in parallel.
+	 * @return edit distance of each pair
+	 */
+	public int[] editDistances(List<String[]> refs, List<String[]> hyps)
+			throws InterruptedException
+	{
+		if (refs.size() != hyps.size()) {
+			throw new IllegalArgumentException("reference/hypothesis count mismatch: "
+					+ refs.size() + " vs " + hyps.size());
+		}
+
+		final List<int[]> refIds = new ArrayList<>(refs.size());
+		final List<int[]> hypIds = new ArrayList<>(hyps.size());
+		for (int i = 0; i < refs.size(); i++) {
+			refIds.add(intern(refs.get(i)));
+			hypIds.add(intern(hyps.get(i)));
+		}
+
+		return editDistancesOfIds(refIds, hypIds);
+	}
+
+
+	/**
+	 * Computes the edit distance of each pair of interned sequences in
+	 * parallel.
+	 */
+	public static int[] editDistancesOfIds(final List<int[]> refs, final List<int[]> hyps)
+			throws InterruptedException
+	{
+		final int n = refs.size();
+		final int[] distances = new int[n];
+		final int threads = Math.max(1, Math.min(THREADS, n));
+
+		if (threads == 1) {
+			for (int i = 0; i < n; i++) {
+				distances[i] = editDistance(refs.get(i), hyps.get(i));
+			}
+			return distances;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Callable<Void>> jobs = new ArrayList<>(threads);
+			for (int t = 0; t < threads; t++) {
+				final int first = t;
+				jobs.add(new Callable<Void>() {
+					@Override
+					public Void call() {
+						for (int i = first; i < n; i += threads) {
+							distances[i] = editDistance(refs.get(i), hyps.get(i));
+						}
+						return null;
+					}
+				});
+			}
+			for (Future<Void> f: pool.invokeAll(jobs)) {
+				f.get();
+			}
+		} catch (ExecutionException ex) {
+			throw new RuntimeException(ex.getCause());
+		} finally {
+			pool.shutdown();
+		}
+
+		return distances;
+	}
+
+
+	/**
+	 * Word error rate of a corpus: total edit distance over total reference
+	 * length.
+	 */
+	public float wer(List<String[]> refs, List<String[]> hyps)
+			throws InterruptedException
+	{
+		int[] d = editDistances(refs, hyps);
+		long errors = 0, words = 0;
+		for (int i = 0; i < d.length; i++) {
+			errors += d[i];
+			words += refs.get(i).length;
+		}
+		return (float)errors / (float)words;
+	}
+
+}
@@ -0,0 +1,186 @@
+package fr.loria.synalp.jtrans.utils.spantable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SpanModel backed by primitive arrays.
+ * <p/>
+ * Span bounds are stored in parallel int arrays, and every covered cell
+ * points to its span through a per-column table. Looking up the span of a
+ * cell takes constant time and adding a span takes time proportional to its
+ * area, whereas DefaultSpanModel scans all spans in both cases.
+ */
+public class IndexedSpanModel implements SpanModel {
+
+	private int count;
+	private int[] rows = new int[16];
+	private int[] columns = new int[16];
+	private int[] heights = new int[16];
+	private int[] widths = new int[16];
+	private int[] activeRows = new int[16];
+	private int[] activeColumns = new int[16];
+
+	/** cellSpans[column][row] = index of the span covering the cell + 1, or 0 */
+	private int[][] cellSpans = new int[0][];
+
+	private final List<SpanListener> listeners = new ArrayList<>();
+
+
+	private int getIndex(int row, int column) {
+		if (row < 0 || column < 0 || column >= cellSpans.length
+				|| row >= cellSpans[column].length)
+		{
+			return -1;
+		}
+		return cellSpans[column][row] - 1;
+	}
+
+
+	private void setCells(int i, int value) {
+		int lastColumn = columns[i] + widths[i];
+		int lastRow = rows[i] + heights[i];
+
+		if (lastColumn > cellSpans.length) {
+			int old = cellSpans.length;
+			cellSpans = Arrays.copyOf(cellSpans, lastColumn);
+			for (int c = old; c < lastColumn; c++) {
+				cellSpans[c] = new int[0];
+			}
+		}
+
+		for (int c = columns[i]; c < lastColumn; c++) {
+			if (lastRow > cellSpans[c].length) {
+				cellSpans[c] = Arrays.copyOf(cellSpans[c],
+						Math.max(lastRow, 2 * cellSpans[c].length));
+			}
+			Arrays.fill(cellSpans[c], rows[i], lastRow, value);
+		}
+	}
+
+
+	private Span toSpan(int i) {
+		return new Span(rows[i], columns[i], activeRows[i], activeColumns[i],
+				heights[i], widths[i]);
+	}
+
+
+	@Override
+	public void addSpan(Span span) {
+		if (span == null) {
+			throw new NullPointerException("Span is null.");
+		}
+
+		for (int c = span.getColumn(); c < span.getColumn() + span.getWidth(); c++) {
+			for (int r = span.getRow(); r < span.getRow() + span.getHeight(); r++) {
+				if (getIndex(r, c) >= 0) {
+					throw new IllegalArgumentException(
+							"Cannot insert a Span that intersects with another Span in the model.");
+				}
+			}
+		}
+
+		if (count == rows.length) {
+			int n = 2 * count;
+			rows          = Arrays.copyOf(rows, n);
+			columns       = Arrays.copyOf(columns, n);
+			heights       = Arrays.copyOf(heights, n);
+			widths        = Arrays.copyOf(widths, n);
+			activeRows    = Arrays.copyOf(activeRows, n);
+			activeColumns = Arrays.copyOf(activeColumns, n);
+		}
+
+		int i = count++;
+		rows[i]          = span.getRow();
+		columns[i]       = span.getColumn();
+		heights[i]       = span.getHeight();
+		widths[i]        = span.getWidth();
+		activeRows[i]    = span.getActiveRow();
+		activeColumns[i] = span.getActiveColumn();
+		setCells(i, i+1);
+
+		fireSpanEvent(span, true);
+	}
+
+
+	@Override
+	public void removeSpan(Span span) {
+		int i = getIndex(span.getRow(), span.getColumn());
+		if (i < 0 || !toSpan(i).equals(span)) {
+			return;
+		}
+
+		setCells(i, 0);
+
+		// Move the last span into the hole
+		int last = --count;
+		if (i != last) {
+			rows[i]          = rows[last];
+			columns[i]       = columns[last];
+			heights[i]       = heights[last];
+			widths[i]        = widths[last];
+			activeRows[i]    = activeRows[last];
+			activeColumns[i] = activeColumns[last];
+			setCells(i, i+1);
+		}
+
+		fireSpanEvent(span, false);
+	}
+
+
+	@Override
+	public void clear() {
+		List<Span> removed = getSpans();
+		count = 0;
+		cellSpans = new int[0][];
+		for (Span span: removed) {
+			fireSpanEvent(span, false);
+		}
+	}
+
+
+	@Override
+	public Span getDefinedSpan(int row, int column) {
+		int i = getIndex(row, column);
+		return i < 0? null: toSpan(i);
+	}
+
+
+	@Override
+	public List<Span> getSpans() {
+		List<Span> list = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			list.add(toSpan(i));
+		}
+		return list;
+	}
+
+
+	@Override
+	public void addSpanListener(SpanListener listener) {
+		listeners.add(listener);
+	}
+
+
+	@Override
+	public void removeSpanListener(SpanListener listener) {
+		listeners.remove(listener);
+	}
+
+
+	private void fireSpanEvent(Span span, boolean added) {
+		if (listeners.isEmpty()) {
+			return;
+		}
+		SpanEvent sme = new SpanEvent(this, span);
+		for (SpanListener sml: listeners) {
+			if (added) {
+				sml.spanAdded(sme);
+			} else {
+				sml.spanDeleted(sme);
+			}
+		}
+	}
+
+}
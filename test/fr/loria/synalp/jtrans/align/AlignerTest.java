@@ -0,0 +1,65 @@
+package fr.loria.synalp.jtrans.align;
+
+import org.junit.Test;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class AlignerTest {
+
+	/** Writes a 16 kHz mono WAV file with a tone */
+	private static File wav(float seconds, float freq) throws IOException {
+		int frames = (int) (16000 * seconds);
+		byte[] bytes = new byte[frames * 2];
+		for (int i = 0; i < frames; i++) {
+			short s = (short) Math.round(10000 * Math.sin(2 * Math.PI * freq * i / 16000));
+			bytes[2*i]   = (byte) s;
+			bytes[2*i+1] = (byte) (s >> 8);
+		}
+
+		File f = File.createTempFile("jtrans-aligner", ".wav");
+		f.deleteOnExit();
+		AudioSystem.write(
+				new AudioInputStream(new ByteArrayInputStream(bytes),
+						new AudioFormat(16000, 16, 1, true, false), frames),
+				AudioFileFormat.Type.WAVE, f);
+		return f;
+	}
+
+
+	@Test
+	public void testForAudio() throws Exception {
+		File mix = wav(2, 200);
+		File channel = wav(2, 400);
+		File shorter = wav(1, 400);
+
+		LinearAligner aligner = new LinearAligner(mix, null);
+		aligner.setPackedScorer(true);
+		aligner.setComputeLikelihoods(true);
+
+		assertSame(aligner, aligner.forAudio(mix));
+
+		// Same class and settings, but its own features; no likelihoods
+		Aligner sibling = aligner.forAudio(channel);
+		assertSame(LinearAligner.class, sibling.getClass());
+		assertTrue(sibling.isPackedScorer());
+		assertFalse(sibling.isComputeLikelihoods());
+		assertEquals(aligner.getFrameCount(), sibling.getFrameCount());
+
+		// Siblings are created once per file
+		assertSame(sibling, aligner.forAudio(channel));
+		assertSame(sibling, aligner.forAudio(new File(channel.getPath())));
+
+		Aligner other = aligner.forAudio(shorter);
+		assertNotSame(sibling, other);
+		assertTrue(other.getFrameCount() < aligner.getFrameCount());
+	}
+
+}
@@ -0,0 +1,211 @@
+package fr.loria.synalp.jtrans.align;
+
+import fr.loria.synalp.jtrans.project.AlignmentJob;
+import fr.loria.synalp.jtrans.project.Anchor;
+import fr.loria.synalp.jtrans.project.Token;
+import fr.loria.synalp.jtrans.project.TurnProject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AlignmentSchedulerTest {
+
+	/** Logs the order in which jobs are run */
+	private static class FakeJob extends AlignmentJob {
+		final String name;
+		final List<String> log;
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release;
+
+		FakeJob(String name, float start, float end, List<String> log,
+				CountDownLatch release)
+		{
+			super(new Anchor(start), new Anchor(end));
+			this.name = name;
+			this.log = log;
+			this.release = release;
+		}
+
+		@Override
+		public boolean contains(Token token) {
+			return name.equals(token.toString());
+		}
+
+		@Override
+		public void align(Aligner aligner, Aligner reference)
+				throws InterruptedException
+		{
+			started.countDown();
+			if (release != null) {
+				release.await();
+			}
+			log.add(name);
+		}
+	}
+
+
+	private static final AlignmentScheduler.AlignerFactory NO_ALIGNER =
+			new AlignmentScheduler.AlignerFactory() {
+				@Override
+				public Aligner newAligner() {
+					return null;
+				}
+			};
+
+
+	@Test
+	public void testFocus() throws InterruptedException {
+		List<String> log = Collections.synchronizedList(new ArrayList<String>());
+		AlignmentScheduler s = new AlignmentScheduler(NO_ALIGNER, null, null, false);
+		assertEquals(1, s.getWorkerCount());
+
+		s.setFocusFrame(new Anchor(20).getFrame());
+		s.schedule(Arrays.asList(
+				new FakeJob("a", 0, 10, log, null),
+				new FakeJob("b", 10, 18, log, null),
+				new FakeJob("c", 18, 21, log, null),
+				new FakeJob("d", 21, 25, log, null),
+				new FakeJob("e", 40, 50, log, null)));
+		s.waitUntilIdle();
+
+		assertEquals(Arrays.asList("c", "d", "b", "a", "e"), log);
+		assertEquals(5, s.getDoneCount());
+		s.shutdown();
+	}
+
+
+	@Test
+	public void testPrioritizeAndCancel() throws InterruptedException {
+		List<String> log = Collections.synchronizedList(new ArrayList<String>());
+		CountDownLatch release = new CountDownLatch(1);
+		AlignmentScheduler s = new AlignmentScheduler(NO_ALIGNER, null, null, false);
+
+		FakeJob blocker = new FakeJob("blocker", 0, 1, log, release);
+		FakeJob near = new FakeJob("near", 1, 2, log, null);
+		FakeJob far = new FakeJob("far", 100, 101, log, null);
+		FakeJob cancelled = new FakeJob("cancelled", 2, 3, log, null);
+
+		s.schedule(Collections.singletonList(blocker));
+		assertTrue(blocker.started.await(5, TimeUnit.SECONDS));
+
+		s.schedule(Arrays.asList(near, far, cancelled));
+		assertSame(far, s.findJob(new Token("far")));
+		assertTrue(s.prioritize(far));
+		assertTrue(s.cancel(cancelled));
+		assertFalse(s.cancel(cancelled));
+		assertEquals(3, s.getTotalCount());
+
+		release.countDown();
+		s.waitUntilIdle();
+
+		assertEquals(Arrays.asList("blocker", "far", "near"), log);
+		s.shutdown();
+	}
+
+
+	@Test
+	public void testCancelRunning() throws InterruptedException {
+		List<String> log = Collections.synchronizedList(new ArrayList<String>());
+		AlignmentScheduler s = new AlignmentScheduler(NO_ALIGNER, null, null, false);
+
+		// never released
+		FakeJob stuck = new FakeJob("stuck", 0, 1, log, new CountDownLatch(1));
+		FakeJob next = new FakeJob("next", 1, 2, log, null);
+
+		s.schedule(Arrays.asList(stuck, next));
+		assertTrue(stuck.started.await(5, TimeUnit.SECONDS));
+		assertTrue(s.cancel(stuck));
+		s.waitUntilIdle();
+
+		assertEquals(Collections.singletonList("next"), log);
+		s.shutdown();
+	}
+
+
+	@Test
+	public void testIdleListenerCallsBack() throws InterruptedException {
+		final List<String> log = Collections.synchronizedList(new ArrayList<String>());
+		final AlignmentScheduler[] s = new AlignmentScheduler[1];
+		final CountDownLatch idle = new CountDownLatch(1);
+		final int[] doneSeenByOtherThread = {-1};
+
+		AlignmentScheduler.Listener listener = new AlignmentScheduler.Listener() {
+			@Override
+			public void jobDone(AlignmentJob job) {
+			}
+
+			@Override
+			public void jobFailed(AlignmentJob job, Exception ex) {
+			}
+
+			@Override
+			public void idle() {
+				// Like the GUI, query the scheduler from another thread
+				// and wait for it
+				Thread t = new Thread() {
+					@Override
+					public void run() {
+						doneSeenByOtherThread[0] = s[0].getDoneCount();
+					}
+				};
+				t.start();
+				try {
+					t.join(5000);
+				} catch (InterruptedException ex) {
+					return;
+				}
+				if (!t.isAlive()) {
+					idle.countDown();
+				}
+			}
+		};
+
+		s[0] = new AlignmentScheduler(NO_ALIGNER, null, listener, false);
+		s[0].schedule(Arrays.asList(
+				new FakeJob("a", 0, 1, log, null),
+				new FakeJob("b", 1, 2, log, null)));
+
+		assertTrue(idle.await(10, TimeUnit.SECONDS));
+		assertEquals(2, doneSeenByOtherThread[0]);
+		s[0].shutdown();
+	}
+
+
+	@Test
+	public void testTurnProjectJobs() {
+		TurnProject p = new TurnProject();
+		p.newSpeaker("A");
+		p.newSpeaker("B");
+
+		Token[] words = new Token[5];
+		for (int i = 0; i < words.length; i++) {
+			TurnProject.Turn turn = p.newTurn();
+			words[i] = new Token("w" + i);
+			turn.add(i % 2, words[i]);
+		}
+
+		// Turn 0 is timed; turns 1-3 are chained; turn 4 is last
+		p.turns.get(0).start = new Anchor(0);
+		p.turns.get(0).end = new Anchor(1);
+		p.turns.get(1).start = new Anchor(1);
+		p.turns.get(3).end = new Anchor(4);
+
+		List<AlignmentJob> jobs = p.getAlignmentJobs();
+		assertEquals(3, jobs.size());
+		assertTrue(jobs.get(0).contains(words[0]));
+		assertTrue(jobs.get(1).contains(words[2]));
+		assertFalse(jobs.get(1).contains(words[4]));
+		assertTrue(jobs.get(2).contains(words[4]));
+		assertEquals(new Anchor(1).getFrame(), jobs.get(1).startFrame);
+		assertEquals(new Anchor(4).getFrame(), jobs.get(1).endFrame);
+		assertEquals(0, jobs.get(1).distanceTo(new Anchor(2).getFrame()));
+	}
+
+}
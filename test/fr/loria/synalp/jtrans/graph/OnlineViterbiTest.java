@@ -0,0 +1,191 @@
+package fr.loria.synalp.jtrans.graph;
+
+import edu.cmu.sphinx.frontend.FloatData;
+import fr.loria.synalp.jtrans.align.Alignment;
+import fr.loria.synalp.jtrans.graph.swap.SwapDeflater;
+import fr.loria.synalp.jtrans.graph.swap.SwapInflater;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static fr.loria.synalp.jtrans.graph.StateGraphTest.bogusSG;
+import static org.junit.Assert.*;
+
+public class OnlineViterbiTest {
+
+	private double oldBeam;
+	private int oldLatency;
+
+
+	@Before
+	public void setUp() {
+		oldBeam = OnlineViterbi.RELATIVE_BEAM;
+		oldLatency = OnlineViterbi.MAX_LATENCY;
+	}
+
+
+	@After
+	public void tearDown() {
+		OnlineViterbi.RELATIVE_BEAM = oldBeam;
+		OnlineViterbi.MAX_LATENCY = oldLatency;
+	}
+
+
+	private static List<FloatData> randomFeatures(int frames, long seed) {
+		Random r = new Random(seed);
+		List<FloatData> data = new ArrayList<>(frames);
+		for (int f = 0; f < frames; f++) {
+			float[] x = new float[39];
+			for (int d = 0; d < x.length; d++) {
+				x[d] = (float) r.nextGaussian() * 2;
+			}
+			data.add(new FloatData(x, 16000, f, f * 160));
+		}
+		return data;
+	}
+
+
+	/** Node timeline yielded by StateGraph's full Viterbi pass */
+	private static int[] fullViterbi(StateGraph graph, List<FloatData> data)
+			throws Exception
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SwapDeflater writer = SwapDeflater.getSensibleSwapDeflater(true);
+		writer.init(graph.getNodeCount(), out);
+		graph.viterbi(data, writer, 0, data.size() - 1);
+
+		SwapInflater reader = new SwapInflater();
+		reader.init(writer.getIndex(), out.toByteArray());
+		return graph.backtrack(reader);
+	}
+
+
+	private static StateGraph[] graphs() {
+		return new StateGraph[] {
+				bogusSG("a"),
+				bogusSG("a", "e", "i"),
+				bogusSG("a ( e | i ) [ o ]", "u [ a ]"),
+				bogusSG(false, "a", "( e | i | o )", "u"),
+		};
+	}
+
+
+	private static void assertValidPath(StateGraph graph, int[] timeline) {
+		assertEquals(0, timeline[0]);
+		for (int f = 1; f < timeline.length; f++) {
+			int k = timeline[f-1];
+			boolean found = false;
+			for (int t = 0; t < graph.outCount[k]; t++) {
+				found |= graph.outNode[k][t] == timeline[f];
+			}
+			assertTrue("no transition " + k + " -> " + timeline[f], found);
+		}
+	}
+
+
+	@Test
+	public void testSameAsFullViterbi() throws Exception {
+		OnlineViterbi.RELATIVE_BEAM = 0;
+		OnlineViterbi.MAX_LATENCY = Integer.MAX_VALUE;
+
+		long seed = 0;
+		for (StateGraph graph: graphs()) {
+			for (int frames: new int[] {graph.getNodeCount(), 100, 400}) {
+				List<FloatData> data = randomFeatures(frames, seed++);
+
+				for (boolean packed: new boolean[] {false, true}) {
+					graph.setPackedScorer(packed);
+					int[] expected = fullViterbi(graph, data);
+					assertArrayEquals(expected, OnlineViterbi.backtrackTimeline(
+							graph, data, 0, frames - 1));
+				}
+			}
+		}
+	}
+
+
+	@Test
+	public void testSubrange() throws Exception {
+		OnlineViterbi.RELATIVE_BEAM = 0;
+		OnlineViterbi.MAX_LATENCY = Integer.MAX_VALUE;
+
+		StateGraph graph = bogusSG("a", "e", "i");
+		List<FloatData> data = randomFeatures(300, 1);
+		int[] expected = fullViterbi(graph, data.subList(100, 250));
+		assertArrayEquals(expected,
+				OnlineViterbi.backtrackTimeline(graph, data, 100, 249));
+	}
+
+
+	@Test
+	public void testPiecesMatchFullViterbi() throws Exception {
+		OnlineViterbi.RELATIVE_BEAM = 0;
+		OnlineViterbi.MAX_LATENCY = Integer.MAX_VALUE;
+
+		StateGraph graph = bogusSG("a ( e | i ) [ o ]", "u [ a ]");
+		List<FloatData> data = randomFeatures(200, 2);
+		final int offset = 1000;
+
+		// The node of each frame is the node stored at the next frame by
+		// backtrack(); the last frame is in the last node
+		int[] full = fullViterbi(graph, data);
+		int[] nodes = new int[full.length];
+		System.arraycopy(full, 1, nodes, 0, full.length - 1);
+		nodes[nodes.length - 1] = graph.getNodeCount() - 1;
+		Alignment expected = graph.alignmentFromNodeTimeline(nodes, offset);
+
+		final List<Alignment> pieces = new ArrayList<>();
+		OnlineViterbi ov = new OnlineViterbi(graph, offset,
+				new OnlineViterbi.Listener() {
+					@Override
+					public void aligned(Alignment piece) {
+						pieces.add(piece);
+					}
+				});
+
+		for (FloatData frame: data) {
+			ov.push(frame);
+		}
+		ov.finish();
+
+		int next = offset;
+		for (Alignment piece: pieces) {
+			assertEquals(next, piece.getFrameOffset());
+			for (int f = next; f < next + piece.getLength(); f++) {
+				Alignment.Segment e = expected.getSegmentAtFrame(f);
+				Alignment.Segment a = piece.getSegmentAtFrame(f);
+				assertSame(e.state, a.state);
+				assertSame(e.word, a.word);
+			}
+			next += piece.getLength();
+		}
+		assertEquals(offset + expected.getLength(), next);
+	}
+
+
+	@Test
+	public void testLatencyBound() throws Exception {
+		OnlineViterbi.MAX_LATENCY = 10;
+
+		StateGraph graph = bogusSG("a ( e | i ) [ o ]", "u [ a ]");
+		List<FloatData> data = randomFeatures(300, 3);
+
+		OnlineViterbi ov = new OnlineViterbi(graph, 0, null);
+		for (FloatData frame: data) {
+			ov.push(frame);
+			assertTrue(ov.getFrameCount() - ov.getEmittedFrameCount() <= 10);
+		}
+		ov.finish();
+		assertEquals(data.size(), ov.getEmittedFrameCount());
+
+		int[] timeline = OnlineViterbi.backtrackTimeline(graph, data, 0, 299);
+		assertEquals(300, timeline.length);
+		assertValidPath(graph, timeline);
+	}
+
+}
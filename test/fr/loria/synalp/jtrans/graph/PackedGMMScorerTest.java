@@ -0,0 +1,92 @@
+package fr.loria.synalp.jtrans.graph;
+
+import edu.cmu.sphinx.frontend.FloatData;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.GaussianMixture;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.MixtureComponent;
+import edu.cmu.sphinx.util.LogMath;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PackedGMMScorerTest {
+
+	private static final int DIM = 39;
+
+
+	private static GaussianMixture randomMixture(LogMath lm, Random r, int comps, long id) {
+		MixtureComponent[] mc = new MixtureComponent[comps];
+		float[] logWeights = new float[comps];
+		float wsum = 0;
+		float[] w = new float[comps];
+		for (int k = 0; k < comps; k++) {
+			w[k] = 0.1f + r.nextFloat();
+			wsum += w[k];
+		}
+		for (int k = 0; k < comps; k++) {
+			float[] mean = new float[DIM];
+			float[] var = new float[DIM];
+			for (int d = 0; d < DIM; d++) {
+				mean[d] = (float) r.nextGaussian() * 2;
+				var[d] = 0.2f + r.nextFloat() * 2;
+			}
+			mc[k] = new MixtureComponent(lm, mean, var);
+			logWeights[k] = lm.linearToLog(w[k] / wsum);
+		}
+		return new GaussianMixture(lm, logWeights, mc, id);
+	}
+
+
+	private void checkAgainstSphinx(LogMath lm, float absTol) {
+		Random r = new Random(0);
+		GaussianMixture[] mixtures = new GaussianMixture[20];
+		for (int s = 0; s < mixtures.length; s++) {
+			mixtures[s] = randomMixture(lm, r, 1 + r.nextInt(16), s);
+		}
+
+		PackedGMMScorer scorer = new PackedGMMScorer(mixtures);
+		assertEquals(mixtures.length, scorer.getStateCount());
+		float[] scores = new float[mixtures.length];
+
+		for (int f = 0; f < 50; f++) {
+			float[] x = new float[DIM];
+			for (int d = 0; d < DIM; d++) {
+				x[d] = (float) r.nextGaussian() * 2;
+			}
+			scorer.scoreAll(x, scores);
+
+			for (int s = 0; s < mixtures.length; s++) {
+				float expected = mixtures[s].calculateScore(new FloatData(x, 16000, f, f * 160));
+				assertEquals(expected, scores[s], Math.max(absTol, 1e-5f * Math.abs(expected)));
+				assertEquals(scores[s], scorer.score(s, x), 0);
+			}
+		}
+	}
+
+
+	@Test
+	public void testMatchesExactLogAdd() {
+		checkAgainstSphinx(new LogMath(2, false), 1e-3f);
+		checkAgainstSphinx(new LogMath(1.0001f, false), 1f);
+	}
+
+
+	@Test
+	public void testMatchesLogAddTable() {
+		// Sphinx adds mixture components with a lookup table, whose
+		// resolution is one unit of the log base
+		checkAgainstSphinx(new LogMath(2, true), 1f);
+		checkAgainstSphinx(new LogMath(1.0001f, true), 16f);
+	}
+
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWrongDimension() {
+		LogMath lm = new LogMath(2, true);
+		PackedGMMScorer scorer = new PackedGMMScorer(
+				new GaussianMixture[] {randomMixture(lm, new Random(1), 2, 0)});
+		scorer.scoreAll(new float[DIM-1], new float[1]);
+	}
+
+}
@@ -536,4 +536,114 @@ public class StateGraphTest {
 		}
 	}
 
+
+	/**
+	 * Builds the same graph with and without precompiled rules.
+	 * @return {spliced, parsed}
+	 */
+	private static StateGraph[] bothWays(
+			boolean interWordSilences,
+			String... wordRules)
+	{
+		boolean old = StateGraph.PRECOMPILED_RULES;
+		try {
+			StateGraph.PRECOMPILED_RULES = true;
+			StateGraph spliced = bogusSG(interWordSilences, wordRules);
+			StateGraph.PRECOMPILED_RULES = false;
+			StateGraph parsed = bogusSG(interWordSilences, wordRules);
+			return new StateGraph[] {spliced, parsed};
+		} finally {
+			StateGraph.PRECOMPILED_RULES = old;
+		}
+	}
+
+
+	private static void assertSameGraph(StateGraph expected, StateGraph actual) {
+		assertEquals(expected.getNodeCount(), actual.getNodeCount());
+		assertEquals(expected.nWords, actual.nWords);
+		assertArrayEquals(expected.wordBoundaries, actual.wordBoundaries);
+		assertArrayEquals(expected.nodeStates, actual.nodeStates);
+		assertArrayEquals(expected.outCount, actual.outCount);
+
+		for (int n = 0; n < expected.getNodeCount(); n++) {
+			assertEquals(expected.getPhoneAt(n), actual.getPhoneAt(n));
+			assertEquals(expected.getStateAt(n), actual.getStateAt(n));
+			assertEquals(expected.getWordIdxAt(n), actual.getWordIdxAt(n));
+			for (int t = 0; t < expected.outCount[n]; t++) {
+				assertEquals("node " + n + " transition " + t,
+						expected.outNode[n][t], actual.outNode[n][t]);
+				assertEquals("node " + n + " transition " + t,
+						expected.outProb[n][t], actual.outProb[n][t], 0);
+			}
+		}
+	}
+
+
+	private static void assertSplicedSameAsParsed(
+			boolean interWordSilences,
+			String... wordRules)
+	{
+		StateGraph[] g = bothWays(interWordSilences, wordRules);
+		assertSameGraph(g[1], g[0]);
+	}
+
+
+	@Test
+	public void testPrecompiledRules() {
+		String[][] cases = {
+				{"a"},
+				{"a", "e", "i"},
+				{"a [ a ]", "[ a ] e"},
+				{"a [ a ] [ a ]"},
+				{"[ a ]"},
+				{"[ a ]", "[ e ]", "[ i ]"},
+				{"a ( a | i )", "( e | i ) o"},
+				{"a ( a | [ i ] )"},
+				{"( ( p a s | p e [ SIL ] a [ SIL ] eh s ) [ z ] | p a [ z ] )"},
+				{"( t e y | t y )", "p eu", "( s a v u a r | s a v w a r )"},
+				{null, "a"},
+				{"a", null},
+				{null, null, null},
+				{"a", null, null, "[ e ]", null},
+				{null, "( a | i )", null, "[ o ]", null, "u"},
+		};
+
+		for (boolean clearCache: new boolean[] {true, false}) {
+			for (boolean sil: new boolean[] {true, false}) {
+				for (String[] rules: cases) {
+					if (clearCache) {
+						StateGraph.clearTemplateCache();
+					}
+					assertSplicedSameAsParsed(sil, rules);
+				}
+			}
+		}
+	}
+
+
+	@Test
+	public void testPrecompiledRulesRandomMix() {
+		String[] pool = {
+				null,
+				"a",
+				"e i",
+				"[ a ]",
+				"a [ e ]",
+				"( a | e )",
+				"( a | [ e ] ) i",
+				"[ ( o | u ) ] a",
+				"( a [ e ] | i o )",
+		};
+
+		Random random = new Random(42);
+
+		for (int round = 0; round < 50; round++) {
+			String[] rules = new String[1 + random.nextInt(12)];
+			for (int i = 0; i < rules.length; i++) {
+				rules[i] = pool[random.nextInt(pool.length)];
+			}
+			assertSplicedSameAsParsed(random.nextBoolean(), rules);
+		}
+	}
+
 }
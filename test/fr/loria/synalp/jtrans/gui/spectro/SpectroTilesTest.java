@@ -0,0 +1,129 @@
+package fr.loria.synalp.jtrans.gui.spectro;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SpectroTilesTest {
+
+	private static final int BINS = 8;
+	private final long savedBudget = SpectroTiles.CACHE_BYTES;
+	private final Semaphore ready = new Semaphore(0);
+
+	private final SpectroTiles tiles = new SpectroTiles(new SpectroTiles.Listener() {
+		@Override
+		public void tilesChanged() {
+			ready.release();
+		}
+	});
+
+
+	@After
+	public void restoreBudget() {
+		SpectroTiles.CACHE_BYTES = savedBudget;
+	}
+
+
+	/**
+	 * Power spectrum whose quantized log intensity is q in every bin.
+	 */
+	private static float[] frame(int q) {
+		float[] f = new float[BINS];
+		for (int i = 0; i < BINS; i++) {
+			f[i] = (float) Math.exp((q + .5) * SpectroTiles.LOG_STEP);
+		}
+		return f;
+	}
+
+
+	private void fill(int frames) {
+		int gen = tiles.getGeneration();
+		for (int i = 0; i < frames; i++) {
+			assertTrue(tiles.addFrame(gen, frame(i % 200)));
+		}
+		tiles.finish(gen);
+	}
+
+
+	private SpectroTiles.Tile await(int level, int index) throws InterruptedException {
+		for (int i = 0; i < 100; i++) {
+			SpectroTiles.Tile t = tiles.getTile(level, index);
+			if (t != null) {
+				return t;
+			}
+			ready.tryAcquire(100, TimeUnit.MILLISECONDS);
+		}
+		fail("tile " + level + "/" + index + " never rendered");
+		return null;
+	}
+
+
+	private static int grey(SpectroTiles.Tile t, int x) {
+		return t.image.getRGB(x, 0) & 0xff;
+	}
+
+
+	@Test
+	public void testPyramid() throws Exception {
+		int w = SpectroTiles.TILE_WIDTH;
+		fill(w * 3 + 1);
+
+		assertTrue(tiles.isLoaded());
+		assertEquals(w * 3 + 1, tiles.getFrameCount());
+		assertEquals(BINS, tiles.getHeight());
+
+		SpectroTiles.Tile t0 = await(0, 0);
+		SpectroTiles.Tile t1 = await(1, 0);
+		assertEquals(w, t0.columns);
+		assertEquals(2 * w, t1.getFrameSpan());
+
+		// Louder is darker; a level 1 column shows the louder of its 2 frames
+		for (int x = 0; x < w / 2; x++) {
+			int louder = Math.min(grey(t0, 2*x), grey(t0, 2*x + 1));
+			assertEquals(louder, grey(t1, x));
+		}
+
+		// The unpaired last frame is carried up
+		SpectroTiles.Tile last = await(1, 1);
+		assertEquals(w / 2 + 1, last.columns);
+		// Missing columns are blank
+		assertEquals(0xff, grey(last, w - 1));
+	}
+
+
+	@Test
+	public void testLevelForZoom() {
+		fill(SpectroTiles.TILE_WIDTH * 16);
+		assertEquals(0, tiles.getLevelForZoom(2f));
+		assertEquals(0, tiles.getLevelForZoom(1f));
+		assertEquals(1, tiles.getLevelForZoom(.5f));
+		assertEquals(1, tiles.getLevelForZoom(.3f));
+		assertEquals(2, tiles.getLevelForZoom(.25f));
+	}
+
+
+	@Test
+	public void testCacheBudget() throws Exception {
+		long tileBytes = (long) SpectroTiles.TILE_WIDTH * BINS * 4;
+		SpectroTiles.CACHE_BYTES = tileBytes * 2;
+		fill(SpectroTiles.TILE_WIDTH * 5);
+
+		for (int i = 0; i < 5; i++) {
+			await(0, i);
+			assertTrue(tiles.getCacheBytes() <= SpectroTiles.CACHE_BYTES);
+		}
+		assertEquals(tileBytes * 2, tiles.getCacheBytes());
+	}
+
+
+	@Test
+	public void testNotReadyBeforeLoading() {
+		assertNull(tiles.getTile(0, 0));
+		assertNull(tiles.getTile(3, 0));
+	}
+
+}
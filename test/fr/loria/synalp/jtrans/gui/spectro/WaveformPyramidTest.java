@@ -0,0 +1,145 @@
+package fr.loria.synalp.jtrans.gui.spectro;
+
+import org.junit.Test;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class WaveformPyramidTest {
+
+	private static final float RATE = 16000;
+
+
+	private static File build(short[] samples, boolean bigEndian) throws IOException {
+		byte[] bytes = new byte[samples.length * 2];
+		for (int i = 0; i < samples.length; i++) {
+			byte hi = (byte) (samples[i] >> 8);
+			byte lo = (byte) samples[i];
+			bytes[2*i]   = bigEndian? hi: lo;
+			bytes[2*i+1] = bigEndian? lo: hi;
+		}
+		AudioInputStream ais = new AudioInputStream(
+				new ByteArrayInputStream(bytes),
+				new AudioFormat(RATE, 16, 1, true, bigEndian),
+				samples.length);
+
+		File f = File.createTempFile("jtrans-waveform", ".env");
+		f.deleteOnExit();
+		WaveformPyramid.build(ais, f);
+		return f;
+	}
+
+
+	private static short[] randomSamples(int n) {
+		Random r = new Random(0);
+		short[] s = new short[n];
+		for (int i = 0; i < n; i++) {
+			s[i] = (short) (r.nextGaussian() * 4000);
+		}
+		return s;
+	}
+
+
+	@Test
+	public void testLevels() throws IOException {
+		int block = 1 << WaveformPyramid.BASE_SHIFT;
+		short[] samples = randomSamples(block * 5 + 17);
+		WaveformPyramid p = WaveformPyramid.open(build(samples, false));
+
+		assertEquals(samples.length, p.getSampleCount());
+		assertEquals(RATE, p.getSampleRate(), 0);
+		assertEquals(6, p.getBlockCount(0));
+		assertEquals(3, p.getBlockCount(1));
+		assertEquals(2, p.getBlockCount(2));
+		assertEquals(1, p.getBlockCount(3));
+		assertEquals(4, p.getLevelCount());
+
+		for (int b = 0; b < p.getBlockCount(0); b++) {
+			short min = Short.MAX_VALUE, max = Short.MIN_VALUE;
+			double sumSq = 0;
+			int n = 0;
+			for (int i = b*block; i < Math.min(samples.length, (b+1)*block); i++, n++) {
+				min = (short) Math.min(min, samples[i]);
+				max = (short) Math.max(max, samples[i]);
+				sumSq += samples[i] * samples[i];
+			}
+			assertEquals(min, p.getMin(0, b));
+			assertEquals(max, p.getMax(0, b));
+			assertEquals(Math.sqrt(sumSq / n), p.getRMS(0, b), 1);
+		}
+
+		for (int level = 1; level < p.getLevelCount(); level++) {
+			for (int b = 0; b < p.getBlockCount(level); b++) {
+				int l = 2*b, r = Math.min(2*b + 1, p.getBlockCount(level-1) - 1);
+				assertEquals(Math.min(p.getMin(level-1, l), p.getMin(level-1, r)), p.getMin(level, b));
+				assertEquals(Math.max(p.getMax(level-1, l), p.getMax(level-1, r)), p.getMax(level, b));
+			}
+		}
+
+		short globalMin = Short.MAX_VALUE, globalMax = Short.MIN_VALUE;
+		for (short s: samples) {
+			globalMin = (short) Math.min(globalMin, s);
+			globalMax = (short) Math.max(globalMax, s);
+		}
+		int top = p.getLevelCount() - 1;
+		assertEquals(globalMin, p.getMin(top, 0));
+		assertEquals(globalMax, p.getMax(top, 0));
+	}
+
+
+	@Test
+	public void testEndianness() throws IOException {
+		short[] samples = randomSamples(3000);
+		WaveformPyramid le = WaveformPyramid.open(build(samples, false));
+		WaveformPyramid be = WaveformPyramid.open(build(samples, true));
+		for (int b = 0; b < le.getBlockCount(0); b++) {
+			assertEquals(le.getMin(0, b), be.getMin(0, b));
+			assertEquals(le.getMax(0, b), be.getMax(0, b));
+			assertEquals(le.getRMS(0, b), be.getRMS(0, b));
+		}
+	}
+
+
+	@Test
+	public void testEnvelope() throws IOException {
+		int block = 1 << WaveformPyramid.BASE_SHIFT;
+		short[] samples = new short[block * 8];
+		samples[block * 3 + 5] = 1000;
+		samples[block * 6] = -2000;
+		WaveformPyramid p = WaveformPyramid.open(build(samples, false));
+
+		int[] env = new int[3];
+		assertTrue(p.getEnvelope(0, 0, block * 3, env));
+		assertEquals(0, env[0]);
+		assertEquals(0, env[1]);
+
+		assertTrue(p.getEnvelope(0, block * 2, block * 7, env));
+		assertEquals(-2000, env[0]);
+		assertEquals(1000, env[1]);
+
+		assertEquals(0, p.getLevelForSpan(block - 1));
+		assertEquals(1, p.getLevelForSpan(block * 2));
+		assertEquals(p.getLevelCount() - 1, p.getLevelForSpan(1e9));
+
+		assertFalse(p.getEnvelope(0, samples.length, samples.length + block, env));
+	}
+
+
+	@Test(expected = IOException.class)
+	public void testBadMagic() throws IOException {
+		File f = File.createTempFile("jtrans-waveform", ".env");
+		f.deleteOnExit();
+		try (FileOutputStream fos = new FileOutputStream(f)) {
+			fos.write(new byte[64]);
+		}
+		WaveformPyramid.open(f);
+	}
+
+}
@@ -0,0 +1,246 @@
+package fr.loria.synalp.jtrans.gui.table;
+
+import fr.loria.synalp.jtrans.project.*;
+import fr.loria.synalp.jtrans.utils.spantable.IndexedSpanModel;
+import fr.loria.synalp.jtrans.utils.spantable.Span;
+import org.junit.Test;
+
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ProjectModelTest {
+
+	private static TurnProject project(int turns) {
+		TurnProject p = new TurnProject();
+		p.newSpeaker("A");
+		p.newSpeaker("B");
+		for (int t = 0; t < turns; t++) {
+			TurnProject.Turn turn = p.newTurn();
+			turn.start = new Anchor(t);
+			turn.end = new Anchor(t + 1);
+			turn.add(t % 2, new Token("w" + t));
+			turn.add(t % 2, new Token("x" + t));
+		}
+		return p;
+	}
+
+
+	@Test
+	public void testTurnLayout() {
+		TurnProject p = project(3);
+		TurnModel m = new TurnModel(p);
+
+		// start anchor, text, end anchor; then text, end anchor for each
+		// subsequent turn (contiguous anchors are shown once)
+		assertEquals(7, m.getRowCount());
+		assertSame(p.turns.get(0).start, m.getValueAt(0, 0));
+		assertNull(m.getValueAt(0, 1));
+		assertTrue(m.getValueAt(1, 0) instanceof TextCell);
+		assertNull(m.getValueAt(1, 1));
+		assertEquals("w0 x0 ", m.getValueAt(1, 0).toString());
+		assertSame(p.turns.get(0).end, m.getValueAt(2, 0));
+		assertEquals("w1 x1 ", m.getValueAt(3, 1).toString());
+
+		Span span = m.getSpanModel().getDefinedSpan(2, 1);
+		assertNotNull(span);
+		assertTrue(span.isActive(2, 0));
+		assertNull(m.getSpanModel().getDefinedSpan(3, 1));
+
+		// Cells are cached until invalidated
+		assertSame(m.getValueAt(1, 0), m.getValueAt(1, 0));
+		Object before = m.getValueAt(1, 0);
+		m.invalidateCells();
+		assertNotSame(before, m.getValueAt(1, 0));
+	}
+
+
+	@Test
+	public void testHighlight() {
+		TurnProject p = project(3);
+		TurnModel m = new TurnModel(p);
+		Token w2 = p.turns.get(2).spkTokens.get(0).get(0);
+
+		m.highlightToken(0, w2);
+		assertEquals(5, m.getHighlightedRow(0));
+		assertSame(w2, m.getHighlightedToken(0));
+	}
+
+
+	@Test
+	public void testSameLayout() {
+		TurnProject p = project(3);
+		TurnModel m = new TurnModel(p);
+
+		p.turns.get(1).spkTokens.get(1).get(0).setSegment(100, 110);
+		assertTrue(m.hasSameLayout(new TurnModel(p)));
+
+		p.turns.get(1).start = new Anchor(1.5f);
+		assertFalse(m.hasSameLayout(new TurnModel(p)));
+	}
+
+
+	/** Returns a description of each cell of a model */
+	private static String dump(ProjectModel<?> m) {
+		StringBuilder sb = new StringBuilder();
+		for (int row = 0; row < m.getRowCount(); row++) {
+			for (int col = 0; col < m.getColumnCount(); col++) {
+				sb.append(m.getValueAt(row, col)).append('|');
+				Span span = m.getSpanModel().getDefinedSpan(row, col);
+				sb.append(span == null? "": span.getRow() + "+" + span.getHeight()
+						+ "x" + span.getWidth()).append('\t');
+			}
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+
+	@Test
+	public void testUpdateTurnLayout() {
+		TurnProject p = project(3);
+		TurnModel m = new TurnModel(p);
+
+		// Alignment changes don't affect the layout
+		p.turns.get(1).spkTokens.get(1).get(0).setSegment(100, 110);
+		assertTrue(m.updateLayout());
+		assertEquals(7, m.getRowCount());
+
+		// Appended turns: new rows are laid out as in a new model
+		TurnProject.Turn turn = p.newTurn();
+		turn.start = new Anchor(10);
+		turn.end = new Anchor(11);
+		turn.add(0, new Token("y"));
+		turn = p.newTurn();
+		turn.add(1, new Token("z"));
+
+		final int[] inserted = {-1, -1};
+		m.addTableModelListener(new TableModelListener() {
+			@Override
+			public void tableChanged(TableModelEvent e) {
+				if (e.getType() == TableModelEvent.INSERT) {
+					inserted[0] = e.getFirstRow();
+					inserted[1] = e.getLastRow();
+				}
+			}
+		});
+
+		assertTrue(m.updateLayout());
+		assertEquals(7, inserted[0]);
+		assertEquals(m.getRowCount() - 1, inserted[1]);
+		assertTrue(m.hasSameLayout(new TurnModel(p)));
+		assertEquals(dump(new TurnModel(p)), dump(m));
+
+		Token z = p.turns.get(4).spkTokens.get(1).get(0);
+		m.highlightToken(1, z);
+		assertEquals(m.getRowCount() - 1, m.getHighlightedRow(1));
+
+		// Changes to turns that were already laid out
+		p.turns.get(3).end = null;
+		assertFalse(m.updateLayout());
+
+		p = project(3);
+		m = new TurnModel(p);
+		p.turns.remove(2);
+		assertFalse(m.updateLayout());
+	}
+
+
+	@Test
+	public void testTableRefresh() {
+		TurnProject p = project(1);
+		TurnProject.Turn turn = p.turns.get(0);
+
+		ProjectTable table = new ProjectTable(p, null, false);
+		table.setSize(150, 1000);
+		table.doLayout();
+		ProjectModel<?> m = (ProjectModel<?>) table.getModel();
+		int height = table.getRowHeight(1);
+
+		// Longer text: the row is measured again
+		for (int i = 0; i < 50; i++) {
+			turn.add(0, new Token("word" + i));
+		}
+		table.refreshModel();
+		assertSame(m, table.getModel());
+		assertTrue(table.getRowHeight(1) > height);
+
+		// Appended turn: the model is kept, and the new rows are measured
+		turn = p.newTurn();
+		turn.start = new Anchor(5);
+		turn.end = new Anchor(6);
+		for (int i = 0; i < 50; i++) {
+			turn.add(1, new Token("word" + i));
+		}
+		table.refreshModel();
+		assertSame(m, table.getModel());
+		assertEquals(7, table.getRowCount());
+		assertTrue(table.getRowHeight(5) > height);
+	}
+
+
+	@Test
+	public void testTrackLayout() {
+		TrackProject p = new TrackProject();
+		List<Phrase> a = new ArrayList<>();
+		List<Token> tokens = new ArrayList<>();
+		tokens.add(new Token("hello"));
+		a.add(new Phrase(new Anchor(0), new Anchor(5), tokens));
+		p.addTrack("A", a);
+
+		TrackModel m = new TrackModel(p);
+		assertEquals(2, m.getRowCount());
+		assertTrue(m.getValueAt(0, 0) instanceof Anchor);
+		assertEquals("hello ", m.getValueAt(1, 0).toString());
+
+		m.highlightToken(0, tokens.get(0));
+		assertEquals(1, m.getHighlightedRow(0));
+		assertTrue(m.hasSameLayout(new TrackModel(p)));
+		assertTrue(m.updateLayout());
+
+		tokens = new ArrayList<>();
+		tokens.add(new Token("world"));
+		a.add(new Phrase(new Anchor(5), new Anchor(8), tokens));
+		assertFalse(m.updateLayout());
+		assertTrue(new TrackModel(p).updateLayout());
+
+		// A phrase moved to another track
+		List<Phrase> b = new ArrayList<>();
+		p.addTrack("B", b);
+		m = new TrackModel(p);
+		b.add(a.remove(1));
+		assertFalse(m.updateLayout());
+	}
+
+
+	@Test
+	public void testIndexedSpans() {
+		IndexedSpanModel sm = new IndexedSpanModel();
+		Span a = new Span(0, 0, 3, 1);
+		Span b = new Span(1, 1, 1, 2);
+		sm.addSpan(a);
+		sm.addSpan(b);
+
+		assertEquals(a, sm.getDefinedSpan(2, 0));
+		assertEquals(b, sm.getDefinedSpan(1, 2));
+		assertNull(sm.getDefinedSpan(0, 1));
+		assertNull(sm.getDefinedSpan(100, 100));
+
+		try {
+			sm.addSpan(new Span(2, 0, 1, 2));
+			fail("intersecting span was accepted");
+		} catch (IllegalArgumentException ex) {
+			// expected
+		}
+
+		sm.removeSpan(a);
+		assertNull(sm.getDefinedSpan(1, 0));
+		assertEquals(b, sm.getDefinedSpan(1, 1));
+		assertEquals(1, sm.getSpans().size());
+	}
+
+}
@@ -0,0 +1,171 @@
+package fr.loria.synalp.jtrans.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import fr.loria.synalp.jtrans.markup.out.*;
+import fr.loria.synalp.jtrans.project.Anchor;
+import fr.loria.synalp.jtrans.project.Token;
+import fr.loria.synalp.jtrans.project.Token.Phone;
+import fr.loria.synalp.jtrans.project.Token.Segment;
+import fr.loria.synalp.jtrans.project.TurnProject;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the single-pass export pipeline writes the same files as the
+ * savers run one by one, and that both match the files written by the
+ * original savers (stored in test/.../io/golden).
+ */
+public class ExportIoTest {
+
+	private static Token word(String text, int start, int end, boolean anon) {
+		Token t = new Token(text);
+		t.setSegment(start, end);
+		int mid = (start + end) / 2;
+		t.addPhone(new Phone("a", new Segment(start, mid)));
+		t.addPhone(new Phone("b", new Segment(mid+1, end)));
+		t.setAnonymize(anon);
+		return t;
+	}
+
+
+	private static final File GOLDEN_DIR = new File(System.getProperty("user.dir"),
+			"test/fr/loria/synalp/jtrans/io/golden");
+
+	/** Number of turns in the project used to produce the golden files */
+	private static final int GOLDEN_TURNS = 4;
+
+
+	private static TurnProject project() {
+		return project(50);
+	}
+
+
+	private static TurnProject project(int turns) {
+		TurnProject p = new TurnProject();
+		p.newSpeaker("A");
+		p.newSpeaker("B");
+
+		int f = 0;
+		for (int i = 0; i < turns; i++) {
+			TurnProject.Turn turn = p.newTurn();
+			turn.start = new Anchor(f / 100f);
+			turn.add(i%2, new Token("[t" + i + " start]", Token.Type.COMMENT));
+			turn.add(i%2, word("bonjour", f, f+20, false));
+			turn.add(i%2, word("Paris", f+25, f+40, i%3 == 0));
+			turn.add(i%2, new Token("[t" + i + " end]", Token.Type.COMMENT));
+			turn.add((i+1)%2, new Token("hum"));
+			turn.add((i+1)%2, word("oui", f+30, f+45, false));
+			f += 50;
+			turn.end = new Anchor(f / 100f);
+		}
+
+		p.audioSourceTotalFrames = f + 100;
+		return p;
+	}
+
+
+	private static final MarkupSaver[] SAVERS = {
+			new TextGridWSaver(),
+			new TextGridPSaver(),
+			new TextGridWPSaver(),
+			new TextGridAnonSaver(),
+			new TextSaver(),
+			new JTRSaver(),
+	};
+
+	private static final String[] EXTENSIONS = {
+			".w.textgrid", ".w_anon.textgrid",
+			".p.textgrid", ".p_anon.textgrid",
+			".w+p.textgrid", ".w+p_anon.textgrid",
+			".anon.textgrid", ".txt", ".jtr",
+	};
+
+
+	private static void assertSameOutput(int spillThreshold) throws IOException {
+		File seq = Files.createTempDirectory("jtrans-seq").toFile();
+		File pipe = Files.createTempDirectory("jtrans-pipe").toFile();
+
+		int oldThreshold = PraatTier.SPILL_THRESHOLD;
+		PraatTier.SPILL_THRESHOLD = spillThreshold;
+
+		try {
+			for (MarkupSaver saver: SAVERS) {
+				saver.save(project(), new File(seq, "out" + saver.getExt()));
+			}
+
+			ExportPipeline pipeline = new ExportPipeline(project());
+			for (MarkupSaver saver: SAVERS) {
+				pipeline.add(saver, new File(pipe, "out" + saver.getExt()));
+			}
+			pipeline.run();
+		} finally {
+			PraatTier.SPILL_THRESHOLD = oldThreshold;
+		}
+
+		for (String ext: EXTENSIONS) {
+			File a = new File(seq, "out" + ext);
+			File b = new File(pipe, "out" + ext);
+			assertTrue(ext, a.length() > 0);
+			assertArrayEquals(ext,
+					Files.readAllBytes(a.toPath()),
+					Files.readAllBytes(b.toPath()));
+			a.delete();
+			b.delete();
+		}
+
+		seq.delete();
+		pipe.delete();
+	}
+
+
+	@Test
+	public void testMatchesGoldenFiles() throws IOException {
+		File seq = Files.createTempDirectory("jtrans-seq").toFile();
+		File pipe = Files.createTempDirectory("jtrans-pipe").toFile();
+
+		// The original JTR saver always indented its output
+		boolean oldPretty = JTRSaver.PRETTY_PRINT;
+		JTRSaver.PRETTY_PRINT = true;
+
+		try {
+			ExportPipeline pipeline = new ExportPipeline(project(GOLDEN_TURNS));
+			for (MarkupSaver saver: SAVERS) {
+				saver.save(project(GOLDEN_TURNS), new File(seq, "out" + saver.getExt()));
+				pipeline.add(saver, new File(pipe, "out" + saver.getExt()));
+			}
+			pipeline.run();
+		} finally {
+			JTRSaver.PRETTY_PRINT = oldPretty;
+		}
+
+		for (String ext: EXTENSIONS) {
+			byte[] golden = Files.readAllBytes(new File(GOLDEN_DIR, "out" + ext).toPath());
+			File a = new File(seq, "out" + ext);
+			File b = new File(pipe, "out" + ext);
+			assertArrayEquals(ext, golden, Files.readAllBytes(a.toPath()));
+			assertArrayEquals(ext, golden, Files.readAllBytes(b.toPath()));
+			a.delete();
+			b.delete();
+		}
+
+		seq.delete();
+		pipe.delete();
+	}
+
+
+	@Test
+	public void testPipelineMatchesSavers() throws IOException {
+		assertSameOutput(PraatTier.SPILL_THRESHOLD);
+	}
+
+
+	@Test
+	public void testSpooledTiers() throws IOException {
+		assertSameOutput(256);
+	}
+
+}
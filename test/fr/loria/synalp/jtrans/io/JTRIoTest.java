@@ -0,0 +1,202 @@
+package fr.loria.synalp.jtrans.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import fr.loria.synalp.jtrans.markup.in.JTRLoader;
+import fr.loria.synalp.jtrans.markup.jtr.JTR.ProjectWrapper;
+import fr.loria.synalp.jtrans.markup.jtr.JTRBinary;
+import fr.loria.synalp.jtrans.markup.jtr.JTRReader;
+import fr.loria.synalp.jtrans.markup.jtr.JTRWriter;
+import fr.loria.synalp.jtrans.markup.out.JTRBinarySaver;
+import fr.loria.synalp.jtrans.markup.out.JTRSaver;
+import fr.loria.synalp.jtrans.project.Anchor;
+import fr.loria.synalp.jtrans.project.Phrase;
+import fr.loria.synalp.jtrans.project.Project;
+import fr.loria.synalp.jtrans.project.Token;
+import fr.loria.synalp.jtrans.project.Token.Phone;
+import fr.loria.synalp.jtrans.project.Token.Segment;
+import fr.loria.synalp.jtrans.project.TrackProject;
+import fr.loria.synalp.jtrans.project.TurnProject;
+import static fr.loria.synalp.jtrans.markup.jtr.JTR.newGson;
+import static org.junit.Assert.*;
+
+/**
+ * Round-trip tests of the streaming and binary JTR implementations against
+ * the reference (Gson tree model) implementation.
+ */
+public class JTRIoTest {
+
+	private static Token word(String text, int start, int end) {
+		Token t = new Token(text);
+		t.setSegment(start, end);
+		int mid = (start + end) / 2;
+		t.addPhone(new Phone("a", new Segment(start, mid)));
+		t.addPhone(new Phone("SIL", new Segment(mid, end)));
+		return t;
+	}
+
+
+	private static TrackProject trackProject() {
+		TrackProject p = new TrackProject();
+
+		List<Phrase> t1 = new ArrayList<>();
+		List<Token> toks = new ArrayList<>();
+		toks.add(word("il", 10, 12));
+		toks.add(new Token("mange"));
+		toks.add(new Token("<rire> & \"cris\"", Token.Type.NOISE));
+		t1.add(new Phrase(new Anchor(0.1f), new Anchor(0.15f), toks));
+		p.addTrack("toto", t1);
+
+		List<Phrase> t2 = new ArrayList<>();
+		toks = new ArrayList<>();
+		toks.add(word("été", 20, 30));
+		toks.get(0).setAnonymize(true);
+		t2.add(new Phrase(new Anchor(0.2f), new Anchor(0.3f), toks));
+		p.addTrack("titi", t2);
+
+		p.audioFile = new File("/tmp/foo.wav");
+		return p;
+	}
+
+
+	private static TurnProject turnProject() {
+		TurnProject p = new TurnProject();
+		p.newSpeaker("A");
+		p.newSpeaker("B");
+
+		TurnProject.Turn turn = p.newTurn();
+		turn.start = new Anchor(1.1f);
+		turn.end = new Anchor(2.25f);
+		turn.add(0, word("bonjour", 110, 150));
+		turn.add(0, new Token("hum", Token.Type.COMMENT));
+		turn.add(1, new Token("oui"));
+
+		// Phones may lack a segment (JTRReader accepts them)
+		Token unaligned = new Token("ah");
+		unaligned.addPhone(new Phone("a", null));
+		turn.add(1, unaligned);
+
+		turn = p.newTurn();
+		turn.add(1, word("non", 230, 240));
+
+		return p;
+	}
+
+
+	/**
+	 * Reference serialization, as done by the Gson implementation.
+	 */
+	private static String gson(Project p) {
+		return newGson().toJson(new ProjectWrapper(p));
+	}
+
+
+	private static String stream(Project p, boolean pretty) throws IOException {
+		StringWriter w = new StringWriter();
+		new JTRWriter(w, pretty).write(p);
+		return w.toString();
+	}
+
+
+	private static Project binaryRoundTrip(Project p) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JTRBinary.write(p, out);
+		return JTRBinary.read(new ByteArrayInputStream(out.toByteArray()));
+	}
+
+
+	private static void assertSameAnchors(TrackProject expected, TrackProject actual) {
+		assertEquals(expected.tracks.size(), actual.tracks.size());
+		for (int i = 0; i < expected.tracks.size(); i++) {
+			assertEquals(expected.tracks.get(i).size(), actual.tracks.get(i).size());
+			for (int j = 0; j < expected.tracks.get(i).size(); j++) {
+				Phrase e = expected.tracks.get(i).get(j);
+				Phrase a = actual.tracks.get(i).get(j);
+				assertEquals(e.getInitialAnchor(), a.getInitialAnchor());
+				assertEquals(e.getFinalAnchor(), a.getFinalAnchor());
+			}
+		}
+	}
+
+
+	@Test
+	public void testPrettyWriterMatchesGson() throws IOException {
+		assertEquals(gson(trackProject()), stream(trackProject(), true));
+		assertEquals(gson(turnProject()), stream(turnProject(), true));
+	}
+
+
+	@Test
+	public void testCompactWriterReadableByGson() throws IOException {
+		for (Project p: new Project[] {trackProject(), turnProject()}) {
+			Project back = newGson().fromJson(stream(p, false), ProjectWrapper.class).project;
+			assertEquals(gson(p), gson(back));
+		}
+	}
+
+
+	@Test
+	public void testStreamingReaderMatchesGson() throws IOException {
+		for (Project p: new Project[] {trackProject(), turnProject()}) {
+			String json = gson(p);
+			Project ref = newGson().fromJson(json, ProjectWrapper.class).project;
+			Project streamed = new JTRReader(new StringReader(json)).read();
+			assertEquals(ref.getClass(), streamed.getClass());
+			assertEquals(gson(ref), gson(streamed));
+			assertEquals(ref.speakerCount(), streamed.speakerCount());
+			if (ref instanceof TrackProject) {
+				assertSameAnchors((TrackProject) ref, (TrackProject) streamed);
+			}
+		}
+	}
+
+
+	@Test
+	public void testBinaryRoundTrip() throws IOException {
+		for (Project p: new Project[] {trackProject(), turnProject()}) {
+			Project back = binaryRoundTrip(p);
+			assertEquals(p.getClass(), back.getClass());
+			assertEquals(gson(p), gson(back));
+		}
+
+		// Phrase anchors are inferred the same way as in JSON files
+		TrackProject ref = (TrackProject) newGson().fromJson(
+				gson(trackProject()), ProjectWrapper.class).project;
+		assertSameAnchors(ref, (TrackProject) binaryRoundTrip(trackProject()));
+	}
+
+
+	@Test
+	public void testLoaderDetectsFormat() throws Exception {
+		File json = File.createTempFile("jtriotest", ".jtr");
+		File bin = File.createTempFile("jtriotest", ".jtrb");
+		json.deleteOnExit();
+		bin.deleteOnExit();
+
+		// Legacy file, written by Gson
+		try (OutputStream out = new FileOutputStream(json)) {
+			out.write(gson(turnProject()).getBytes("UTF-8"));
+		}
+		assertEquals(gson(turnProject()), gson(new JTRLoader().parse(json)));
+
+		new JTRSaver().save(turnProject(), json);
+		assertEquals(gson(turnProject()), gson(new JTRLoader().parse(json)));
+
+		new JTRBinarySaver().save(turnProject(), bin);
+		assertTrue(JTRBinary.isBinary(bin));
+		assertFalse(JTRBinary.isBinary(json));
+		assertEquals(gson(turnProject()), gson(new JTRLoader().parse(bin)));
+	}
+
+}
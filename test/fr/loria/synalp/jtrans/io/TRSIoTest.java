@@ -0,0 +1,269 @@
+package fr.loria.synalp.jtrans.io;
+
+import fr.loria.synalp.jtrans.markup.in.ParsingException;
+import fr.loria.synalp.jtrans.markup.in.RawTextLoader;
+import fr.loria.synalp.jtrans.markup.in.TRSLoader;
+import fr.loria.synalp.jtrans.project.Anchor;
+import fr.loria.synalp.jtrans.project.Token;
+import fr.loria.synalp.jtrans.project.TurnProject;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TRSIoTest {
+
+	private static final String HEADER =
+			"<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n" +
+			"<!DOCTYPE Trans SYSTEM \"trans-14.dtd\">\n" +
+			"<Trans scribe=\"test\" audio_filename=\"test\" version=\"1\" version_date=\"140101\">\n" +
+			"<Speakers>\n" +
+			"<Speaker id=\"spk1\" name=\"Alice\" check=\"no\" dialect=\"native\" accent=\"\" scope=\"local\"/>\n" +
+			"<Speaker id=\"spk2\" name=\"Bob\" check=\"no\" dialect=\"native\" accent=\"\" scope=\"local\"/>\n" +
+			"</Speakers>\n" +
+			"<Episode>\n";
+
+	private static final String FOOTER =
+			"</Episode>\n" +
+			"</Trans>\n";
+
+	/** Syncs, an overlapping turn with Who tags, comments and events */
+	private static final String FULL = HEADER +
+			"<Section type=\"report\" startTime=\"0\" endTime=\"12.5\">\n" +
+			"<Turn speaker=\"spk1\" startTime=\"0\" endTime=\"4.2\">\n" +
+			"<Sync time=\"0\"/>\n" +
+			"bonjour à tous\n" +
+			"<Comment desc=\"rires\"/>\n" +
+			"je commence\n" +
+			"<Sync time=\"2.5\"/>\n" +
+			"<Event desc=\"b\" type=\"noise\" extent=\"instantaneous\"/>\n" +
+			"et je continue\n" +
+			"</Turn>\n" +
+			"<Turn speaker=\"spk1 spk2\" startTime=\"4.2\" endTime=\"7\">\n" +
+			"<Sync time=\"4.2\"/>\n" +
+			"<Who nb=\"1\"/>\n" +
+			"oui oui\n" +
+			"<Who nb=\"2\"/>\n" +
+			"non <Event desc=\"pf\" type=\"noise\" extent=\"instantaneous\"/> non\n" +
+			"</Turn>\n" +
+			"<Turn speaker=\"spk2\" startTime=\"7\" endTime=\"12.5\">\n" +
+			"<Sync time=\"7\"/>\n" +
+			"<!-- transcriber note -->\n" +
+			"au revoir\n" +
+			"<Sync time=\"10\"/>\n" +
+			"</Turn>\n" +
+			"</Section>\n" +
+			FOOTER;
+
+	/** The last turn lacks an end time */
+	private static final String NO_END_TIME = HEADER +
+			"<Section type=\"report\" startTime=\"0\" endTime=\"6\">\n" +
+			"<Turn speaker=\"spk1\" startTime=\"0\" endTime=\"3\">\n" +
+			"<Sync time=\"0\"/>\n" +
+			"premier tour\n" +
+			"</Turn>\n" +
+			"<Turn speaker=\"spk2\" startTime=\"3\">\n" +
+			"<Sync time=\"3\"/>\n" +
+			"deuxième tour\n" +
+			"<Sync time=\"5\"/>\n" +
+			"fin\n" +
+			"</Turn>\n" +
+			"</Section>\n" +
+			FOOTER;
+
+
+	private static File write(String content) throws IOException {
+		File f = File.createTempFile("jtrans-test", ".trs");
+		f.deleteOnExit();
+		try (Writer w = new OutputStreamWriter(new FileOutputStream(f), "ISO-8859-1")) {
+			w.write(content);
+		}
+		return f;
+	}
+
+
+	/**
+	 * Describes a project: speakers, then turns with their anchors and the
+	 * tokens of each speaker.
+	 */
+	private static String dump(TurnProject p) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < p.speakerCount(); i++) {
+			sb.append("speaker ").append(p.getSpeakerName(i)).append('\n');
+		}
+		for (TurnProject.Turn turn: p.turns) {
+			sb.append("turn ").append(turn.start).append(' ').append(turn.end).append('\n');
+			for (int i = 0; i < turn.spkTokens.size(); i++) {
+				for (Token token: turn.spkTokens.get(i)) {
+					assertEquals(i, token.getSpeaker());
+					sb.append("  ").append(i).append(' ')
+							.append(token.getType()).append(' ')
+							.append(token).append('\n');
+				}
+			}
+		}
+		return sb.toString();
+	}
+
+
+	private static TurnProject parseStreaming(File f) throws Exception {
+		return new TRSLoader().parse(f);
+	}
+
+
+	private static TurnProject parseDOM(File f) throws Exception {
+		boolean keep = TRSLoader.KEEP_DOCUMENT;
+		TRSLoader.KEEP_DOCUMENT = true;
+		try {
+			TurnProject p = new TRSLoader().parse(f);
+			assertNotNull(p.document);
+			return p;
+		} finally {
+			TRSLoader.KEEP_DOCUMENT = keep;
+		}
+	}
+
+
+	@Test
+	public void testSameAsBaseline() throws Exception {
+		File f = write(FULL);
+		String baseline = dump(parseBaseline(TRSLoader.parseXML(f)));
+
+		assertEquals(baseline, dump(parseStreaming(f)));
+		assertEquals(baseline, dump(parseDOM(f)));
+	}
+
+
+	@Test
+	public void testContents() throws Exception {
+		TurnProject p = parseStreaming(write(FULL));
+
+		assertEquals(2, p.speakerCount());
+		assertEquals("Alice", p.getSpeakerName(0));
+		assertEquals("Bob", p.getSpeakerName(1));
+
+		// Each Sync splits a Turn
+		assertEquals(5, p.turns.size());
+		assertEquals(0f, p.turns.get(0).start.seconds, 0);
+		assertEquals(2.5f, p.turns.get(0).end.seconds, 0);
+		assertEquals(4.2f, p.turns.get(1).end.seconds, 0);
+		assertEquals(12.5f, p.turns.get(4).end.seconds, 0);
+
+		// Comments and events become tokens of the current speaker
+		List<Token> first = p.turns.get(0).spkTokens.get(0);
+		assertEquals(Token.Type.COMMENT, first.get(first.size() - 3).getType());
+		assertEquals(Token.Type.NOISE, p.turns.get(1).spkTokens.get(0).get(0).getType());
+
+		// Overlapping speech is split by Who tags
+		TurnProject.Turn overlap = p.turns.get(2);
+		assertEquals("[oui, oui]", overlap.spkTokens.get(0).toString());
+		assertEquals(3, overlap.spkTokens.get(1).size());
+		assertEquals(Token.Type.NOISE, overlap.spkTokens.get(1).get(1).getType());
+	}
+
+
+	@Test
+	public void testMissingEndTime() throws Exception {
+		File f = write(NO_END_TIME);
+
+		// The original parser couldn't load this file at all
+		try {
+			parseBaseline(TRSLoader.parseXML(f));
+			fail();
+		} catch (NumberFormatException ex) {
+			// expected
+		}
+
+		TurnProject p = parseStreaming(f);
+		assertEquals(dump(p), dump(parseDOM(f)));
+
+		assertEquals(3, p.turns.size());
+		assertEquals(3f, p.turns.get(0).end.seconds, 0);
+		assertEquals(5f, p.turns.get(1).end.seconds, 0);
+		assertEquals(5f, p.turns.get(2).start.seconds, 0);
+		assertNull(p.turns.get(2).end);
+		assertEquals("[fin]", p.turns.get(2).spkTokens.get(1).toString());
+	}
+
+
+	/**
+	 * The DOM-based parser used before the streaming parser was written,
+	 * kept as a reference.
+	 */
+	private static TurnProject parseBaseline(Document doc) throws ParsingException {
+		TurnProject project = new TurnProject();
+
+		// Map of Transcriber's speaker IDs to JTrans tracks
+		Map<String, Integer> spkIDMap = new HashMap<>();
+
+		NodeList speakerList = doc.getElementsByTagName("Speakers");
+		assertEquals(1, speakerList.getLength());
+
+		for (Node spk = speakerList.item(0).getFirstChild();
+			 null != spk;
+			 spk = spk.getNextSibling())
+		{
+			if (!spk.getNodeName().equals("Speaker"))
+				continue;
+
+			Element el = (Element)spk;
+			spkIDMap.put(el.getAttribute("id"), project.newSpeaker(el.getAttribute("name")));
+		}
+
+		NodeList turnList = doc.getElementsByTagName("Turn");
+		for (int i = 0; i < turnList.getLength(); i++) {
+			Element turn = (Element)turnList.item(i);
+
+			List<Integer> turnTracks = new ArrayList<>();
+			for (String turnSpeaker: turn.getAttribute("speaker").split(" "))
+				turnTracks.add(spkIDMap.get(turnSpeaker));
+
+			int spkID = turnTracks.get(0);
+			TurnProject.Turn pTurn = project.newTurn();
+			float endTime = Float.parseFloat(turn.getAttribute("endTime"));
+
+			for (Node child = turn.getFirstChild(); null != child; child = child.getNextSibling()) {
+				String name = child.getNodeName();
+
+				if (name.equals("#text")) {
+					pTurn.addAll(spkID, RawTextLoader.tokenize(
+							RawTextLoader.normalizeText(child.getTextContent().trim()),
+							RawTextLoader.DEFAULT_PATTERNS));
+				} else if (name.equals("Sync")) {
+					float time = Float.parseFloat(((Element) child).getAttribute("time"));
+					if (null != pTurn.start) {
+						pTurn.end = new Anchor(time);
+						pTurn = project.newTurn();
+					}
+					pTurn.start = new Anchor(time);
+				} else if (name.equals("Who")) {
+					int nb = Integer.parseInt(((Element)child).getAttribute("nb"))-1;
+					spkID = turnTracks.get(nb < turnTracks.size()? nb: 0);
+				} else {
+					Token token = TRSLoader.transformNode(child);
+					if (null != token) {
+						pTurn.add(spkID, token);
+					}
+				}
+			}
+
+			pTurn.end = new Anchor(endTime);
+		}
+
+		return project;
+	}
+
+}
@@ -0,0 +1,143 @@
+package fr.loria.synalp.jtrans.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.Test;
+
+import fr.loria.synalp.jtrans.markup.in.ParsingException;
+import fr.loria.synalp.jtrans.markup.in.TextGridBenchmark;
+import fr.loria.synalp.jtrans.markup.in.TextGridLoader;
+import fr.loria.synalp.jtrans.project.Phrase;
+import fr.loria.synalp.jtrans.project.TrackProject;
+import static org.junit.Assert.*;
+
+public class TextGridIoTest {
+
+	private static final String LONG =
+			"File type = \"ooTextFile\"\n" +
+			"Object class = \"TextGrid\"\n" +
+			"\n" +
+			"xmin = 0 \n" +
+			"xmax = 3.5 \n" +
+			"tiers? <exists> \n" +
+			"size = 2 \n" +
+			"item []: \n" +
+			"    item [1]:\n" +
+			"        class = \"IntervalTier\" \n" +
+			"        name = \"toto\" \n" +
+			"        xmin = 0 \n" +
+			"        xmax = 3.5 \n" +
+			"        intervals: size = 3 \n" +
+			"        intervals [1]:\n" +
+			"            xmin = 0 \n" +
+			"            xmax = 1.25 \n" +
+			"            text = \"bonjour \"\"les\"\"\n amis\" \n" +
+			"        intervals [2]:\n" +
+			"            xmin = 1.25 \n" +
+			"            xmax = 2 \n" +
+			"            text = \"\" \n" +
+			"        intervals [3]:\n" +
+			"            xmin = 2 \n" +
+			"            xmax = 3.5 \n" +
+			"            text = \"au revoir\" \n" +
+			"    item [2]:\n" +
+			"        class = \"TextTier\" \n" +
+			"        name = \"points\" \n" +
+			"        xmin = 0 \n" +
+			"        xmax = 3.5 \n" +
+			"        points: size = 1 \n" +
+			"        points [1]:\n" +
+			"            number = 1.5 \n" +
+			"            mark = \"x\" \n";
+
+	private static final String SHORT =
+			"File type = \"ooTextFile\"\n" +
+			"Object class = \"TextGrid\"\n" +
+			"\n" +
+			"0\n3.5\n<exists>\n2\n" +
+			"\"IntervalTier\"\n\"toto\"\n0\n3.5\n3\n" +
+			"0\n1.25\n\"bonjour \"\"les\"\"\n amis\"\n" +
+			"1.25\n2\n\"\"\n" +
+			"2\n3.5\n\"au revoir\"\n" +
+			"\"TextTier\"\n\"points\"\n0\n3.5\n1\n" +
+			"1.5\n\"x\"\n";
+
+
+	private static TrackProject parse(String s)
+			throws IOException, ParsingException
+	{
+		return new TextGridLoader().parse(new StringReader(s));
+	}
+
+
+	private static void assertSameProject(TrackProject a, TrackProject b) {
+		assertEquals(a.speakerCount(), b.speakerCount());
+		for (int i = 0; i < a.speakerCount(); i++) {
+			assertEquals(a.getSpeakerName(i), b.getSpeakerName(i));
+			List<Phrase> ta = a.tracks.get(i);
+			List<Phrase> tb = b.tracks.get(i);
+			assertEquals(ta.size(), tb.size());
+			for (int j = 0; j < ta.size(); j++) {
+				assertEquals(ta.get(j).getInitialAnchor(), tb.get(j).getInitialAnchor());
+				assertEquals(ta.get(j).getFinalAnchor(), tb.get(j).getFinalAnchor());
+				assertEquals(ta.get(j).toString(), tb.get(j).toString());
+			}
+		}
+	}
+
+
+	@Test
+	public void testLongFormat() throws Exception {
+		TrackProject p = parse(LONG);
+
+		// Point tier skipped
+		assertEquals(1, p.speakerCount());
+		assertEquals("toto", p.getSpeakerName(0));
+
+		// Empty interval skipped
+		List<Phrase> track = p.tracks.get(0);
+		assertEquals(2, track.size());
+		assertEquals(0f, track.get(0).getInitialAnchor().seconds, 0);
+		assertEquals(1.25f, track.get(0).getFinalAnchor().seconds, 0);
+		assertEquals(2f, track.get(1).getInitialAnchor().seconds, 0);
+		assertEquals(3.5f, track.get(1).getFinalAnchor().seconds, 0);
+
+		assertEquals(3, track.get(0).size());
+		assertEquals("bonjour", track.get(0).get(0).toString());
+		assertEquals("les", track.get(0).get(1).toString());
+		assertEquals("amis", track.get(0).get(2).toString());
+	}
+
+
+	@Test
+	public void testShortFormat() throws Exception {
+		assertSameProject(parse(LONG), parse(SHORT));
+	}
+
+
+	@Test
+	public void testSyntheticFormatsMatch() throws Exception {
+		File l = File.createTempFile("textgridiotest", ".textgrid");
+		File s = File.createTempFile("textgridiotest", ".textgrid");
+		l.deleteOnExit();
+		s.deleteOnExit();
+		TextGridBenchmark.writeSynthetic(l, 1000, false);
+		TextGridBenchmark.writeSynthetic(s, 1000, true);
+
+		TrackProject pl = (TrackProject) new TextGridLoader().parse(l);
+		TrackProject ps = (TrackProject) new TextGridLoader().parse(s);
+		assertEquals(2, pl.speakerCount());
+		assertEquals(333, pl.tracks.get(0).size());
+		assertSameProject(pl, ps);
+	}
+
+
+	@Test(expected = ParsingException.class)
+	public void testNotATextGrid() throws Exception {
+		parse("File type = \"ooTextFile\"\nObject class = \"Sound\"\n");
+	}
+
+}
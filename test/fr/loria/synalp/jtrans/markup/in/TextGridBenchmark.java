@@ -0,0 +1,195 @@
+package fr.loria.synalp.jtrans.markup.in;
+
+import fr.loria.synalp.jtrans.project.Anchor;
+import fr.loria.synalp.jtrans.project.Phrase;
+import fr.loria.synalp.jtrans.project.TrackProject;
+import fr.loria.synalp.jtrans.utils.FileUtils;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static fr.loria.synalp.jtrans.utils.FileUtils.getUTF8Reader;
+import static fr.loria.synalp.jtrans.utils.FileUtils.getUTF8Writer;
+
+/**
+ * Compares the throughput of the streaming TextGrid lexer with the former
+ * regex-based parser on a synthetic TextGrid.
+ * <p/>
+ * Usage: TextGridBenchmark [intervalCount] (default: one million intervals,
+ * spread over two tiers).
+ */
+public class TextGridBenchmark {
+
+	private static final String[] WORDS = {
+			"bonjour", "euh", "alors", "on", "va", "commencer", "l'enquête",
+			"oui", "d'accord", "[rire]", "XXX", "voilà",
+	};
+
+
+	/**
+	 * Writes a synthetic TextGrid.
+	 * @param shortFormat write the short text format instead of the long one
+	 */
+	public static void writeSynthetic(File f, int intervalCount, boolean shortFormat)
+			throws IOException
+	{
+		final int tierCount = 2;
+		final int perTier = intervalCount / tierCount;
+		final float dur = 0.25f;
+		final float xmax = perTier * dur;
+		Random random = new Random(0);
+
+		try (Writer w = getUTF8Writer(f)) {
+			w.write("File type = \"ooTextFile\"\nObject class = \"TextGrid\"\n\n");
+			if (shortFormat) {
+				w.write("0\n" + xmax + "\n<exists>\n" + tierCount + "\n");
+			} else {
+				w.write("xmin = 0\nxmax = " + xmax + "\ntiers? <exists>\nsize = "
+						+ tierCount + "\nitem []:\n");
+			}
+
+			for (int t = 0; t < tierCount; t++) {
+				if (shortFormat) {
+					w.write("\"IntervalTier\"\n\"spk" + t + "\"\n0\n" + xmax
+							+ "\n" + perTier + "\n");
+				} else {
+					w.write("\titem [" + (t+1) + "]:\n\t\tclass = \"IntervalTier\"\n"
+							+ "\t\tname = \"spk" + t + "\"\n\t\txmin = 0\n\t\txmax = "
+							+ xmax + "\n\t\tintervals: size = " + perTier + "\n");
+				}
+
+				for (int i = 0; i < perTier; i++) {
+					String text = i % 3 == 0? "": WORDS[random.nextInt(WORDS.length)]
+							+ " " + WORDS[random.nextInt(WORDS.length)];
+					float xmin = i * dur;
+					if (shortFormat) {
+						w.write(xmin + "\n" + (xmin + dur) + "\n\"" + text + "\"\n");
+					} else {
+						w.write("\t\tintervals [" + (i+1) + "]:\n\t\t\txmin = " + xmin
+								+ "\n\t\t\txmax = " + (xmin + dur)
+								+ "\n\t\t\ttext = \"" + text + "\"\n");
+					}
+				}
+			}
+		}
+	}
+
+
+	private static void report(String what, File f, int intervals, long nanos) {
+		double s = nanos / 1e9;
+		System.out.printf("%-32s %8.0f ms %10.1f MB/s %12.0f intervals/s%n",
+				what, s * 1000, f.length() / 1e6 / s, intervals / s);
+	}
+
+
+	/**
+	 * Reads all values without building a project.
+	 */
+	private static int lexOnly(File f) throws IOException, ParsingException {
+		try (Reader r = getUTF8Reader(f)) {
+			TextGridLexer lexer = new TextGridLexer(r);
+			lexer.nextString();
+			lexer.nextString();
+			lexer.nextFloat();
+			lexer.nextFloat();
+			lexer.nextFlag();
+			int tiers = lexer.nextInt();
+			int total = 0;
+			for (int t = 0; t < tiers; t++) {
+				lexer.nextString();
+				lexer.nextString();
+				lexer.nextFloat();
+				lexer.nextFloat();
+				int n = lexer.nextInt();
+				for (int i = 0; i < n; i++) {
+					lexer.nextFloat();
+					lexer.nextFloat();
+					lexer.nextString();
+				}
+				total += n;
+			}
+			return total;
+		}
+	}
+
+
+	/**
+	 * Loads a project the way TextGridLoader used to: regex-based parsing
+	 * into intermediate intervals, then tokenization.
+	 */
+	private static TrackProject legacyParse(File f)
+			throws IOException, ParsingException
+	{
+		TrackProject project = new TrackProject();
+		TextGridStateMachine machine;
+		try (BufferedReader r = FileUtils.openFileAutoCharset(f)) {
+			machine = new TextGridStateMachine(r);
+		}
+
+		for (int i = 0; i < machine.tiers.size(); i++) {
+			List<Phrase> track = new ArrayList<>();
+			for (TextGridStateMachine.Interval interval: machine.tiers.get(i)) {
+				track.add(new Phrase(
+						new Anchor(interval.xmin),
+						new Anchor(interval.xmax),
+						RawTextLoader.tokenize(
+								RawTextLoader.normalizeText(interval.text),
+								RawTextLoader.DEFAULT_PATTERNS)));
+			}
+			project.addTrack(machine.tierNames.get(i), track);
+		}
+
+		return project;
+	}
+
+
+	public static void main(String[] args) throws Exception {
+		int intervals = args.length > 0? Integer.parseInt(args[0]): 1000000;
+
+		File longFile = File.createTempFile("jtrans-bench", ".long.textgrid");
+		File shortFile = File.createTempFile("jtrans-bench", ".short.textgrid");
+		longFile.deleteOnExit();
+		shortFile.deleteOnExit();
+		writeSynthetic(longFile, intervals, false);
+		writeSynthetic(shortFile, intervals, true);
+
+		System.out.println("Synthetic TextGrid: " + intervals + " intervals; "
+				+ longFile.length() / 1000000 + " MB (long), "
+				+ shortFile.length() / 1000000 + " MB (short)");
+
+		// Warm-up
+		lexOnly(longFile);
+
+		long t0 = System.nanoTime();
+		try (BufferedReader r = getUTF8Reader(longFile)) {
+			new TextGridStateMachine(r);
+		}
+		report("regex state machine (long)", longFile, intervals, System.nanoTime() - t0);
+
+		t0 = System.nanoTime();
+		lexOnly(longFile);
+		report("streaming lexer (long)", longFile, intervals, System.nanoTime() - t0);
+
+		t0 = System.nanoTime();
+		lexOnly(shortFile);
+		report("streaming lexer (short)", shortFile, intervals, System.nanoTime() - t0);
+
+		t0 = System.nanoTime();
+		legacyParse(longFile);
+		report("former loader (long)", longFile, intervals, System.nanoTime() - t0);
+
+		t0 = System.nanoTime();
+		new TextGridLoader().parse(longFile);
+		report("TextGridLoader.parse (long)", longFile, intervals, System.nanoTime() - t0);
+
+		t0 = System.nanoTime();
+		new TextGridLoader().parse(shortFile);
+		report("TextGridLoader.parse (short)", shortFile, intervals, System.nanoTime() - t0);
+
+		longFile.delete();
+		shortFile.delete();
+	}
+
+}
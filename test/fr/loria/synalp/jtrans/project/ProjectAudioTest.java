@@ -0,0 +1,204 @@
+package fr.loria.synalp.jtrans.project;
+
+import fr.loria.synalp.jtrans.align.Aligner;
+import fr.loria.synalp.jtrans.align.Alignment;
+import fr.loria.synalp.jtrans.align.LinearAligner;
+import fr.loria.synalp.jtrans.graph.StateGraph;
+import fr.loria.synalp.jtrans.utils.ProgressDisplay;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static fr.loria.synalp.jtrans.speechreco.s4.S4mfccBuffer.second2frame;
+import static org.junit.Assert.*;
+
+public class ProjectAudioTest {
+
+	private boolean oldWrite;
+	private boolean oldSplit;
+
+
+	@Before
+	public void setUp() {
+		oldWrite = Project.WRITE_CONVERTED_AUDIO;
+		oldSplit = TrackProject.SPLIT_CHANNELS;
+	}
+
+
+	@After
+	public void tearDown() {
+		Project.WRITE_CONVERTED_AUDIO = oldWrite;
+		TrackProject.SPLIT_CHANNELS = oldSplit;
+	}
+
+
+	/**
+	 * Writes a 16-bit WAV file with a different tone on each channel.
+	 */
+	static File wav(float rate, int channels, float seconds) throws IOException {
+		int frames = (int) (rate * seconds);
+		byte[] bytes = new byte[frames * channels * 2];
+		int p = 0;
+		for (int i = 0; i < frames; i++) {
+			for (int c = 0; c < channels; c++) {
+				double v = Math.sin(2 * Math.PI * 200 * (c+1) * i / rate);
+				short s = (short) Math.round(10000 * v);
+				bytes[p++] = (byte) s;
+				bytes[p++] = (byte) (s >> 8);
+			}
+		}
+
+		File f = File.createTempFile("jtrans-project", ".wav");
+		f.deleteOnExit();
+		AudioSystem.write(
+				new AudioInputStream(new ByteArrayInputStream(bytes),
+						new AudioFormat(rate, 16, channels, true, false), frames),
+				AudioFileFormat.Type.WAVE, f);
+		return f;
+	}
+
+
+	@Test
+	public void testConvertWithoutWriting() throws Exception {
+		Project.WRITE_CONVERTED_AUDIO = false;
+
+		File in = wav(44100, 1, 2);
+		TurnProject p = new TurnProject();
+		p.setAudio(in);
+
+		// Nothing was written, but the length is known and the aligners get
+		// the features extracted while converting
+		assertNotEquals(in, p.convertedAudioFile);
+		assertFalse(p.convertedAudioFile.exists());
+		assertEquals(second2frame(2), p.audioSourceTotalFrames, 1);
+
+		Aligner aligner = new LinearAligner(p.convertedAudioFile, null);
+		assertEquals(p.audioSourceTotalFrames, aligner.getFrameCount(), 2);
+	}
+
+
+	@Test
+	public void testConvertAndWrite() throws Exception {
+		Project.WRITE_CONVERTED_AUDIO = true;
+
+		File in = wav(44100, 1, 2);
+		TurnProject p = new TurnProject();
+		p.setAudio(in);
+
+		assertTrue(p.convertedAudioFile.exists());
+		assertEquals(second2frame(2), p.audioSourceTotalFrames, 1);
+		p.convertedAudioFile.deleteOnExit();
+	}
+
+
+	/** Records the audio file each phrase is aligned against */
+	public static class RecordingAligner extends Aligner {
+		static final Map<String, File> alignedAgainst =
+				Collections.synchronizedMap(new HashMap<String, File>());
+
+		public RecordingAligner(File audio, ProgressDisplay progress) {
+			super(audio, progress);
+		}
+
+		@Override
+		public void align(Anchor start, Anchor end, List<Token> words, Aligner reference) {
+			alignedAgainst.put(words.get(0).toString(), audio);
+		}
+
+		@Override
+		protected Alignment getAlignment(StateGraph graph, String text,
+										 int startFrame, int endFrame)
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+
+
+	private static TrackProject trackProject(File audio, int tracks) {
+		TrackProject p = new TrackProject();
+		for (int i = 0; i < tracks; i++) {
+			p.addTrack("S" + i, new ArrayList<>(Arrays.asList(new Phrase(
+					new Anchor(0), new Anchor(1),
+					Arrays.asList(new Token("w" + i))))));
+		}
+		p.setAudio(audio);
+		return p;
+	}
+
+
+	private static void alignAll(TrackProject p, Aligner aligner) throws Exception {
+		RecordingAligner.alignedAgainst.clear();
+		for (AlignmentJob job: p.getAlignmentJobs()) {
+			job.align(aligner, null);
+		}
+	}
+
+
+	@Test
+	public void testTracksAlignedAgainstMix() throws Exception {
+		TrackProject.SPLIT_CHANNELS = false;
+
+		TrackProject p = trackProject(wav(16000, 2, 2), 2);
+		assertEquals(-1, p.getChannel(0));
+		assertNull(p.getChannelAudioFile(1));
+
+		Aligner aligner = new RecordingAligner(p.convertedAudioFile, null);
+		alignAll(p, aligner);
+		assertEquals(p.convertedAudioFile, RecordingAligner.alignedAgainst.get("w0"));
+		assertEquals(p.convertedAudioFile, RecordingAligner.alignedAgainst.get("w1"));
+	}
+
+
+	@Test
+	public void testTracksAlignedAgainstChannels() throws Exception {
+		TrackProject.SPLIT_CHANNELS = true;
+
+		File stereo = wav(16000, 2, 2);
+		TrackProject p = trackProject(stereo, 2);
+		assertEquals(0, p.getChannel(0));
+		assertEquals(1, p.getChannel(1));
+
+		File left = p.getChannelAudioFile(0);
+		File right = p.getChannelAudioFile(1);
+		assertNotEquals(left, right);
+		assertNotEquals(p.convertedAudioFile, left);
+		assertArrayEquals(Project.channelAudioFiles(stereo),
+				new File[] {left, right});
+
+		Aligner aligner = new RecordingAligner(p.convertedAudioFile, null);
+		alignAll(p, aligner);
+		assertEquals(left, RecordingAligner.alignedAgainst.get("w0"));
+		assertEquals(right, RecordingAligner.alignedAgainst.get("w1"));
+
+		// Likelihoods are accumulated by the given aligner: stay on the mix
+		aligner.setComputeLikelihoods(true);
+		p.clearAlignment();
+		alignAll(p, aligner);
+		assertEquals(p.convertedAudioFile, RecordingAligner.alignedAgainst.get("w0"));
+	}
+
+
+	@Test(expected = IOException.class)
+	public void testChannelCountMismatch() throws Exception {
+		TrackProject.SPLIT_CHANNELS = true;
+
+		// Three tracks can't be mapped to two channels
+		TrackProject p = trackProject(wav(16000, 2, 2), 3);
+		alignAll(p, new RecordingAligner(p.convertedAudioFile, null));
+	}
+
+}
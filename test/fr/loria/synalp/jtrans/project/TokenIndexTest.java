@@ -0,0 +1,123 @@
+package fr.loria.synalp.jtrans.project;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TokenIndexTest {
+
+	private static Token token(String text, int start, int end) {
+		Token t = new Token(text);
+		t.setSegment(start, end);
+		return t;
+	}
+
+
+	private static List<Token> bruteForce(List<Token> tokens, int first, int last) {
+		List<Token> list = new ArrayList<>();
+		for (Token t: tokens) {
+			if (t.isAligned()
+					&& t.getSegment().getEndFrame() >= first
+					&& t.getSegment().getStartFrame() <= last)
+			{
+				list.add(t);
+			}
+		}
+		return list;
+	}
+
+
+	@Test
+	public void testRangeQueries() {
+		Random r = new Random(0);
+		List<Token> tokens = new ArrayList<>();
+		int frame = 0;
+		for (int i = 0; i < 1000; i++) {
+			frame += r.nextInt(20);
+			int len = r.nextInt(i % 50 == 0? 300: 30);
+			tokens.add(token("w" + i, frame, frame + len));
+		}
+		tokens.add(new Token("unaligned"));
+		Collections.shuffle(tokens, r);
+
+		TokenIndex index = TokenIndex.build(tokens);
+		assertEquals(1000, index.size());
+
+		for (int q = 0; q < 500; q++) {
+			int first = r.nextInt(frame + 100) - 50;
+			int last = first + r.nextInt(200);
+			List<Token> expected = bruteForce(tokens, first, last);
+			List<Token> actual = index.getTokens(first, last);
+			assertEquals(expected.size(), actual.size());
+			assertTrue(actual.containsAll(expected));
+		}
+	}
+
+
+	@Test
+	public void testTokenAtOrAfter() {
+		Token a = token("a", 0, 9);
+		Token b = token("b", 10, 19);
+		Token c = token("c", 30, 39);
+		TokenIndex index = TokenIndex.build(Arrays.asList(c, a, b));
+
+		assertSame(a, index.getTokenAtOrAfter(-5));
+		assertSame(a, index.getTokenAtOrAfter(9));
+		assertSame(b, index.getTokenAtOrAfter(10));
+		assertSame(c, index.getTokenAtOrAfter(20));
+		assertNull(index.getTokenAtOrAfter(40));
+	}
+
+
+	@Test
+	public void testUpdate() {
+		Token a = token("a", 0, 9);
+		Token b = token("b", 10, 19);
+		Token c = new Token("c");
+		TokenIndex index = TokenIndex.build(Arrays.asList(a, b, c));
+		assertEquals(2, index.size());
+
+		// Newly aligned token is merged in order
+		c.setSegment(5, 6);
+		// Unaligned token is dropped
+		b.clearAlignment();
+		TokenIndex updated = index.update(Arrays.asList(b, c));
+
+		assertEquals(2, updated.size());
+		assertSame(a, updated.get(0));
+		assertSame(c, updated.get(1));
+		assertEquals(Arrays.asList(a, c), updated.getTokens(5, 5));
+		assertEquals(Collections.<Token>emptyList(), updated.getTokens(10, 19));
+
+		// The original snapshot is unchanged
+		assertEquals(2, index.size());
+		assertSame(b, index.get(1));
+	}
+
+
+	@Test
+	public void testProjectIndex() {
+		TrackProject project = new TrackProject();
+		Token a = token("a", 0, 9);
+		Token b = new Token("b");
+		List<Phrase> track = new ArrayList<>();
+		track.add(new Phrase(new Anchor(0), new Anchor(1), new ArrayList<>(Arrays.asList(a, b))));
+		project.addTrack("spk", track);
+
+		assertEquals(Arrays.asList(a), project.getTokenIndex(0).getTokens(0, 100));
+
+		b.setSegment(20, 29);
+		project.alignmentChanged(Arrays.asList(b));
+		assertEquals(Arrays.asList(a, b), project.getTokenIndex(0).getTokens(0, 100));
+
+		project.clearAlignment();
+		assertEquals(0, project.getTokenIndex(0).size());
+	}
+
+}
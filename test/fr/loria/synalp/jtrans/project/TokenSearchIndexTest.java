@@ -0,0 +1,118 @@
+package fr.loria.synalp.jtrans.project;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class TokenSearchIndexTest {
+
+	private static TurnProject project() {
+		TurnProject p = new TurnProject();
+		p.newSpeaker("A");
+		p.newSpeaker("B");
+
+		TurnProject.Turn turn = p.newTurn();
+		turn.add(0, new Token("Bonjour"));
+		turn.add(0, new Token("(rire)", Token.Type.COMMENT));
+		turn.add(0, new Token("bon"));
+		turn.add(1, new Token("bonne"));
+
+		Token anon = new Token("Paris");
+		anon.setAnonymize(true);
+		turn.add(1, anon);
+
+		turn = p.newTurn();
+		turn.add(0, new Token("BON"));
+		turn.add(1, new Token("journée"));
+		return p;
+	}
+
+
+	@Test
+	public void testWholeWord() {
+		TokenSearchIndex index = project().getSearchIndex();
+
+		TokenSearchIndex.Hits hits = index.find("Bon", false);
+		assertEquals(2, hits.size());
+		assertArrayEquals(new int[] {0, 2}, hits.next(0, 0, 1, true));
+		assertArrayEquals(new int[] {0, 3}, hits.next(0, 2, 1, false));
+		assertNull(hits.next(0, 3, 1, false));
+
+		assertEquals(0, index.find("rire", false).size());
+		assertEquals(0, index.find("(rire)", false).size());
+	}
+
+
+	@Test
+	public void testPrefix() {
+		TokenSearchIndex index = project().getSearchIndex();
+
+		TokenSearchIndex.Hits hits = index.find("bon", true);
+		assertEquals(4, hits.size());
+		assertEquals(Arrays.asList("Bonjour", "bon", "BON", "bonne"),
+				Arrays.asList(
+						hits.getTokens().get(0).toString(),
+						hits.getTokens().get(1).toString(),
+						hits.getTokens().get(2).toString(),
+						hits.getTokens().get(3).toString()));
+
+		// Walk forward across speakers
+		int[] hit = hits.next(0, 0, 1, true);
+		assertArrayEquals(new int[] {0, 0}, hit);
+		hit = hits.next(hit[0], hit[1], 1, false);
+		assertArrayEquals(new int[] {0, 2}, hit);
+		hit = hits.next(hit[0], hit[1], 1, false);
+		assertArrayEquals(new int[] {0, 3}, hit);
+		hit = hits.next(hit[0], hit[1], 1, false);
+		assertArrayEquals(new int[] {1, 0}, hit);
+		assertNull(hits.next(hit[0], hit[1], 1, false));
+
+		// Walk backward from the end
+		hit = hits.next(1, Integer.MAX_VALUE, -1, true);
+		assertArrayEquals(new int[] {1, 0}, hit);
+		hit = hits.next(hit[0], hit[1], -1, false);
+		assertArrayEquals(new int[] {0, 3}, hit);
+		hit = hits.next(0, 1, -1, false);
+		assertArrayEquals(new int[] {0, 0}, hit);
+		assertNull(hits.next(0, 0, -1, false));
+	}
+
+
+	@Test
+	public void testNormalization() {
+		TokenSearchIndex index = project().getSearchIndex();
+		// decomposed e + combining acute accent
+		assertEquals(1, index.find("journe\u0301e", false).size());
+		assertEquals(1, index.find("JOURN\u00c9E", false).size());
+	}
+
+
+	@Test
+	public void testAnonymized() {
+		TokenSearchIndex.Hits hits = project().getSearchIndex().findAnonymized();
+		assertEquals(1, hits.size());
+		assertEquals("Paris", hits.getTokens().get(0).toString());
+		assertArrayEquals(new int[] {1, 1}, hits.next(0, 0, 1, true));
+	}
+
+
+	@Test
+	public void testUpdate() {
+		TurnProject p = project();
+		TokenSearchIndex index = p.getSearchIndex();
+		assertEquals(1, index.find("bonne", false).size());
+
+		p.turns.get(1).add(1, new Token("bonne"));
+		p.tokensChanged(1);
+
+		assertSame(index, p.getSearchIndex());
+		assertEquals(2, index.find("bonne", false).size());
+		assertEquals(2, index.find("bon", false).size());
+
+		p.newSpeaker("C");
+		assertEquals(3, p.getSearchIndex().getSpeakerCount());
+	}
+
+}
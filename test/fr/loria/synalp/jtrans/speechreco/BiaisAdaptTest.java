@@ -0,0 +1,142 @@
+package fr.loria.synalp.jtrans.speechreco;
+
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.MixtureComponent;
+import edu.cmu.sphinx.util.LogMath;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class BiaisAdaptTest {
+
+	private static final int DIM = 3;
+	private final LogMath logMath = new LogMath(1.0001f, true);
+	private final int savedThreads = BiaisAdapt.THREADS;
+
+
+	@After
+	public void restoreThreads() {
+		BiaisAdapt.THREADS = savedThreads;
+	}
+
+
+	private MixtureComponent gaussian(float... mean) {
+		float[] var = new float[mean.length];
+		Arrays.fill(var, 1f);
+		return new MixtureComponent(logMath, mean.clone(), var);
+	}
+
+
+	/**
+	 * Two phone models of two Gaussians each, the second Gaussian of the
+	 * first model being shared with the second model.
+	 */
+	private List<MixtureComponent[]> models() {
+		MixtureComponent shared = gaussian(5, 5, 5);
+		List<MixtureComponent[]> models = new ArrayList<>();
+		models.add(new MixtureComponent[] {gaussian(0, 0, 0), shared});
+		models.add(new MixtureComponent[] {shared, gaussian(-5, -5, -5)});
+		return models;
+	}
+
+
+	private static Set<MixtureComponent> identitySet() {
+		return Collections.newSetFromMap(new IdentityHashMap<MixtureComponent, Boolean>());
+	}
+
+
+	@Test
+	public void testSingleFrameMatchesOnlineUpdate() throws Exception {
+		List<MixtureComponent[]> models = models();
+		float[] x = {1, 2, -1};
+		Set<MixtureComponent> adapted = identitySet();
+
+		BiaisAdapt.adaptMeans(Collections.singletonList(x), new int[] {0}, models, 1, adapted);
+
+		MixtureComponent g = models.get(0)[0];
+		assertEquals(1, adapted.size());
+		assertTrue(adapted.contains(g));
+		for (int j = 0; j < DIM; j++) {
+			assertEquals(0.1f * x[j], g.getMean()[j], 1e-6);
+		}
+		assertArrayEquals(new float[] {5, 5, 5}, models.get(0)[1].getMean(), 0);
+	}
+
+
+	@Test
+	public void testShardsMatchSingleThread() throws Exception {
+		Random r = new Random(0);
+		List<float[]> frames = new ArrayList<>();
+		int[] frameModels = new int[20000];
+		for (int i = 0; i < frameModels.length; i++) {
+			frameModels[i] = r.nextInt(10) == 0? -1: r.nextInt(2);
+			float[] x = new float[DIM];
+			for (int j = 0; j < DIM; j++) {
+				x[j] = (float) r.nextGaussian() * 4;
+			}
+			frames.add(x);
+		}
+
+		BiaisAdapt.THREADS = 1;
+		List<MixtureComponent[]> seq = models();
+		float[] seqLL = BiaisAdapt.adaptMeans(frames, frameModels, seq, 3, identitySet());
+
+		BiaisAdapt.THREADS = 4;
+		List<MixtureComponent[]> par = models();
+		float[] parLL = BiaisAdapt.adaptMeans(frames, frameModels, par, 3, identitySet());
+
+		for (int it = 0; it < seqLL.length; it++) {
+			assertEquals(seqLL[it], parLL[it], Math.abs(seqLL[it]) * 1e-5);
+		}
+		for (int m = 0; m < seq.size(); m++) {
+			for (int g = 0; g < seq.get(m).length; g++) {
+				assertArrayEquals(seq.get(m)[g].getMean(), par.get(m)[g].getMean(), 1e-4f);
+			}
+		}
+	}
+
+
+	@Test
+	public void testDeltaRoundTrip() throws Exception {
+		List<MixtureComponent> comps = new ArrayList<>();
+		for (MixtureComponent[] m: models()) {
+			for (MixtureComponent c: m) {
+				if (!comps.contains(c)) comps.add(c);
+			}
+		}
+		Set<MixtureComponent> adapted = identitySet();
+		comps.get(1).getMean()[2] = 42;
+		adapted.add(comps.get(1));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BiaisAdapt.writeDelta(new DataOutputStream(bytes), comps, adapted);
+		// header + one entry
+		assertEquals(5*4 + 4 + DIM*4, bytes.size());
+
+		List<MixtureComponent> fresh = new ArrayList<>();
+		for (MixtureComponent[] m: models()) {
+			for (MixtureComponent c: m) {
+				if (!fresh.contains(c)) fresh.add(c);
+			}
+		}
+		int n = BiaisAdapt.readDelta(new DataInputStream(
+				new ByteArrayInputStream(bytes.toByteArray())), fresh);
+		assertEquals(1, n);
+		for (int i = 0; i < comps.size(); i++) {
+			assertArrayEquals(comps.get(i).getMean(), fresh.get(i).getMean(), 0);
+		}
+	}
+
+}
@@ -0,0 +1,171 @@
+package fr.loria.synalp.jtrans.speechreco;
+
+import fr.loria.synalp.jtrans.utils.DETHistogram;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class CorpusEvaluationTest {
+
+	private int oldThreads;
+	private boolean oldPrint;
+	private File dir;
+
+
+	@Before
+	public void setUp() throws IOException {
+		oldThreads = CorpusEvaluation.THREADS;
+		oldPrint = CorpusEvaluation.PRINT_PER_FILE;
+		dir = Files.createTempDirectory("corpusevaluationtest").toFile();
+	}
+
+
+	@After
+	public void tearDown() {
+		CorpusEvaluation.THREADS = oldThreads;
+		CorpusEvaluation.PRINT_PER_FILE = oldPrint;
+		for (File f: dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+
+	private File write(String name, String encoding, String content)
+			throws IOException
+	{
+		File f = new File(dir, name);
+		try (Writer w = new OutputStreamWriter(new FileOutputStream(f), encoding)) {
+			w.write(content);
+		}
+		return f;
+	}
+
+
+	/**
+	 * Writes two pairs: "a" (reference given in the manifest) has a deletion
+	 * and a filler; "b" (default reference) has a substitution.
+	 */
+	private void writePairs() throws IOException {
+		// CTM files are ISO-8859-1, lab files are UTF-8
+		write("a.ctm", "ISO-8859-1",
+				"a 1 0.00 0.10 Bonjour 0.9\n" +
+				"a 1 0.10 0.20 été 0.8\n" +
+				"a 1 0.20 0.30 <sil> 0.5\n" +
+				"a 1 0.30 0.40 monde 0.3\n");
+		write("ref_a.lab", "UTF-8",
+				"0 10 bonjour\n" +
+				"10 20 été\n" +
+				"20 30 le\n" +
+				"30 40 monde\n");
+		write("b.ctm", "ISO-8859-1",
+				"b 1 0.00 0.10 chat 0.7\n" +
+				"b 1 0.10 0.20 noir 0.2\n");
+		write("b.lab", "UTF-8",
+				"0 10 chien\n" +
+				"10 20 noir\n");
+	}
+
+
+	private String path(String name) {
+		return new File(dir, name).getPath();
+	}
+
+
+	@Test
+	public void testEvaluatePair() throws IOException {
+		writePairs();
+
+		CorpusEvaluation.Result a = CorpusEvaluation.evaluate(
+				path("a.ctm"), path("ref_a.lab"));
+		assertEquals(1, a.files);
+		assertEquals(4, a.refWords);
+		assertEquals(3, a.hypWords);
+		assertEquals(1, a.errors);
+		assertEquals(3, a.det.getNex());
+		assertTrue(Float.isNaN(a.det.computeEER()));
+
+		CorpusEvaluation.Result b = CorpusEvaluation.evaluate(
+				path("b.ctm"), path("b.lab"));
+		assertEquals(2, b.refWords);
+		assertEquals(2, b.hypWords);
+		assertEquals(1, b.errors);
+		assertEquals(2, b.det.getNex());
+	}
+
+
+	@Test
+	public void testManifest() throws Exception {
+		writePairs();
+
+		StringBuilder manifest = new StringBuilder();
+		for (int i = 0; i < 10; i++) {
+			manifest.append(path("a.ctm")).append(' ').append(path("ref_a.lab"))
+					.append("\n\n  ")
+					.append(path("b.ctm")).append('\n');
+		}
+		File m = write("manifest", "UTF-8", manifest.toString());
+
+		CorpusEvaluation.THREADS = 3;
+		CorpusEvaluation.PRINT_PER_FILE = true;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		CorpusEvaluation.Result total = CorpusEvaluation.evaluateManifest(
+				m.getPath(), new PrintStream(bytes, true, "UTF-8"));
+
+		assertEquals(20, total.files);
+		assertEquals(60, total.refWords);
+		assertEquals(50, total.hypWords);
+		assertEquals(20, total.errors);
+		assertEquals(2f / 6f, total.getWER(), 1e-6f);
+
+		DETHistogram det = new DETHistogram();
+		for (int i = 0; i < 10; i++) {
+			det.updateExample(true, 0.9f);
+			det.updateExample(true, 0.8f);
+			det.updateExample(true, 0.3f);
+			det.updateExample(false, 0.7f);
+			det.updateExample(true, 0.2f);
+		}
+		assertEquals(det.getNex(), total.det.getNex());
+		assertEquals(det.computeEER(), total.det.computeEER(), 0);
+
+		// One line per pair, in manifest order, then the summary
+		String[] lines = bytes.toString("UTF-8").split("\n");
+		assertEquals(21, lines.length);
+		for (int i = 0; i < 20; i++) {
+			String name = path(i % 2 == 0? "a.ctm": "b.ctm");
+			assertTrue(lines[i], lines[i].startsWith(name + " "));
+		}
+		assertTrue(lines[20], lines[20].startsWith("files=20 TOTAL "));
+
+		// Same totals on a single thread
+		CorpusEvaluation.THREADS = 1;
+		CorpusEvaluation.PRINT_PER_FILE = false;
+		bytes.reset();
+		CorpusEvaluation.Result seq = CorpusEvaluation.evaluateManifest(
+				m.getPath(), new PrintStream(bytes, true, "UTF-8"));
+		assertEquals(total.toString(), seq.toString());
+		assertEquals(1, bytes.toString("UTF-8").split("\n").length);
+	}
+
+
+	@Test(expected = IOException.class)
+	public void testMissingReference() throws Exception {
+		writePairs();
+		File m = write("manifest", "UTF-8", path("a.ctm") + " " + path("nope.lab") + "\n");
+		CorpusEvaluation.evaluateManifest(m.getPath(),
+				new PrintStream(new ByteArrayOutputStream()));
+	}
+
+}
@@ -0,0 +1,97 @@
+package fr.loria.synalp.jtrans.speechreco;
+
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import edu.cmu.sphinx.result.Sausage;
+import edu.cmu.sphinx.util.LogMath;
+
+public class SausageAlignerTest {
+
+	private static final int DEFAULT_BAND = SausageAligner.BAND;
+
+
+	@After
+	public void restoreBand() {
+		SausageAligner.BAND = DEFAULT_BAND;
+	}
+
+
+	private static Sausage sausage(String[][] so6) {
+		Sausage s = new Sausage(so6.length);
+		LogMath logMath = new LogMath();
+		for (int i=0;i<so6.length;i++) {
+			for (int j=0;j<so6[i].length;j++)
+				s.addWordHypothesis(i, so6[i][j], 0, logMath);
+		}
+		return s;
+	}
+
+
+	@Test
+	public void testCounts() {
+		String[][] so6 = {{"x"},{"a","b"},{"c"},{"<noop>"},{"d"}};
+		String[] ref = {"b","e","d","f"};
+
+		SausageAligner.Result res = new SausageAligner().align(ref, sausage(so6));
+		// x inserted, c substituted to e, <noop> free, f deleted
+		assertEquals(1, res.ins);
+		assertEquals(1, res.sub);
+		assertEquals(1, res.del);
+		assertEquals(4, res.refLength);
+		assertEquals(so6.length + 1, res.path.length);
+	}
+
+
+	@Test
+	public void testLeadingInsertions() {
+		String[][] so6 = {{"x"},{"y"},{"a"}};
+		String[] ref = {"a"};
+
+		SausageAligner.Result res = new SausageAligner().align(ref, sausage(so6));
+		assertEquals(2, res.ins);
+		assertEquals(0, res.del + res.sub);
+	}
+
+
+	@Test
+	public void testNormalization() {
+		String[][] so6 = {{"Aujourd'hui"},{"<sil>"}};
+		String[] ref = {"aujourd'hui"};
+
+		SausageAligner.Result res = new SausageAligner().align(ref, sausage(so6));
+		assertEquals(0, res.getErrors());
+	}
+
+
+	@Test
+	public void testBandMatchesFullMatrix() {
+		Random random = new Random(1);
+		String[] vocab = {"a","b","c","d","e","f","g","<noop>"};
+
+		for (int trial = 0; trial < 50; trial++) {
+			int m = 50 + random.nextInt(200);
+			String[][] so6 = new String[m][];
+			for (int j = 0; j < m; j++) {
+				so6[j] = new String[1 + random.nextInt(3)];
+				for (int k = 0; k < so6[j].length; k++)
+					so6[j][k] = vocab[random.nextInt(vocab.length)];
+			}
+			String[] ref = new String[m + random.nextInt(21) - 10];
+			for (int i = 0; i < ref.length; i++)
+				ref[i] = vocab[random.nextInt(vocab.length-1)];
+
+			Sausage s = sausage(so6);
+			SausageAligner.BAND = 0;
+			SausageAligner.Result full = new SausageAligner().align(ref, s);
+			SausageAligner.BAND = 40;
+			SausageAligner.Result banded = new SausageAligner().align(ref, s);
+
+			assertEquals(full.getErrors(), banded.getErrors());
+		}
+	}
+
+}
@@ -1,14 +1,38 @@
 package fr.loria.synalp.jtrans.speechreco;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
 
 import static org.junit.Assert.*;
 
+import org.junit.After;
 import org.junit.Test;
 
+import edu.cmu.sphinx.frontend.FloatData;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.GaussianMixture;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.MixtureComponent;
+import edu.cmu.sphinx.linguist.dictionary.Word;
+import edu.cmu.sphinx.result.Sausage;
+import edu.cmu.sphinx.result.SimpleWordResult;
+import edu.cmu.sphinx.util.LogMath;
+
 public class SpeechRecoTest {
 
 	@SuppressWarnings("unchecked")
@@ -54,4 +78,235 @@ public class SpeechRecoTest {
 		assertEquals(r.get(2).toString(), "a c ");
 	}
 
+
+	private static final int DEFAULT_DECODER_THREADS = SpeechReco.DECODER_THREADS;
+
+
+	@After
+	public void restoreDecoderThreads() {
+		SpeechReco.DECODER_THREADS = DEFAULT_DECODER_THREADS;
+	}
+
+
+	/** Writes a silent 16 kHz WAV file */
+	private static File wav(int seconds) throws IOException {
+		File f = File.createTempFile("speechrecotest", ".wav");
+		f.deleteOnExit();
+		AudioFormat format = new AudioFormat(16000, 16, 1, true, false);
+		byte[] pcm = new byte[seconds * 16000 * 2];
+		AudioSystem.write(
+				new AudioInputStream(new ByteArrayInputStream(pcm), format, pcm.length / 2),
+				AudioFileFormat.Type.WAVE, f);
+		return f;
+	}
+
+
+	/**
+	 * Recognizer that doesn't load Sphinx. Each chunk yields six words
+	 * spread over the chunk; later chunks are decoded faster, so that they
+	 * are done before earlier chunks.
+	 */
+	private static class StubReco extends SpeechReco {
+		final List<Integer> decoded = Collections.synchronizedList(new ArrayList<Integer>());
+		final AtomicInteger allocated = new AtomicInteger();
+		final AtomicInteger deallocated = new AtomicInteger();
+		int failingChunk = -1;
+		int chunkCount;
+
+		StubReco(File cfg) throws IOException {
+			super(cfg.toURI().toURL());
+		}
+
+		@Override
+		ChunkDecoder newChunkDecoder() {
+			allocated.incrementAndGet();
+			return new ChunkDecoder() {
+				@Override
+				public Sausage decode(AudioChunk chunk, String name, String latFile)
+						throws Exception
+				{
+					int idx = Integer.parseInt(name.substring("chunk".length()));
+					assertEquals(idx * 1000, chunk.offsetInFrames);
+					Thread.sleep(20 * (chunkCount - idx));
+					if (idx == failingChunk) {
+						throw new IllegalStateException("stub failure");
+					}
+					decoded.add(idx);
+
+					LogMath logMath = new LogMath();
+					Sausage s = new Sausage(6);
+					for (int k = 0; k < 6; k++) {
+						s.addWordHypothesis(k, new SimpleWordResult(
+								new Word("c" + idx + "w" + k, null, false),
+								k * 250, k * 250 + 240, 0, 0, logMath));
+					}
+					return s;
+				}
+
+				@Override
+				public void deallocate() {
+					deallocated.incrementAndGet();
+				}
+			};
+		}
+	}
+
+
+	private static List<Set<RecoUtterance>> decodeCandidates(StubReco reco, File wav)
+			throws IOException
+	{
+		List<SpeechReco.AudioChunk> chunks = reco.splitWavFile(wav.getPath(), 15, 10);
+		reco.chunkCount = chunks.size();
+		return reco.decodeCandidates(chunks);
+	}
+
+
+	/** One line per chunk, with the words and frames of its best candidate */
+	private static String dump(List<Set<RecoUtterance>> candidates) {
+		StringBuilder sb = new StringBuilder();
+		for (Set<RecoUtterance> set: candidates) {
+			assertEquals(1, set.size());
+			for (RecoWord w: set.iterator().next()) {
+				sb.append(w.word).append('(').append(w.frameDeb)
+						.append('-').append(w.frameEnd).append(") ");
+			}
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+
+	@Test
+	public void testChunkOrderingAndStitching() throws IOException {
+		File cfg = File.createTempFile("speechrecotest", ".xml");
+		cfg.deleteOnExit();
+		File wav = wav(45);
+
+		SpeechReco.DECODER_THREADS = 1;
+		StubReco seq = new StubReco(cfg);
+		List<Set<RecoUtterance>> expected = decodeCandidates(seq, wav);
+		assertEquals(5, seq.chunkCount);
+		assertEquals(1, seq.allocated.get());
+		assertEquals(1, seq.deallocated.get());
+
+		SpeechReco.DECODER_THREADS = 5;
+		StubReco par = new StubReco(cfg);
+		List<Set<RecoUtterance>> actual = decodeCandidates(par, wav);
+		assertEquals(dump(expected), dump(actual));
+		assertTrue(par.allocated.get() > 1);
+		assertEquals(par.allocated.get(), par.deallocated.get());
+
+		// Later chunks were decoded first, but chunks were stitched in order
+		assertEquals(5, par.decoded.size());
+		assertNotEquals(0, (int) par.decoded.get(0));
+
+		assertEquals(5, actual.size());
+		int lastEnd = -1;
+		for (int i = 0; i < actual.size(); i++) {
+			RecoUtterance utt = actual.get(i).iterator().next();
+			assertFalse(utt.isEmpty());
+			for (RecoWord w: utt) {
+				// Frames are absolute, and overlapping words were cut
+				assertTrue(w.word, w.word.startsWith("c" + i + "w"));
+				assertTrue(w.word, w.frameDeb > lastEnd);
+				lastEnd = w.frameEnd;
+			}
+		}
+	}
+
+
+	@Test
+	public void testChunkFailure() throws IOException {
+		File cfg = File.createTempFile("speechrecotest", ".xml");
+		cfg.deleteOnExit();
+		File wav = wav(45);
+
+		SpeechReco.DECODER_THREADS = 3;
+		StubReco reco = new StubReco(cfg);
+		reco.failingChunk = 2;
+
+		try {
+			decodeCandidates(reco, wav);
+			fail();
+		} catch (IOException ex) {
+			assertTrue(ex.getCause() instanceof IllegalStateException);
+		}
+
+		assertEquals(reco.allocated.get(), reco.deallocated.get());
+	}
+
+
+	/**
+	 * Chunk decoders share the acoustic models: scoring the same senones on
+	 * different frames from several threads must yield the score of each
+	 * thread's own frame.
+	 */
+	@Test
+	public void testSharedSenonesAcrossThreads() throws Exception {
+		final int dim = 39;
+		final Random random = new Random(0);
+		LogMath logMath = new LogMath();
+
+		final GaussianMixture[] senones = new GaussianMixture[20];
+		for (int i = 0; i < senones.length; i++) {
+			MixtureComponent[] components = new MixtureComponent[4];
+			float[] weights = new float[components.length];
+			for (int c = 0; c < components.length; c++) {
+				float[] mean = new float[dim];
+				float[] variance = new float[dim];
+				for (int d = 0; d < dim; d++) {
+					mean[d] = (float) random.nextGaussian();
+					variance[d] = 0.5f + random.nextFloat();
+				}
+				components[c] = new MixtureComponent(logMath, mean, variance);
+				weights[c] = logMath.linearToLog(1.0 / components.length);
+			}
+			senones[i] = new GaussianMixture(logMath, weights, components, i);
+		}
+
+		// One sequence of frames per decoder
+		final int threads = 4;
+		final FloatData[][] frames = new FloatData[threads][200];
+		for (int t = 0; t < threads; t++) {
+			for (int f = 0; f < frames[t].length; f++) {
+				float[] x = new float[dim];
+				for (int d = 0; d < dim; d++) {
+					x[d] = (float) random.nextGaussian();
+				}
+				frames[t][f] = new FloatData(x, 16000, f, f * 160);
+			}
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<Integer>> mismatches = new ArrayList<Future<Integer>>();
+		for (int t = 0; t < threads; t++) {
+			final FloatData[] mine = frames[t];
+			mismatches.add(pool.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					int bad = 0;
+					for (int round = 0; round < 20; round++) {
+						for (FloatData frame: mine) {
+							for (GaussianMixture senone: senones) {
+								// Ask twice, so that the cache is hit too
+								float expected = senone.calculateScore(frame);
+								if (senone.getScore(frame) != expected
+										|| senone.getScore(frame) != expected)
+								{
+									bad++;
+								}
+							}
+						}
+					}
+					return bad;
+				}
+			}));
+		}
+
+		for (Future<Integer> f: mismatches) {
+			assertEquals(0, (int) f.get());
+		}
+		pool.shutdown();
+	}
+
 }
@@ -0,0 +1,179 @@
+package fr.loria.synalp.jtrans.speechreco.s4;
+
+import edu.cmu.sphinx.decoder.scorer.Scoreable;
+import edu.cmu.sphinx.frontend.Data;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class S4DecoderFactoryTest {
+
+	/** Token with a preset score, which remembers where it was scored */
+	private static class StubScoreable implements Scoreable {
+		final float score;
+		final long busyNanos;
+		String thread = null;
+
+		StubScoreable(float score, long busyNanos) {
+			this.score = score;
+			this.busyNanos = busyNanos;
+		}
+
+		@Override
+		public float calculateScore(Data feature) {
+			long end = System.nanoTime() + busyNanos;
+			while (System.nanoTime() < end) {
+				// simulate an expensive GMM
+			}
+			thread = Thread.currentThread().getName();
+			return score;
+		}
+
+		@Override
+		public float getScore() {
+			return score;
+		}
+
+		@Override
+		public float normalizeScore(float maxScore) {
+			return score;
+		}
+
+		@Override
+		public int getFrameNumber() {
+			return 0;
+		}
+	}
+
+
+	private static List<StubScoreable> tokens(float... scores) {
+		List<StubScoreable> list = new ArrayList<>();
+		for (float s: scores) {
+			list.add(new StubScoreable(s, 0));
+		}
+		return list;
+	}
+
+
+	private int oldThreads;
+	private int oldMinJob;
+	private long oldMinNanos;
+
+
+	@Before
+	public void setUp() {
+		oldThreads = S4DecoderFactory.SCORER_THREADS;
+		oldMinJob = S4DecoderFactory.MIN_SCOREABLES_PER_JOB;
+		oldMinNanos = S4DecoderFactory.MIN_JOB_NANOS;
+
+		// Always split frames into small jobs
+		S4DecoderFactory.SCORER_THREADS = 4;
+		S4DecoderFactory.MIN_SCOREABLES_PER_JOB = 1;
+		S4DecoderFactory.MIN_JOB_NANOS = 0;
+	}
+
+
+	@After
+	public void tearDown() {
+		S4DecoderFactory.SCORER_THREADS = oldThreads;
+		S4DecoderFactory.MIN_SCOREABLES_PER_JOB = oldMinJob;
+		S4DecoderFactory.MIN_JOB_NANOS = oldMinNanos;
+	}
+
+
+	@Test
+	public void testSameBestAsSequential() throws Exception {
+		S4DecoderFactory.PooledAcousticScorer scorer =
+				new S4DecoderFactory.PooledAcousticScorer(null);
+		Random random = new Random(42);
+
+		for (int round = 0; round < 200; round++) {
+			// Few distinct scores, so that there are many ties
+			float[] scores = new float[1 + random.nextInt(500)];
+			for (int i = 0; i < scores.length; i++) {
+				scores[i] = -random.nextInt(10);
+			}
+
+			List<StubScoreable> list = tokens(scores);
+			assertSame(scorer.scoreSequentially(list, null),
+					scorer.doScoring(list, null));
+		}
+	}
+
+
+	@Test
+	public void testTieBreaking() throws Exception {
+		S4DecoderFactory.PooledAcousticScorer scorer =
+				new S4DecoderFactory.PooledAcousticScorer(null);
+
+		// All equal: the first token wins
+		List<StubScoreable> list = tokens(-1, -1, -1, -1, -1, -1, -1, -1);
+		assertSame(list.get(0), scorer.doScoring(list, null));
+
+		// 4 jobs of 2 tokens: the best score is in the 2nd and 4th jobs
+		list = tokens(-5, -3, -2, -4, -5, -5, -2, -2);
+		assertSame(list.get(2), scorer.doScoring(list, null));
+
+		// Ties within a job and across jobs
+		list = tokens(-5, -3, -5, -5, 0, 0, 0, -5);
+		assertSame(list.get(4), scorer.doScoring(list, null));
+
+		// Scores in the log domain may be -infinity
+		list = tokens(Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY,
+				Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY);
+		assertSame(list.get(0), scorer.doScoring(list, null));
+	}
+
+
+	@Test
+	public void testScoredOnPool() throws Exception {
+		S4DecoderFactory.PooledAcousticScorer scorer =
+				new S4DecoderFactory.PooledAcousticScorer(null);
+
+		List<StubScoreable> list = tokens(new float[100]);
+		scorer.doScoring(list, null);
+
+		for (StubScoreable s: list) {
+			assertTrue(s.thread, s.thread.startsWith("AcousticScorer-"));
+		}
+	}
+
+
+	@Test
+	public void testAdaptiveJobSize() throws Exception {
+		S4DecoderFactory.MIN_SCOREABLES_PER_JOB = 4;
+		S4DecoderFactory.MIN_JOB_NANOS = 1000000;
+
+		// Cheap tokens: a whole frame isn't worth a job
+		S4DecoderFactory.PooledAcousticScorer scorer =
+				new S4DecoderFactory.PooledAcousticScorer(null);
+		assertEquals(4, scorer.getMinJobSize());
+
+		List<StubScoreable> cheap = tokens(new float[100]);
+		scorer.doScoring(cheap, null);
+		assertTrue(scorer.getMinJobSize() > 100);
+
+		cheap = tokens(new float[100]);
+		scorer.doScoring(cheap, null);
+		String caller = Thread.currentThread().getName();
+		for (StubScoreable s: cheap) {
+			assertEquals(caller, s.thread);
+		}
+
+		// Expensive tokens: jobs are as small as allowed
+		scorer = new S4DecoderFactory.PooledAcousticScorer(null);
+		List<StubScoreable> expensive = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			expensive.add(new StubScoreable(0, 2000000));
+		}
+		scorer.doScoring(expensive, null);
+		assertEquals(4, scorer.getMinJobSize());
+	}
+
+}
@@ -0,0 +1,91 @@
+package fr.loria.synalp.jtrans.speechreco.s4;
+
+import edu.cmu.sphinx.frontend.FloatData;
+import org.junit.Test;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class S4mfccBufferTest {
+
+	/** Chirp plus noise, so that the cepstra vary over time */
+	private static AudioInputStream signal(int samples) {
+		Random random = new Random(42);
+		byte[] bytes = new byte[samples * 2];
+		for (int i = 0; i < samples; i++) {
+			double t = i / 16000.0;
+			double v = 8000 * Math.sin(2 * Math.PI * (200 + 300 * t) * t)
+					+ 500 * random.nextGaussian();
+			short s = (short) Math.round(v);
+			bytes[2*i] = (byte) s;
+			bytes[2*i+1] = (byte) (s >> 8);
+		}
+		return new AudioInputStream(new ByteArrayInputStream(bytes),
+				new AudioFormat(16000, 16, 1, true, false), samples);
+	}
+
+
+	private static List<FloatData> extract(
+			int samples, boolean withMFCC, int threads, int chunkFrames)
+	{
+		int oldThreads = S4mfccBuffer.EXTRACTION_THREADS;
+		int oldChunk = S4mfccBuffer.CHUNK_FRAMES;
+		S4mfccBuffer.EXTRACTION_THREADS = threads;
+		S4mfccBuffer.CHUNK_FRAMES = chunkFrames;
+		try {
+			return S4mfccBuffer.getAllData(signal(samples), withMFCC);
+		} finally {
+			S4mfccBuffer.EXTRACTION_THREADS = oldThreads;
+			S4mfccBuffer.CHUNK_FRAMES = oldChunk;
+		}
+	}
+
+
+	private static void assertSameFeatures(int samples, boolean withMFCC, int chunkFrames) {
+		List<FloatData> expected = extract(samples, withMFCC, 1, chunkFrames);
+		List<FloatData> actual = extract(samples, withMFCC, 4, chunkFrames);
+
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertArrayEquals("frame " + i,
+					expected.get(i).getValues(), actual.get(i).getValues(), 1e-5f);
+		}
+	}
+
+
+	@Test
+	public void testMFCC() {
+		List<FloatData> features = extract(16000 * 7 + 123, true, 4, 37);
+		assertEquals(39, features.get(0).getValues().length);
+		// Span many chunks, and several CMN updates (every 160 frames)
+		assertTrue(features.size() > 16 * 37);
+
+		assertSameFeatures(16000 * 7 + 123, true, 37);
+		assertSameFeatures(16000 * 7 + 123, true, 1000);
+	}
+
+
+	@Test
+	public void testSpectrum() {
+		assertSameFeatures(16000 * 3 + 7, false, 50);
+	}
+
+
+	@Test
+	public void testChunkBoundaries() {
+		// window = 410 samples, shift = 160 samples
+		int chunk = 20;
+		int full = (chunk-1)*160 + 410;
+		for (int samples: new int[] {0, 1, 409, 410, 411, full-1, full, full+1,
+				chunk*160 + full, chunk*160 + full + 1})
+		{
+			assertSameFeatures(samples, true, chunk);
+		}
+	}
+
+}
@@ -0,0 +1,95 @@
+package fr.loria.synalp.jtrans.speechreco.s4;
+
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.Pool;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SnapshotLoaderTest {
+
+	private static Map<String, Pool<?>> pools() {
+		Pool<float[]> means = new Pool<>("means");
+		for (int i = 0; i < 10; i++) {
+			means.put(i, new float[] {i, -i, i * 0.5f});
+		}
+		means.setFeature(Pool.Feature.NUM_SENONES, 5);
+		means.setFeature(Pool.Feature.NUM_GAUSSIANS_PER_STATE, 2);
+
+		Pool<float[][]> tmat = new Pool<>("tmat");
+		tmat.put(0, new float[][] {{0, -1, Float.NEGATIVE_INFINITY}, {Float.NEGATIVE_INFINITY, -2, -3}});
+
+		Map<String, Pool<?>> pools = new LinkedHashMap<>();
+		pools.put("params/means", means);
+		pools.put("params/transition_matrices", tmat);
+		return pools;
+	}
+
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		File f = File.createTempFile("snapshot", ".bin");
+		f.deleteOnExit();
+		Map<String, Pool<?>> orig = pools();
+		SnapshotLoader.writeSnapshot(f, 1234, orig);
+
+		Map<String, Pool<?>> read = SnapshotLoader.readSnapshot(f, 1234);
+		assertNotNull(read);
+		assertEquals(orig.keySet(), read.keySet());
+
+		Pool<?> means = read.get("params/means");
+		assertEquals(10, means.size());
+		for (int i = 0; i < 10; i++) {
+			assertArrayEquals((float[]) orig.get("params/means").get(i), (float[]) means.get(i), 0);
+		}
+		assertEquals(5, means.getFeature(Pool.Feature.NUM_SENONES, -1));
+		assertEquals(2, means.getFeature(Pool.Feature.NUM_GAUSSIANS_PER_STATE, -1));
+		assertEquals(-1, means.getFeature(Pool.Feature.NUM_STREAMS, -1));
+
+		float[][] m = (float[][]) read.get("params/transition_matrices").get(0);
+		float[][] o = (float[][]) orig.get("params/transition_matrices").get(0);
+		assertEquals(o.length, m.length);
+		for (int r = 0; r < o.length; r++) {
+			assertArrayEquals(o[r], m[r], 0);
+		}
+	}
+
+
+	@Test
+	public void testStaleChecksum() throws IOException {
+		File f = File.createTempFile("snapshot", ".bin");
+		f.deleteOnExit();
+		SnapshotLoader.writeSnapshot(f, 1234, pools());
+		assertNull(SnapshotLoader.readSnapshot(f, 4321));
+	}
+
+
+	@Test(expected = IOException.class)
+	public void testNotASnapshot() throws IOException {
+		File f = File.createTempFile("snapshot", ".bin");
+		f.deleteOnExit();
+		try (FileOutputStream out = new FileOutputStream(f)) {
+			out.write("#mdef\n".getBytes());
+		}
+		SnapshotLoader.readSnapshot(f, 1234);
+	}
+
+
+	@Test(expected = IOException.class)
+	public void testTruncated() throws IOException {
+		File f = File.createTempFile("snapshot", ".bin");
+		f.deleteOnExit();
+		SnapshotLoader.writeSnapshot(f, 1234, pools());
+		try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+			raf.setLength(raf.length() - 7);
+		}
+		SnapshotLoader.readSnapshot(f, 1234);
+	}
+
+}
@@ -0,0 +1,313 @@
+package fr.loria.synalp.jtrans.utils;
+
+import org.junit.Test;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class AudioIngestTest {
+
+	/**
+	 * Writes a stereo 16-bit WAV file with a sine on the left channel and
+	 * its opposite, scaled down, on the right channel.
+	 */
+	private static File stereoSine(float rate, float freq, int frames)
+			throws IOException
+	{
+		byte[] bytes = new byte[frames * 4];
+		for (int i = 0; i < frames; i++) {
+			double v = Math.sin(2 * Math.PI * freq * i / rate);
+			short l = (short) Math.round(20000 * v);
+			short r = (short) Math.round(-10000 * v);
+			bytes[4*i]   = (byte) l;
+			bytes[4*i+1] = (byte) (l >> 8);
+			bytes[4*i+2] = (byte) r;
+			bytes[4*i+3] = (byte) (r >> 8);
+		}
+		return wav(bytes, new AudioFormat(rate, 16, 2, true, false), frames);
+	}
+
+
+	private static File wav(byte[] bytes, AudioFormat format, int frames)
+			throws IOException
+	{
+		File f = File.createTempFile("jtrans-ingest", ".wav");
+		f.deleteOnExit();
+		AudioSystem.write(
+				new AudioInputStream(new ByteArrayInputStream(bytes), format, frames),
+				AudioFileFormat.Type.WAVE, f);
+		return f;
+	}
+
+
+	private static short[] readSamples(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		int n;
+		while ((n = in.read(buf)) >= 0) {
+			bytes.write(buf, 0, n);
+		}
+		byte[] b = bytes.toByteArray();
+		short[] s = new short[b.length / 2];
+		for (int i = 0; i < s.length; i++) {
+			s[i] = (short) ((b[2*i] & 0xFF) | (b[2*i+1] << 8));
+		}
+		return s;
+	}
+
+
+	/** Keeps a copy of what it reads */
+	private static class RecordingSink implements AudioIngest.Sink {
+		short[] samples;
+		File doneWith;
+
+		@Override
+		public void consume(AudioInputStream converted) throws IOException {
+			samples = readSamples(converted);
+		}
+
+		@Override
+		public void done(File wav) {
+			doneWith = wav;
+		}
+	}
+
+
+	@Test
+	public void testDownmixAndResample() throws Exception {
+		final float inRate = 44100;
+		final float freq = 440;
+		File in = stereoSine(inRate, freq, 44100);
+
+		File out = File.createTempFile("jtrans-ingest", ".wav");
+		out.deleteOnExit();
+
+		RecordingSink sink = new RecordingSink();
+		AudioIngest ingest = new AudioIngest(16000);
+		ingest.addSink(sink);
+		ingest.run(in, out);
+
+		assertSame(out, sink.doneWith);
+		assertEquals(16000, sink.samples.length);
+
+		// The WAV file contains the same samples as the sink
+		AudioInputStream ais = AudioSystem.getAudioInputStream(out);
+		assertTrue(ais.getFormat().matches(new AudioFormat(16000, 16, 1, true, false)));
+		assertArrayEquals(sink.samples, readSamples(ais));
+
+		// Mono mix of the two channels: (20000 - 10000)/2 = 5000 peak
+		double maxErr = 0;
+		for (int i = 100; i < sink.samples.length - 100; i++) {
+			double expected = 5000 * Math.sin(2 * Math.PI * freq * i / 16000.0);
+			maxErr = Math.max(maxErr, Math.abs(sink.samples[i] - expected));
+		}
+		assertTrue("max error " + maxErr, maxErr < 50);
+	}
+
+
+	@Test
+	public void testAntiAliasing() throws Exception {
+		// 10 kHz is above the target's Nyquist frequency and must be removed
+		File in = stereoSine(48000, 10000, 48000);
+
+		RecordingSink sink = new RecordingSink();
+		AudioIngest ingest = new AudioIngest(16000);
+		ingest.addSink(sink);
+		ingest.run(in, null);
+
+		assertNull(sink.doneWith);
+		assertEquals(16000, sink.samples.length);
+		for (int i = 100; i < sink.samples.length - 100; i++) {
+			assertTrue(Math.abs(sink.samples[i]) < 100);
+		}
+	}
+
+
+	@Test
+	public void testPassthrough() throws Exception {
+		short[] samples = new short[20000];
+		byte[] bytes = new byte[samples.length * 2];
+		for (int i = 0; i < samples.length; i++) {
+			samples[i] = (short) (i * 7919);
+			bytes[2*i] = (byte) samples[i];
+			bytes[2*i+1] = (byte) (samples[i] >> 8);
+		}
+		File in = wav(bytes, new AudioFormat(16000, 16, 1, true, false), samples.length);
+
+		RecordingSink sink = new RecordingSink();
+		AudioIngest ingest = new AudioIngest(16000);
+		ingest.addSink(sink);
+		ingest.run(in, null);
+
+		assertArrayEquals(samples, sink.samples);
+	}
+
+
+	@Test
+	public void testSinkStoppingEarly() throws Exception {
+		File in = stereoSine(22050, 440, 22050 * 10);
+
+		// Reads a few bytes and leaves
+		AudioIngest.Sink quitter = new AudioIngest.Sink() {
+			@Override
+			public void consume(AudioInputStream converted) throws IOException {
+				converted.read(new byte[10]);
+			}
+
+			@Override
+			public void done(File wav) {
+			}
+		};
+
+		RecordingSink sink = new RecordingSink();
+		int queue = AudioIngest.QUEUE_BLOCKS;
+		AudioIngest.QUEUE_BLOCKS = 2;
+		try {
+			AudioIngest ingest = new AudioIngest(16000);
+			ingest.addSink(quitter);
+			ingest.addSink(sink);
+			ingest.run(in, null);
+		} finally {
+			AudioIngest.QUEUE_BLOCKS = queue;
+		}
+
+		assertEquals(160000, sink.samples.length);
+	}
+
+
+	@Test
+	public void testChannelSinks() throws Exception {
+		final int frames = 16000;
+		File in = stereoSine(16000, 440, frames);
+
+		RecordingSink left = new RecordingSink();
+		RecordingSink right = new RecordingSink();
+		RecordingSink mix = new RecordingSink();
+		AudioIngest ingest = new AudioIngest(16000);
+		ingest.addSink(left, 0);
+		ingest.addSink(right, 1);
+		ingest.addSink(mix);
+		ingest.run(in, null);
+
+		assertEquals(frames, left.samples.length);
+		assertEquals(frames, right.samples.length);
+		assertEquals(frames, mix.samples.length);
+
+		// No resampling: channels come out untouched
+		for (int i = 0; i < frames; i++) {
+			double v = Math.sin(2 * Math.PI * 440 * i / 16000.0);
+			short l = (short) Math.round(20000 * v);
+			short r = (short) Math.round(-10000 * v);
+			assertEquals(l, left.samples[i]);
+			assertEquals(r, right.samples[i]);
+			assertEquals((l + r) / 2.0, mix.samples[i], 1);
+		}
+	}
+
+
+	@Test
+	public void testResampledChannelsHaveSameLength() throws Exception {
+		File in = stereoSine(44100, 440, 44100 + 17);
+
+		RecordingSink left = new RecordingSink();
+		RecordingSink right = new RecordingSink();
+		RecordingSink mix = new RecordingSink();
+		AudioIngest ingest = new AudioIngest(16000);
+		ingest.addSink(left, 0);
+		ingest.addSink(right, 1);
+		ingest.addSink(mix);
+		ingest.run(in, null);
+
+		assertEquals(mix.samples.length, left.samples.length);
+		assertEquals(mix.samples.length, right.samples.length);
+	}
+
+
+	@Test(expected = IOException.class)
+	public void testMissingChannel() throws Exception {
+		File in = stereoSine(16000, 440, 1600);
+
+		AudioIngest ingest = new AudioIngest(16000);
+		ingest.addSink(new RecordingSink(), 2);
+		ingest.run(in, null);
+	}
+
+
+	@Test(expected = IOException.class)
+	public void testSinkFailure() throws Exception {
+		File in = stereoSine(16000, 440, 16000);
+
+		AudioIngest ingest = new AudioIngest(16000);
+		ingest.addSink(new AudioIngest.Sink() {
+			@Override
+			public void consume(AudioInputStream converted) {
+				throw new IllegalStateException("sink failure");
+			}
+
+			@Override
+			public void done(File wav) {
+				fail("done() called despite failure");
+			}
+		});
+		ingest.run(in, null);
+	}
+
+
+	@Test
+	public void testOptionalSinkFailure() throws Exception {
+		File in = stereoSine(44100, 440, 44100);
+		File out = File.createTempFile("jtrans-ingest", ".wav");
+		out.deleteOnExit();
+
+		final boolean[] doneCalled = {false};
+		RecordingSink sink = new RecordingSink();
+		AudioIngest ingest = new AudioIngest(16000);
+		ingest.addOptionalSink(new AudioIngest.Sink() {
+			@Override
+			public void consume(AudioInputStream converted) throws IOException {
+				converted.read(new byte[10]);
+				throw new IOException("optional sink failure");
+			}
+
+			@Override
+			public void done(File wav) {
+				doneCalled[0] = true;
+			}
+		});
+		ingest.addSink(sink);
+		ingest.run(in, out);
+
+		// The failure didn't affect the other sink or the WAV file
+		assertFalse(doneCalled[0]);
+		assertSame(out, sink.doneWith);
+		assertEquals(16000, sink.samples.length);
+		assertArrayEquals(sink.samples,
+				readSamples(AudioSystem.getAudioInputStream(out)));
+
+		// Failures in done() are ignored as well
+		ingest = new AudioIngest(16000);
+		ingest.addOptionalSink(new AudioIngest.Sink() {
+			@Override
+			public void consume(AudioInputStream converted) throws IOException {
+				readSamples(converted);
+			}
+
+			@Override
+			public void done(File wav) throws IOException {
+				throw new IOException("optional sink failure");
+			}
+		});
+		ingest.run(in, out);
+	}
+
+}
@@ -0,0 +1,61 @@
+package fr.loria.synalp.jtrans.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DETHistogramTest {
+
+	@Test
+	public void testSeparable() {
+		DETHistogram h = new DETHistogram();
+		for (int i = 0; i < 100; i++) {
+			h.updateExample(true, 0.8f + i * 0.001f);
+			h.updateExample(false, 0.2f + i * 0.001f);
+		}
+		assertEquals(0f, h.computeEER(), 1e-6);
+		assertEquals(200, h.getNex());
+	}
+
+
+	@Test
+	public void testOverlappingUniforms() {
+		// good ~ U(0.25, 1), bad ~ U(0, 0.75): EER = 1/3
+		Random r = new Random(0);
+		DETHistogram h = new DETHistogram();
+		for (int i = 0; i < 200000; i++) {
+			h.updateExample(true, 0.25f + 0.75f * r.nextFloat());
+			h.updateExample(false, 0.75f * r.nextFloat());
+		}
+		assertEquals(1/3f, h.computeEER(), 0.01);
+	}
+
+
+	@Test
+	public void testMergeEqualsSingleHistogram() {
+		Random r = new Random(1);
+		DETHistogram all = new DETHistogram();
+		DETHistogram a = new DETHistogram();
+		DETHistogram b = new DETHistogram();
+		for (int i = 0; i < 10000; i++) {
+			boolean good = r.nextBoolean();
+			float score = good? r.nextFloat(): r.nextFloat() * 0.6f;
+			all.updateExample(good, score);
+			(i % 2 == 0? a: b).updateExample(good, score);
+		}
+		a.merge(b);
+		assertEquals(all.getNex(), a.getNex());
+		assertEquals(all.computeEER(), a.computeEER(), 0);
+	}
+
+
+	@Test
+	public void testNoBadExamples() {
+		DETHistogram h = new DETHistogram();
+		h.updateExample(true, 0.5f);
+		assertTrue(Float.isNaN(h.computeEER()));
+	}
+
+}
@@ -0,0 +1,237 @@
+package fr.loria.synalp.jtrans.utils;
+
+import org.junit.Test;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.SourceDataLine;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PlayerTest {
+
+	private static final int RATE = 8000;
+	private static final int CHANNELS = 2;
+	private static final int FRAME_SIZE = 2 * CHANNELS;
+	private static final int FRAMES = 20000;
+
+
+	/** Sample data: frame #i holds i on the left channel, -i on the right */
+	private static byte[] pcm() {
+		ByteBuffer bb = ByteBuffer.allocate(FRAMES * FRAME_SIZE)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < FRAMES; i++) {
+			bb.putShort((short) i);
+			bb.putShort((short) -i);
+		}
+		return bb.array();
+	}
+
+
+	private static void chunk(ByteArrayOutputStream out, String id, byte[] body) {
+		ByteBuffer bb = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+		bb.put(id.getBytes());
+		bb.putInt(body.length);
+		out.write(bb.array(), 0, 8);
+		out.write(body, 0, body.length);
+		if (body.length % 2 != 0) {
+			out.write(0);
+		}
+	}
+
+
+	/**
+	 * Writes a WAV file with chunks that AudioSystem's writer doesn't
+	 * produce: an odd-sized LIST chunk (padded) before "fmt ", an extended
+	 * "fmt " chunk, a "fact" chunk, and a trailing chunk after "data".
+	 */
+	private static File wav(byte[] pcm) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		body.write("WAVE".getBytes());
+
+		chunk(body, "LIST", "INFOISFT\u0003\0\0\0ab\0".getBytes("ISO-8859-1"));
+
+		ByteBuffer fmt = ByteBuffer.allocate(18).order(ByteOrder.LITTLE_ENDIAN);
+		fmt.putShort((short) 1);
+		fmt.putShort((short) CHANNELS);
+		fmt.putInt(RATE);
+		fmt.putInt(RATE * FRAME_SIZE);
+		fmt.putShort((short) FRAME_SIZE);
+		fmt.putShort((short) 16);
+		fmt.putShort((short) 0);
+		chunk(body, "fmt ", fmt.array());
+
+		chunk(body, "fact", new byte[] {1, 2, 3, 4});
+		chunk(body, "data", pcm);
+		chunk(body, "junk", new byte[] {9, 9, 9});
+
+		File f = File.createTempFile("playertest", ".wav");
+		f.deleteOnExit();
+		try (OutputStream out = new FileOutputStream(f)) {
+			ByteBuffer riff = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+			riff.put("RIFF".getBytes());
+			riff.putInt(body.size());
+			out.write(riff.array());
+			body.writeTo(out);
+		}
+		return f;
+	}
+
+
+	/**
+	 * Audio line that records the bytes written to it. The reported
+	 * position follows the written bytes. Writes may be blocked past a given
+	 * number of bytes until the line is stopped.
+	 */
+	private static class FakeLine implements InvocationHandler {
+		final ByteArrayOutputStream written = new ByteArrayOutputStream();
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch stopped = new CountDownLatch(1);
+		final CountDownLatch closed = new CountDownLatch(1);
+		final int blockAfter;
+		AudioFormat format;
+
+		FakeLine(int blockAfter) {
+			this.blockAfter = blockAfter;
+		}
+
+		@Override
+		public synchronized Object invoke(Object proxy, Method m, Object[] a)
+				throws InterruptedException
+		{
+			switch (m.getName()) {
+				case "write":
+					if (written.size() >= blockAfter) {
+						blocked.countDown();
+						wait();
+						return 0;
+					}
+					written.write((byte[]) a[0], (int) a[1], (int) a[2]);
+					return a[2];
+				case "getLongFramePosition":
+					return (long) (written.size() / format.getFrameSize());
+				case "stop":
+					stopped.countDown();
+					notifyAll();
+					return null;
+				case "close":
+					closed.countDown();
+					return null;
+				default:
+					return null;
+			}
+		}
+
+		SourceDataLine proxy() {
+			return (SourceDataLine) Proxy.newProxyInstance(
+					getClass().getClassLoader(),
+					new Class[] {SourceDataLine.class},
+					this);
+		}
+
+		synchronized byte[] getWritten() {
+			return written.toByteArray();
+		}
+	}
+
+
+	/** Plays back to a fake line */
+	private static class TestPlayer extends Player {
+		FakeLine line;
+
+		TestPlayer(FakeLine line) {
+			this.line = line;
+		}
+
+		@Override
+		SourceDataLine openLine(AudioFormat format) {
+			line.format = format;
+			return line.proxy();
+		}
+	}
+
+
+	@Test
+	public void testPlayToEnd() throws Exception {
+		byte[] pcm = pcm();
+		File wav = wav(pcm);
+		FakeLine line = new FakeLine(Integer.MAX_VALUE);
+		Player player = new TestPlayer(line);
+
+		player.play(wav, 12345);
+		assertTrue(line.closed.await(10, TimeUnit.SECONDS));
+		player.stop();
+
+		assertEquals(RATE, line.format.getSampleRate(), 0);
+		assertEquals(CHANNELS, line.format.getChannels());
+		assertEquals(16, line.format.getSampleSizeInBits());
+		assertFalse(line.format.isBigEndian());
+
+		// Exactly the samples from the start frame to the end of the data
+		// chunk, without the trailing chunk
+		assertArrayEquals(Arrays.copyOfRange(pcm, 12345 * FRAME_SIZE, pcm.length),
+				line.getWritten());
+		assertFalse(player.isPlaying());
+		assertEquals(FRAMES, player.getFramePosition());
+		assertEquals((float) FRAMES / RATE, player.getSecondPosition(), 1e-6f);
+	}
+
+
+	@Test
+	public void testSeekAndStop() throws Exception {
+		byte[] pcm = pcm();
+		File wav = wav(pcm);
+
+		// Seek by time: 0.5 s = frame 4000
+		FakeLine line = new FakeLine(3 * 4096);
+		TestPlayer player = new TestPlayer(line);
+		player.playFromSecond(wav, 0.5f);
+		assertTrue(line.blocked.await(10, TimeUnit.SECONDS));
+
+		// The position follows what the line has played
+		long expected = 4000 + 3 * 4096 / FRAME_SIZE;
+		assertTrue(player.isPlaying());
+		assertEquals(expected, player.getFramePosition());
+
+		player.stop();
+		assertEquals(0, line.stopped.getCount());
+		assertFalse(player.isPlaying());
+		assertEquals(expected, player.getFramePosition());
+		assertArrayEquals(Arrays.copyOfRange(pcm, 4000 * FRAME_SIZE,
+				4000 * FRAME_SIZE + 3 * 4096), line.getWritten());
+
+		// Seek again in the same (mapped) file; out-of-range frames are
+		// clamped
+		line = new FakeLine(Integer.MAX_VALUE);
+		player.line = line;
+		player.play(wav, FRAMES + 100);
+		assertTrue(line.closed.await(10, TimeUnit.SECONDS));
+		player.stop();
+		assertEquals(0, line.getWritten().length);
+		assertEquals(FRAMES, player.getFramePosition());
+	}
+
+
+	@Test(expected = IOException.class)
+	public void testNotWav() throws Exception {
+		File f = File.createTempFile("playertest", ".wav");
+		f.deleteOnExit();
+		try (OutputStream out = new FileOutputStream(f)) {
+			out.write("this is not a wav file".getBytes());
+		}
+		new TestPlayer(new FakeLine(0)).play(f, 0);
+	}
+
+}
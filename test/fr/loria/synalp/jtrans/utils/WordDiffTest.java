@@ -0,0 +1,109 @@
+package fr.loria.synalp.jtrans.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class WordDiffTest {
+
+	/**
+	 * Textbook dynamic programming Levenshtein distance.
+	 */
+	private static int reference(int[] a, int[] b) {
+		int[] prev = new int[b.length+1];
+		int[] cur = new int[b.length+1];
+		for (int j = 0; j <= b.length; j++) {
+			prev[j] = j;
+		}
+		for (int i = 1; i <= a.length; i++) {
+			cur[0] = i;
+			for (int j = 1; j <= b.length; j++) {
+				int sub = prev[j-1] + (a[i-1] == b[j-1]? 0: 1);
+				cur[j] = Math.min(sub, Math.min(prev[j], cur[j-1]) + 1);
+			}
+			int[] tmp = prev;
+			prev = cur;
+			cur = tmp;
+		}
+		return prev[b.length];
+	}
+
+
+	private static int[] random(Random r, int length, int vocab) {
+		int[] s = new int[length];
+		for (int i = 0; i < length; i++) {
+			s[i] = r.nextInt(vocab);
+		}
+		return s;
+	}
+
+
+	@Test
+	public void testSmall() {
+		WordDiff wd = new WordDiff();
+		int[] ref = wd.intern("le chat est sur le tapis".split(" "));
+		int[] hyp = wd.intern("le chien est le tapis rouge".split(" "));
+		// chat->chien, sur deleted, rouge inserted
+		assertEquals(3, WordDiff.editDistance(ref, hyp));
+		assertEquals(6, WordDiff.editDistance(ref, new int[0]));
+		assertEquals(6, WordDiff.editDistance(new int[0], hyp));
+		assertEquals(0, WordDiff.editDistance(ref, ref));
+	}
+
+
+	@Test
+	public void testMatchesDynamicProgramming() {
+		Random r = new Random(0);
+		// Lengths around and across 64-bit block boundaries
+		int[] lengths = {1, 2, 63, 64, 65, 127, 128, 129, 200, 500};
+		for (int m: lengths) {
+			for (int trial = 0; trial < 20; trial++) {
+				int vocab = 2 + r.nextInt(30);
+				int[] a = random(r, m, vocab);
+				int[] b = random(r, Math.max(0, m + r.nextInt(41) - 20), vocab);
+				assertEquals(reference(a, b), WordDiff.editDistance(a, b));
+				assertEquals(reference(b, a), WordDiff.editDistance(b, a));
+			}
+		}
+	}
+
+
+	@Test
+	public void testBatch() throws Exception {
+		Random r = new Random(1);
+		String[] words = {"a", "b", "c", "d", "e", "f"};
+		List<String[]> refs = new ArrayList<>();
+		List<String[]> hyps = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			String[] ref = new String[1 + r.nextInt(150)];
+			String[] hyp = new String[r.nextInt(150)];
+			for (int j = 0; j < ref.length; j++) ref[j] = words[r.nextInt(words.length)];
+			for (int j = 0; j < hyp.length; j++) hyp[j] = words[r.nextInt(words.length)];
+			refs.add(ref);
+			hyps.add(hyp);
+		}
+
+		WordDiff wd = new WordDiff();
+		int[] d = wd.editDistances(refs, hyps);
+		assertEquals(words.length, wd.getVocabularySize());
+		for (int i = 0; i < d.length; i++) {
+			assertEquals(reference(wd.intern(refs.get(i)), wd.intern(hyps.get(i))), d[i]);
+		}
+	}
+
+
+	@Test
+	public void testAlignmentUnchanged() {
+		String[] a = "un deux trois quatre cinq six".split(" ");
+		String[] b = "un trois quatre sept cinq six huit".split(" ");
+		WordDiff wd = new WordDiff();
+		assertEquals(
+				JDiff.getAlignement(new JDiff(a, b).diff_2(false)),
+				JDiff.getAlignement(WordDiff.diff(wd.intern(a), wd.intern(b))));
+	}
+
+}